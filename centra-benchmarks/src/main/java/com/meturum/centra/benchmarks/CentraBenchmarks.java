@@ -0,0 +1,28 @@
+package com.meturum.centra.benchmarks;
+
+import org.openjdk.jmh.Main;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks with the GC profiler, so the allocation rate ({@code gc.alloc.rate.norm}) is reported next to the throughput.
+ * Accepts the usual JMH arguments, e.g. {@code java -jar target/benchmarks.jar DocumentableBenchmark -p size=LARGE}.
+ */
+public final class CentraBenchmarks {
+
+    private CentraBenchmarks() { }
+
+    public static void main(String[] args) throws Exception {
+        final CommandLineOptions options = new CommandLineOptions(args);
+
+        if (options.shouldHelp() || options.shouldList() || options.shouldListWithParams() || options.shouldListProfilers() || options.shouldListResultFormats()) {
+            Main.main(args);
+            return;
+        }
+
+        new Runner(new OptionsBuilder().parent(options).addProfiler(GCProfiler.class).build()).run();
+    }
+
+}
@@ -0,0 +1,48 @@
+package com.meturum.centra.benchmarks;
+
+import com.meturum.centra.ColorList;
+import com.meturum.centra.benchmarks.fixtures.BenchRank;
+import com.meturum.centra.benchmarks.fixtures.BenchSystemManager;
+import com.meturum.centra.conversions.DocumentCodec;
+import com.meturum.centra.conversions.DocumentCodecs;
+import com.meturum.centra.system.SystemManager;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The {@code serialize}/{@code deserialize} converters of {@link ColorList}, called the same way as for a
+ * {@code @Serialize(method = SerializationMethod.METHOD)} field.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ColorListBenchmark {
+
+    private final SystemManager manager = new BenchSystemManager();
+
+    private DocumentCodec.FieldCodec field;
+    private ColorList color;
+    private Object serialized;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        field = DocumentCodecs.field(BenchRank.class, "color");
+        color = ColorList.of(200, 120, 40);
+        serialized = field.encode(color, null);
+    }
+
+    @Benchmark
+    public Object serialize() throws Exception {
+        return field.encode(color, null);
+    }
+
+    @Benchmark
+    public Object deserialize() throws Exception {
+        return field.decode(manager, serialized, null);
+    }
+
+}
@@ -0,0 +1,90 @@
+package com.meturum.centra.benchmarks;
+
+import com.meturum.centra.benchmarks.fixtures.*;
+import com.meturum.centra.conversions.Documentable;
+import com.meturum.centra.system.SystemManager;
+import org.bson.Document;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link Documentable#toDocument(Documentable)}, {@link Documentable#insertDocument(SystemManager, Document, Object)} and
+ * {@link Documentable#fromDocument(SystemManager, Document, Class)} on session, rank and profile shaped objects.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class DocumentableBenchmark {
+
+    @Param({"SMALL", "MEDIUM", "LARGE"})
+    public Fixtures.Size size;
+
+    private final SystemManager manager = new BenchSystemManager();
+
+    private BenchSession session;
+    private BenchRank rank;
+    private BenchProfile profile;
+
+    private Document sessionDocument;
+    private Document rankDocument;
+    private Document profileDocument;
+
+    private BenchSession target;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        rank = Fixtures.rank(size, 1);
+        Fixtures.store(List.of(rank));
+
+        session = Fixtures.session(size, 1, rank);
+        profile = session.getProfiles()[0];
+
+        sessionDocument = Documentable.toDocument(session);
+        rankDocument = Documentable.toDocument(rank);
+        profileDocument = Documentable.toDocument(profile);
+
+        target = new BenchSession();
+    }
+
+    @Benchmark
+    public Document sessionToDocument() {
+        return Documentable.toDocument(session);
+    }
+
+    @Benchmark
+    public BenchSession sessionInsertDocument() {
+        Documentable.insertDocument(manager, sessionDocument, target);
+        return target;
+    }
+
+    @Benchmark
+    public BenchSession sessionFromDocument() throws Exception {
+        return Documentable.fromDocument(manager, sessionDocument, BenchSession.class);
+    }
+
+    @Benchmark
+    public Document rankToDocument() {
+        return Documentable.toDocument(rank);
+    }
+
+    @Benchmark
+    public BenchRank rankFromDocument() throws Exception {
+        return Documentable.fromDocument(manager, rankDocument, BenchRank.class);
+    }
+
+    @Benchmark
+    public Document profileToDocument() {
+        return Documentable.toDocument(profile);
+    }
+
+    @Benchmark
+    public BenchProfile profileFromDocument() throws Exception {
+        return Documentable.fromDocument(manager, profileDocument, BenchProfile.class);
+    }
+
+}
@@ -0,0 +1,96 @@
+package com.meturum.centra.benchmarks;
+
+import com.meturum.centra.benchmarks.fixtures.*;
+import com.meturum.centra.conversions.Documentable;
+import com.meturum.centra.conversions.DocumentableCodec;
+import com.meturum.centra.conversions.DocumentableCodecProvider;
+import com.meturum.centra.system.SystemManager;
+import com.mongodb.MongoClientSettings;
+import org.bson.BsonBinaryReader;
+import org.bson.BsonBinaryWriter;
+import org.bson.Document;
+import org.bson.codecs.Codec;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.EncoderContext;
+import org.bson.codecs.configuration.CodecRegistries;
+import org.bson.codecs.configuration.CodecRegistry;
+import org.bson.io.BasicOutputBuffer;
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Streaming a session to and from BSON with {@link DocumentableCodec}, compared to building a {@link Document} first.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class DocumentableCodecBenchmark {
+
+    private static final EncoderContext ENCODER = EncoderContext.builder().build();
+    private static final DecoderContext DECODER = DecoderContext.builder().build();
+
+    @Param({"SMALL", "MEDIUM", "LARGE"})
+    public Fixtures.Size size;
+
+    private final SystemManager manager = new BenchSystemManager();
+
+    private Codec<BenchSession> streaming;
+    private Codec<Document> documents;
+
+    private BenchSession session;
+    private byte[] bytes;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        final CodecRegistry registry = CodecRegistries.fromRegistries(
+                CodecRegistries.fromProviders(new DocumentableCodecProvider(manager)),
+                MongoClientSettings.getDefaultCodecRegistry()
+        );
+
+        streaming = registry.get(BenchSession.class);
+        documents = registry.get(Document.class);
+
+        final BenchRank rank = Fixtures.rank(size, 1);
+        Fixtures.store(List.of(rank));
+
+        session = Fixtures.session(size, 1, rank);
+        bytes = encode(streaming, session).toByteArray();
+    }
+
+    @Benchmark
+    public BasicOutputBuffer streamEncode() {
+        return encode(streaming, session);
+    }
+
+    @Benchmark
+    public BasicOutputBuffer documentEncode() {
+        return encode(documents, Documentable.toDocument(session));
+    }
+
+    @Benchmark
+    public BenchSession streamDecode() {
+        return streaming.decode(new BsonBinaryReader(ByteBuffer.wrap(bytes)), DECODER);
+    }
+
+    @Benchmark
+    public BenchSession documentDecode() throws Exception {
+        final Document document = documents.decode(new BsonBinaryReader(ByteBuffer.wrap(bytes)), DECODER);
+        return Documentable.fromDocument(manager, document, BenchSession.class);
+    }
+
+    private static <T> BasicOutputBuffer encode(final Codec<T> codec, final T value) {
+        final BasicOutputBuffer buffer = new BasicOutputBuffer();
+        try (BsonBinaryWriter writer = new BsonBinaryWriter(buffer)) {
+            codec.encode(writer, value, ENCODER);
+        }
+
+        return buffer;
+    }
+
+}
@@ -0,0 +1,64 @@
+package com.meturum.centra.benchmarks;
+
+import com.meturum.centra.benchmarks.fixtures.*;
+import com.meturum.centra.conversions.Documentable;
+import com.meturum.centra.conversions.ReferenceResolver;
+import com.meturum.centra.system.SystemManager;
+import org.bson.Document;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Loading many sessions sharing a few ranks, one {@code deserialize} lookup per reference compared to {@link ReferenceResolver}.
+ * The in-memory collection has no latency, in production every avoided lookup is also an avoided round trip.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ReferenceResolverBenchmark {
+
+    private static final int RANKS = 8;
+
+    @Param({"16", "256"})
+    public int sessions;
+
+    private final SystemManager manager = new BenchSystemManager();
+
+    private List<Document> documents;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        final List<BenchRank> ranks = new ArrayList<>(RANKS);
+        for (int i = 0; i < RANKS; i++) ranks.add(Fixtures.rank(Fixtures.Size.SMALL, i));
+        Fixtures.store(ranks);
+
+        documents = new ArrayList<>(sessions);
+        for (int i = 0; i < sessions; i++) {
+            documents.add(Documentable.toDocument(Fixtures.session(Fixtures.Size.SMALL, i, ranks.get(i % RANKS))));
+        }
+    }
+
+    @Benchmark
+    public List<BenchSession> converters() throws Exception {
+        final List<BenchSession> loaded = new ArrayList<>(documents.size());
+        for (final Document document : documents) {
+            loaded.add(Documentable.fromDocument(manager, document, BenchSession.class));
+        }
+
+        return loaded;
+    }
+
+    @Benchmark
+    public List<BenchSession> resolver() throws Exception {
+        return new ReferenceResolver(manager)
+                .register(BenchRank.class, Fixtures.RANKS)
+                .fromDocuments(documents, BenchSession.class);
+    }
+
+}
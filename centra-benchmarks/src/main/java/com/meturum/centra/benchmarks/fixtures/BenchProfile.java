@@ -0,0 +1,60 @@
+package com.meturum.centra.benchmarks.fixtures;
+
+import com.meturum.centra.sessions.GameProfile;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.BitSet;
+
+/**
+ * A {@link GameProfile}, nested inside {@link BenchSession} as a document.
+ */
+public class BenchProfile extends BenchTag implements GameProfile {
+
+    private String nickname = "";
+    private long[] statistics = new long[0];
+    private BitSet achievements = new BitSet();
+    private int level;
+    private double balance;
+
+    @Override
+    public @NotNull String getNickname() {
+        return nickname;
+    }
+
+    public void setNickname(@NotNull String nickname) {
+        this.nickname = nickname;
+    }
+
+    public long[] getStatistics() {
+        return statistics;
+    }
+
+    public void setStatistics(long[] statistics) {
+        this.statistics = statistics;
+    }
+
+    public BitSet getAchievements() {
+        return achievements;
+    }
+
+    public void setAchievements(BitSet achievements) {
+        this.achievements = achievements;
+    }
+
+    public int getLevel() {
+        return level;
+    }
+
+    public void setLevel(int level) {
+        this.level = level;
+    }
+
+    public double getBalance() {
+        return balance;
+    }
+
+    public void setBalance(double balance) {
+        this.balance = balance;
+    }
+
+}
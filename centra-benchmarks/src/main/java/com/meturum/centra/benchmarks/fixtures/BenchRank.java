@@ -0,0 +1,104 @@
+package com.meturum.centra.benchmarks.fixtures;
+
+import com.meturum.centra.ColorList;
+import com.meturum.centra.conversions.Documentable;
+import com.meturum.centra.conversions.annotations.DocumentableMethod;
+import com.meturum.centra.sessions.ranks.Rank;
+import com.meturum.centra.system.SystemManager;
+import com.mongodb.client.model.Filters;
+import org.bson.Document;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A {@link Rank}, referenced by {@link BenchSession} through its uuid.
+ */
+public class BenchRank extends BenchTag implements Rank {
+
+    private String name = "default";
+    @Serialize(method = SerializationMethod.METHOD)
+    private ColorList color = ColorList.GRAY;
+    private List<String> permissions = new ArrayList<>();
+    private String icon = "";
+    private int weight;
+
+    @Override
+    public @NotNull String getName() {
+        return name;
+    }
+
+    @Override
+    public void setName(@NotNull String name) {
+        this.name = name;
+    }
+
+    @Override
+    public @NotNull ColorList getColor() {
+        return color;
+    }
+
+    @Override
+    public void setColor(@NotNull ColorList color) {
+        this.color = color;
+    }
+
+    @Override
+    public List<String> getPermissions() {
+        return permissions;
+    }
+
+    @Override
+    public void addPermission(@NotNull String permission) {
+        permissions.add(permission);
+    }
+
+    @Override
+    public void removePermission(@NotNull String permission) {
+        permissions.remove(permission);
+    }
+
+    @Override
+    public void setPermissions(@NotNull List<String> permissions) {
+        this.permissions = permissions;
+    }
+
+    @Override
+    public @NotNull String getIcon() {
+        return icon;
+    }
+
+    @Override
+    public boolean hasIcon() {
+        return !icon.isEmpty();
+    }
+
+    @Override
+    public void setIcon(@NotNull String icon) {
+        this.icon = icon;
+    }
+
+    public int getWeight() {
+        return weight;
+    }
+
+    public void setWeight(int weight) {
+        this.weight = weight;
+    }
+
+    /**
+     * Loads a rank on its own, one query per reference. (what {@link com.meturum.centra.conversions.ReferenceResolver} batches)
+     */
+    @DocumentableMethod
+    public static BenchRank deserialize(@NotNull SystemManager manager, @NotNull Object uuid) throws Exception {
+        final Document document = Fixtures.RANKS.raw().find(Filters.eq("uuid", uuid)).first();
+        if (document == null) return null;
+
+        final BenchRank rank = Documentable.fromDocument(manager, document, BenchRank.class);
+        rank.setCollection(Fixtures.RANKS);
+
+        return rank;
+    }
+
+}
@@ -0,0 +1,89 @@
+package com.meturum.centra.benchmarks.fixtures;
+
+import org.bson.Document;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A session-shaped tag: flat fields, a settings document, a rank reference, nested profiles and a list of names.
+ * ({@link com.meturum.centra.sessions.Session} itself needs a bukkit player)
+ */
+public class BenchSession extends BenchTag {
+
+    private String name = "";
+    private Document settings = new Document();
+    @Serialize(method = SerializationMethod.METHOD)
+    private BenchRank rank;
+    @Serialize(type = BenchProfile.class)
+    private BenchProfile[] profiles = new BenchProfile[0];
+    private int currentProfile;
+    private List<String> nameHistory = new ArrayList<>();
+    private long firstJoin;
+    private boolean online;
+
+    public String getName() {
+        return name;
+    }
+
+    public void setName(String name) {
+        this.name = name;
+    }
+
+    public Document getSettings() {
+        return settings;
+    }
+
+    public void setSettings(Document settings) {
+        this.settings = settings;
+    }
+
+    public BenchRank getRank() {
+        return rank;
+    }
+
+    public void setRank(BenchRank rank) {
+        this.rank = rank;
+    }
+
+    public BenchProfile[] getProfiles() {
+        return profiles;
+    }
+
+    public void setProfiles(BenchProfile[] profiles) {
+        this.profiles = profiles;
+    }
+
+    public int getCurrentProfile() {
+        return currentProfile;
+    }
+
+    public void setCurrentProfile(int currentProfile) {
+        this.currentProfile = currentProfile;
+    }
+
+    public List<String> getNameHistory() {
+        return nameHistory;
+    }
+
+    public void setNameHistory(List<String> nameHistory) {
+        this.nameHistory = nameHistory;
+    }
+
+    public long getFirstJoin() {
+        return firstJoin;
+    }
+
+    public void setFirstJoin(long firstJoin) {
+        this.firstJoin = firstJoin;
+    }
+
+    public boolean isOnline() {
+        return online;
+    }
+
+    public void setOnline(boolean online) {
+        this.online = online;
+    }
+
+}
@@ -0,0 +1,29 @@
+package com.meturum.centra.benchmarks.fixtures;
+
+import com.meturum.centra.system.System;
+import com.meturum.centra.system.SystemManager;
+
+import javax.annotation.Nullable;
+
+/**
+ * An empty {@link SystemManager}, the fixtures do not depend on any system.
+ */
+public final class BenchSystemManager implements SystemManager {
+
+    @Override
+    public @Nullable <T extends System> T search(Class<T> clazz) {
+        return null;
+    }
+
+    @Override
+    public boolean contains(Class<? extends System> clazz) {
+        return false;
+    }
+
+    @Override
+    public void start() { }
+
+    @Override
+    public void stop() { }
+
+}
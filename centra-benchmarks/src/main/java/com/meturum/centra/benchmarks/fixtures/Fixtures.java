@@ -0,0 +1,137 @@
+package com.meturum.centra.benchmarks.fixtures;
+
+import com.meturum.centra.ColorList;
+import com.meturum.centra.conversions.Documentable;
+import org.bson.Document;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.SplittableRandom;
+
+/**
+ * Builds deterministic benchmark objects of varying size.
+ */
+public final class Fixtures {
+
+    /**
+     * The collection {@link BenchRank#deserialize} loads ranks from.
+     */
+    public static final InMemoryCollectionWrapper RANKS = new InMemoryCollectionWrapper("ranks");
+
+    /**
+     * The shape of the generated objects.
+     */
+    public enum Size {
+
+        SMALL(1, 4, 8, 2), MEDIUM(4, 32, 64, 8), LARGE(16, 256, 1024, 32);
+
+        private final int profiles;
+        private final int permissions;
+        private final int statistics;
+        private final int names;
+
+        Size(int profiles, int permissions, int statistics, int names) {
+            this.profiles = profiles;
+            this.permissions = permissions;
+            this.statistics = statistics;
+            this.names = names;
+        }
+
+    }
+
+    private static final ColorList[] COLORS = {ColorList.RED, ColorList.GOLD, ColorList.AQUA, ColorList.PINK, ColorList.of(18, 52, 86)};
+
+    private Fixtures() { }
+
+    /**
+     * @param size the shape of the rank.
+     * @param seed the seed of the generated values.
+     * @return a new rank.
+     */
+    public static @NotNull BenchRank rank(@NotNull final Size size, final long seed) {
+        final SplittableRandom random = new SplittableRandom(seed);
+
+        final BenchRank rank = new BenchRank();
+        rank.setName("rank-" + seed);
+        rank.setColor(COLORS[(int) (seed % COLORS.length)]);
+        rank.setIcon(random.nextBoolean() ? "DIAMOND_SWORD" : "");
+        rank.setWeight(random.nextInt(100));
+
+        final List<String> permissions = new ArrayList<>(size.permissions);
+        for (int i = 0; i < size.permissions; i++) permissions.add("centra.permission." + seed + "." + i);
+        rank.setPermissions(permissions);
+
+        return rank;
+    }
+
+    /**
+     * @param size the shape of the profile.
+     * @param seed the seed of the generated values.
+     * @return a new profile.
+     */
+    public static @NotNull BenchProfile profile(@NotNull final Size size, final long seed) {
+        final SplittableRandom random = new SplittableRandom(seed);
+
+        final BenchProfile profile = new BenchProfile();
+        profile.setNickname("profile-" + seed);
+        profile.setLevel(random.nextInt(100));
+        profile.setBalance(random.nextDouble() * 10_000);
+
+        final long[] statistics = new long[size.statistics];
+        for (int i = 0; i < statistics.length; i++) statistics[i] = random.nextLong(1_000_000);
+        profile.setStatistics(statistics);
+
+        final BitSet achievements = new BitSet(size.statistics);
+        for (int i = 0; i < size.statistics; i++) {
+            if (random.nextBoolean()) achievements.set(i);
+        }
+        profile.setAchievements(achievements);
+
+        return profile;
+    }
+
+    /**
+     * @param size the shape of the session.
+     * @param seed the seed of the generated values.
+     * @param rank the rank of the session.
+     * @return a new session.
+     */
+    public static @NotNull BenchSession session(@NotNull final Size size, final long seed, @NotNull final BenchRank rank) {
+        final SplittableRandom random = new SplittableRandom(seed);
+
+        final BenchSession session = new BenchSession();
+        session.setName("player-" + seed);
+        session.setRank(rank);
+        session.setFirstJoin(1_600_000_000_000L + random.nextLong(100_000_000_000L));
+        session.setOnline(random.nextBoolean());
+        session.setSettings(new Document("chat", true).append("language", "en_us").append("volume", random.nextInt(100)));
+
+        final BenchProfile[] profiles = new BenchProfile[size.profiles];
+        for (int i = 0; i < profiles.length; i++) profiles[i] = profile(size, seed * 31 + i);
+        session.setProfiles(profiles);
+        session.setCurrentProfile(random.nextInt(profiles.length));
+
+        final List<String> names = new ArrayList<>(size.names);
+        for (int i = 0; i < size.names; i++) names.add("player-" + seed + "-" + i);
+        session.setNameHistory(names);
+
+        return session;
+    }
+
+    /**
+     * Stores the given ranks into {@link #RANKS}, replacing the previous ones.
+     *
+     * @param ranks the ranks to store.
+     */
+    public static void store(@NotNull final List<BenchRank> ranks) {
+        RANKS.raw().deleteMany(new Document());
+
+        for (final BenchRank rank : ranks) {
+            rank.setCollection(RANKS);
+            RANKS.raw().insertOne(Documentable.toDocument(rank));
+        }
+    }
+
+}
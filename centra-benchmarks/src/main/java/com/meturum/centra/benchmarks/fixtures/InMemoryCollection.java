@@ -0,0 +1,324 @@
+package com.meturum.centra.benchmarks.fixtures;
+
+import com.mongodb.MongoNamespace;
+import com.mongodb.bulk.BulkWriteResult;
+import com.mongodb.client.FindIterable;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoCursor;
+import com.mongodb.client.model.*;
+import com.mongodb.client.result.DeleteResult;
+import com.mongodb.client.result.InsertOneResult;
+import com.mongodb.client.result.UpdateResult;
+import com.mongodb.MongoClientSettings;
+import org.bson.BsonDocument;
+import org.bson.BsonDocumentReader;
+import org.bson.BsonString;
+import org.bson.Document;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.DocumentCodec;
+import org.bson.conversions.Bson;
+import org.jetbrains.annotations.NotNull;
+
+import javax.annotation.Nullable;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.*;
+import java.util.function.Consumer;
+
+/**
+ * A {@link MongoCollection} kept in memory, so the benchmarks run without a server.
+ * <p>
+ * Only what Centra uses is implemented: {@code find}, {@code countDocuments}, {@code insertOne}, {@code replaceOne}, {@code updateOne}
+ * ({@code $set}, {@code $unset}, {@code $inc}), {@code deleteOne}, {@code deleteMany} and {@code bulkWrite}. Filters may combine equality,
+ * {@code $eq}, {@code $in} and {@code $and}. Documents are indexed by a single key (the {@code uuid} of a tag by default).
+ * Any other method throws {@link UnsupportedOperationException}.
+ */
+public final class InMemoryCollection implements InvocationHandler {
+
+    private static final DocumentCodec CODEC = new DocumentCodec();
+    private static final DecoderContext CONTEXT = DecoderContext.builder().build();
+
+    private final MongoNamespace namespace;
+    private final String key;
+    private final Map<Object, Document> documents = new LinkedHashMap<>();
+
+    private InMemoryCollection(@NotNull final String name, @NotNull final String key) {
+        this.namespace = new MongoNamespace("benchmarks", name);
+        this.key = key;
+    }
+
+    /**
+     * @param name the name of the collection.
+     * @param key the key documents are indexed by.
+     * @return a new empty collection.
+     */
+    public static @NotNull MongoCollection<Document> create(@NotNull final String name, @NotNull final String key) {
+        return (MongoCollection<Document>) Proxy.newProxyInstance(InMemoryCollection.class.getClassLoader(), new Class<?>[]{MongoCollection.class}, new InMemoryCollection(name, key));
+    }
+
+    @Override
+    public synchronized Object invoke(final Object proxy, final Method method, final Object[] args) {
+        final Object[] arguments = args != null ? args : new Object[0];
+
+        switch (method.getName()) {
+            case "getNamespace" -> { return namespace; }
+            case "getDocumentClass" -> { return Document.class; }
+            case "find" -> {
+                if (arguments.length > 1 || (arguments.length == 1 && !(arguments[0] instanceof Bson)))
+                    throw new UnsupportedOperationException("find(" + Arrays.toString(method.getParameterTypes()) + ")");
+
+                return iterable(select(arguments.length == 1 ? (Bson) arguments[0] : null));
+            }
+            case "countDocuments" -> { return (long) select(arguments.length > 0 ? (Bson) arguments[0] : null).size(); }
+            case "insertOne" -> { return insertOne((Document) arguments[0]); }
+            case "replaceOne" -> { return replaceOne((Bson) arguments[0], (Document) arguments[1], arguments.length > 2 && ((ReplaceOptions) arguments[2]).isUpsert()); }
+            case "updateOne" -> { return updateOne((Bson) arguments[0], (Bson) arguments[1], arguments.length > 2 && ((UpdateOptions) arguments[2]).isUpsert()); }
+            case "deleteOne", "deleteMany" -> { return delete((Bson) arguments[0], method.getName().equals("deleteOne")); }
+            case "bulkWrite" -> { return bulkWrite((List<? extends WriteModel<Document>>) arguments[0]); }
+            case "hashCode" -> { return java.lang.System.identityHashCode(proxy); }
+            case "equals" -> { return proxy == arguments[0]; }
+            case "toString" -> { return "InMemoryCollection[" + namespace + "]"; }
+            default -> throw new UnsupportedOperationException(method.getName());
+        }
+    }
+
+    private @NotNull InsertOneResult insertOne(@NotNull final Document document) {
+        documents.put(document.get(key), new Document(document));
+        return InsertOneResult.acknowledged(null);
+    }
+
+    private @NotNull UpdateResult replaceOne(@NotNull final Bson filter, @NotNull final Document document, final boolean upsert) {
+        final List<Document> matches = select(filter);
+        if (matches.isEmpty()) {
+            if (!upsert) return UpdateResult.acknowledged(0, 0L, null);
+
+            insertOne(document);
+            return UpdateResult.acknowledged(0, 0L, new BsonString(String.valueOf(document.get(key))));
+        }
+
+        documents.remove(matches.get(0).get(key));
+        documents.put(document.get(key), new Document(document));
+        return UpdateResult.acknowledged(1, 1L, null);
+    }
+
+    private @NotNull UpdateResult updateOne(@NotNull final Bson filter, @NotNull final Bson update, final boolean upsert) {
+        final List<Document> matches = select(filter);
+
+        Document document = matches.isEmpty() ? null : matches.get(0);
+        if (document == null) {
+            if (!upsert) return UpdateResult.acknowledged(0, 0L, null);
+
+            document = new Document(equalities(toDocument(filter)));
+            apply(document, toDocument(update));
+
+            documents.put(document.get(key), document);
+            return UpdateResult.acknowledged(0, 0L, new BsonString(String.valueOf(document.get(key))));
+        }
+
+        final Object previous = document.get(key);
+        apply(document, toDocument(update));
+
+        if (!Objects.equals(previous, document.get(key))) {
+            documents.remove(previous);
+            documents.put(document.get(key), document);
+        }
+
+        return UpdateResult.acknowledged(1, 1L, null);
+    }
+
+    private @NotNull DeleteResult delete(@NotNull final Bson filter, final boolean one) {
+        final List<Document> matches = select(filter);
+
+        int deleted = 0;
+        for (final Document document : matches) {
+            documents.remove(document.get(key));
+            deleted++;
+
+            if (one) break;
+        }
+
+        return DeleteResult.acknowledged(deleted);
+    }
+
+    private @NotNull BulkWriteResult bulkWrite(@NotNull final List<? extends WriteModel<Document>> models) {
+        int inserted = 0, matched = 0, removed = 0;
+
+        for (final WriteModel<Document> model : models) {
+            if (model instanceof InsertOneModel<Document> insert) {
+                insertOne(insert.getDocument());
+                inserted++;
+            } else if (model instanceof ReplaceOneModel<Document> replace) {
+                matched += replaceOne(replace.getFilter(), replace.getReplacement(), replace.getReplaceOptions().isUpsert()).getMatchedCount();
+            } else if (model instanceof UpdateOneModel<Document> update && update.getUpdate() != null) {
+                matched += updateOne(update.getFilter(), update.getUpdate(), update.getOptions().isUpsert()).getMatchedCount();
+            } else if (model instanceof DeleteOneModel<Document> delete) {
+                removed += delete(delete.getFilter(), true).getDeletedCount();
+            } else if (model instanceof DeleteManyModel<Document> delete) {
+                removed += delete(delete.getFilter(), false).getDeletedCount();
+            } else throw new UnsupportedOperationException(model.getClass().getSimpleName());
+        }
+
+        return BulkWriteResult.acknowledged(inserted, matched, removed, matched, List.of(), List.of());
+    }
+
+    private @NotNull List<Document> select(@Nullable final Bson filter) {
+        if (filter == null) return new ArrayList<>(documents.values());
+
+        final Document query = toDocument(filter);
+
+        final Object indexed = query.get(key);
+        if (indexed != null && !(indexed instanceof Document)) { // equality on the indexed key.
+            final Document document = documents.get(indexed);
+            return document != null && matches(document, query) ? List.of(document) : List.of();
+        }
+
+        if (indexed instanceof Document operator && operator.size() == 1 && operator.get("$in") instanceof List<?> ids) {
+            final List<Document> selected = new ArrayList<>(ids.size());
+            for (final Object id : new LinkedHashSet<>(ids)) {
+                final Document document = documents.get(id);
+                if (document != null && matches(document, query)) selected.add(document);
+            }
+
+            return selected;
+        }
+
+        final List<Document> selected = new ArrayList<>();
+        for (final Document document : documents.values()) {
+            if (matches(document, query)) selected.add(document);
+        }
+
+        return selected;
+    }
+
+    private static boolean matches(@NotNull final Document document, @NotNull final Document query) {
+        for (final Map.Entry<String, Object> entry : query.entrySet()) {
+            if (entry.getKey().equals("$and")) {
+                for (final Object clause : (List<?>) entry.getValue()) {
+                    if (!matches(document, (Document) clause)) return false;
+                }
+                continue;
+            }
+
+            if (entry.getKey().startsWith("$")) throw new UnsupportedOperationException(entry.getKey());
+
+            final Object value = document.get(entry.getKey());
+            if (!(entry.getValue() instanceof Document operators)) {
+                if (!Objects.equals(value, entry.getValue())) return false;
+                continue;
+            }
+
+            for (final Map.Entry<String, Object> operator : operators.entrySet()) {
+                final boolean matches = switch (operator.getKey()) {
+                    case "$eq" -> Objects.equals(value, operator.getValue());
+                    case "$ne" -> !Objects.equals(value, operator.getValue());
+                    case "$in" -> ((List<?>) operator.getValue()).contains(value);
+                    case "$exists" -> document.containsKey(entry.getKey()) == (Boolean) operator.getValue();
+                    default -> throw new UnsupportedOperationException(operator.getKey());
+                };
+
+                if (!matches) return false;
+            }
+        }
+
+        return true;
+    }
+
+    private static @NotNull Document equalities(@NotNull final Document query) {
+        final Document document = new Document();
+        for (final Map.Entry<String, Object> entry : query.entrySet()) {
+            if (entry.getKey().startsWith("$")) continue;
+
+            if (!(entry.getValue() instanceof Document operators)) document.append(entry.getKey(), entry.getValue());
+            else if (operators.containsKey("$eq")) document.append(entry.getKey(), operators.get("$eq"));
+        }
+
+        return document;
+    }
+
+    private static void apply(@NotNull final Document document, @NotNull final Document update) {
+        for (final Map.Entry<String, Object> operator : update.entrySet()) {
+            final Document fields = (Document) operator.getValue();
+
+            switch (operator.getKey()) {
+                case "$set" -> document.putAll(fields);
+                case "$unset" -> fields.keySet().forEach(document::remove);
+                case "$inc" -> {
+                    for (final Map.Entry<String, Object> field : fields.entrySet()) {
+                        final Number current = (Number) document.getOrDefault(field.getKey(), 0);
+                        final Number increment = (Number) field.getValue();
+
+                        document.put(field.getKey(), current instanceof Double || increment instanceof Double
+                                ? (Object) (current.doubleValue() + increment.doubleValue())
+                                : (Object) (current.longValue() + increment.longValue()));
+                    }
+                }
+                default -> throw new UnsupportedOperationException(operator.getKey());
+            }
+        }
+    }
+
+    private static @NotNull Document toDocument(@NotNull final Bson bson) {
+        if (bson instanceof Document document) return document;
+
+        final BsonDocument document = bson.toBsonDocument(BsonDocument.class, MongoClientSettings.getDefaultCodecRegistry());
+        return CODEC.decode(new BsonDocumentReader(document), CONTEXT);
+    }
+
+    private static @NotNull FindIterable<Document> iterable(@NotNull final List<Document> selected) {
+        final int[] window = {0, 0}; // skip, limit
+
+        return (FindIterable<Document>) Proxy.newProxyInstance(InMemoryCollection.class.getClassLoader(), new Class<?>[]{FindIterable.class}, new InvocationHandler() {
+            @Override
+            public Object invoke(final Object proxy, final Method method, final Object[] args) {
+                switch (method.getName()) {
+                    case "skip" -> window[0] = (int) args[0];
+                    case "limit" -> window[1] = (int) args[0];
+                    case "batchSize", "maxTime", "maxAwaitTime", "noCursorTimeout", "comment", "hint", "hintString", "allowDiskUse" -> { }
+                    case "iterator", "cursor" -> { return cursor(window()); }
+                    case "first" -> { return window().isEmpty() ? null : window().get(0); }
+                    case "into" -> {
+                        ((Collection<Document>) args[0]).addAll(window());
+                        return args[0];
+                    }
+                    case "forEach" -> window().forEach((Consumer<Document>) args[0]);
+                    case "spliterator" -> { return window().spliterator(); }
+                    case "hashCode" -> { return java.lang.System.identityHashCode(proxy); }
+                    case "equals" -> { return proxy == args[0]; }
+                    case "toString" -> { return "InMemoryFindIterable"; }
+                    default -> throw new UnsupportedOperationException(method.getName());
+                }
+
+                return method.getReturnType().isInstance(proxy) ? proxy : null;
+            }
+
+            private List<Document> window() {
+                final int from = Math.min(window[0], selected.size());
+                final int to = window[1] > 0 ? Math.min(selected.size(), from + window[1]) : selected.size();
+
+                return selected.subList(from, to);
+            }
+        });
+    }
+
+    private static @NotNull MongoCursor<Document> cursor(@NotNull final List<Document> documents) {
+        final Iterator<Document> iterator = documents.iterator();
+
+        return (MongoCursor<Document>) Proxy.newProxyInstance(InMemoryCollection.class.getClassLoader(), new Class<?>[]{MongoCursor.class}, (proxy, method, args) -> switch (method.getName()) {
+            case "hasNext" -> iterator.hasNext();
+            case "next" -> iterator.next();
+            case "tryNext" -> iterator.hasNext() ? iterator.next() : null;
+            case "available" -> iterator.hasNext() ? 1 : 0;
+            case "close", "getServerCursor", "getServerAddress" -> null;
+            case "forEachRemaining" -> {
+                iterator.forEachRemaining((Consumer<Document>) args[0]);
+                yield null;
+            }
+            case "hashCode" -> java.lang.System.identityHashCode(proxy);
+            case "equals" -> proxy == args[0];
+            case "toString" -> "InMemoryCursor";
+            default -> throw new UnsupportedOperationException(method.getName());
+        });
+    }
+
+}
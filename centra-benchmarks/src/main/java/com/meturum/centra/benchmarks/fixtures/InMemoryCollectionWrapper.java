@@ -0,0 +1,150 @@
+package com.meturum.centra.benchmarks.fixtures;
+
+import com.meturum.centra.mongo.CollectionWrapper;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.ReplaceOptions;
+import com.mongodb.client.model.UpdateOptions;
+import com.mongodb.client.result.DeleteResult;
+import com.mongodb.client.result.InsertOneResult;
+import com.mongodb.client.result.UpdateResult;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.jetbrains.annotations.NotNull;
+
+import javax.annotation.Nullable;
+
+/**
+ * An offline stand-in for {@link CollectionWrapper}, backed by an {@link InMemoryCollection}.
+ * Every "async" operation runs on the calling thread, so the benchmarks only measure Centra itself.
+ */
+public final class InMemoryCollectionWrapper implements CollectionWrapper {
+
+    private final MongoCollection<Document> collection;
+
+    /**
+     * @param name the name of the collection.
+     */
+    public InMemoryCollectionWrapper(@NotNull final String name) {
+        this(name, "uuid");
+    }
+
+    /**
+     * @param name the name of the collection.
+     * @param key the key documents are indexed by.
+     */
+    public InMemoryCollectionWrapper(@NotNull final String name, @NotNull final String key) {
+        this.collection = InMemoryCollection.create(name, key);
+    }
+
+    @Override
+    public void findAsync(@Nullable Bson filter, @NotNull FindLambda lambda) {
+        try {
+            lambda.run(filter != null ? collection.find(filter) : collection.find(), null);
+        }catch (Exception exception) {
+            lambda.run(null, exception);
+        }
+    }
+
+    @Override
+    public void findAsync(@NotNull FindLambda lambda) {
+        findAsync(null, lambda);
+    }
+
+    @Override
+    public void insertOneAsync(@NotNull Document document, @Nullable InsertOneLambda lambda) {
+        InsertOneResult result = null;
+        Exception exception = null;
+        try {
+            result = collection.insertOne(document);
+        }catch (Exception e) {
+            exception = e;
+        }
+
+        if (lambda != null) lambda.run(result, exception);
+    }
+
+    @Override
+    public void insertOneAsync(@NotNull Document document) {
+        insertOneAsync(document, null);
+    }
+
+    @Override
+    public void updateOneAsync(@NotNull Bson filter, @NotNull Bson updates, @Nullable UpdateOptions options, @Nullable UpdateOneLambda lambda) {
+        UpdateResult result = null;
+        Exception exception = null;
+        try {
+            result = collection.updateOne(filter, updates, options != null ? options : new UpdateOptions());
+        }catch (Exception e) {
+            exception = e;
+        }
+
+        if (lambda != null) lambda.run(result, exception);
+    }
+
+    @Override
+    public void updateOneAsync(@NotNull Bson filter, @NotNull Bson updates, @Nullable UpdateOneLambda lambda) {
+        updateOneAsync(filter, updates, null, lambda);
+    }
+
+    @Override
+    public void updateOneAsync(@NotNull Bson filter, @NotNull Bson updates, @Nullable UpdateOptions options) {
+        updateOneAsync(filter, updates, options, null);
+    }
+
+    @Override
+    public void updateOneAsync(@NotNull Bson filter, @NotNull Bson updates) {
+        updateOneAsync(filter, updates, null, null);
+    }
+
+    @Override
+    public void replaceOneAsync(@NotNull Bson filter, @NotNull Document document, @Nullable ReplaceOptions options, @Nullable ReplaceOneLambda lambda) {
+        UpdateResult result = null;
+        Exception exception = null;
+        try {
+            result = collection.replaceOne(filter, document, options != null ? options : new ReplaceOptions());
+        }catch (Exception e) {
+            exception = e;
+        }
+
+        if (lambda != null) lambda.run(result, exception);
+    }
+
+    @Override
+    public void replaceOneAsync(@NotNull Bson filter, @NotNull Document document, @Nullable ReplaceOneLambda lambda) {
+        replaceOneAsync(filter, document, null, lambda);
+    }
+
+    @Override
+    public void replaceOneAsync(@NotNull Bson filter, @NotNull Document document, @Nullable ReplaceOptions options) {
+        replaceOneAsync(filter, document, options, null);
+    }
+
+    @Override
+    public void replaceOneAsync(@NotNull Bson filter, @NotNull Document document) {
+        replaceOneAsync(filter, document, null, null);
+    }
+
+    @Override
+    public void deleteOneAsync(@NotNull Bson filter, @Nullable DeleteOneLambda lambda) {
+        DeleteResult result = null;
+        Exception exception = null;
+        try {
+            result = collection.deleteOne(filter);
+        }catch (Exception e) {
+            exception = e;
+        }
+
+        if (lambda != null) lambda.run(result, exception);
+    }
+
+    @Override
+    public void deleteOneAsync(@NotNull Bson filter) {
+        deleteOneAsync(filter, null);
+    }
+
+    @Override
+    public @NotNull MongoCollection<Document> raw() {
+        return collection;
+    }
+
+}
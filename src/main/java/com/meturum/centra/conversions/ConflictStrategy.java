@@ -0,0 +1,80 @@
+package com.meturum.centra.conversions;
+
+import com.meturum.centra.system.SystemManager;
+import org.bson.Document;
+import org.jetbrains.annotations.NotNull;
+
+import javax.annotation.Nullable;
+
+/**
+ * Resolves the conflicts of versioned saves ({@link IDynamicTag#saveVersioned}): the tag was saved by another server since it was loaded.
+ * <p>
+ * A strategy may modify the tag and its clean state (see {@link DirtyTracker}) before asking for a retry, the next attempt is then
+ * conditional on the version of the document it was given. Saves give up after {@link #MAX_ATTEMPTS} attempts.
+ */
+@FunctionalInterface
+public interface ConflictStrategy {
+
+    /**
+     * The maximum number of attempts of a versioned save.
+     */
+    int MAX_ATTEMPTS = 5;
+
+    /**
+     * Gives up on every conflict, the save lambda is told with {@link IDynamicTag.SaveLambda#conflicted(Conflict)}.
+     */
+    ConflictStrategy FAIL = conflict -> false;
+
+    /**
+     * Saves the local state over the remote one (last writer wins, but knowingly): every field differing from the document currently stored is written.
+     */
+    ConflictStrategy OVERWRITE = conflict -> {
+        DirtyTracker.markClean(conflict.tag(), conflict.remote() != null ? conflict.remote() : new Document());
+        return true;
+    };
+
+    /**
+     * Merges the remote changes into the tag, field by field, then saves the local changes on top of them.
+     * When both servers changed the same field, the local value wins. Gives up if the document was deleted or the tag is not tracked.
+     *
+     * @param manager the system manager, reading the remote fields into the tag.
+     * @return the strategy.
+     * @see DirtyTracker#rebase(SystemManager, IDynamicTag, Document)
+     */
+    static @NotNull ConflictStrategy merge(@NotNull final SystemManager manager) {
+        return conflict -> {
+            if (conflict.remote() == null || !DirtyTracker.isTracked(conflict.tag())) return false;
+
+            DirtyTracker.rebase(manager, conflict.tag(), conflict.remote());
+            return true;
+        };
+    }
+
+    /**
+     * Resolves a conflict.
+     *
+     * @param conflict the conflict.
+     * @return true to retry the save, false to give up.
+     */
+    boolean resolve(@NotNull Conflict conflict);
+
+    /**
+     * A conflict of a versioned save.
+     *
+     * @param tag the tag being saved.
+     * @param expected the version the save was conditional on.
+     * @param remote the document currently stored, or null if it was deleted.
+     * @param attempt the attempt that conflicted, starting at 1.
+     */
+    record Conflict(@NotNull IDynamicTag tag, long expected, @Nullable Document remote, int attempt) {
+
+        /**
+         * @return the version of the document currently stored, 0 if it has none or was deleted.
+         */
+        public long remoteVersion() {
+            return remote != null && remote.get(DirtyTracker.VERSION_KEY) instanceof Number version ? version.longValue() : 0;
+        }
+
+    }
+
+}
@@ -0,0 +1,289 @@
+package com.meturum.centra.conversions;
+
+import com.google.common.collect.MapMaker;
+import com.meturum.centra.system.SystemManager;
+import com.mongodb.client.model.Updates;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.jetbrains.annotations.NotNull;
+
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Tracks which fields of a {@link Documentable} changed since it was last loaded or saved.
+ * <p>
+ * A snapshot of the serialized fields is kept for every tracked object (weakly, by identity). Comparing the snapshot with the
+ * current state produces a {@link Delta} that can be sent as a {@code $set}/{@code $unset} update instead of replacing the whole document.
+ * Objects created through {@link Documentable#fromDocument} or {@link Documentable#insertDocument} are tracked automatically if they are an {@link IDynamicTag}.
+ */
+public final class DirtyTracker {
+
+    /**
+     * The key of the primary key of a document, never part of a delta.
+     */
+    public static final String ID_KEY = "_id";
+
+    /**
+     * The key of the version of a document stamped by versioned saves ({@link IDynamicTag#saveVersioned}), never part of a delta.
+     */
+    public static final String VERSION_KEY = "_version";
+
+    private static final ConcurrentMap<Documentable, Document> SNAPSHOTS = new MapMaker().weakKeys().makeMap(); // weak keys are compared by identity.
+
+    private DirtyTracker() { }
+
+    /**
+     * Marks the current state of the object as saved.
+     *
+     * @param object the object to mark.
+     * @apiNote Nested tags are serialized but never saved.
+     */
+    public static void markClean(@NotNull final Documentable object) {
+        markClean(object, Documentable.toDocument(object, new SavePlan()));
+    }
+
+    /**
+     * Marks the given document as the saved state of the object.
+     *
+     * @param object the object to mark.
+     * @param document the serialized state that was loaded or saved.
+     */
+    public static void markClean(@NotNull final Documentable object, @NotNull final Document document) {
+        SNAPSHOTS.put(object, document);
+    }
+
+    /**
+     * Marks the given document as the saved state of the object, keeping the version of its previous saved state.
+     * Used after writes that do not change the version, e.g. a {@code $set}/{@code $unset} update.
+     *
+     * @param object the object to mark.
+     * @param document the serialized state that was saved.
+     */
+    public static void markSaved(@NotNull final Documentable object, @NotNull final Document document) {
+        final Document snapshot = SNAPSHOTS.get(object);
+        final Object version = snapshot != null ? snapshot.get(VERSION_KEY) : null;
+
+        markClean(object, version == null || document.containsKey(VERSION_KEY) ? document : new Document(document).append(VERSION_KEY, version));
+    }
+
+    /**
+     * Stops tracking the object, the next delta will contain every field.
+     *
+     * @param object the object to forget.
+     */
+    public static void forget(@NotNull final Documentable object) {
+        SNAPSHOTS.remove(object);
+    }
+
+    /**
+     * @param object the object to check.
+     * @return true if the object is tracked, meaning a partial delta can be computed.
+     */
+    public static boolean isTracked(@NotNull final Documentable object) {
+        return SNAPSHOTS.containsKey(object);
+    }
+
+    /**
+     * Gets the version of the object when it was last loaded or saved, see {@link IDynamicTag#saveVersioned}.
+     *
+     * @param object the object.
+     * @return the version, or 0 if the object is not tracked or its document was never saved with a version.
+     */
+    public static long getVersion(@NotNull final Documentable object) {
+        final Document snapshot = SNAPSHOTS.get(object);
+        return snapshot != null && snapshot.get(VERSION_KEY) instanceof Number version ? version.longValue() : 0;
+    }
+
+    /**
+     * @param object the object to check.
+     * @return true if any field changed since the object was last loaded or saved.
+     * @apiNote Nested tags are serialized but never saved.
+     */
+    public static boolean isDirty(@NotNull final Documentable object) {
+        return !diff(object).isEmpty();
+    }
+
+    /**
+     * Compares the current state of the object with its last saved state.
+     * If the object is not tracked, every field is considered changed.
+     *
+     * @param object the object to compare.
+     * @return the delta.
+     * @apiNote Nested tags are serialized but never saved, see {@link #diff(Documentable, SavePlan)}.
+     */
+    public static @NotNull Delta diff(@NotNull final Documentable object) {
+        return diff(object, new SavePlan());
+    }
+
+    /**
+     * Compares the current state of the object with its last saved state.
+     * If the object is not tracked, every field is considered changed.
+     *
+     * @param object the object to compare.
+     * @param plan the plan collecting the nested tags to save while serializing the object.
+     * @return the delta.
+     */
+    public static @NotNull Delta diff(@NotNull final Documentable object, @NotNull final SavePlan plan) {
+        return diff(object, Documentable.toDocument(object, plan));
+    }
+
+    /**
+     * Applies changes made by another server to a loaded tag, e.g. received from a change stream.
+     * Fields changed locally since the tag was last loaded or saved are kept, they will overwrite the remote changes on the next save.
+     *
+     * @param manager the system manager.
+     * @param tag the tag to update.
+     * @param changes the new values of the changed fields.
+     * @param removed the fields that were removed.
+     * @return the fields that were applied.
+     */
+    public static @NotNull List<String> merge(@NotNull final SystemManager manager, @NotNull final IDynamicTag tag, @NotNull final Document changes, @NotNull final Collection<String> removed) {
+        final Document snapshot = SNAPSHOTS.get(tag);
+        final Delta local = snapshot != null ? diff(tag, new SavePlan()) : null; // nested tags are not saved.
+
+        final Document applied = new Document();
+        for (final Map.Entry<String, Object> entry : changes.entrySet()) {
+            if (isReserved(entry.getKey()) || (local != null && (local.getSet().containsKey(entry.getKey()) || local.getUnset().contains(entry.getKey())))) continue;
+
+            applied.append(entry.getKey(), entry.getValue());
+        }
+
+        if (!applied.isEmpty()) DocumentablePlan.of(tag.getClass()).read(manager, applied, tag, null);
+        if (snapshot == null) return List.copyOf(applied.keySet()); // not tracked, every field will be saved anyway.
+
+        final Document merged = new Document(snapshot);
+        merged.putAll(applied);
+        if (changes.containsKey(VERSION_KEY)) merged.put(VERSION_KEY, changes.get(VERSION_KEY)); // the local changes are now based on the remote version.
+
+        final List<String> fields = new ArrayList<>(applied.keySet());
+        for (final String key : removed) {
+            if (isReserved(key) || local.getSet().containsKey(key)) continue;
+
+            merged.remove(key);
+            fields.add(key);
+        }
+
+        SNAPSHOTS.put(tag, merged);
+        return fields;
+    }
+
+    /**
+     * Rebases a loaded tag on the document currently stored, e.g. after a versioned save conflicted: the remote changes are merged like
+     * {@link #merge(SystemManager, IDynamicTag, Document, Collection)} and the remote version becomes the version of the tag.
+     *
+     * @param manager the system manager.
+     * @param tag the tag to rebase, it must be tracked.
+     * @param remote the document currently stored.
+     * @return the fields that were applied.
+     */
+    public static @NotNull List<String> rebase(@NotNull final SystemManager manager, @NotNull final IDynamicTag tag, @NotNull final Document remote) {
+        final Document snapshot = SNAPSHOTS.get(tag);
+        if (snapshot == null) throw new IllegalStateException("The tag is not tracked, there is no base to merge the remote changes into.");
+
+        final List<String> removed = new ArrayList<>();
+        for (final String key : snapshot.keySet()) {
+            if (!remote.containsKey(key)) removed.add(key);
+        }
+
+        final Document changes = new Document(remote);
+        if (!changes.containsKey(VERSION_KEY)) changes.put(VERSION_KEY, 0L); // saved without a version since.
+
+        return merge(manager, tag, changes, removed);
+    }
+
+    static @NotNull Delta diff(@NotNull final Documentable object, @NotNull final Document current) {
+        final Document snapshot = SNAPSHOTS.get(object);
+
+        final Document set = new Document();
+        final List<String> unset = new ArrayList<>();
+
+        for (final Map.Entry<String, Object> entry : current.entrySet()) {
+            if (isReserved(entry.getKey())) continue;
+
+            if (snapshot == null || !snapshot.containsKey(entry.getKey()) || !Objects.equals(snapshot.get(entry.getKey()), entry.getValue()))
+                set.append(entry.getKey(), entry.getValue());
+        }
+
+        if (snapshot != null) {
+            for (final String key : snapshot.keySet()) {
+                if (!isReserved(key) && !current.containsKey(key)) unset.add(key);
+            }
+        }
+
+        return new Delta(current, set, unset);
+    }
+
+    private static boolean isReserved(@NotNull final String key) {
+        return key.equals(ID_KEY) || key.equals(VERSION_KEY);
+    }
+
+    /**
+     * The changes of an object since it was last loaded or saved.
+     */
+    public static final class Delta {
+
+        private final Document document;
+        private final Document set;
+        private final List<String> unset;
+
+        private Delta(@NotNull final Document document, @NotNull final Document set, @NotNull final List<String> unset) {
+            this.document = document;
+            this.set = set;
+            this.unset = List.copyOf(unset);
+        }
+
+        /**
+         * @return the full serialized state the delta was computed from, pass it to {@link DirtyTracker#markClean(Documentable, Document)} once saved.
+         */
+        public @NotNull Document getDocument() {
+            return document;
+        }
+
+        /**
+         * @return the fields that were added or changed.
+         */
+        public @NotNull Document getSet() {
+            return set;
+        }
+
+        /**
+         * @return the fields that were removed.
+         */
+        public @NotNull List<String> getUnset() {
+            return unset;
+        }
+
+        /**
+         * @return true if nothing changed.
+         */
+        public boolean isEmpty() {
+            return set.isEmpty() && unset.isEmpty();
+        }
+
+        /**
+         * @return the update to apply, or null if nothing changed.
+         */
+        public @Nullable Bson toUpdate() {
+            if (isEmpty()) return null;
+
+            final List<Bson> updates = new ArrayList<>();
+            for (final Map.Entry<String, Object> entry : set.entrySet()) {
+                updates.add(Updates.set(entry.getKey(), entry.getValue()));
+            }
+
+            for (final String key : unset) {
+                updates.add(Updates.unset(key));
+            }
+
+            return Updates.combine(updates);
+        }
+
+    }
+
+}
@@ -0,0 +1,67 @@
+package com.meturum.centra.conversions;
+
+import com.meturum.centra.system.SystemManager;
+import org.bson.Document;
+import org.jetbrains.annotations.NotNull;
+
+import javax.annotation.Nullable;
+
+/**
+ * A codec generated at compile time for a {@link Documentable} class.
+ * <p>
+ * Codecs are emitted by the Documentable annotation processor as {@code <Class>_DocumentCodec} in the package of the class
+ * (nested classes use {@code Outer_Inner_DocumentCodec}). When present, they are used by {@link Documentable#toDocument(Documentable)}
+ * and {@link Documentable#insertDocument(SystemManager, Document, Object)} instead of reflection.
+ *
+ * @param <T> the type of the object.
+ */
+public interface DocumentCodec<T> {
+
+    /**
+     * Writes all the selected fields of the given object into the document.
+     *
+     * @param object the object to serialize.
+     * @param document the document to write into.
+     * @param plan the plan collecting the nested tags to save, or null to save them immediately.
+     */
+    void encode(@NotNull T object, @NotNull Document document, @Nullable SavePlan plan);
+
+    /**
+     * Reads all the selected fields of the given object from the document.
+     *
+     * @param manager the system manager.
+     * @param document the document to read from.
+     * @param object the object to insert the document into.
+     * @param resolver the resolver of the current load, or null to convert every reference on its own.
+     */
+    void decode(@NotNull SystemManager manager, @NotNull Document document, @NotNull T object, @Nullable ReferenceResolver resolver);
+
+    /**
+     * The runtime conversion of a single field, used by generated codecs for fields relying on {@link com.meturum.centra.conversions.annotations.DocumentableMethod} converters.
+     */
+    interface FieldCodec {
+
+        /**
+         * Converts a non-null field value into its document representation.
+         *
+         * @param value the value of the field.
+         * @param plan the plan collecting the nested tags to save, or null to save them immediately.
+         * @return the serialized value.
+         * @throws Exception if the value could not be serialized, the field should be skipped.
+         */
+        @Nullable Object encode(@NotNull Object value, @Nullable SavePlan plan) throws Exception;
+
+        /**
+         * Converts a non-null document value back into the value of the field.
+         *
+         * @param manager the system manager.
+         * @param value the value found in the document.
+         * @param resolver the resolver of the current load, or null to convert every reference on its own.
+         * @return the deserialized value.
+         * @throws Exception if the value could not be deserialized, the field should be skipped.
+         */
+        @Nullable Object decode(@NotNull SystemManager manager, @NotNull Object value, @Nullable ReferenceResolver resolver) throws Exception;
+
+    }
+
+}
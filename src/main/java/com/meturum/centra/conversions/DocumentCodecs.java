@@ -0,0 +1,235 @@
+package com.meturum.centra.conversions;
+
+import com.meturum.centra.system.SystemManager;
+import org.bson.Document;
+import org.jetbrains.annotations.NotNull;
+
+import javax.annotation.Nullable;
+import java.lang.invoke.MethodHandle;
+import java.lang.reflect.Array;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+
+/**
+ * Runtime support for codecs generated by the Documentable annotation processor.
+ * <p>
+ * The methods of this class are called from generated code, they are not intended to be used directly.
+ */
+public final class DocumentCodecs {
+
+    /**
+     * The suffix appended to the (flattened) name of a class to get the name of its generated codec.
+     */
+    public static final String CODEC_SUFFIX = "_DocumentCodec";
+
+    private static final ClassValue<Optional<DocumentCodec<Object>>> CODECS = new ClassValue<>() {
+        @Override
+        protected Optional<DocumentCodec<Object>> computeValue(@NotNull final Class<?> type) {
+            return Optional.ofNullable(load(type));
+        }
+    };
+
+    private DocumentCodecs() { }
+
+    /**
+     * @param type the class of the object.
+     * @return the generated codec of the given class, or null if none was generated.
+     */
+    static @Nullable DocumentCodec<Object> find(@NotNull final Class<?> type) {
+        return CODECS.get(type).orElse(null);
+    }
+
+    /**
+     * @param type the class of the object.
+     * @return the fully qualified name of the codec generated for the given class.
+     */
+    public static @NotNull String getCodecName(@NotNull final Class<?> type) {
+        final String packageName = type.getPackageName();
+        final String simpleName = packageName.isEmpty() ? type.getName() : type.getName().substring(packageName.length() + 1);
+
+        return (packageName.isEmpty() ? "" : packageName + ".") + simpleName.replace('$', '_') + CODEC_SUFFIX;
+    }
+
+    private static @Nullable DocumentCodec<Object> load(@NotNull final Class<?> type) {
+        final Class<?> codecClass;
+        try {
+            codecClass = Class.forName(getCodecName(type), true, type.getClassLoader());
+        }catch (ClassNotFoundException | LinkageError exception) {
+            return null; // no codec generated, reflection is used instead.
+        }
+
+        try {
+            if (!DocumentCodec.class.isAssignableFrom(codecClass)) return null;
+
+            @SuppressWarnings("unchecked") // generated for the given class, it is only passed instances of it.
+            final DocumentCodec<Object> codec = (DocumentCodec<Object>) codecClass.getDeclaredConstructor().newInstance();
+            return codec;
+        }catch (Exception | LinkageError exception) {
+            exception.printStackTrace();
+            return null;
+        }
+    }
+
+    /**
+     * @param owner the class of the object.
+     * @param field the name of the field.
+     * @return the getter of the field, adapted to {@code (Object) -> Object}.
+     */
+    public static @NotNull MethodHandle getter(@NotNull final Class<?> owner, @NotNull final String field) {
+        return getField(owner, field).getter();
+    }
+
+    /**
+     * @param owner the class of the object.
+     * @param field the name of the field.
+     * @return the setter of the field, adapted to {@code (Object, Object) -> void}.
+     */
+    public static @NotNull MethodHandle setter(@NotNull final Class<?> owner, @NotNull final String field) {
+        return getField(owner, field).setter();
+    }
+
+    /**
+     * @param owner the class of the object.
+     * @param field the name of the field.
+     * @return the runtime conversion of the field.
+     */
+    public static @NotNull DocumentCodec.FieldCodec field(@NotNull final Class<?> owner, @NotNull final String field) {
+        return getField(owner, field);
+    }
+
+    private static @NotNull DocumentablePlan.FieldPlan getField(@NotNull final Class<?> owner, @NotNull final String name) {
+        final DocumentablePlan.FieldPlan field = DocumentablePlan.of(owner).getField(name);
+        if (field == null)
+            throw new IllegalStateException("Field " + owner.getName() + "#" + name + " is not serialized, regenerate the codec.");
+
+        return field;
+    }
+
+    /**
+     * Saves a nested tag annotated with {@code @Serialize(save = true)}.
+     *
+     * @param tag the tag to save.
+     * @param plan the plan collecting the nested tags to save, or null to save it immediately.
+     */
+    public static void save(@NotNull final IDynamicTag tag, @Nullable final SavePlan plan) {
+        if (plan != null) plan.add(tag);
+        else tag.saveSync(true);
+    }
+
+    /**
+     * Looks up a reference resolved during the current load.
+     *
+     * @param resolver the resolver of the current load, or null.
+     * @param type the type of the reference.
+     * @param reference the serialized reference.
+     * @return the shared instance, or null if the reference has to be converted.
+     */
+    public static @Nullable Object resolve(@Nullable final ReferenceResolver resolver, @NotNull final Class<?> type, @Nullable final Object reference) {
+        return resolver != null && reference != null ? resolver.get(type, reference) : null;
+    }
+
+    /**
+     * Keeps a converted reference for the rest of the current load.
+     *
+     * @param resolver the resolver of the current load, or null.
+     * @param type the type of the reference.
+     * @param reference the serialized reference.
+     * @param instance the converted instance.
+     * @return the instance to use.
+     */
+    public static @Nullable Object remember(@Nullable final ReferenceResolver resolver, @NotNull final Class<?> type, @Nullable final Object reference, @Nullable final Object instance) {
+        return resolver != null ? resolver.remember(type, reference, instance) : instance;
+    }
+
+    /**
+     * Converts a single element using {@link Documentable.SerializationMethod#OBJECT}.
+     *
+     * @param element the element to convert.
+     * @return the serialized element.
+     */
+    public static @Nullable Object encode(@Nullable final Object element) {
+        if (element instanceof Documentable documentable) return documentable.asDocument();
+        if (element instanceof UUID uuid) return uuid.toString();
+        if (element instanceof BitSet bitSet) return PrimitiveArrays.pack(bitSet);
+
+        return element;
+    }
+
+    /**
+     * Converts all elements using {@link Documentable.SerializationMethod#OBJECT}.
+     *
+     * @param elements the elements to convert.
+     * @return the serialized elements.
+     */
+    public static @NotNull List<Object> encodeAll(@NotNull final List<?> elements) {
+        final List<?> copy = List.copyOf(elements); // Iterate over a copy to prevent modification exceptions.
+
+        final ArrayList<Object> array = new ArrayList<>(copy.size());
+        for (final Object element : copy) {
+            array.add(encode(element));
+        }
+
+        return array;
+    }
+
+    /**
+     * Converts a single value using {@link Documentable.SerializationMethod#OBJECT}.
+     *
+     * @param manager the system manager.
+     * @param value the value found in the document.
+     * @param type the type of the field.
+     * @param resolver the resolver of the current load, or null.
+     * @return the deserialized value.
+     */
+    public static @Nullable Object decode(@NotNull final SystemManager manager, @Nullable final Object value, @NotNull final Class<?> type, @Nullable final ReferenceResolver resolver) throws Exception {
+        final Object deserialized = decodeElement(manager, value, type, resolver);
+
+        if (type.equals(UUID.class) && deserialized instanceof String string)
+            return UUID.fromString(string);
+
+        return deserialized;
+    }
+
+    /**
+     * Converts all elements using {@link Documentable.SerializationMethod#OBJECT}.
+     *
+     * @param manager the system manager.
+     * @param elements the elements found in the document.
+     * @param type the type of the elements.
+     * @param resolver the resolver of the current load, or null.
+     * @return the deserialized elements.
+     */
+    public static @NotNull List<Object> decodeAll(@NotNull final SystemManager manager, @NotNull final List<?> elements, @NotNull final Class<?> type, @Nullable final ReferenceResolver resolver) throws Exception {
+        final ArrayList<Object> arrayList = new ArrayList<>(elements.size());
+        for (final Object element : elements) {
+            arrayList.add(decodeElement(manager, element, type, resolver));
+        }
+
+        return arrayList;
+    }
+
+    /**
+     * Copies the elements into a new typed array.
+     *
+     * @param elements the elements to copy.
+     * @param type the component type of the array.
+     * @return the typed array.
+     */
+    public static @NotNull Object toArray(@NotNull final List<?> elements, @NotNull final Class<?> type) {
+        final Object typedArray = Array.newInstance(type, elements.size());
+        java.lang.System.arraycopy(elements.toArray(), 0, typedArray, 0, elements.size());
+
+        return typedArray;
+    }
+
+    static @Nullable Object decodeElement(@NotNull final SystemManager manager, @Nullable final Object element, @NotNull final Class<?> type, @Nullable final ReferenceResolver resolver) throws Exception {
+        if (element instanceof Document doc) return DocumentablePlan.of(type).create(manager, doc, resolver);
+        if (element != null && type.equals(BitSet.class)) return PrimitiveArrays.unpackBitSet(element);
+
+        return element;
+    }
+
+}
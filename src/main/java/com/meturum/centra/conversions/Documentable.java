@@ -1,20 +1,18 @@
 package com.meturum.centra.conversions;
 
-import com.google.common.collect.ImmutableList;
-import com.meturum.centra.conversions.annotations.DocumentableMethod;
-import com.meturum.centra.mongo.Mongo;
-import com.meturum.centra.system.System;
 import com.meturum.centra.system.SystemManager;
+import com.mongodb.client.model.IndexModel;
+import com.mongodb.client.model.IndexOptions;
+import com.mongodb.client.model.Indexes;
+import com.mongodb.client.model.Projections;
 import org.bson.Document;
+import org.bson.conversions.Bson;
 import org.jetbrains.annotations.NotNull;
 
 import javax.annotation.Nullable;
 import java.lang.annotation.*;
-import java.lang.reflect.*;
-import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.List;
-import java.util.UUID;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
 
 public interface Documentable {
 
@@ -24,75 +22,22 @@ public interface Documentable {
      * @return a {@link Document} containing all the selected fields of the given {@link Object}
      */
     static @NotNull Document toDocument(@NotNull final Documentable object) {
-        final Class<?> clazz = object.getClass();
-        final Document document = new Document();
+        final SavePlan plan = new SavePlan();
+        final Document document = toDocument(object, plan);
 
-        List<Field> fields = getFields(clazz);
-        for (final Field field : fields) { // iterate through all fields
-            try {
-                field.setAccessible(true);
-
-                final Object value = field.get(object);
-                Object serialized = value;
-                if(value == null) continue; // skip null values
-
-                final boolean isArray = field.getType().isArray();
-                final boolean isList = List.class.isAssignableFrom(field.getType());
-
-                final Serialize serializeAnnotation = field.isAnnotationPresent(Serialize.class) ? field.getAnnotation(Serialize.class) : null;
-                final SerializationMethod serializationMethod = serializeAnnotation != null ? serializeAnnotation.method() : SerializationMethod.OBJECT;
-                final Class<?> type = serializeAnnotation != null ?
-                        serializeAnnotation.type() != Object.class ? serializeAnnotation.type() : field.getType()
-                        : field.getType();
-                final boolean saveTags = serializeAnnotation == null || serializeAnnotation.save();
-
-                if(isArray) {
-                    serialized = Arrays.asList((Object[]) value); // convert array to list
-                } else if (!isList) { // if not a list,
-                    serialized = List.of(value); // convert single value to list
-                }
-
-                // Attempt to find Documentable#toX() method...
-                Method method = Arrays.stream(type.getDeclaredMethods()).filter(m -> m.getName().equalsIgnoreCase("serialize"))
-                        .findFirst()
-                        .orElse(null);
-
-                if(IDynamicTag.class.isAssignableFrom(type) && method == null) { // If it's a tag we can use the base serialization method
-                    method = Arrays.stream(IDynamicTag.class.getDeclaredMethods()).filter(m -> m.getName().equalsIgnoreCase("serialize"))
-                            .findFirst()
-                            .orElse(null);
-                }
-
-                if (method != null) method.setAccessible(true);
-
-                final ArrayList<Object> array = new ArrayList<>();
-                for (final Object element : List.copyOf((List<?>) serialized)) { // Iterate over a copy of serialized to prevent modification exceptions.
-                    switch (serializationMethod) {
-                        case OBJECT -> {
-                            if(element instanceof Documentable documentable) {
-                                array.add(documentable.asDocument());
-                            }else if(element instanceof UUID uuid) {
-                                array.add(uuid.toString());
-                            }else array.add(element);
-                        }
-                        default -> {
-                            if(method == null) continue;
-                            if(!method.isAnnotationPresent(DocumentableMethod.class))
-                                throw new NoSuchMethodException(); // if the method is not annotated with DocumentableMethod, throw an exception
-
-                            if(saveTags && element instanceof IDynamicTag tag)
-                                tag.saveSync(true);
-
-                            array.add(invokeMethod(method, element));
-                        }
-                    }
-                }
-
-                serialized = isArray || isList ? array : array.get(0);
-                if(serialized instanceof UUID uuid) serialized = uuid.toString();
-                document.append(field.getName(), serialized);
-            }catch (Exception ignored) { }
-        }
+        plan.execute(); // nested tags annotated with @Serialize(save = true), batched per collection.
+        return document;
+    }
+
+    /**
+     * @param object The object to serialize.
+     * @param plan The plan collecting the nested tags to save, or null to save them immediately.
+     *
+     * @return a {@link Document} containing all the selected fields of the given {@link Object}
+     */
+    static @NotNull Document toDocument(@NotNull final Documentable object, @Nullable final SavePlan plan) {
+        final Document document = new Document();
+        DocumentablePlan.of(object.getClass()).write(object, document, plan);
 
         return document;
     }
@@ -102,80 +47,13 @@ public interface Documentable {
      *
      * @param document The document to insert.
      * @param object The object to insert the document into.
+     *
+     * @apiNote if the object is an {@link IDynamicTag}, the document becomes its clean state for {@link DirtyTracker}.
      */
     static void insertDocument(@NotNull final SystemManager manager, @NotNull final Document document, @NotNull final Object object) {
-        final List<Field> fields = getFields(object.getClass());
-
-        for (final Field field : fields) {
-            try {
-                field.setAccessible(true);
-
-                final Object value = document.get(field.getName());
-                if (value == null) continue; // If null no reason to continue.
-                Object deserialized = value;
-
-                final Method setter = Arrays.stream(object.getClass().getDeclaredMethods())
-                        .filter(m -> m.getName().equalsIgnoreCase("set" + field.getName()))
-                        .findFirst().orElse(null);
-
-                final boolean isArray = field.getType().isArray();
-                final boolean isList = List.class.isAssignableFrom(field.getType());
-
-                final Serialize serializeAnnotation = field.isAnnotationPresent(Serialize.class) ? field.getAnnotation(Serialize.class) : null;
-                final SerializationMethod serializationMethod = serializeAnnotation != null ? serializeAnnotation.method() : SerializationMethod.OBJECT;
-                final Class<?> type = serializeAnnotation != null ? serializeAnnotation.type() != Object.class ? serializeAnnotation.type() : field.getType() : field.getType();
-
-                if(!(isArray || isList)) {
-                    deserialized = List.of(value);
-                }
-
-                // Attempt to find Documentable#fromX() method...
-                final Method method = Arrays.stream(type.getDeclaredMethods()).filter(m -> m.getName().equalsIgnoreCase("deserialize"))
-                        .findFirst()
-                        .orElse(null);
-                if (method != null) method.setAccessible(true);
-
-                final ArrayList<Object> arrayList = new ArrayList<>();
-                for (final Object element : List.copyOf((List<?>) deserialized)) {
-                    switch (serializationMethod) {
-                        case OBJECT -> {
-                            if(element instanceof Document doc) {
-                                arrayList.add(Documentable.fromDocument(manager, doc, type));
-                                continue;
-                            }
-
-                            arrayList.add(element);
-                        }
-                        default -> {
-                            if(method == null) continue;
-                            if(!method.isAnnotationPresent(DocumentableMethod.class))
-                                throw new NoSuchMethodException();
-
-                            arrayList.add(invokeMethod(method, null, manager, element));
-                        }
-                    }
-                }
-
-                deserialized = arrayList;
-                if(isArray) {
-                  Object[] nonTypedArray = arrayList.toArray();
-
-                  Object typedArray = Array.newInstance(type, nonTypedArray.length);
-                  java.lang.System.arraycopy(nonTypedArray, 0, typedArray, 0, nonTypedArray.length);
-
-                  deserialized = typedArray;
-                } else if(!isList) deserialized = arrayList.get(0);
-
-                if(type.equals(UUID.class) && deserialized instanceof String string) {
-                    deserialized = UUID.fromString(string);
-                }
-
-                if (setter != null) invokeMethod(setter, object, deserialized);
-                else field.set(object, deserialized);
-            } catch (Exception ignored) {
-                ignored.printStackTrace();
-            }
-        }
+        DocumentablePlan.of(object.getClass()).read(manager, document, object, null);
+
+        if (object instanceof IDynamicTag tag) DirtyTracker.markClean(tag, document);
     }
 
     /**
@@ -186,78 +64,93 @@ public interface Documentable {
      * @param instance The instance to insert the document into.
      */
     static @NotNull <T> T fromDocument(@NotNull final SystemManager manager, @NotNull final Document document, @NotNull final Class<? extends T> instance) throws Exception {
-        T object;
-
-        Constructor<? extends T>[] constructors = (Constructor<? extends T>[]) instance.getDeclaredConstructors();
-        Constructor<? extends T> constructor = null;
-
-        for (Constructor<? extends T> compare : constructors) {
-            if(!compare.isAnnotationPresent(DocumentableMethod.class)) continue;
+        return instance.cast(DocumentablePlan.of(instance).create(manager, document, null));
+    }
 
-            constructor = compare;
-            break;
-        }
+    /**
+     * Creates an instance of the inputted object from a document containing only some of its fields (e.g. loaded with {@link #projection(Class, String...)}).
+     * The other fields keep the values given by the constructor.
+     *
+     * @param manager the system manager.
+     * @param document The partial document to convert.
+     * @param instance The instance to insert the document into.
+     *
+     * @apiNote if the object is an {@link IDynamicTag}, its current state becomes its clean state for {@link DirtyTracker}, so {@code saveChanges} only sends
+     * the fields modified after the load. A full save (e.g. {@code save()}) would overwrite the fields that were not loaded.
+     */
+    static @NotNull <T> T fromPartialDocument(@NotNull final SystemManager manager, @NotNull final Document document, @NotNull final Class<? extends T> instance) throws Exception {
+        final DocumentablePlan plan = DocumentablePlan.of(instance);
 
-        if(constructor == null)
-            constructor = instance.getDeclaredConstructor();
+        final Object object = plan.instantiate(manager, document);
+        plan.read(manager, document, object, null);
 
-        constructor.setAccessible(true);
+        if (object instanceof IDynamicTag tag) DirtyTracker.markClean(tag, toDocument(tag, new SavePlan())); // nested tags are not saved.
+        return instance.cast(object);
+    }
 
-        ArrayList<Object> parameters = new ArrayList<>();
-        for (Parameter parameter : constructor.getParameters()) {
-            int orginalSize = parameters.size();
-            Class<?> type = parameter.getType();
+    /**
+     * Builds a projection including only the given fields of a class, the network transfer and decoding then scale with the fields actually needed.
+     *
+     * @param instance The class of the object.
+     * @param fields The names of the serialized fields to include, nested paths (e.g. {@code "settings.language"}) are allowed.
+     * @return the projection.
+     * @throws IllegalArgumentException if a field is not serialized by the class.
+     */
+    static @NotNull Bson projection(@NotNull final Class<?> instance, @NotNull final String... fields) {
+        final DocumentablePlan plan = DocumentablePlan.of(instance);
 
-            if (SystemManager.class.equals(type)) parameters.add(manager); // system manager
-            if (System.class.isAssignableFrom(type)) parameters.add(manager.search((Class<? extends System>) type)); // any system registered in the system manager
-            if (Document.class.equals(type)) parameters.add(document); // the document that created the object.
+        for (final String field : fields) {
+            final int dot = field.indexOf('.');
+            final String name = dot == -1 ? field : field.substring(0, dot);
 
-            if(parameters.size() == orginalSize) parameters.add(null); // Default
+            if (!name.equals(DirtyTracker.ID_KEY) && !name.equals(DirtyTracker.VERSION_KEY) && plan.getField(name) == null)
+                throw new IllegalArgumentException(instance.getName() + " does not serialize a field named " + name + ".");
         }
 
-        object = parameters.isEmpty() ? constructor.newInstance() : constructor.newInstance(parameters.toArray());
-        insertDocument(manager, document, object);
-        return object;
+        return Projections.include(fields);
     }
 
-    private static @NotNull List<Field> getFields(@NotNull final Class<?> child) {
-        List<Field> arr = new ArrayList<>();
-        Class<?> parent = child.getSuperclass();
-
-        if (parent != null)
-            arr.addAll(List.of(parent.getDeclaredFields()));
-        arr.addAll(List.of(child.getDeclaredFields())); // The reason why we add the superclass fields first is to make sure that the superclass fields are at the beginning of the list.
+    /**
+     * Builds the indexes declared on the serialized fields of a class with {@link Indexed}.
+     * Fields sharing an index name form one compound index, ordered by {@link Indexed#order()}.
+     *
+     * @param instance The class of the object.
+     * @return the indexes, in declaration order.
+     * @throws IllegalArgumentException if the fields of a compound index declare different options.
+     */
+    static @NotNull List<IndexModel> indexes(@NotNull final Class<?> instance) {
+        final Map<String, List<Map.Entry<Indexed, String>>> groups = new LinkedHashMap<>();
 
-        List<Field> filteredFields = new ArrayList<>();
-        for(Field field : arr) {
-            try {
-                field.setAccessible(true);
+        for (final DocumentablePlan.FieldPlan field : DocumentablePlan.of(instance).getFields()) {
+            for (final Indexed indexed : field.getField().getAnnotationsByType(Indexed.class)) {
+                final String name = indexed.name().isEmpty() ? field.getName() + (indexed.descending() ? "_-1" : "_1") : indexed.name();
+                groups.computeIfAbsent(name, key -> new ArrayList<>()).add(Map.entry(indexed, field.getName()));
+            }
+        }
 
-                int modifiers = field.getModifiers();
+        final List<IndexModel> indexes = new ArrayList<>();
 
-                if( // If the field is static, final, or transient, we don't want to include it in the document.
-                        Modifier.isStatic(modifiers)
-                                || Modifier.isTransient(modifiers)
-                                || field.getName().contains("$")
-                ) continue;
+        groups.forEach((name, fields) -> {
+            fields.sort(Comparator.comparingInt(entry -> entry.getKey().order())); // stable, declaration order otherwise.
 
-                filteredFields.add(field);
+            final Indexed first = fields.get(0).getKey();
+            final List<Bson> keys = new ArrayList<>();
 
-                field.setAccessible(false);
-            }catch (Exception ignored) { }
-        }
+            for (final Map.Entry<Indexed, String> field : fields) {
+                final Indexed indexed = field.getKey();
+                if (indexed.unique() != first.unique() || indexed.sparse() != first.sparse() || indexed.expireAfterSeconds() != first.expireAfterSeconds())
+                    throw new IllegalArgumentException("The fields of the index " + name + " of " + instance.getName() + " declare different options.");
 
-        return ImmutableList.copyOf(filteredFields);
-    }
+                keys.add(indexed.descending() ? Indexes.descending(field.getValue()) : Indexes.ascending(field.getValue()));
+            }
 
-    private static @Nullable Object invokeMethod(@NotNull final Method method, @Nullable final Object instance, final Object... parameters) {
-        Object value = null;
+            final IndexOptions options = new IndexOptions().name(name).unique(first.unique()).sparse(first.sparse());
+            if (first.expireAfterSeconds() >= 0) options.expireAfter(first.expireAfterSeconds(), TimeUnit.SECONDS);
 
-        try { // Nested try-catch block to print any exception occurred while invoking the method.
-            value = method.invoke(instance, parameters);
-        }catch (Exception exception) { exception.printStackTrace(); }
+            indexes.add(new IndexModel(keys.size() == 1 ? keys.get(0) : Indexes.compoundIndex(keys), options));
+        });
 
-        return value;
+        return indexes;
     }
 
     @NotNull Document asDocument();
@@ -274,4 +167,35 @@ public interface Documentable {
         boolean save() default false;
     }
 
+    /**
+     * Declares an index on a serialized field, created by {@link com.meturum.centra.mongo.IndexReconciler} when missing.
+     * Fields annotated with the same {@link #name()} form a compound index.
+     */
+    @Target({ElementType.FIELD})
+    @Retention(RetentionPolicy.RUNTIME)
+    @Repeatable(Indexed.List.class)
+    @interface Indexed {
+        /**
+         * @return the name of the index, the fields sharing it form a compound index. Defaults to the name generated by Mongo for a single field.
+         */
+        String name() default "";
+        /**
+         * @return the position of the field in a compound index.
+         */
+        int order() default 0;
+        boolean descending() default false;
+        boolean unique() default false;
+        boolean sparse() default false;
+        /**
+         * @return the number of seconds after which documents expire (TTL, the field must hold a date), or -1 to never expire.
+         */
+        long expireAfterSeconds() default -1;
+
+        @Target({ElementType.FIELD})
+        @Retention(RetentionPolicy.RUNTIME)
+        @interface List {
+            Indexed[] value();
+        }
+    }
+
 }
@@ -0,0 +1,203 @@
+package com.meturum.centra.conversions;
+
+import com.meturum.centra.system.SystemManager;
+import org.bson.BsonReader;
+import org.bson.BsonType;
+import org.bson.BsonWriter;
+import org.bson.Document;
+import org.bson.codecs.BsonTypeClassMap;
+import org.bson.codecs.Codec;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.EncoderContext;
+import org.bson.codecs.configuration.CodecRegistry;
+import org.jetbrains.annotations.NotNull;
+
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Supplier;
+
+/**
+ * A BSON {@link Codec} that streams a {@link Documentable} straight to a {@link BsonWriter} and reads it back from a {@link BsonReader},
+ * without building an intermediate {@link Document} tree.
+ * <p>
+ * Fields are converted with the same rules as {@link Documentable#toDocument(Documentable)} and {@link Documentable#insertDocument(SystemManager, Document, Object)}.
+ * Nested documentables serialized with {@link Documentable.SerializationMethod#OBJECT} are streamed through the registry as well,
+ * meaning their {@link Documentable#asDocument()} implementation is not called.
+ * Classes with a generated {@link DocumentCodec} are encoded by it instead of the reflective plan, into a {@link Document} written by the registry.
+ * <p>
+ * The codec runs inside the driver, while it builds the command, so it never saves the nested tags annotated with {@code @Serialize(save = true)}:
+ * run the write with {@link #collect(SavePlan, Supplier)} to collect them, then execute the plan once the write succeeded.
+ * Classes with a generated codec, a constructor requiring the document, or {@link IDynamicTag}s (keeping it as their clean state for {@link DirtyTracker})
+ * are decoded from a {@link Document}, the same way as {@link Documentable#fromDocument(SystemManager, Document, Class)}.
+ *
+ * @param <T> the type of the documentable.
+ * @see DocumentableCodecProvider
+ */
+public final class DocumentableCodec<T extends Documentable> implements Codec<T> {
+
+    private static final BsonTypeClassMap BSON_TYPES = new BsonTypeClassMap();
+    private static final ThreadLocal<SavePlan> PLAN = new ThreadLocal<>();
+
+    private final Class<T> clazz;
+    private final CodecRegistry registry;
+    private final SystemManager manager;
+
+    private final DocumentablePlan plan;
+    private final @Nullable DocumentCodec<Object> generated;
+
+    public DocumentableCodec(@NotNull final Class<T> clazz, @NotNull final CodecRegistry registry, @NotNull final SystemManager manager) {
+        this.clazz = clazz;
+        this.registry = registry;
+        this.manager = manager;
+        this.plan = DocumentablePlan.of(clazz);
+        this.generated = DocumentCodecs.find(clazz);
+    }
+
+    /**
+     * Runs a write, collecting the nested tags of the documentables it encodes into a plan instead of discarding them.
+     * <pre>{@code
+     * SavePlan tags = new SavePlan();
+     * DocumentableCodec.collect(tags, () -> profiles.insertOne(profile));
+     * tags.executeAsync(wrapper.getExecutor());
+     * }</pre>
+     *
+     * @param plan the plan collecting the nested tags, executed by the caller once the write succeeded.
+     * @param write the write, encoding the documentables on the calling thread.
+     * @return the result of the write.
+     */
+    public static <R> R collect(@NotNull final SavePlan plan, @NotNull final Supplier<R> write) {
+        final SavePlan previous = PLAN.get();
+        PLAN.set(plan);
+        try {
+            return write.get();
+        }finally {
+            if (previous != null) PLAN.set(previous);
+            else PLAN.remove();
+        }
+    }
+
+    @Override
+    public void encode(@NotNull final BsonWriter writer, @NotNull final T value, @NotNull final EncoderContext context) {
+        final boolean exact = value.getClass() == clazz;
+        final DocumentablePlan plan = exact ? this.plan : DocumentablePlan.of(value.getClass());
+        final DocumentCodec<Object> generated = exact ? this.generated : DocumentCodecs.find(value.getClass());
+
+        final SavePlan collecting = PLAN.get();
+        final SavePlan tags = collecting != null ? collecting : new SavePlan(); // discarded when the caller does not collect them.
+
+        if (generated != null) {
+            final Document document = new Document();
+            generated.encode(value, document, tags);
+
+            context.encodeWithChildContext(registry.get(Document.class), writer, document);
+            return;
+        }
+
+        writer.writeStartDocument();
+        for (final DocumentablePlan.FieldPlan field : plan.getFields()) {
+            final Object serialized;
+            try {
+                final Object fieldValue = field.get(value);
+                if (fieldValue == null) continue; // skip null values
+
+                serialized = field.encodeShallow(fieldValue, tags);
+            }catch (Exception ignored) { continue; } // same as toDocument, fields that cannot be serialized are skipped.
+
+            writer.writeName(field.getName());
+            writeValue(writer, serialized, context);
+        }
+        writer.writeEndDocument();
+    }
+
+    @Override
+    public @NotNull T decode(@NotNull final BsonReader reader, @NotNull final DecoderContext context) {
+        try {
+            if (plan.requiresDocument() || generated != null || IDynamicTag.class.isAssignableFrom(clazz)) {
+                final Document document = registry.get(Document.class).decode(reader, context);
+                return clazz.cast(plan.create(manager, document, null)); // reads through the generated codec and marks tags clean.
+            }
+
+            final T object = clazz.cast(plan.instantiate(manager, null));
+
+            reader.readStartDocument();
+            while (reader.readBsonType() != BsonType.END_OF_DOCUMENT) {
+                final DocumentablePlan.FieldPlan field = plan.getField(reader.readName());
+                if (field == null) { // e.g. _id, or a field that was removed.
+                    reader.skipValue();
+                    continue;
+                }
+
+                final Object value = readValue(reader, context);
+                if (value == null) continue; // If null no reason to continue.
+
+                try {
+                    field.set(object, field.decode(manager, value, null));
+                }catch (Exception exception) {
+                    exception.printStackTrace();
+                }
+            }
+            reader.readEndDocument();
+
+            return object;
+        }catch (RuntimeException exception) {
+            throw exception;
+        }catch (Exception exception) {
+            throw new IllegalStateException("Could not decode " + clazz.getName(), exception);
+        }
+    }
+
+    @Override
+    public @NotNull Class<T> getEncoderClass() {
+        return clazz;
+    }
+
+    private void writeValue(@NotNull final BsonWriter writer, @Nullable final Object value, @NotNull final EncoderContext context) {
+        if (value == null) {
+            writer.writeNull();
+            return;
+        }
+
+        if (value instanceof List<?> list) {
+            writer.writeStartArray();
+            for (final Object element : list) {
+                writeValue(writer, element, context);
+            }
+            writer.writeEndArray();
+            return;
+        }
+
+        @SuppressWarnings("unchecked") // the registry returns the codec of the runtime class of the value, it accepts the value.
+        final Codec<Object> codec = (Codec<Object>) registry.get(value.getClass());
+        context.encodeWithChildContext(codec, writer, value);
+    }
+
+    private @Nullable Object readValue(@NotNull final BsonReader reader, @NotNull final DecoderContext context) {
+        final BsonType type = reader.getCurrentBsonType();
+
+        switch (type) {
+            case NULL -> {
+                reader.readNull();
+                return null;
+            }
+            case ARRAY -> {
+                final List<Object> list = new ArrayList<>();
+
+                reader.readStartArray();
+                while (reader.readBsonType() != BsonType.END_OF_DOCUMENT) {
+                    list.add(readValue(reader, context));
+                }
+                reader.readEndArray();
+
+                return list;
+            }
+            case DOCUMENT -> {
+                return registry.get(Document.class).decode(reader, context);
+            }
+            default -> {
+                return context.decodeWithChildContext(registry.get(BSON_TYPES.get(type)), reader);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,33 @@
+package com.meturum.centra.conversions;
+
+import com.meturum.centra.system.SystemManager;
+import org.bson.codecs.Codec;
+import org.bson.codecs.configuration.CodecProvider;
+import org.bson.codecs.configuration.CodecRegistry;
+import org.jetbrains.annotations.NotNull;
+
+import javax.annotation.Nullable;
+
+/**
+ * Provides a {@link DocumentableCodec} for any {@link Documentable} class.
+ *
+ * @see com.meturum.centra.mongo.Mongo#getCollection(String, com.meturum.centra.mongo.Mongo.MongoClientTypes, Class)
+ */
+public final class DocumentableCodecProvider implements CodecProvider {
+
+    private final SystemManager manager;
+
+    public DocumentableCodecProvider(@NotNull final SystemManager manager) {
+        this.manager = manager;
+    }
+
+    @Override
+    public <T> @Nullable Codec<T> get(@NotNull final Class<T> clazz, @NotNull final CodecRegistry registry) {
+        if (!Documentable.class.isAssignableFrom(clazz)) return null;
+
+        @SuppressWarnings("unchecked") // created for clazz itself, only the bound of the type parameter is lost by asSubclass.
+        final Codec<T> codec = (Codec<T>) new DocumentableCodec<>(clazz.asSubclass(Documentable.class), registry, manager);
+        return codec;
+    }
+
+}
@@ -0,0 +1,568 @@
+package com.meturum.centra.conversions;
+
+import com.google.common.collect.ImmutableList;
+import com.meturum.centra.conversions.annotations.DocumentableMethod;
+import com.meturum.centra.system.System;
+import com.meturum.centra.system.SystemManager;
+import org.bson.Document;
+import org.jetbrains.annotations.NotNull;
+
+import javax.annotation.Nullable;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * The resolved serialization metadata of a {@link Documentable} class.
+ * <p>
+ * Resolving fields, {@link Documentable.Serialize} settings, setters, converters and the constructor is done once per class
+ * and cached through a {@link ClassValue}, every call to {@link Documentable#toDocument(Documentable)},
+ * {@link Documentable#insertDocument(SystemManager, Document, Object)} and {@link Documentable#fromDocument(SystemManager, Document, Class)}
+ * reuses the same plan.
+ * <p>
+ * Fields, setters, converters and the constructor are bound into {@link MethodHandle}s adapted to erased signatures,
+ * this avoids the access checks, argument arrays and exception wrapping of {@link Field#get(Object)} and {@link Method#invoke(Object, Object...)}.
+ * Members that cannot be adapted fall back to reflection.
+ */
+final class DocumentablePlan {
+
+    private static final MethodHandles.Lookup LOOKUP = MethodHandles.lookup();
+
+    private static final MethodType GETTER_TYPE = MethodType.methodType(Object.class, Object.class);
+    private static final MethodType SETTER_TYPE = MethodType.methodType(void.class, Object.class, Object.class);
+    private static final MethodType SERIALIZER_TYPE = MethodType.methodType(Object.class, Object.class);
+    private static final MethodType DESERIALIZER_TYPE = MethodType.methodType(Object.class, SystemManager.class, Object.class);
+
+    private static final ClassValue<DocumentablePlan> PLANS = new ClassValue<>() {
+        @Override
+        protected DocumentablePlan computeValue(@NotNull final Class<?> type) {
+            return new DocumentablePlan(type);
+        }
+    };
+
+    private final Class<?> type;
+    private final List<FieldPlan> fields;
+
+    private final @Nullable MethodHandle constructor;
+    private final @Nullable Exception constructorException;
+    private final Class<?>[] parameters;
+
+    private DocumentablePlan(@NotNull final Class<?> type) {
+        this.type = type;
+
+        final List<FieldPlan> plans = new ArrayList<>();
+        for (final Field field : getFields(type)) {
+            try {
+                plans.add(new FieldPlan(type, field));
+            }catch (IllegalAccessException ignored) { }
+        }
+
+        this.fields = ImmutableList.copyOf(plans);
+
+        MethodHandle constructor = null;
+        Class<?>[] parameters = new Class<?>[0];
+        Exception constructorException = null;
+        try {
+            final Constructor<?> reflected = findConstructor(type);
+            reflected.setAccessible(true);
+
+            parameters = reflected.getParameterTypes();
+            constructor = LOOKUP.unreflectConstructor(reflected) // (Object[]) -> Object
+                    .asType(MethodType.genericMethodType(parameters.length))
+                    .asSpreader(Object[].class, parameters.length);
+        }catch (Exception exception) {
+            constructorException = exception;
+        }
+
+        this.constructor = constructor;
+        this.constructorException = constructorException;
+        this.parameters = parameters;
+    }
+
+    /**
+     * @param type the class to resolve.
+     * @return the cached plan of the given class.
+     */
+    static @NotNull DocumentablePlan of(@NotNull final Class<?> type) {
+        return PLANS.get(type);
+    }
+
+    /**
+     * @return the class this plan was resolved for.
+     */
+    @NotNull Class<?> getType() {
+        return type;
+    }
+
+    /**
+     * @return the serializable fields of the class, superclass fields first.
+     */
+    @NotNull List<FieldPlan> getFields() {
+        return fields;
+    }
+
+    /**
+     * @return true if the constructor used by {@link #instantiate(SystemManager, Document)} requires the source document.
+     */
+    boolean requiresDocument() {
+        for (final Class<?> parameter : parameters) {
+            if (Document.class.equals(parameter)) return true;
+        }
+
+        return false;
+    }
+
+    /**
+     * @param name the name of the field.
+     * @return the plan of the field, or null if the field is not serialized.
+     */
+    @Nullable FieldPlan getField(@NotNull final String name) {
+        for (final FieldPlan field : fields) {
+            if (field.getName().equals(name)) return field;
+        }
+
+        return null;
+    }
+
+    /**
+     * Writes all the selected fields of the given object into the document.
+     * If a codec was generated for the class at compile time it is used instead.
+     *
+     * @param object the object to serialize.
+     * @param document the document to write into.
+     * @param plan the plan collecting the nested tags to save, or null to save them immediately.
+     */
+    void write(@NotNull final Object object, @NotNull final Document document, @Nullable final SavePlan plan) {
+        final DocumentCodec<Object> codec = DocumentCodecs.find(type);
+        if (codec != null) {
+            codec.encode(object, document, plan);
+            return;
+        }
+
+        for (final FieldPlan field : fields) {
+            try {
+                final Object value = field.get(object);
+                if (value == null) continue; // skip null values
+
+                document.append(field.getName(), field.encode(value, plan));
+            }catch (Exception ignored) { }
+        }
+    }
+
+    /**
+     * Reads all the selected fields of the given object from the document.
+     * If a codec was generated for the class at compile time it is used instead.
+     *
+     * @param manager the system manager.
+     * @param document the document to read from.
+     * @param object the object to insert the document into.
+     * @param resolver the resolver of the current load, or null to convert every reference on its own.
+     */
+    void read(@NotNull final SystemManager manager, @NotNull final Document document, @NotNull final Object object, @Nullable final ReferenceResolver resolver) {
+        final DocumentCodec<Object> codec = DocumentCodecs.find(type);
+        if (codec != null) {
+            codec.decode(manager, document, object, resolver);
+            return;
+        }
+
+        for (final FieldPlan field : fields) {
+            try {
+                final Object value = document.get(field.getName());
+                if (value == null) continue; // If null no reason to continue.
+
+                field.set(object, field.decode(manager, value, resolver));
+            }catch (Exception exception) {
+                exception.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Creates a new instance of the class and reads the document into it.
+     * If the object is an {@link IDynamicTag}, the document becomes its clean state for {@link DirtyTracker}.
+     *
+     * @param manager the system manager.
+     * @param document the document to read from.
+     * @param resolver the resolver of the current load, or null to convert every reference on its own.
+     * @return the new instance.
+     */
+    @NotNull Object create(@NotNull final SystemManager manager, @NotNull final Document document, @Nullable final ReferenceResolver resolver) throws Exception {
+        final Object object = instantiate(manager, document);
+        read(manager, document, object, resolver);
+
+        if (object instanceof IDynamicTag tag) DirtyTracker.markClean(tag, document);
+        return object;
+    }
+
+    /**
+     * Creates a new instance of the class using the constructor annotated with {@link DocumentableMethod},
+     * or the no-args constructor if none is annotated.
+     *
+     * @param manager the system manager.
+     * @param document the document that creates the object, may only be null if {@link #requiresDocument()} is false.
+     * @return the new instance.
+     */
+    @NotNull Object instantiate(@NotNull final SystemManager manager, @Nullable final Document document) throws Exception {
+        if (constructor == null)
+            throw constructorException != null ? constructorException : new NoSuchMethodException(type.getName() + ".<init>()");
+
+        final Object[] arguments = new Object[parameters.length];
+        for (int i = 0; i < parameters.length; i++) {
+            final Class<?> parameter = parameters[i];
+
+            if (SystemManager.class.equals(parameter)) arguments[i] = manager; // system manager
+            else if (System.class.isAssignableFrom(parameter)) arguments[i] = manager.search(parameter.asSubclass(System.class)); // any system registered in the system manager
+            else if (Document.class.equals(parameter)) arguments[i] = document; // the document that created the object.
+        }
+
+        try {
+            return (Object) constructor.invokeExact(arguments);
+        }catch (Exception | Error exception) {
+            throw exception;
+        }catch (Throwable throwable) {
+            throw new InvocationTargetException(throwable);
+        }
+    }
+
+    private static @NotNull Constructor<?> findConstructor(@NotNull final Class<?> type) throws NoSuchMethodException {
+        for (final Constructor<?> compare : type.getDeclaredConstructors()) {
+            if (compare.isAnnotationPresent(DocumentableMethod.class)) return compare;
+        }
+
+        return type.getDeclaredConstructor();
+    }
+
+    private static @NotNull List<Field> getFields(@NotNull final Class<?> child) {
+        final List<Field> arr = new ArrayList<>();
+        final Class<?> parent = child.getSuperclass();
+
+        if (parent != null)
+            arr.addAll(List.of(parent.getDeclaredFields()));
+        arr.addAll(List.of(child.getDeclaredFields())); // The reason why we add the superclass fields first is to make sure that the superclass fields are at the beginning of the list.
+
+        final List<Field> filteredFields = new ArrayList<>();
+        for (final Field field : arr) {
+            final int modifiers = field.getModifiers();
+
+            if ( // If the field is static or transient, we don't want to include it in the document.
+                    Modifier.isStatic(modifiers)
+                            || Modifier.isTransient(modifiers)
+                            || field.getName().contains("$")
+            ) continue;
+
+            try {
+                field.setAccessible(true);
+            }catch (Exception ignored) { continue; }
+
+            filteredFields.add(field);
+        }
+
+        return filteredFields;
+    }
+
+    /**
+     * The resolved serialization metadata of a single field.
+     */
+    static final class FieldPlan implements DocumentCodec.FieldCodec {
+
+        private final Field field;
+        private final String name;
+
+        private final boolean isArray;
+        private final boolean isList;
+        private final boolean isPrimitiveArray;
+
+        private final Documentable.SerializationMethod serializationMethod;
+        private final Class<?> type;
+        private final boolean saveTags;
+
+        private final MethodHandle getter;
+        private final @Nullable MethodHandle setter;
+
+        private final @Nullable Method serializer;
+        private final @Nullable MethodHandle serializerHandle;
+        private final @Nullable Method deserializer;
+        private final @Nullable MethodHandle deserializerHandle;
+
+        private FieldPlan(@NotNull final Class<?> owner, @NotNull final Field field) throws IllegalAccessException {
+            this.field = field;
+            this.name = field.getName();
+
+            this.isArray = field.getType().isArray();
+            this.isList = List.class.isAssignableFrom(field.getType());
+
+            final Documentable.Serialize serializeAnnotation = field.getAnnotation(Documentable.Serialize.class);
+            this.serializationMethod = serializeAnnotation != null ? serializeAnnotation.method() : Documentable.SerializationMethod.OBJECT;
+            this.type = serializeAnnotation != null && serializeAnnotation.type() != Object.class ? serializeAnnotation.type() : field.getType();
+            this.saveTags = serializeAnnotation == null || serializeAnnotation.save();
+            this.isPrimitiveArray = PrimitiveArrays.isPrimitiveArray(field.getType()) && serializationMethod == Documentable.SerializationMethod.OBJECT;
+
+            this.getter = LOOKUP.unreflectGetter(field).asType(GETTER_TYPE);
+
+            final Method setter = findMethod(owner, "set" + name);
+            this.setter = setter != null ? adapt(setter, SETTER_TYPE) : adapt(field);
+
+            // Attempt to find Documentable#toX() method...
+            Method serializer = findMethod(type, "serialize");
+            if (IDynamicTag.class.isAssignableFrom(type) && serializer == null) // If it's a tag we can use the base serialization method
+                serializer = findMethod(IDynamicTag.class, "serialize");
+
+            this.serializer = serializer;
+            this.serializerHandle = serializer != null ? adapt(serializer, SERIALIZER_TYPE) : null;
+
+            // Attempt to find Documentable#fromX() method...
+            this.deserializer = findMethod(type, "deserialize");
+            this.deserializerHandle = deserializer != null ? adapt(deserializer, DESERIALIZER_TYPE) : null;
+        }
+
+        /**
+         * @return the name of the field, also used as the document key.
+         */
+        @NotNull String getName() {
+            return name;
+        }
+
+        /**
+         * @return the reflected field.
+         */
+        @NotNull Field getField() {
+            return field;
+        }
+
+        /**
+         * @return the type used to look up converters. (either the field type or {@link Documentable.Serialize#type()})
+         */
+        @NotNull Class<?> getType() {
+            return type;
+        }
+
+        @NotNull Documentable.SerializationMethod getSerializationMethod() {
+            return serializationMethod;
+        }
+
+        boolean isArray() {
+            return isArray;
+        }
+
+        boolean isList() {
+            return isList;
+        }
+
+        boolean isSaveTags() {
+            return saveTags;
+        }
+
+        /**
+         * @return the getter of the field, adapted to {@code (Object) -> Object}.
+         */
+        @NotNull MethodHandle getter() {
+            return getter;
+        }
+
+        /**
+         * @return the setter method (or the field setter) of the field, adapted to {@code (Object, Object) -> void}.
+         */
+        @NotNull MethodHandle setter() {
+            if (setter != null) return setter;
+
+            try { // fall back to Field#set bound to this field.
+                return LOOKUP.findVirtual(Field.class, "set", SETTER_TYPE).bindTo(field);
+            }catch (ReflectiveOperationException exception) {
+                throw new IllegalStateException(exception);
+            }
+        }
+
+        @Nullable Object get(@NotNull final Object object) throws Exception {
+            try {
+                return (Object) getter.invokeExact(object);
+            }catch (Exception | Error exception) {
+                throw exception;
+            }catch (Throwable throwable) {
+                throw new InvocationTargetException(throwable);
+            }
+        }
+
+        void set(@NotNull final Object object, @Nullable final Object value) throws Exception {
+            if (setter == null) {
+                field.set(object, value);
+                return;
+            }
+
+            try { // Nested try-catch block to print any exception occurred while invoking the setter.
+                setter.invokeExact(object, value);
+            }catch (Throwable throwable) { throwable.printStackTrace(); }
+        }
+
+        @Override
+        public @Nullable Object encode(@NotNull final Object value, @Nullable final SavePlan plan) throws Exception {
+            return encode(value, false, plan);
+        }
+
+        /**
+         * Converts a non-null field value into its document representation, nested {@link Documentable}s serialized with
+         * {@link Documentable.SerializationMethod#OBJECT} are kept as is so they can be streamed by the caller.
+         *
+         * @param value the value of the field.
+         * @param plan the plan collecting the nested tags to save, or null to save them immediately.
+         * @return the serialized value.
+         * @throws Exception if the value could not be serialized, the field should be skipped.
+         */
+        @Nullable Object encodeShallow(@NotNull final Object value, @Nullable final SavePlan plan) throws Exception {
+            return encode(value, true, plan);
+        }
+
+        private @Nullable Object encode(@NotNull final Object value, final boolean shallow, @Nullable final SavePlan plan) throws Exception {
+            if (isPrimitiveArray) return PrimitiveArrays.pack(value); // packed as a single binary, no boxing.
+
+            if (!isArray && !isList) { // single values are converted directly, no need to wrap them in a list.
+                final Object serialized = encodeElement(value, true, shallow, plan);
+                return serialized instanceof UUID uuid ? uuid.toString() : serialized;
+            }
+
+            final List<?> elements = isArray ? Arrays.asList((Object[]) value) : List.copyOf((List<?>) value); // Iterate over a copy to prevent modification exceptions.
+
+            final ArrayList<Object> array = new ArrayList<>(elements.size());
+            for (final Object element : elements) {
+                final Object serialized = encodeElement(element, false, shallow, plan);
+                if (serialized != SKIP) array.add(serialized);
+            }
+
+            return array;
+        }
+
+        @Override
+        public @Nullable Object decode(@NotNull final SystemManager manager, @NotNull final Object value, @Nullable final ReferenceResolver resolver) throws Exception {
+            if (isPrimitiveArray) return PrimitiveArrays.unpack(value, field.getType());
+
+            Object deserialized;
+
+            if (isArray || isList) {
+                final List<?> elements = (List<?>) value;
+
+                final ArrayList<Object> arrayList = new ArrayList<>(elements.size());
+                for (final Object element : elements) {
+                    final Object converted = decodeElement(manager, element, false, resolver);
+                    if (converted != SKIP) arrayList.add(converted);
+                }
+
+                deserialized = arrayList;
+                if (isArray) {
+                    final Object typedArray = Array.newInstance(type, arrayList.size());
+                    java.lang.System.arraycopy(arrayList.toArray(), 0, typedArray, 0, arrayList.size());
+
+                    deserialized = typedArray;
+                }
+            } else deserialized = decodeElement(manager, value, true, resolver);
+
+            if (type.equals(UUID.class) && deserialized instanceof String string) {
+                deserialized = UUID.fromString(string);
+            }
+
+            return deserialized;
+        }
+
+        private @Nullable Object encodeElement(@Nullable final Object element, final boolean single, final boolean shallow, @Nullable final SavePlan plan) throws Exception {
+            if (serializationMethod == Documentable.SerializationMethod.OBJECT)
+                return shallow && element instanceof Documentable ? element : DocumentCodecs.encode(element);
+
+            if (serializer == null) {
+                if (single) throw new NoSuchMethodException(type.getName() + ".serialize()");
+                return SKIP;
+            }
+
+            if (!serializer.isAnnotationPresent(DocumentableMethod.class))
+                throw new NoSuchMethodException(); // if the method is not annotated with DocumentableMethod, throw an exception
+
+            if (saveTags && element instanceof IDynamicTag tag)
+                DocumentCodecs.save(tag, plan);
+
+            if (serializerHandle == null) return invokeMethod(serializer, element);
+
+            try {
+                return (Object) serializerHandle.invokeExact(element);
+            }catch (Throwable throwable) {
+                throwable.printStackTrace();
+                return null;
+            }
+        }
+
+        private @Nullable Object decodeElement(@NotNull final SystemManager manager, @Nullable final Object element, final boolean single, @Nullable final ReferenceResolver resolver) throws Exception {
+            if (serializationMethod == Documentable.SerializationMethod.OBJECT)
+                return DocumentCodecs.decodeElement(manager, element, type, resolver);
+
+            final Object resolved = DocumentCodecs.resolve(resolver, type, element);
+            if (resolved != null) return resolved; // shared reference, already loaded.
+
+            if (deserializer == null) {
+                if (single) throw new NoSuchMethodException(type.getName() + ".deserialize()");
+                return SKIP;
+            }
+
+            if (!deserializer.isAnnotationPresent(DocumentableMethod.class))
+                throw new NoSuchMethodException();
+
+            if (deserializerHandle == null) return DocumentCodecs.remember(resolver, type, element, invokeMethod(deserializer, null, manager, element));
+
+            try {
+                return DocumentCodecs.remember(resolver, type, element, (Object) deserializerHandle.invokeExact(manager, element));
+            }catch (Throwable throwable) {
+                throwable.printStackTrace();
+                return null;
+            }
+        }
+
+        private static @Nullable Method findMethod(@NotNull final Class<?> type, @NotNull final String name) {
+            final Method method = Arrays.stream(type.getDeclaredMethods()).filter(m -> m.getName().equalsIgnoreCase(name))
+                    .findFirst()
+                    .orElse(null);
+
+            if (method != null) {
+                try {
+                    method.setAccessible(true);
+                }catch (Exception ignored) { }
+            }
+
+            return method;
+        }
+
+        /**
+         * Adapts the given method to the erased signature, the receiver (if any) becomes the first parameter.
+         *
+         * @return the adapted handle, or null if the method does not fit the signature. (the reflective path is used instead)
+         */
+        private static @Nullable MethodHandle adapt(@NotNull final Method method, @NotNull final MethodType type) {
+            try {
+                return LOOKUP.unreflect(method).asType(type);
+            }catch (Exception exception) {
+                return null;
+            }
+        }
+
+        private static @Nullable MethodHandle adapt(@NotNull final Field field) {
+            try {
+                return LOOKUP.unreflectSetter(field).asType(SETTER_TYPE);
+            }catch (Exception exception) {
+                return null; // e.g. final fields of records or hidden classes, Field#set is used instead.
+            }
+        }
+
+    }
+
+    private static final Object SKIP = new Object();
+
+    private static @Nullable Object invokeMethod(@NotNull final Method method, @Nullable final Object instance, final Object... parameters) {
+        Object value = null;
+
+        try { // Nested try-catch block to print any exception occurred while invoking the method.
+            value = method.invoke(instance, parameters);
+        }catch (Exception exception) { exception.printStackTrace(); }
+
+        return value;
+    }
+
+}
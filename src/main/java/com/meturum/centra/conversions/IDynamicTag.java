@@ -1,10 +1,19 @@
 package com.meturum.centra.conversions;
 
 import com.meturum.centra.conversions.annotations.DocumentableMethod;
+import com.meturum.centra.mongo.CollectionWrapper;
+import com.mongodb.ErrorCategory;
+import com.mongodb.MongoWriteException;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.UpdateOptions;
+import com.mongodb.client.model.Updates;
+import org.bson.Document;
+import org.bson.conversions.Bson;
 import org.jetbrains.annotations.NotNull;
 
 import javax.annotation.Nullable;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
 
 public interface IDynamicTag extends Documentable {
 
@@ -15,6 +24,26 @@ public interface IDynamicTag extends Documentable {
      */
     @NotNull UUID getUniqueId();
 
+    /**
+     * Gets the filter matching the document of this tag in its collection.
+     *
+     * @return the filter of this tag.
+     * @apiNote By default, this matches the {@code uuid} field against {@link #getUniqueId()}. Implementations storing their id under another key should override this.
+     */
+    default @NotNull Bson getFilter() {
+        return Filters.eq("uuid", getUniqueId().toString());
+    }
+
+    /**
+     * Gets the collection this tag is saved in.
+     *
+     * @return the collection of this tag, or null if unknown.
+     * @apiNote When known, nested saves ({@code @Serialize(save = true)}) of this tag are batched into one {@code bulkWrite} per collection by {@link SavePlan}.
+     */
+    default @Nullable CollectionWrapper getCollection() {
+        return null;
+    }
+
     /**
      * Saves this tag to the database.
      *
@@ -111,11 +140,189 @@ public interface IDynamicTag extends Documentable {
      */
     void saveAsync();
 
+    /**
+     * Saves only the fields that changed since this tag was last loaded or saved, as a {@code $set}/{@code $unset} update. (asynchronously)
+     * If nothing changed, no request is sent and the lambda is executed immediately.
+     *
+     * @param collection the collection of this tag.
+     * @param lambda the lambda to execute after saving.
+     * @param upsert whether to upsert this tag.
+     * @return true if an update was sent, false if nothing changed.
+     * @see DirtyTracker
+     */
+    default boolean saveChanges(@NotNull CollectionWrapper collection, @Nullable SaveLambda lambda, boolean upsert) {
+        final SavePlan plan = new SavePlan();
+        final DirtyTracker.Delta delta = DirtyTracker.diff(this, plan);
+        final Bson update = delta.toUpdate();
+
+        if (update == null && plan.isEmpty()) {
+            if (lambda != null) lambda.run(true);
+            return false;
+        }
+
+        // nested tags are written first (one bulkWrite per collection), then the changes of this tag.
+        (plan.isEmpty() ? CompletableFuture.completedFuture(true) : plan.executeAsync(collection.getExecutor())).whenComplete((nested, throwable) -> {
+            if (update == null) {
+                if (lambda != null) lambda.run(throwable == null && nested);
+                return;
+            }
+
+            collection.updateOneAsync(getFilter(), update, new UpdateOptions().upsert(upsert), (result, exception) -> {
+                final boolean saved = exception == null && result != null && (result.getMatchedCount() > 0 || result.getUpsertedId() != null);
+                if (saved) DirtyTracker.markSaved(this, delta.getDocument());
+
+                if (lambda != null) lambda.run(saved && throwable == null && nested);
+            });
+        });
+
+        return true;
+    }
+
+    /**
+     * Saves only the fields that changed since this tag was last loaded or saved. (asynchronously)
+     *
+     * @param collection the collection of this tag.
+     * @param lambda the lambda to execute after saving.
+     * @return true if an update was sent, false if nothing changed.
+     * @apiNote This method is equivalent to {@code IDynamicTag#saveChanges(collection, lambda, false)}. the variable {@code upsert} is set to false.
+     */
+    default boolean saveChanges(@NotNull CollectionWrapper collection, @Nullable SaveLambda lambda) {
+        return saveChanges(collection, lambda, false);
+    }
+
+    /**
+     * Saves only the fields that changed since this tag was last loaded or saved. (asynchronously)
+     *
+     * @param collection the collection of this tag.
+     * @return true if an update was sent, false if nothing changed.
+     * @apiNote This method is equivalent to {@code IDynamicTag#saveChanges(collection, null, false)}. the variable {@code upsert} is set to false.
+     */
+    default boolean saveChanges(@NotNull CollectionWrapper collection) {
+        return saveChanges(collection, null, false);
+    }
+
+    /**
+     * Saves only the fields that changed since this tag was last loaded or saved, on condition that nobody else saved it since (optimistic concurrency). (asynchronously)
+     * <p>
+     * The document carries a version ({@link DirtyTracker#VERSION_KEY}), incremented by every versioned save in the same update, no extra request
+     * is sent when there is no conflict. Otherwise, the document currently stored is read and passed to the strategy, which may retry the save
+     * (e.g. {@link ConflictStrategy#merge}) or give up, the lambda is then told with {@link SaveLambda#conflicted}.
+     *
+     * @param collection the collection of this tag.
+     * @param strategy the strategy resolving conflicts.
+     * @param lambda the lambda to execute after saving.
+     * @param upsert whether to insert this tag if it was never saved.
+     * @return true if an update was sent, false if nothing changed.
+     * @apiNote Every server saving the tag must use versioned saves, other saves do not increment the version and are not detected.
+     * Upserts are only safe with a unique index on the fields of {@link #getFilter()} (e.g. {@code @Documentable.Indexed(unique = true)}),
+     * a concurrent insert then fails with a duplicate key and is handled as a conflict. Without upsert, a save of a deleted tag runs the lambda with false.
+     * Nested tags ({@code @Serialize(save = true)}) are saved without a version.
+     * Through a {@link com.meturum.centra.mongo.WriteBehindCollectionWrapper}, versioned saves are neither delayed nor coalesced (their filter is conditional):
+     * they are sent in order after the pending writes, and the non-versioned saves queued meanwhile do not increment the version.
+     */
+    default boolean saveVersioned(@NotNull CollectionWrapper collection, @NotNull ConflictStrategy strategy, @Nullable SaveLambda lambda, boolean upsert) {
+        return saveVersioned(collection, strategy, lambda, upsert, 1);
+    }
+
+    /**
+     * Saves only the fields that changed since this tag was last loaded or saved, on condition that nobody else saved it since. (asynchronously)
+     *
+     * @param collection the collection of this tag.
+     * @param strategy the strategy resolving conflicts.
+     * @param lambda the lambda to execute after saving.
+     * @return true if an update was sent, false if nothing changed.
+     * @apiNote This method is equivalent to {@code IDynamicTag#saveVersioned(collection, strategy, lambda, false)}. the variable {@code upsert} is set to false.
+     */
+    default boolean saveVersioned(@NotNull CollectionWrapper collection, @NotNull ConflictStrategy strategy, @Nullable SaveLambda lambda) {
+        return saveVersioned(collection, strategy, lambda, false);
+    }
+
+    /**
+     * Saves only the fields that changed since this tag was last loaded or saved, on condition that nobody else saved it since. (asynchronously)
+     *
+     * @param collection the collection of this tag.
+     * @param strategy the strategy resolving conflicts.
+     * @return true if an update was sent, false if nothing changed.
+     * @apiNote This method is equivalent to {@code IDynamicTag#saveVersioned(collection, strategy, null, false)}. the variable {@code upsert} is set to false.
+     */
+    default boolean saveVersioned(@NotNull CollectionWrapper collection, @NotNull ConflictStrategy strategy) {
+        return saveVersioned(collection, strategy, null, false);
+    }
+
     @DocumentableMethod
     String serialize();
 
+    private boolean saveVersioned(@NotNull CollectionWrapper collection, @NotNull ConflictStrategy strategy, @Nullable SaveLambda lambda, boolean upsert, int attempt) {
+        final long version = DirtyTracker.getVersion(this);
+        final SavePlan plan = new SavePlan();
+        final DirtyTracker.Delta delta = DirtyTracker.diff(this, plan);
+        final Bson update = delta.toUpdate();
+
+        if (update == null && plan.isEmpty()) {
+            if (lambda != null) lambda.run(true);
+            return false;
+        }
+
+        (plan.isEmpty() ? CompletableFuture.completedFuture(true) : plan.executeAsync(collection.getExecutor())).whenComplete((nested, throwable) -> {
+            final boolean saved = throwable == null && nested;
+            if (update == null) {
+                if (lambda != null) lambda.run(saved);
+                return;
+            }
+
+            final Bson filter = Filters.and(getFilter(), version == 0 ? Filters.exists(DirtyTracker.VERSION_KEY, false) : Filters.eq(DirtyTracker.VERSION_KEY, version));
+            final Bson versioned = Updates.combine(update, Updates.set(DirtyTracker.VERSION_KEY, version + 1));
+
+            collection.updateOneAsync(filter, versioned, new UpdateOptions().upsert(upsert && version == 0), (result, exception) -> {
+                if (exception == null && result != null && (result.getMatchedCount() > 0 || result.getUpsertedId() != null)) {
+                    DirtyTracker.markClean(this, new Document(delta.getDocument()).append(DirtyTracker.VERSION_KEY, version + 1));
+
+                    if (lambda != null) lambda.run(saved);
+                    return;
+                }
+
+                if (exception != null && !(exception instanceof MongoWriteException write && write.getError().getCategory() == ErrorCategory.DUPLICATE_KEY)) {
+                    if (lambda != null) lambda.run(false);
+                    return;
+                }
+
+                // another server saved this tag since it was loaded, or inserted it first.
+                collection.findAsync(getFilter(), (found, error) -> {
+                    final Document remote;
+                    try {
+                        remote = error == null && found != null ? found.first() : null;
+                    }catch (Exception failure) {
+                        if (lambda != null) lambda.run(false);
+                        return;
+                    }
+
+                    if (error != null || found == null || (remote == null && !upsert)) { // a deleted tag is not recreated without upsert.
+                        if (lambda != null) lambda.run(false);
+                        return;
+                    }
+
+                    final ConflictStrategy.Conflict conflict = new ConflictStrategy.Conflict(this, version, remote, attempt);
+                    if (attempt < ConflictStrategy.MAX_ATTEMPTS && strategy.resolve(conflict)) saveVersioned(collection, strategy, lambda, upsert, attempt + 1);
+                    else if (lambda != null) lambda.conflicted(conflict);
+                });
+            });
+        });
+
+        return true;
+    }
+
     interface SaveLambda {
         void run(boolean saved);
+
+        /**
+         * Executed instead of {@link #run(boolean)} when a versioned save gave up on a conflict, see {@link IDynamicTag#saveVersioned}.
+         *
+         * @param conflict the last conflict.
+         * @apiNote By default, this is {@code run(false)}. Override it to tell conflicts from other failures.
+         */
+        default void conflicted(@NotNull ConflictStrategy.Conflict conflict) {
+            run(false);
+        }
     }
 
 }
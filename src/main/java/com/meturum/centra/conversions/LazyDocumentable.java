@@ -0,0 +1,188 @@
+package com.meturum.centra.conversions;
+
+import com.meturum.centra.system.SystemManager;
+import org.bson.*;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.DocumentCodec;
+import org.jetbrains.annotations.NotNull;
+
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A {@link Documentable} backed by a {@link RawBsonDocument}, fields are only decoded when they are first accessed.
+ * <p>
+ * Use {@link #get(String)} to read a few fields (e.g. a name or a rank) without building the object, or {@link #get()} to
+ * materialize it. When materializing, lists of nested documentables are inserted as a {@link LazyDocumentableList},
+ * their elements are only created when accessed.
+ * <p>
+ * Raw documents can be queried with {@code collection.raw().withDocumentClass(RawBsonDocument.class)}.
+ * This class is not thread-safe.
+ *
+ * @param <T> the type of the object.
+ */
+public final class LazyDocumentable<T> {
+
+    private static final DocumentCodec DOCUMENT_CODEC = new DocumentCodec();
+    private static final DecoderContext CONTEXT = DecoderContext.builder().build();
+
+    private static final Object ABSENT = new Object();
+
+    private final SystemManager manager;
+    private final RawBsonDocument raw;
+    private final Class<T> clazz;
+    private final DocumentablePlan plan;
+
+    private final Map<String, Object> decoded = new HashMap<>();
+    private @Nullable T object;
+
+    private LazyDocumentable(@NotNull final SystemManager manager, @NotNull final RawBsonDocument raw, @NotNull final Class<T> clazz) {
+        this.manager = manager;
+        this.raw = raw;
+        this.clazz = clazz;
+        this.plan = DocumentablePlan.of(clazz);
+    }
+
+    /**
+     * Wraps a raw document, nothing is decoded until accessed.
+     *
+     * @param manager the system manager.
+     * @param raw the raw document.
+     * @param clazz the class of the object.
+     * @return the lazy object.
+     */
+    public static @NotNull <T> LazyDocumentable<T> of(@NotNull final SystemManager manager, @NotNull final RawBsonDocument raw, @NotNull final Class<T> clazz) {
+        return new LazyDocumentable<>(manager, raw, clazz);
+    }
+
+    /**
+     * @return the underlying raw document.
+     */
+    public @NotNull RawBsonDocument getRaw() {
+        return raw;
+    }
+
+    /**
+     * @param field the name of the field.
+     * @return true if the document contains a value for the field.
+     */
+    public boolean contains(@NotNull final String field) {
+        return raw.containsKey(field);
+    }
+
+    /**
+     * Decodes a single field, the value is cached for later calls and reused by {@link #get()}.
+     *
+     * @param field the name of the field.
+     * @return the value of the field, as it would be set on the object. null if absent or if it could not be decoded.
+     */
+    public @Nullable <V> V get(@NotNull final String field) {
+        final DocumentablePlan.FieldPlan plan = this.plan.getField(field);
+        if (plan == null) return null;
+
+        final Object value = decode(plan);
+
+        @SuppressWarnings("unchecked") // the caller names the type of the field, the same way as Document#get.
+        final V typed = value == ABSENT ? null : (V) value;
+        return typed;
+    }
+
+    /**
+     * Materializes the object, decoding every field that was not accessed yet.
+     *
+     * @return the object.
+     * @throws Exception if the object could not be instantiated.
+     */
+    public @NotNull T get() throws Exception {
+        if (object != null) return object;
+
+        final T object = clazz.cast(plan.instantiate(manager, plan.requiresDocument() ? raw.decode(DOCUMENT_CODEC) : null));
+        for (final DocumentablePlan.FieldPlan field : plan.getFields()) {
+            final Object value = decode(field);
+            if (value == ABSENT) continue;
+
+            try {
+                field.set(object, value);
+            }catch (Exception exception) {
+                exception.printStackTrace();
+            }
+        }
+
+        return this.object = object;
+    }
+
+    private @Nullable Object decode(@NotNull final DocumentablePlan.FieldPlan field) {
+        if (decoded.containsKey(field.getName())) return decoded.get(field.getName());
+
+        Object value = ABSENT;
+        try {
+            final BsonValue bson = raw.get(field.getName());
+            if (bson != null && !bson.isNull()) { // If null no reason to continue.
+                if (isLazyList(field, bson)) value = new LazyDocumentableList<>(manager, bson.asArray(), field.getType());
+                else value = field.decode(manager, toJava(bson), null);
+            }
+        }catch (Exception exception) {
+            exception.printStackTrace();
+        }
+
+        decoded.put(field.getName(), value);
+        return value;
+    }
+
+    private static boolean isLazyList(@NotNull final DocumentablePlan.FieldPlan field, @NotNull final BsonValue bson) {
+        return field.isList()
+                && bson.isArray()
+                && field.getSerializationMethod() == Documentable.SerializationMethod.OBJECT
+                && Documentable.class.isAssignableFrom(field.getType())
+                && field.getField().getType().isAssignableFrom(LazyDocumentableList.class);
+    }
+
+    /**
+     * Converts a BSON value into the value {@link Document} would hold.
+     *
+     * @param value the BSON value.
+     * @return the java value.
+     */
+    static @Nullable Object toJava(@NotNull final BsonValue value) {
+        switch (value.getBsonType()) {
+            case NULL -> {
+                return null;
+            }
+            case STRING -> {
+                return value.asString().getValue();
+            }
+            case INT32 -> {
+                return value.asInt32().getValue();
+            }
+            case INT64 -> {
+                return value.asInt64().getValue();
+            }
+            case DOUBLE -> {
+                return value.asDouble().getValue();
+            }
+            case BOOLEAN -> {
+                return value.asBoolean().getValue();
+            }
+            case DOCUMENT -> {
+                if (value instanceof RawBsonDocument document) return document.decode(DOCUMENT_CODEC);
+
+                return DOCUMENT_CODEC.decode(new BsonDocumentReader(value.asDocument()), CONTEXT);
+            }
+            case ARRAY -> {
+                final List<Object> list = new ArrayList<>();
+                for (final BsonValue element : value.asArray()) {
+                    list.add(toJava(element));
+                }
+
+                return list;
+            }
+            default -> { // let the driver map the remaining types.
+                return DOCUMENT_CODEC.decode(new BsonDocumentReader(new BsonDocument("v", value)), CONTEXT).get("v");
+            }
+        }
+    }
+
+}
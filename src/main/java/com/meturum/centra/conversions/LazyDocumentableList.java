@@ -0,0 +1,110 @@
+package com.meturum.centra.conversions;
+
+import com.meturum.centra.system.SystemManager;
+import org.bson.BsonArray;
+import org.bson.BsonValue;
+import org.jetbrains.annotations.NotNull;
+
+import javax.annotation.Nullable;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * A list of nested documentables decoded on demand from a BSON array.
+ * <p>
+ * Elements are created on first access and cached. The first modification materializes every element into a regular list.
+ * This class is not thread-safe.
+ *
+ * @param <E> the type of the elements.
+ * @see LazyDocumentable
+ */
+public final class LazyDocumentableList<E> extends AbstractList<E> implements RandomAccess {
+
+    private final SystemManager manager;
+    private final Class<?> type;
+
+    private @Nullable BsonValue[] raw;
+    private @Nullable Object[] cache;
+    private @Nullable List<E> materialized;
+
+    LazyDocumentableList(@NotNull final SystemManager manager, @NotNull final BsonArray array, @NotNull final Class<?> type) {
+        this.manager = manager;
+        this.type = type;
+        this.raw = array.toArray(new BsonValue[0]); // slices of the raw document, nothing is decoded yet.
+        this.cache = new Object[raw.length];
+    }
+
+    @Override
+    public E get(final int index) {
+        if (materialized != null) return materialized.get(index);
+
+        @SuppressWarnings("unchecked") // the cache only holds elements returned by decode.
+        final E cached = (E) cache[index];
+        if (cached != null) return cached;
+
+        final E element = decode(raw[index]);
+        cache[index] = element;
+        return element;
+    }
+
+    @Override
+    public int size() {
+        return materialized != null ? materialized.size() : raw.length;
+    }
+
+    @Override
+    public E set(final int index, final E element) {
+        return materialize().set(index, element);
+    }
+
+    @Override
+    public void add(final int index, final E element) {
+        materialize().add(index, element);
+        modCount++;
+    }
+
+    @Override
+    public E remove(final int index) {
+        final E removed = materialize().remove(index);
+        modCount++;
+
+        return removed;
+    }
+
+    /**
+     * @return true if every element was already decoded.
+     */
+    public boolean isMaterialized() {
+        return materialized != null;
+    }
+
+    private @NotNull List<E> materialize() {
+        if (materialized != null) return materialized;
+
+        final List<E> list = new ArrayList<>(raw.length);
+        for (int i = 0; i < raw.length; i++) {
+            list.add(get(i));
+        }
+
+        materialized = list;
+        raw = null;
+        cache = null;
+        return list;
+    }
+
+    private @Nullable E decode(@NotNull final BsonValue value) {
+        try {
+            final Object java = LazyDocumentable.toJava(value);
+
+            @SuppressWarnings("unchecked") // E is the element type of the field the list was created for, decoded as type.
+            final E element = (E) DocumentCodecs.decodeElement(manager, java, type, null);
+            return element;
+        }catch (Exception exception) {
+            exception.printStackTrace();
+            return null;
+        }
+    }
+
+}
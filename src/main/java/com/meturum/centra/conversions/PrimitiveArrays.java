@@ -0,0 +1,132 @@
+package com.meturum.centra.conversions;
+
+import org.bson.BsonBinarySubType;
+import org.bson.types.Binary;
+import org.jetbrains.annotations.NotNull;
+
+import java.lang.reflect.Array;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * Packs primitive arrays into BSON binaries (little-endian) and back, without boxing any element.
+ * <p>
+ * {@code byte[]} is stored as a generic binary, other arrays use the user defined subtype. Arrays previously stored as a list of numbers
+ * are still accepted when reading.
+ */
+final class PrimitiveArrays {
+
+    private static final byte PACKED_SUBTYPE = BsonBinarySubType.USER_DEFINED.getValue();
+
+    private PrimitiveArrays() { }
+
+    /**
+     * @param type the type of the field.
+     * @return true if the type is an array of primitives.
+     */
+    static boolean isPrimitiveArray(@NotNull final Class<?> type) {
+        return type.isArray() && type.getComponentType().isPrimitive();
+    }
+
+    /**
+     * @param array the primitive array to pack.
+     * @return the packed binary.
+     */
+    static @NotNull Binary pack(@NotNull final Object array) {
+        if (array instanceof byte[] bytes) return new Binary(bytes);
+
+        final int length = Array.getLength(array);
+        final Class<?> component = array.getClass().getComponentType();
+        final ByteBuffer buffer = ByteBuffer.allocate(length * sizeOf(component)).order(ByteOrder.LITTLE_ENDIAN);
+
+        if (array instanceof int[] ints) buffer.asIntBuffer().put(ints);
+        else if (array instanceof long[] longs) buffer.asLongBuffer().put(longs);
+        else if (array instanceof double[] doubles) buffer.asDoubleBuffer().put(doubles);
+        else if (array instanceof float[] floats) buffer.asFloatBuffer().put(floats);
+        else if (array instanceof short[] shorts) buffer.asShortBuffer().put(shorts);
+        else if (array instanceof char[] chars) buffer.asCharBuffer().put(chars);
+        else if (array instanceof boolean[] booleans) {
+            for (final boolean value : booleans) buffer.put((byte) (value ? 1 : 0));
+        }
+
+        return new Binary(PACKED_SUBTYPE, buffer.array());
+    }
+
+    /**
+     * @param value the value found in the document, either a binary or a list of numbers.
+     * @param type the array type of the field.
+     * @return the primitive array.
+     */
+    static @NotNull Object unpack(@NotNull final Object value, @NotNull final Class<?> type) {
+        final Class<?> component = type.getComponentType();
+        if (value instanceof List<?> list) return fromList(list, component);
+
+        final byte[] data = value instanceof Binary binary ? binary.getData() : (byte[]) value;
+        if (component == byte.class) return data;
+
+        final ByteBuffer buffer = ByteBuffer.wrap(data).order(ByteOrder.LITTLE_ENDIAN);
+        final Object array = Array.newInstance(component, data.length / sizeOf(component));
+
+        if (array instanceof int[] ints) buffer.asIntBuffer().get(ints);
+        else if (array instanceof long[] longs) buffer.asLongBuffer().get(longs);
+        else if (array instanceof double[] doubles) buffer.asDoubleBuffer().get(doubles);
+        else if (array instanceof float[] floats) buffer.asFloatBuffer().get(floats);
+        else if (array instanceof short[] shorts) buffer.asShortBuffer().get(shorts);
+        else if (array instanceof char[] chars) buffer.asCharBuffer().get(chars);
+        else if (array instanceof boolean[] booleans) {
+            for (int i = 0; i < booleans.length; i++) booleans[i] = buffer.get() != 0;
+        }
+
+        return array;
+    }
+
+    /**
+     * @param bitSet the bit set to pack.
+     * @return the packed binary.
+     */
+    static @NotNull Binary pack(@NotNull final BitSet bitSet) {
+        return new Binary(PACKED_SUBTYPE, bitSet.toByteArray());
+    }
+
+    /**
+     * @param value the value found in the document.
+     * @return the bit set.
+     */
+    static @NotNull BitSet unpackBitSet(@NotNull final Object value) {
+        return BitSet.valueOf(value instanceof Binary binary ? binary.getData() : (byte[]) value);
+    }
+
+    private static @NotNull Object fromList(@NotNull final List<?> list, @NotNull final Class<?> component) {
+        final Object array = Array.newInstance(component, list.size());
+
+        for (int i = 0; i < list.size(); i++) {
+            final Object element = list.get(i);
+
+            if (component == boolean.class) Array.setBoolean(array, i, (Boolean) element);
+            else if (component == char.class) Array.setChar(array, i, element instanceof String string ? string.charAt(0) : (char) ((Number) element).intValue());
+            else {
+                final Number number = (Number) element;
+
+                if (component == int.class) Array.setInt(array, i, number.intValue());
+                else if (component == long.class) Array.setLong(array, i, number.longValue());
+                else if (component == double.class) Array.setDouble(array, i, number.doubleValue());
+                else if (component == float.class) Array.setFloat(array, i, number.floatValue());
+                else if (component == short.class) Array.setShort(array, i, number.shortValue());
+                else if (component == byte.class) Array.setByte(array, i, number.byteValue());
+            }
+        }
+
+        return array;
+    }
+
+    private static int sizeOf(@NotNull final Class<?> component) {
+        if (component == long.class || component == double.class) return 8;
+        if (component == int.class || component == float.class) return 4;
+        if (component == short.class || component == char.class) return 2;
+
+        return 1; // byte, boolean
+    }
+
+}
@@ -0,0 +1,231 @@
+package com.meturum.centra.conversions;
+
+import com.meturum.centra.mongo.CollectionWrapper;
+import com.meturum.centra.system.SystemManager;
+import com.mongodb.client.model.Filters;
+import org.bson.Document;
+import org.jetbrains.annotations.NotNull;
+
+import javax.annotation.Nullable;
+import java.util.*;
+
+/**
+ * Resolves the {@link IDynamicTag}s referenced by a graph of documents with one {@code $in} query per collection,
+ * instead of one {@code deserialize} call per reference.
+ * <p>
+ * Before decoding, every reference (fields serialized with {@link Documentable.SerializationMethod#METHOD} whose type was registered
+ * through {@link #register(Class, CollectionWrapper)}) is gathered from the documents, including nested documents and the documents
+ * of the referenced tags themselves. Each registered collection is then queried once per round with the missing ids, and a single
+ * instance is created per id. While decoding, every field referencing the same id receives that same instance (e.g. many sessions
+ * pointing at the same rank), cycles included.
+ * <p>
+ * References to unregistered tag types, or ids that were not found, fall back to the {@code deserialize} converter. Their result is
+ * kept in the identity table as well, so a shared reference is still only converted once per load.
+ * <p>
+ * A resolver holds the identity table of a single load, it is not thread-safe and should not be reused across loads.
+ */
+public final class ReferenceResolver {
+
+    /**
+     * The default key matched against referenced ids, the same key as {@link IDynamicTag#getFilter()}.
+     */
+    public static final String DEFAULT_KEY = "uuid";
+
+    private final SystemManager manager;
+
+    private final Map<Class<?>, Source> sources = new LinkedHashMap<>();
+    private final Map<Class<?>, Map<String, Object>> instances = new HashMap<>();
+    private final Map<Class<?>, Set<String>> requested = new HashMap<>();
+    private final Map<Class<?>, Set<String>> pending = new LinkedHashMap<>();
+
+    public ReferenceResolver(@NotNull final SystemManager manager) {
+        this.manager = manager;
+    }
+
+    /**
+     * Registers the collection the given tag type is loaded from, matching ids against {@link #DEFAULT_KEY}.
+     *
+     * @param type the class of the tag, instantiated for each referenced id.
+     * @param collection the collection the tags are stored in.
+     * @return this resolver.
+     */
+    public @NotNull ReferenceResolver register(@NotNull final Class<? extends IDynamicTag> type, @NotNull final CollectionWrapper collection) {
+        return register(type, collection, DEFAULT_KEY);
+    }
+
+    /**
+     * Registers the collection the given tag type is loaded from.
+     *
+     * @param type the class of the tag, instantiated for each referenced id.
+     * @param collection the collection the tags are stored in.
+     * @param key the key of the document matched against the referenced ids.
+     * @return this resolver.
+     */
+    public @NotNull ReferenceResolver register(@NotNull final Class<? extends IDynamicTag> type, @NotNull final CollectionWrapper collection, @NotNull final String key) {
+        sources.put(type, new Source(type, collection, key));
+        return this;
+    }
+
+    /**
+     * Creates an instance of the given class from the document, resolving its references first. (thread-blocking)
+     *
+     * @param document the document to convert.
+     * @param type the class of the object.
+     * @return the object.
+     * @apiNote This method executed synchronously and may cause thread-blocking. This method is not recommended to be executed in the main thread.
+     * @see Documentable#fromDocument(SystemManager, Document, Class)
+     */
+    public @NotNull <T> T fromDocument(@NotNull final Document document, @NotNull final Class<? extends T> type) throws Exception {
+        return fromDocuments(List.of(document), type).get(0);
+    }
+
+    /**
+     * Creates an instance of the given class from each document, resolving the references of all documents at once. (thread-blocking)
+     *
+     * @param documents the documents to convert.
+     * @param type the class of the objects.
+     * @return the objects, in the same order as the documents.
+     * @apiNote This method executed synchronously and may cause thread-blocking. This method is not recommended to be executed in the main thread.
+     */
+    public @NotNull <T> List<T> fromDocuments(@NotNull final Collection<Document> documents, @NotNull final Class<? extends T> type) throws Exception {
+        for (final Document document : documents) gather(document, type);
+        fetch();
+
+        final DocumentablePlan plan = DocumentablePlan.of(type);
+
+        final List<T> objects = new ArrayList<>(documents.size());
+        for (final Document document : documents) {
+            objects.add(type.cast(plan.create(manager, document, this)));
+        }
+
+        return objects;
+    }
+
+    /**
+     * Inserts a document into an existing object, resolving its references first. (thread-blocking)
+     *
+     * @param document the document to insert.
+     * @param object the object to insert the document into.
+     * @apiNote This method executed synchronously and may cause thread-blocking. This method is not recommended to be executed in the main thread.
+     * @see Documentable#insertDocument(SystemManager, Document, Object)
+     */
+    public void insertDocument(@NotNull final Document document, @NotNull final Object object) {
+        gather(document, object.getClass());
+        fetch();
+
+        DocumentablePlan.of(object.getClass()).read(manager, document, object, this);
+        if (object instanceof IDynamicTag tag) DirtyTracker.markClean(tag, document);
+    }
+
+    /**
+     * @param type the type of the reference.
+     * @param reference the serialized reference, usually the id of the tag.
+     * @return the instance resolved for the reference during this load, or null if none.
+     */
+    public @Nullable <T> T get(@NotNull final Class<T> type, @NotNull final Object reference) {
+        final Map<String, Object> table = instances.get(getKey(type));
+        return table != null ? type.cast(table.get(reference.toString())) : null;
+    }
+
+    /**
+     * Keeps an instance converted by a {@code deserialize} converter, so later references to the same id reuse it.
+     *
+     * @param type the type of the reference.
+     * @param reference the serialized reference.
+     * @param instance the converted instance.
+     * @return the instance to use, either the given one or the one already known for the reference.
+     */
+    @Nullable Object remember(@NotNull final Class<?> type, @Nullable final Object reference, @Nullable final Object instance) {
+        if (reference == null || instance == null || !IDynamicTag.class.isAssignableFrom(type)) return instance;
+
+        final Object known = instances.computeIfAbsent(getKey(type), key -> new HashMap<>()).putIfAbsent(reference.toString(), instance);
+        return known != null ? known : instance;
+    }
+
+    private void gather(@NotNull final Document document, @NotNull final Class<?> type) {
+        for (final DocumentablePlan.FieldPlan field : DocumentablePlan.of(type).getFields()) {
+            final Object value = document.get(field.getName());
+            if (value == null) continue;
+
+            final List<?> elements = value instanceof List<?> list ? list : Collections.singletonList(value);
+
+            if (field.getSerializationMethod() == Documentable.SerializationMethod.METHOD) {
+                final Source source = getSource(field.getType());
+                if (source == null) continue;
+
+                for (final Object element : elements) {
+                    if (element == null || get(source.type, element) != null) continue;
+
+                    final String id = element.toString();
+                    if (requested.computeIfAbsent(source.type, key -> new HashSet<>()).add(id))
+                        pending.computeIfAbsent(source.type, key -> new LinkedHashSet<>()).add(id);
+                }
+            } else if (field.getSerializationMethod() == Documentable.SerializationMethod.OBJECT && Documentable.class.isAssignableFrom(field.getType())) {
+                for (final Object element : elements) { // nested documentables may hold references too.
+                    if (element instanceof Document nested) gather(nested, field.getType());
+                }
+            }
+        }
+    }
+
+    private void fetch() {
+        final List<Map.Entry<Object, Document>> loaded = new ArrayList<>();
+
+        while (!pending.isEmpty()) { // documents of the referenced tags may reference other tags, one round per depth.
+            final Map<Class<?>, Set<String>> round = new LinkedHashMap<>(pending);
+            pending.clear();
+
+            for (final Map.Entry<Class<?>, Set<String>> entry : round.entrySet()) {
+                final Source source = sources.get(entry.getKey());
+                final DocumentablePlan plan = DocumentablePlan.of(source.type);
+                final Map<String, Object> table = instances.computeIfAbsent(source.type, key -> new HashMap<>());
+
+                try {
+                    for (final Document document : source.collection.raw().find(Filters.in(source.key, entry.getValue()))) {
+                        final Object id = document.get(source.key);
+                        if (id == null || table.containsKey(id.toString())) continue;
+
+                        final Object instance;
+                        try {
+                            instance = plan.instantiate(manager, document);
+                        }catch (Exception exception) {
+                            exception.printStackTrace();
+                            continue;
+                        }
+
+                        table.put(id.toString(), instance); // registered before being read, cycles resolve to the same instance.
+
+                        loaded.add(Map.entry(instance, document));
+                        gather(document, source.type);
+                    }
+                }catch (Exception exception) {
+                    exception.printStackTrace(); // the missing references fall back to their converter.
+                }
+            }
+        }
+
+        for (final Map.Entry<Object, Document> entry : loaded) {
+            DocumentablePlan.of(entry.getKey().getClass()).read(manager, entry.getValue(), entry.getKey(), this);
+            if (entry.getKey() instanceof IDynamicTag tag) DirtyTracker.markClean(tag, entry.getValue());
+        }
+    }
+
+    private @Nullable Source getSource(@NotNull final Class<?> type) {
+        final Source source = sources.get(type);
+        if (source != null) return source;
+
+        for (final Source compare : sources.values()) { // e.g. a field typed as an interface, registered with its implementation.
+            if (type.isAssignableFrom(compare.type)) return compare;
+        }
+
+        return null;
+    }
+
+    private @NotNull Class<?> getKey(@NotNull final Class<?> type) {
+        final Source source = getSource(type);
+        return source != null ? source.type : type;
+    }
+
+    private record Source(@NotNull Class<?> type, @NotNull CollectionWrapper collection, @NotNull String key) { }
+
+}
@@ -0,0 +1,255 @@
+package com.meturum.centra.conversions;
+
+import com.meturum.centra.mongo.BoundedExecutor;
+import com.meturum.centra.mongo.BulkResult;
+import com.meturum.centra.mongo.CollectionWrapper;
+import com.meturum.centra.mongo.MongoExecutors;
+import com.mongodb.bulk.BulkWriteError;
+import com.mongodb.bulk.BulkWriteResult;
+import com.mongodb.client.model.*;
+import org.bson.Document;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+
+/**
+ * Collects the nested {@link IDynamicTag}s that have to be saved while serializing an object graph
+ * (fields annotated with {@code @Serialize(save = true)}), then saves them with one unordered {@link CollectionWrapper#bulkWriteAsync} per collection.
+ * <p>
+ * Each tag is serialized once, even when it is shared or part of a cycle. Tags tracked by {@link DirtyTracker} are only
+ * written if they changed, as a {@code $set}/{@code $unset} update; untracked tags are replaced (upsert).
+ * An update never inserts a partial document: if the document of a tracked tag was deleted meanwhile, it is replaced (upsert) once the update matched nothing.
+ * Tags that do not expose a collection ({@link IDynamicTag#getCollection()}) fall back to {@link IDynamicTag#saveSync(boolean)}.
+ * <p>
+ * This class is not thread-safe, a plan is meant to be filled by a single serialization and executed once.
+ */
+public final class SavePlan {
+
+    private final Set<IDynamicTag> visited = Collections.newSetFromMap(new IdentityHashMap<>());
+    private final Map<CollectionWrapper, List<Write>> writes = new IdentityHashMap<>();
+    private final List<IDynamicTag> fallback = new ArrayList<>();
+
+    /**
+     * Adds a tag to the plan, serializing it (and collecting its own nested tags) if it was not added yet.
+     *
+     * @param tag the tag to save.
+     * @return true if the tag was added, false if it was already part of the plan.
+     */
+    public boolean add(@NotNull final IDynamicTag tag) {
+        if (!visited.add(tag)) return false;
+
+        final CollectionWrapper collection = tag.getCollection();
+        if (collection == null) {
+            fallback.add(tag);
+            return true;
+        }
+
+        final Document document = Documentable.toDocument(tag, this);
+        final boolean tracked = DirtyTracker.isTracked(tag);
+        final DirtyTracker.Delta delta = DirtyTracker.diff(tag, document);
+        if (tracked && delta.isEmpty()) return true; // nothing changed, no need to write it.
+
+        final WriteModel<Document> model = tracked
+                ? new UpdateOneModel<>(tag.getFilter(), Objects.requireNonNull(delta.toUpdate()), new UpdateOptions().upsert(false))
+                : new ReplaceOneModel<>(tag.getFilter(), document, new ReplaceOptions().upsert(true));
+
+        writes.computeIfAbsent(collection, key -> new ArrayList<>()).add(new Write(tag, document, model));
+        return true;
+    }
+
+    /**
+     * @return true if nothing has to be written.
+     */
+    public boolean isEmpty() {
+        return writes.isEmpty() && fallback.isEmpty();
+    }
+
+    /**
+     * @return the number of tags that will be written.
+     */
+    public int size() {
+        int size = fallback.size();
+        for (final List<Write> collection : writes.values()) size += collection.size();
+
+        return size;
+    }
+
+    /**
+     * Saves every collected tag. (thread-blocking)
+     * Called by an operation of a {@link BoundedExecutor}, the writes run on the calling thread instead of waiting for the executor.
+     *
+     * @return true if every tag was saved, false otherwise.
+     * @apiNote This method executed synchronously and may cause thread-blocking. This method is not recommended to be executed in the main thread.
+     */
+    public boolean execute() {
+        if (BoundedExecutor.isWorkerThread()) return BoundedExecutor.inline(this::join); // the writes could wait for the thread waiting for them.
+
+        return join();
+    }
+
+    private boolean join() {
+        final List<CompletableFuture<Boolean>> futures = new ArrayList<>();
+        for (final Map.Entry<CollectionWrapper, List<Write>> entry : writes.entrySet()) {
+            futures.add(write(entry.getKey(), entry.getValue()));
+        }
+
+        boolean saved = true;
+        for (final IDynamicTag tag : fallback) {
+            saved &= tag.saveSync(true);
+        }
+
+        for (final CompletableFuture<Boolean> future : futures) {
+            saved &= future.join();
+        }
+
+        return saved;
+    }
+
+    /**
+     * Saves every collected tag, collections are written in parallel through {@link CollectionWrapper#bulkWriteAsync}.
+     *
+     * @param executor the executor saving the tags without a collection, e.g. {@link CollectionWrapper#getExecutor()} of the parent tag.
+     * @return a future completed with true if every tag was saved, false otherwise.
+     */
+    public @NotNull CompletableFuture<Boolean> executeAsync(@NotNull final Executor executor) {
+        final List<CompletableFuture<Boolean>> futures = new ArrayList<>();
+
+        for (final Map.Entry<CollectionWrapper, List<Write>> entry : writes.entrySet()) {
+            futures.add(write(entry.getKey(), entry.getValue()));
+        }
+
+        for (final IDynamicTag tag : fallback) {
+            futures.add(CompletableFuture.supplyAsync(() -> tag.saveSync(true), executor));
+        }
+
+        return CompletableFuture.allOf(futures.toArray(CompletableFuture<?>[]::new))
+                .thenApply(ignored -> futures.stream().allMatch(CompletableFuture::join));
+    }
+
+    /**
+     * Saves every collected tag, collections are written in parallel through {@link CollectionWrapper#bulkWriteAsync}.
+     * Tags without a collection are saved on {@link MongoExecutors#getDefaultExecutor()}.
+     *
+     * @return a future completed with true if every tag was saved, false otherwise.
+     */
+    public @NotNull CompletableFuture<Boolean> executeAsync() {
+        return executeAsync(MongoExecutors.getDefaultExecutor());
+    }
+
+    /**
+     * Writes the tags of a collection through its wrapper, so its decorators (caching, write-behind, journal, breaker, metrics) see them.
+     * After a failure stopping the writes, no tag is marked clean: the state of the last chunk is unknown, the next save sends the changes again.
+     */
+    private static @NotNull CompletableFuture<Boolean> write(@NotNull final CollectionWrapper collection, @NotNull final List<Write> writes) {
+        final CompletableFuture<Boolean> future = new CompletableFuture<>();
+
+        send(collection, writes, Write::model, future, (result, failed) -> {
+            final List<Write> missing = findMissing(collection, writes, result, failed);
+
+            for (int i = 0; i < writes.size(); i++) {
+                final Write write = writes.get(i);
+                if (failed.contains(i) || missing.contains(write)) continue;
+
+                if (write.model instanceof UpdateOneModel) DirtyTracker.markSaved(write.tag, write.document); // the version did not change.
+                else DirtyTracker.markClean(write.tag, write.document);
+            }
+
+            if (missing.isEmpty()) {
+                future.complete(failed.isEmpty());
+                return;
+            }
+
+            send(collection, missing, Write::replacement, future, (replaced, replaceFailed) -> {
+                for (int i = 0; i < missing.size(); i++) {
+                    if (!replaceFailed.contains(i)) DirtyTracker.markClean(missing.get(i).tag, missing.get(i).document);
+                }
+
+                future.complete(failed.isEmpty() && replaceFailed.isEmpty());
+            });
+        });
+
+        return future;
+    }
+
+    /**
+     * Sends one unordered bulk write, then passes its result and the indexes of the rejected writes to the given action.
+     * The future is completed with false if the bulk write could not be sent, or if the action failed.
+     */
+    private static void send(@NotNull final CollectionWrapper collection, @NotNull final List<Write> writes, @NotNull final Function<Write, WriteModel<Document>> model,
+                             @NotNull final CompletableFuture<Boolean> future, @NotNull final BiConsumer<BulkResult, Set<Integer>> action) {
+        final List<WriteModel<Document>> models = new ArrayList<>(writes.size());
+        for (final Write write : writes) models.add(model.apply(write));
+
+        try {
+            collection.bulkWriteAsync(models, false, (result, exception) -> {
+                if (result == null || result.getFailure() != null) {
+                    if (exception != null) exception.printStackTrace();
+
+                    future.complete(false);
+                    return;
+                }
+
+                final Set<Integer> failed = new HashSet<>();
+                for (final BulkWriteError error : result.getErrors()) failed.add(error.getIndex());
+
+                try {
+                    action.accept(result, failed);
+                }catch (Exception actionException) {
+                    actionException.printStackTrace();
+                    future.complete(false);
+                }
+            });
+        }catch (Exception exception) { // e.g. rejected by the executor of the collection.
+            exception.printStackTrace();
+            future.complete(false);
+        }
+    }
+
+    /**
+     * Finds the tracked tags whose update matched nothing, their document was deleted meanwhile and has to be replaced.
+     * The matched count of a bulk write is only known for the whole batch: when only some updates matched, the documents matching each filter are counted.
+     *
+     * @return the writes to send again as a replacement.
+     */
+    private static @NotNull List<Write> findMissing(@NotNull final CollectionWrapper collection, @NotNull final List<Write> writes,
+                                                    @NotNull final BulkResult result, @NotNull final Set<Integer> failed) {
+        final List<Write> updates = new ArrayList<>();
+        int replaced = -result.getUpserts().size(); // only replacements upsert, the others matched a document.
+
+        for (int i = 0; i < writes.size(); i++) {
+            if (failed.contains(i)) continue;
+
+            if (writes.get(i).model instanceof UpdateOneModel) updates.add(writes.get(i));
+            else replaced++;
+        }
+
+        if (updates.isEmpty() || !result.getChunks().stream().allMatch(BulkWriteResult::wasAcknowledged)) return List.of(); // nothing to check, or unknown.
+
+        final int matched = result.getMatchedCount() - replaced;
+        if (matched >= updates.size()) return List.of();
+        if (matched <= 0) return updates;
+
+        final List<Write> missing = new ArrayList<>();
+        for (final Write write : updates) {
+            if (collection.raw().countDocuments(write.tag.getFilter(), new CountOptions().limit(1)) == 0) missing.add(write);
+        }
+
+        return missing;
+    }
+
+    private record Write(@NotNull IDynamicTag tag, @NotNull Document document, @NotNull WriteModel<Document> model) {
+
+        /**
+         * @return the full document of the tag, replacing (or inserting) it.
+         */
+        private @NotNull WriteModel<Document> replacement() {
+            return new ReplaceOneModel<>(tag.getFilter(), document, new ReplaceOptions().upsert(true));
+        }
+
+    }
+
+}
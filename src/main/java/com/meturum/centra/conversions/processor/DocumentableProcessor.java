@@ -0,0 +1,468 @@
+package com.meturum.centra.conversions.processor;
+
+import org.jetbrains.annotations.NotNull;
+
+import javax.annotation.Nullable;
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.*;
+import javax.lang.model.type.ArrayType;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.lang.model.util.Elements;
+import javax.lang.model.util.Types;
+import javax.tools.Diagnostic;
+import javax.tools.JavaFileObject;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.*;
+
+/**
+ * Generates a {@code DocumentCodec} for the concrete {@code Documentable} classes being compiled.
+ * <p>
+ * Codecs are only generated for classes declaring or inheriting a field annotated with {@code @Serialize}, the other classes
+ * use the reflective serializer. The processor only claims {@code @Serialize}, javac does not run it for the compilations
+ * that never use the annotation.
+ * <p>
+ * The generated codec follows the same rules as the reflective serializer: superclass fields first, static, transient and
+ * synthetic fields excluded, {@code @Serialize(method, type, save)} honored and {@code @DocumentableMethod} converters used.
+ * Accessible fields, setters and converters are called directly; private members are reached through
+ * {@code static final} method handles so they can still be inlined by the JIT.
+ * <p>
+ * This processor is registered through {@code META-INF/services}, it runs automatically for any project compiling against Centra.
+ */
+@SupportedAnnotationTypes("com.meturum.centra.conversions.Documentable.Serialize")
+public final class DocumentableProcessor extends AbstractProcessor {
+
+    private static final String DOCUMENTABLE = "com.meturum.centra.conversions.Documentable";
+    private static final String DYNAMIC_TAG = "com.meturum.centra.conversions.IDynamicTag";
+    private static final String SERIALIZE = DOCUMENTABLE + ".Serialize";
+    private static final String DOCUMENTABLE_METHOD = "com.meturum.centra.conversions.annotations.DocumentableMethod";
+    private static final String SYSTEM_MANAGER = "com.meturum.centra.system.SystemManager";
+
+    private static final String CODECS = "com.meturum.centra.conversions.DocumentCodecs";
+    private static final String CODEC_SUFFIX = "_DocumentCodec";
+
+    private final Set<String> generated = new HashSet<>();
+
+    private Elements elements;
+    private Types types;
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(@NotNull final Set<? extends TypeElement> annotations, @NotNull final RoundEnvironment round) {
+        elements = processingEnv.getElementUtils();
+        types = processingEnv.getTypeUtils();
+
+        final TypeElement documentable = elements.getTypeElement(DOCUMENTABLE);
+        if (documentable == null || round.processingOver()) return false;
+
+        for (final TypeElement type : ElementFilter.typesIn(round.getRootElements())) {
+            visit(type, documentable);
+        }
+
+        return false; // never claim annotations, other processors may need them.
+    }
+
+    private void visit(@NotNull final TypeElement type, @NotNull final TypeElement documentable) {
+        if (isCandidate(type, documentable)) {
+            try {
+                generate(type);
+            }catch (IOException exception) {
+                processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, "Could not generate a DocumentCodec: " + exception.getMessage(), type);
+            }
+        }
+
+        for (final TypeElement nested : ElementFilter.typesIn(type.getEnclosedElements())) {
+            visit(nested, documentable);
+        }
+    }
+
+    private boolean isCandidate(@NotNull final TypeElement type, @NotNull final TypeElement documentable) {
+        if (type.getKind() != ElementKind.CLASS) return false;
+        if (type.getModifiers().contains(Modifier.ABSTRACT)) return false;
+        if (!isTypeAccessible(type, packageOf(type))) return false;
+        if (!types.isAssignable(types.erasure(type.asType()), types.erasure(documentable.asType()))) return false;
+
+        for (final VariableElement field : getSerializedFields(type)) {
+            if (getAnnotation(field, SERIALIZE) != null) return true;
+        }
+
+        return false; // nothing annotated, the reflective serializer is used.
+    }
+
+    private void generate(@NotNull final TypeElement type) throws IOException {
+        final String packageName = packageOf(type).getQualifiedName().toString();
+        final String binaryName = elements.getBinaryName(type).toString();
+        final String simpleName = (packageName.isEmpty() ? binaryName : binaryName.substring(packageName.length() + 1)).replace('$', '_') + CODEC_SUFFIX;
+        final String codecName = packageName.isEmpty() ? simpleName : packageName + "." + simpleName;
+
+        if (!generated.add(codecName)) return;
+
+        final String typeName = nameOf(type.asType());
+        final List<FieldModel> fields = getFields(type);
+
+        final JavaFileObject file = processingEnv.getFiler().createSourceFile(codecName, type);
+        try (final PrintWriter out = new PrintWriter(file.openWriter())) {
+            if (!packageName.isEmpty()) {
+                out.println("package " + packageName + ";");
+                out.println();
+            }
+
+            out.println("/**");
+            out.println(" * Generated by the Documentable annotation processor for {@link " + typeName + "}, do not edit.");
+            out.println(" */");
+            out.println("@SuppressWarnings({\"unchecked\", \"rawtypes\"})");
+            out.println("public final class " + simpleName + " implements com.meturum.centra.conversions.DocumentCodec<" + typeName + "> {");
+            out.println();
+
+            boolean constants = false;
+            for (final FieldModel field : fields) {
+                constants |= field.writeConstants(out, typeName);
+            }
+
+            if (constants) out.println();
+            out.println("    @Override");
+            out.println("    public void encode(final " + typeName + " object, final org.bson.Document document, final com.meturum.centra.conversions.SavePlan plan) {");
+            for (final FieldModel field : fields) {
+                field.writeEncode(out);
+            }
+            out.println("    }");
+            out.println();
+            out.println("    @Override");
+            out.println("    public void decode(final " + SYSTEM_MANAGER + " manager, final org.bson.Document document, final " + typeName + " object, final com.meturum.centra.conversions.ReferenceResolver resolver) {");
+            for (final FieldModel field : fields) {
+                field.writeDecode(out);
+            }
+            out.println("    }");
+            out.println();
+            out.println("}");
+        }
+    }
+
+    private @NotNull List<FieldModel> getFields(@NotNull final TypeElement type) {
+        final List<FieldModel> fields = new ArrayList<>();
+        for (final VariableElement field : getSerializedFields(type)) {
+            fields.add(new FieldModel(type, field, fields.size()));
+        }
+
+        return fields;
+    }
+
+    private @NotNull List<VariableElement> getSerializedFields(@NotNull final TypeElement type) {
+        final List<VariableElement> arr = new ArrayList<>();
+
+        final TypeMirror superclass = type.getSuperclass();
+        if (superclass.getKind() == TypeKind.DECLARED)
+            arr.addAll(ElementFilter.fieldsIn(((DeclaredType) superclass).asElement().getEnclosedElements()));
+        arr.addAll(ElementFilter.fieldsIn(type.getEnclosedElements())); // superclass fields first, same as the reflective serializer.
+
+        final List<VariableElement> fields = new ArrayList<>();
+        for (final VariableElement field : arr) {
+            final Set<Modifier> modifiers = field.getModifiers();
+
+            if (
+                    modifiers.contains(Modifier.STATIC)
+                            || modifiers.contains(Modifier.TRANSIENT)
+                            || field.getSimpleName().toString().contains("$")
+            ) continue;
+
+            fields.add(field);
+        }
+
+        return fields;
+    }
+
+    private @NotNull PackageElement packageOf(@NotNull final Element element) {
+        return elements.getPackageOf(element);
+    }
+
+    /**
+     * @return true if the member can be referenced from generated code in the given package.
+     */
+    private boolean isAccessible(@NotNull final Element member, @NotNull final PackageElement from) {
+        final Set<Modifier> modifiers = member.getModifiers();
+        if (modifiers.contains(Modifier.PRIVATE)) return false;
+
+        final Element owner = member.getEnclosingElement();
+        if (owner instanceof TypeElement typeElement && !isTypeAccessible(typeElement, from)) return false;
+
+        return modifiers.contains(Modifier.PUBLIC) || packageOf(member).equals(from);
+    }
+
+    private boolean isTypeAccessible(@NotNull final TypeElement type, @NotNull final PackageElement from) {
+        Element current = type;
+        while (current instanceof TypeElement) {
+            final Set<Modifier> modifiers = current.getModifiers();
+            if (modifiers.contains(Modifier.PRIVATE)) return false;
+            if (!modifiers.contains(Modifier.PUBLIC) && !packageOf(current).equals(from)) return false;
+
+            final NestingKind nesting = ((TypeElement) current).getNestingKind();
+            if (nesting == NestingKind.LOCAL || nesting == NestingKind.ANONYMOUS) return false;
+
+            current = current.getEnclosingElement();
+        }
+
+        return true;
+    }
+
+    private static @Nullable AnnotationMirror getAnnotation(@NotNull final Element element, @NotNull final String name) {
+        for (final AnnotationMirror mirror : element.getAnnotationMirrors()) {
+            final Element annotation = mirror.getAnnotationType().asElement();
+            if (annotation instanceof TypeElement typeElement && typeElement.getQualifiedName().contentEquals(name))
+                return mirror;
+        }
+
+        return null;
+    }
+
+    /**
+     * @return the erased name of the type as written in source, without type annotations. (e.g. {@code @NotNull String})
+     */
+    private @NotNull String nameOf(@NotNull final TypeMirror type) {
+        final TypeMirror erased = types.erasure(type);
+
+        return switch (erased.getKind()) {
+            case DECLARED -> ((TypeElement) types.asElement(erased)).getQualifiedName().toString();
+            case ARRAY -> nameOf(((ArrayType) erased).getComponentType()) + "[]";
+            default -> erased.getKind().isPrimitive() ? erased.getKind().name().toLowerCase(Locale.ROOT) : erased.toString();
+        };
+    }
+
+    private static @Nullable ExecutableElement findMethod(@Nullable final Element type, @NotNull final String name) {
+        if (type == null) return null;
+
+        for (final ExecutableElement method : ElementFilter.methodsIn(type.getEnclosedElements())) {
+            if (method.getSimpleName().toString().equalsIgnoreCase(name)) return method;
+        }
+
+        return null;
+    }
+
+    /**
+     * The compile-time view of a serialized field.
+     */
+    private final class FieldModel {
+
+        private final String name;
+        private final String constant;
+        private final String local;
+
+        private final String fieldType;
+        private final boolean isArray;
+        private final boolean isList;
+
+        private final String method;
+        private final String type;
+        private final boolean primitiveArray;
+        private final boolean saveTags;
+
+        private final boolean directGet;
+        private final @Nullable ExecutableElement setter;
+        private final boolean directSet;
+
+        private final @Nullable ExecutableElement serializer;
+        private final @Nullable ExecutableElement deserializer;
+
+        private FieldModel(@NotNull final TypeElement owner, @NotNull final VariableElement field, final int index) {
+            this.name = field.getSimpleName().toString();
+            this.constant = name.toUpperCase(Locale.ROOT) + "_" + index;
+            this.local = "value" + index;
+
+            final PackageElement from = packageOf(owner);
+            final TypeMirror erased = types.erasure(types.asMemberOf((DeclaredType) types.erasure(owner.asType()), field));
+
+            this.fieldType = nameOf(erased);
+            this.isArray = erased.getKind() == TypeKind.ARRAY;
+            this.isList = types.isAssignable(erased, types.erasure(elements.getTypeElement(List.class.getName()).asType()));
+
+            String method = "OBJECT";
+            TypeMirror type = erased;
+            boolean saveTags = true;
+
+            final AnnotationMirror serialize = getAnnotation(field, SERIALIZE);
+            if (serialize != null) {
+                saveTags = false;
+
+                for (final Map.Entry<? extends ExecutableElement, ? extends AnnotationValue> entry : elements.getElementValuesWithDefaults(serialize).entrySet()) {
+                    final Object value = entry.getValue().getValue();
+
+                    switch (entry.getKey().getSimpleName().toString()) {
+                        case "method" -> method = ((VariableElement) value).getSimpleName().toString();
+                        case "type" -> {
+                            final TypeMirror annotated = types.erasure((TypeMirror) value);
+                            if (!nameOf(annotated).equals(Object.class.getName())) type = annotated;
+                        }
+                        case "save" -> saveTags = (Boolean) value;
+                        default -> { }
+                    }
+                }
+            }
+
+            this.method = method;
+            this.type = nameOf(type);
+            this.primitiveArray = isArray && ((ArrayType) erased).getComponentType().getKind().isPrimitive();
+            this.saveTags = saveTags;
+
+            this.directGet = isAccessible(field, from);
+
+            this.setter = findMethod(owner, "set" + name);
+            this.directSet = setter != null
+                    ? setter.getParameters().size() == 1 && isAccessible(setter, from)
+                    : directGet && !field.getModifiers().contains(Modifier.FINAL);
+
+            // Resolve the converters for single values, the same way the reflective serializer does.
+            final Element converterType = type.getKind() == TypeKind.DECLARED ? types.asElement(type) : null;
+
+            ExecutableElement serializer = findMethod(converterType, "serialize");
+            if (serializer == null && converterType != null && types.isAssignable(type, types.erasure(elements.getTypeElement(DYNAMIC_TAG).asType())))
+                serializer = findMethod(elements.getTypeElement(DYNAMIC_TAG), "serialize");
+
+            final ExecutableElement deserializer = findMethod(converterType, "deserialize");
+
+            if (!method.equals("OBJECT")) {
+                if (serializer != null && getAnnotation(serializer, DOCUMENTABLE_METHOD) == null)
+                    processingEnv.getMessager().printMessage(Diagnostic.Kind.WARNING, "serialize() is not annotated with @DocumentableMethod, field '" + name + "' will not be saved.", field);
+                if (deserializer != null && getAnnotation(deserializer, DOCUMENTABLE_METHOD) == null)
+                    processingEnv.getMessager().printMessage(Diagnostic.Kind.WARNING, "deserialize() is not annotated with @DocumentableMethod, field '" + name + "' will not be loaded.", field);
+            }
+
+            this.serializer = isDirectSerializer(serializer, from) ? serializer : null;
+            this.deserializer = isDirectDeserializer(deserializer, from) ? deserializer : null;
+        }
+
+        private boolean isDirectSerializer(@Nullable final ExecutableElement method, @NotNull final PackageElement from) {
+            return method != null
+                    && getAnnotation(method, DOCUMENTABLE_METHOD) != null
+                    && !method.getModifiers().contains(Modifier.STATIC)
+                    && method.getParameters().isEmpty()
+                    && isAccessible(method, from);
+        }
+
+        private boolean isDirectDeserializer(@Nullable final ExecutableElement method, @NotNull final PackageElement from) {
+            return method != null
+                    && getAnnotation(method, DOCUMENTABLE_METHOD) != null
+                    && method.getModifiers().contains(Modifier.STATIC)
+                    && method.getParameters().size() == 2
+                    && nameOf(method.getParameters().get(0).asType()).equals(SYSTEM_MANAGER)
+                    && isAccessible(method, from);
+        }
+
+        /**
+         * @return true if the field is converted inline with {@code SerializationMethod.OBJECT}.
+         */
+        private boolean isInlineObject() {
+            return method.equals("OBJECT") && !primitiveArray;
+        }
+
+        /**
+         * @return true if the field is a single value converted by directly calling its converters.
+         */
+        private boolean isInlineMethod() {
+            return !method.equals("OBJECT") && !isArray && !isList;
+        }
+
+        /**
+         * @return true if any constant was written.
+         */
+        private boolean writeConstants(@NotNull final PrintWriter out, @NotNull final String owner) {
+            if (!directGet)
+                out.println("    private static final java.lang.invoke.MethodHandle " + constant + "_GET = " + CODECS + ".getter(" + owner + ".class, \"" + name + "\");");
+            if (!directSet)
+                out.println("    private static final java.lang.invoke.MethodHandle " + constant + "_SET = " + CODECS + ".setter(" + owner + ".class, \"" + name + "\");");
+            if (!isInlineObject())
+                out.println("    private static final com.meturum.centra.conversions.DocumentCodec.FieldCodec " + constant + " = " + CODECS + ".field(" + owner + ".class, \"" + name + "\");");
+
+            return !directGet || !directSet || !isInlineObject();
+        }
+
+        private void writeEncode(@NotNull final PrintWriter out) {
+            out.println("        try {");
+            out.println("            final Object " + local + " = " + (directGet ? "object." + name : "(Object) " + constant + "_GET.invokeExact((Object) object)") + ";");
+            if (isInlineMethod() && serializer != null) {
+                out.println("            if (" + local + " != null) {");
+                if (saveTags)
+                    out.println("                if (" + local + " instanceof " + DYNAMIC_TAG + " tag) " + CODECS + ".save(tag, plan);");
+                out.println("                final Object serialized = ((" + type + ") " + local + ")." + serializer.getSimpleName() + "();");
+                out.println("                document.append(\"" + name + "\", serialized instanceof java.util.UUID uuid ? uuid.toString() : serialized);");
+                out.println("            }");
+            } else out.println("            if (" + local + " != null) document.append(\"" + name + "\", " + encodeExpression() + ");");
+            out.println("        }catch (Error error) {");
+            out.println("            throw error;");
+            out.println("        }catch (Throwable ignored) { } // the field is skipped, same as the reflective serializer.");
+        }
+
+        private @NotNull String encodeExpression() {
+            if (isInlineObject()) {
+                if (isArray) return CODECS + ".encodeAll(java.util.Arrays.asList((Object[]) " + local + "))";
+                if (isList) return CODECS + ".encodeAll((java.util.List<?>) " + local + ")";
+
+                return CODECS + ".encode(" + local + ")";
+            }
+
+            return constant + ".encode(" + local + ", plan)";
+        }
+
+        private void writeDecode(@NotNull final PrintWriter out) {
+            out.println("        try {");
+            out.println("            final Object " + local + " = document.get(\"" + name + "\");");
+            out.println("            if (" + local + " != null) {");
+            if (isInlineMethod() && deserializer != null) { // shared references are only converted once per load.
+                out.println("                Object decoded = " + CODECS + ".resolve(resolver, " + type + ".class, " + local + ");");
+                out.println("                if (decoded == null) decoded = " + CODECS + ".remember(resolver, " + type + ".class, " + local + ", " + decodeExpression() + ");");
+            } else out.println("                final Object decoded = " + decodeExpression() + ";");
+
+            if (directSet && setter != null) {
+                final String parameter = nameOf(setter.getParameters().get(0).asType());
+                out.println("                object." + setter.getSimpleName() + "(" + convert(parameter) + ");");
+            } else if (directSet) {
+                out.println("                object." + name + " = " + convert(fieldType) + ";");
+            } else out.println("                " + constant + "_SET.invokeExact((Object) object, decoded);");
+
+            out.println("            }");
+            out.println("        }catch (Error error) {");
+            out.println("            throw error;");
+            out.println("        }catch (Throwable throwable) { throwable.printStackTrace(); }");
+        }
+
+        /**
+         * @return the expression converting {@code decoded} to the given type, primitives are widened the same way as {@code Field#set}.
+         */
+        private @NotNull String convert(@NotNull final String target) {
+            return switch (target) {
+                case "byte", "short", "int", "long", "float", "double" -> "((java.lang.Number) decoded)." + target + "Value()";
+                case "boolean" -> "(java.lang.Boolean) decoded";
+                case "char" -> "(java.lang.Character) decoded";
+                default -> "(" + target + ") decoded";
+            };
+        }
+
+        private @NotNull String decodeExpression() {
+            if (isInlineObject()) {
+                if (isArray) return CODECS + ".toArray(" + CODECS + ".decodeAll(manager, (java.util.List<?>) " + local + ", " + type + ".class, resolver), " + type + ".class)";
+                if (isList) return CODECS + ".decodeAll(manager, (java.util.List<?>) " + local + ", " + type + ".class, resolver)";
+
+                return CODECS + ".decode(manager, " + local + ", " + type + ".class, resolver)";
+            }
+
+            if (isInlineMethod() && deserializer != null) {
+                final String parameter = nameOf(deserializer.getParameters().get(1).asType());
+                final String owner = nameOf(deserializer.getEnclosingElement().asType());
+
+                return owner + "." + deserializer.getSimpleName() + "(manager, (" + parameter + ") " + local + ")";
+            }
+
+            return constant + ".decode(manager, " + local + ", resolver)";
+        }
+
+    }
+
+}
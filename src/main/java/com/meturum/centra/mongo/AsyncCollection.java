@@ -0,0 +1,501 @@
+package com.meturum.centra.mongo;
+
+import com.meturum.centra.conversions.Documentable;
+import com.meturum.centra.system.SystemManager;
+import com.mongodb.bulk.BulkWriteResult;
+import com.mongodb.client.FindIterable;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.BulkWriteOptions;
+import com.mongodb.client.model.InsertOneModel;
+import com.mongodb.client.model.ReplaceOptions;
+import com.mongodb.client.model.UpdateOptions;
+import com.mongodb.client.model.WriteModel;
+import com.mongodb.client.result.DeleteResult;
+import com.mongodb.client.result.InsertOneResult;
+import com.mongodb.client.result.UpdateResult;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.jetbrains.annotations.NotNull;
+
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+/**
+ * A future-based view of a {@link CollectionWrapper}, every operation returns a {@link CompletableFuture} completed on the executor of the view.
+ * <p>
+ * Unlike the callback methods of {@link CollectionWrapper}, futures can be chained (e.g. loading a rank once a session was loaded), joined or timed out
+ * ({@link CompletableFuture#orTimeout}). Failed operations complete the future exceptionally, rejected or dropped ones (see {@link BoundedExecutor})
+ * with a {@link RejectedExecutionException} or a {@link java.util.concurrent.CancellationException}.
+ * While the {@link CircuitBreaker} of the collection is open, operations fail immediately with a {@link MongoUnavailableException}.
+ * <p>
+ * The view of a decorating wrapper ({@link ForwardingCollectionWrapper#async()}) goes through its callback methods instead, so caching, coalescing,
+ * write-behind, journaling and offline buffering apply to it too. Its futures are completed by the callbacks, only {@link #count(Bson)} reads the
+ * collection directly.
+ *
+ * @see CollectionWrapper#async()
+ * @see MongoExecutors
+ */
+public final class AsyncCollection {
+
+    private final CollectionWrapper collection;
+    private final Executor executor;
+    private final boolean callbacks;
+    private final @Nullable BoundedExecutor.Priority priority;
+
+    /**
+     * @param collection the collection to operate on.
+     * @param executor the executor running the blocking driver calls.
+     */
+    public AsyncCollection(@NotNull final CollectionWrapper collection, @NotNull final Executor executor) {
+        this(collection, executor, false, null);
+    }
+
+    private AsyncCollection(@NotNull final CollectionWrapper collection, @NotNull final Executor executor, final boolean callbacks,
+                            @Nullable final BoundedExecutor.Priority priority) {
+        this.collection = collection;
+        this.executor = executor;
+        this.callbacks = callbacks;
+        this.priority = priority;
+    }
+
+    /**
+     * Creates a view running every operation (but {@link #count(Bson)}) through the callback methods of the collection.
+     *
+     * @param collection the collection to operate on, e.g. a decorating wrapper.
+     * @return the view.
+     * @see ForwardingCollectionWrapper#async()
+     */
+    public static @NotNull AsyncCollection ofCallbacks(@NotNull final CollectionWrapper collection) {
+        return new AsyncCollection(collection, collection.getExecutor(), true, null);
+    }
+
+    /**
+     * @return the wrapped collection.
+     */
+    public @NotNull CollectionWrapper getCollection() {
+        return collection;
+    }
+
+    /**
+     * @return the executor running the blocking driver calls.
+     */
+    public @NotNull Executor getExecutor() {
+        return executor;
+    }
+
+    /**
+     * @param executor the executor to use instead.
+     * @return a view of the same collection running on the given executor.
+     */
+    public @NotNull AsyncCollection withExecutor(@NotNull final Executor executor) {
+        return new AsyncCollection(collection, executor, callbacks, priority);
+    }
+
+    /**
+     * Gets a view of the same collection whose operations have the given priority on a {@link BoundedExecutor}, see {@link BoundedExecutor#withPriority(BoundedExecutor.Priority, Runnable)}.
+     *
+     * @param priority the priority of the operations, e.g. {@link BoundedExecutor.Priority#CRITICAL} to save a session when a player quits.
+     * @return the prioritized view.
+     * @apiNote Through callbacks, the priority applies to the operations the collection submits while it is called, not to those it submits later
+     * (e.g. the flush of a {@link WriteBehindCollectionWrapper}).
+     */
+    public @NotNull AsyncCollection withPriority(@NotNull final BoundedExecutor.Priority priority) {
+        return new AsyncCollection(collection, executor, callbacks, priority);
+    }
+
+    /**
+     * @return the priority of the operations, or null if they have the priority of the calling thread.
+     */
+    public @Nullable BoundedExecutor.Priority getPriority() {
+        return priority;
+    }
+
+    /**
+     * Searches for all documents matching the filter.
+     *
+     * @param filter the filter to search for, or null to match every document.
+     * @return the matching documents.
+     */
+    public @NotNull CompletableFuture<List<Document>> find(@Nullable final Bson filter) {
+        if (callbacks) return read(filter, null, result -> result.into(new ArrayList<>()));
+
+        return supply(CollectionMetrics.Operation.FIND, () -> {
+            final MongoCollection<Document> raw = collection.raw();
+            return (filter != null ? raw.find(filter) : raw.find()).into(new ArrayList<>());
+        });
+    }
+
+    /**
+     * Searches for all documents matching the filter, returning only the fields included by the projection.
+     *
+     * @param filter the filter to search for, or null to match every document.
+     * @param projection the fields to return.
+     * @return the matching documents.
+     */
+    public @NotNull CompletableFuture<List<Document>> find(@Nullable final Bson filter, @NotNull final Bson projection) {
+        if (callbacks) return read(filter, projection, result -> result.into(new ArrayList<>()));
+
+        return supply(CollectionMetrics.Operation.FIND, () -> {
+            final MongoCollection<Document> raw = collection.raw();
+            return (filter != null ? raw.find(filter) : raw.find()).projection(projection).into(new ArrayList<>());
+        });
+    }
+
+    /**
+     * Searches for the first document matching the filter.
+     *
+     * @param filter the filter to search for.
+     * @return the document, or null if none matches.
+     */
+    public @NotNull CompletableFuture<Document> findOne(@NotNull final Bson filter) {
+        if (callbacks) return read(filter, null, FindIterable::first);
+
+        return supply(CollectionMetrics.Operation.FIND, () -> collection.raw().find(filter).first());
+    }
+
+    /**
+     * Searches for the first document matching the filter and converts it with {@link Documentable#fromDocument(SystemManager, Document, Class)}.
+     *
+     * @param filter the filter to search for.
+     * @param manager the system manager.
+     * @param type the class of the object.
+     * @return the object, or null if no document matches.
+     */
+    public @NotNull <T> CompletableFuture<T> findOne(@NotNull final Bson filter, @NotNull final SystemManager manager, @NotNull final Class<? extends T> type) {
+        if (callbacks) return read(filter, null, result -> {
+            final Document document = result.first();
+            return document != null ? Documentable.fromDocument(manager, document, type) : null;
+        });
+
+        return supply(CollectionMetrics.Operation.FIND, () -> {
+            final Document document = collection.raw().find(filter).first();
+            return document != null ? Documentable.fromDocument(manager, document, type) : null;
+        });
+    }
+
+    /**
+     * Searches for the first document matching the filter, returning only the fields included by the projection.
+     *
+     * @param filter the filter to search for.
+     * @param projection the fields to return.
+     * @return the document, or null if none matches.
+     */
+    public @NotNull CompletableFuture<Document> findOne(@NotNull final Bson filter, @NotNull final Bson projection) {
+        if (callbacks) return read(filter, projection, FindIterable::first);
+
+        return supply(CollectionMetrics.Operation.FIND, () -> collection.raw().find(filter).projection(projection).first());
+    }
+
+    /**
+     * Searches for the first document matching the filter and loads only the given fields of the object,
+     * with {@link Documentable#projection(Class, String...)} and {@link Documentable#fromPartialDocument(SystemManager, Document, Class)}.
+     *
+     * @param filter the filter to search for.
+     * @param manager the system manager.
+     * @param type the class of the object.
+     * @param fields the names of the serialized fields to load.
+     * @return the partially loaded object, or null if no document matches.
+     */
+    public @NotNull <T> CompletableFuture<T> findPartial(@NotNull final Bson filter, @NotNull final SystemManager manager, @NotNull final Class<? extends T> type, @NotNull final String... fields) {
+        final Bson projection = Documentable.projection(type, fields);
+
+        if (callbacks) return read(filter, projection, result -> {
+            final Document document = result.first();
+            return document != null ? Documentable.fromPartialDocument(manager, document, type) : null;
+        });
+
+        return supply(CollectionMetrics.Operation.FIND, () -> {
+            final Document document = collection.raw().find(filter).projection(projection).first();
+            return document != null ? Documentable.fromPartialDocument(manager, document, type) : null;
+        });
+    }
+
+    /**
+     * Counts the documents matching the filter.
+     *
+     * @param filter the filter to search for, or null to count every document.
+     * @return the number of matching documents.
+     */
+    public @NotNull CompletableFuture<Long> count(@Nullable final Bson filter) {
+        return supply(CollectionMetrics.Operation.COUNT, () -> filter != null ? collection.raw().countDocuments(filter) : collection.raw().countDocuments());
+    }
+
+    /**
+     * Inserts a document into the collection.
+     *
+     * @param document the document to insert.
+     * @return the result of the insertion.
+     */
+    public @NotNull CompletableFuture<InsertOneResult> insertOne(@NotNull final Document document) {
+        if (callbacks) return callback(lambda -> collection.insertOneAsync(document, lambda::accept));
+
+        return supply(CollectionMetrics.Operation.INSERT_ONE, () -> collection.raw().insertOne(document));
+    }
+
+    /**
+     * Updates a document in the collection.
+     *
+     * @param filter the filter to search for.
+     * @param updates the updates to apply.
+     * @param options the options to apply.
+     * @return the result of the update.
+     */
+    public @NotNull CompletableFuture<UpdateResult> updateOne(@NotNull final Bson filter, @NotNull final Bson updates, @Nullable final UpdateOptions options) {
+        if (callbacks) return callback(lambda -> collection.updateOneAsync(filter, updates, options, lambda::accept));
+
+        return supply(CollectionMetrics.Operation.UPDATE_ONE, () -> collection.raw().updateOne(filter, updates, options != null ? options : new UpdateOptions()));
+    }
+
+    /**
+     * Updates a document in the collection.
+     *
+     * @param filter the filter to search for.
+     * @param updates the updates to apply.
+     * @return the result of the update.
+     */
+    public @NotNull CompletableFuture<UpdateResult> updateOne(@NotNull final Bson filter, @NotNull final Bson updates) {
+        return updateOne(filter, updates, null);
+    }
+
+    /**
+     * Replaces a document in the collection.
+     *
+     * @param filter the filter to search for.
+     * @param document the replacement document.
+     * @param options the options to apply.
+     * @return the result of the replacement.
+     */
+    public @NotNull CompletableFuture<UpdateResult> replaceOne(@NotNull final Bson filter, @NotNull final Document document, @Nullable final ReplaceOptions options) {
+        if (callbacks) return callback(lambda -> collection.replaceOneAsync(filter, document, options, lambda::accept));
+
+        return supply(CollectionMetrics.Operation.REPLACE_ONE, () -> collection.raw().replaceOne(filter, document, options != null ? options : new ReplaceOptions()));
+    }
+
+    /**
+     * Replaces a document in the collection.
+     *
+     * @param filter the filter to search for.
+     * @param document the replacement document.
+     * @return the result of the replacement.
+     */
+    public @NotNull CompletableFuture<UpdateResult> replaceOne(@NotNull final Bson filter, @NotNull final Document document) {
+        return replaceOne(filter, document, null);
+    }
+
+    /**
+     * Deletes a document in the collection.
+     *
+     * @param filter the filter to search for.
+     * @return the result of the deletion.
+     */
+    public @NotNull CompletableFuture<DeleteResult> deleteOne(@NotNull final Bson filter) {
+        if (callbacks) return callback(lambda -> collection.deleteOneAsync(filter, lambda::accept));
+
+        return supply(CollectionMetrics.Operation.DELETE_ONE, () -> collection.raw().deleteOne(filter));
+    }
+
+    /**
+     * Executes several writes in a single request.
+     *
+     * @param requests the writes to execute.
+     * @param options the options to apply.
+     * @return the result of the writes.
+     * @apiNote Through callbacks, the writes are sent by {@link CollectionWrapper#bulkWriteAsync} in chunks of {@link BulkResult#DEFAULT_CHUNK_SIZE},
+     * failed writes complete the future with a {@link com.mongodb.MongoBulkWriteException}.
+     */
+    public @NotNull CompletableFuture<BulkWriteResult> bulkWrite(@NotNull final List<? extends WriteModel<? extends Document>> requests, @Nullable final BulkWriteOptions options) {
+        if (callbacks) return bulk(lambda -> collection.bulkWriteAsync(requests, options == null || options.isOrdered(), lambda::accept)).thenApply(BulkResult::toWriteResult);
+
+        return supply(CollectionMetrics.Operation.BULK_WRITE, () -> collection.raw().bulkWrite(requests, options != null ? options : new BulkWriteOptions()));
+    }
+
+    /**
+     * Executes several writes, sent in chunks of at most {@code chunkSize} requests one after the other.
+     *
+     * @param requests the writes to execute.
+     * @param options the options of every chunk (e.g. ordered or not).
+     * @param chunkSize the maximum number of requests per chunk, at most {@link BulkResult#MAX_CHUNK_SIZE}.
+     * @return the aggregated result of the chunks, a failure stopping the writes is reported by {@link BulkResult#getFailure()}.
+     * The future completes exceptionally if nothing could be sent because Mongo is unreachable.
+     * @apiNote Through callbacks, the writes are sent by {@link CollectionWrapper#bulkWriteAsync} with its own chunk size.
+     */
+    public @NotNull CompletableFuture<BulkResult> bulkWrite(@NotNull final List<? extends WriteModel<? extends Document>> requests, @Nullable final BulkWriteOptions options, final int chunkSize) {
+        if (callbacks) return bulk(lambda -> collection.bulkWriteAsync(requests, options == null || options.isOrdered(), lambda::accept));
+
+        return supply(CollectionMetrics.Operation.BULK_WRITE, () -> BulkResult.execute(collection.raw(), requests, options != null ? options : new BulkWriteOptions(), chunkSize));
+    }
+
+    /**
+     * Inserts several documents, sent in chunks of {@link BulkResult#DEFAULT_CHUNK_SIZE}.
+     *
+     * @param documents the documents to insert.
+     * @param ordered whether to stop at the first failed insertion.
+     * @return the aggregated result of the chunks.
+     */
+    public @NotNull CompletableFuture<BulkResult> insertMany(@NotNull final List<Document> documents, final boolean ordered) {
+        if (callbacks) return bulk(lambda -> collection.insertManyAsync(documents, ordered, lambda::accept));
+
+        final List<InsertOneModel<Document>> requests = new ArrayList<>(documents.size());
+        for (final Document document : documents) requests.add(new InsertOneModel<>(document));
+
+        return bulkWrite(requests, new BulkWriteOptions().ordered(ordered), BulkResult.DEFAULT_CHUNK_SIZE);
+    }
+
+    /**
+     * Updates every document matching the filter, in a single request.
+     *
+     * @param filter the filter to search for.
+     * @param updates the updates to apply.
+     * @param options the options to apply.
+     * @return the result of the update.
+     */
+    public @NotNull CompletableFuture<UpdateResult> updateMany(@NotNull final Bson filter, @NotNull final Bson updates, @Nullable final UpdateOptions options) {
+        if (callbacks) return callback(lambda -> collection.updateManyAsync(filter, updates, options, lambda::accept));
+
+        return supply(CollectionMetrics.Operation.UPDATE_MANY, () -> collection.raw().updateMany(filter, updates, options != null ? options : new UpdateOptions()));
+    }
+
+    /**
+     * Deletes every document matching the filter, in a single request.
+     *
+     * @param filter the filter to search for.
+     * @return the result of the deletion.
+     */
+    public @NotNull CompletableFuture<DeleteResult> deleteMany(@NotNull final Bson filter) {
+        if (callbacks) return callback(lambda -> collection.deleteManyAsync(filter, lambda::accept));
+
+        return supply(CollectionMetrics.Operation.DELETE_MANY, () -> collection.raw().deleteMany(filter));
+    }
+
+    private @NotNull <T> CompletableFuture<T> supply(@NotNull final CollectionMetrics.Operation kind, @NotNull final Operation<T> operation) {
+        final CircuitBreaker breaker = collection.getCircuitBreaker();
+        if (breaker != null && !breaker.tryAcquire()) return CompletableFuture.failedFuture(new MongoUnavailableException(breaker.getType()));
+
+        final CollectionMetrics metrics = collection.getMetrics();
+        final OperationTask<T> task = new OperationTask<>(operation, metrics != null ? metrics.get(kind) : null);
+        if (breaker != null) task.whenComplete((result, throwable) -> breaker.record(failure(result, throwable)));
+
+        try {
+            prioritized(() -> executor.execute(task));
+        }catch (RejectedExecutionException exception) { // e.g. the queue of a BoundedExecutor is full.
+            task.completeExceptionally(exception);
+        }
+
+        return task;
+    }
+
+    /**
+     * Runs an operation through a callback method of the collection, the future is completed by its lambda.
+     */
+    private @NotNull <T> CompletableFuture<T> callback(@NotNull final Consumer<BiConsumer<T, Exception>> operation) {
+        final CompletableFuture<T> future = new CompletableFuture<>();
+
+        try {
+            prioritized(() -> operation.accept((result, exception) -> {
+                if (exception != null) future.completeExceptionally(exception);
+                else future.complete(result);
+            }));
+        }catch (Exception exception) {
+            future.completeExceptionally(exception);
+        }
+
+        return future;
+    }
+
+    /**
+     * Runs a bulk operation through a callback method of the collection, a failure stopping the writes is reported by {@link BulkResult#getFailure()}.
+     */
+    private @NotNull CompletableFuture<BulkResult> bulk(@NotNull final Consumer<BiConsumer<BulkResult, Exception>> operation) {
+        return callback(lambda -> operation.accept((result, exception) -> lambda.accept(result, result != null ? null : exception)));
+    }
+
+    /**
+     * Runs a find through {@link CollectionWrapper#findAsync(Bson, Bson, CollectionWrapper.FindLambda)}, the result is read by the thread of its lambda.
+     */
+    private @NotNull <T> CompletableFuture<T> read(@Nullable final Bson filter, @Nullable final Bson projection, @NotNull final Read<T> reader) {
+        return callback(lambda -> collection.findAsync(filter, projection, (result, exception) -> {
+            if (exception != null || result == null) {
+                lambda.accept(null, exception);
+                return;
+            }
+
+            final T value;
+            try {
+                value = reader.read(result);
+            }catch (Exception e) {
+                lambda.accept(null, e);
+                return;
+            }
+
+            lambda.accept(value, null);
+        }));
+    }
+
+    /**
+     * @return the failure of an operation, including the one stopping a {@link BulkResult} after some chunks were sent.
+     */
+    private static @Nullable Throwable failure(@Nullable final Object result, @Nullable final Throwable throwable) {
+        if (throwable == null && result instanceof BulkResult bulk) return bulk.getFailure();
+
+        return throwable;
+    }
+
+    /**
+     * Submits operations with the priority of this view, if any.
+     */
+    private void prioritized(@NotNull final Runnable submit) {
+        if (priority != null) BoundedExecutor.withPriority(priority, submit);
+        else submit.run();
+    }
+
+    private interface Operation<T> {
+        T run() throws Exception;
+    }
+
+    private interface Read<T> {
+        T read(@NotNull FindIterable<Document> result) throws Exception;
+    }
+
+    /**
+     * A future running its operation, cancelled (e.g. dropped by a {@link BoundedExecutor}) before running, the operation is skipped.
+     */
+    private static final class OperationTask<T> extends CompletableFuture<T> implements Runnable {
+
+        private final Operation<T> operation;
+        private final @Nullable CollectionMetrics.OperationMetrics metrics;
+        private final long submittedAt = java.lang.System.nanoTime();
+
+        private OperationTask(@NotNull final Operation<T> operation, @Nullable final CollectionMetrics.OperationMetrics metrics) {
+            this.operation = operation;
+            this.metrics = metrics;
+        }
+
+        @Override
+        public void run() {
+            if (isDone()) return;
+
+            final long startedAt = java.lang.System.nanoTime();
+            boolean failed = false;
+
+            try {
+                final T result = operation.run();
+
+                failed = failure(result, null) != null;
+                complete(result);
+            }catch (Exception exception) {
+                failed = true;
+                completeExceptionally(exception);
+            } finally {
+                if (metrics != null) metrics.record(startedAt - submittedAt, java.lang.System.nanoTime() - startedAt, failed);
+            }
+        }
+
+    }
+
+}
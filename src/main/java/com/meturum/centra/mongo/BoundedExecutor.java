@@ -0,0 +1,448 @@
+package com.meturum.centra.mongo;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BooleanSupplier;
+import java.util.function.Supplier;
+
+/**
+ * An executor limiting the number of operations running at once, queuing the others by {@link Priority}.
+ * <p>
+ * When Mongo slows down, operations wait in a bounded queue instead of piling up without limit. Once the queue is full, the
+ * {@link OverflowPolicy} decides what happens to new operations. {@link Priority#CRITICAL} operations (e.g. session saves) always run first,
+ * are never rejected nor dropped: they take the place of a lower priority operation, or are queued beyond the limit.
+ * <p>
+ * The priority of {@link #execute(Runnable)} is the one of the calling thread, see {@link #withPriority(Priority, Runnable)},
+ * or of the view returned by {@link #prioritized(Priority)} (e.g. {@link CollectionWrapper#async(Priority)}).
+ * Only queued operations which are a {@link Future} (e.g. the futures of {@link AsyncCollection}) can be dropped, their owner sees them fail with a
+ * {@link RejectedExecutionException}. Other operations (e.g. those of {@link CompletableFuture#runAsync}) are never dropped once queued,
+ * they are rejected by {@link #execute(Runnable)} instead.
+ * <p>
+ * A thread running an operation must not wait for another operation of the same executor (e.g. {@code future.join()}), all of its threads could be waiting.
+ * Such code checks {@link #isWorkerThread()} and runs its operations with {@link #inline(Supplier)} instead.
+ *
+ * @see MongoExecutors#getExecutor(Mongo.MongoClientTypes)
+ */
+public final class BoundedExecutor implements Executor {
+
+    private static final ThreadLocal<Priority> PRIORITY = ThreadLocal.withInitial(() -> Priority.NORMAL);
+    private static final ThreadLocal<Boolean> WORKER = ThreadLocal.withInitial(() -> false); // whether the current thread is running an operation of a bounded executor.
+    private static final ThreadLocal<Boolean> INLINE = ThreadLocal.withInitial(() -> false);
+
+    private final Executor delegate;
+    private final int maxInFlight;
+    private final int maxQueued;
+    private final OverflowPolicy policy;
+    private final BooleanSupplier mainThread;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notFull = lock.newCondition();
+    private final List<ArrayDeque<Queued>> queues; // indexed by Priority#ordinal().
+
+    private int inFlight;
+    private int queued;
+    private long submitted, completed, rejected, dropped, started, totalWait, maxWait;
+
+    /**
+     * @param delegate the executor running the operations.
+     * @param maxInFlight the maximum number of operations running at once.
+     * @param maxQueued the maximum number of operations waiting to run.
+     * @param policy what happens to new operations once the queue is full.
+     * @apiNote The main thread of the server is recognized by {@link MongoExecutors#isMainThread()}.
+     */
+    public BoundedExecutor(@NotNull final Executor delegate, final int maxInFlight, final int maxQueued, @NotNull final OverflowPolicy policy) {
+        this(delegate, maxInFlight, maxQueued, policy, MongoExecutors::isMainThread);
+    }
+
+    /**
+     * @param delegate the executor running the operations.
+     * @param maxInFlight the maximum number of operations running at once.
+     * @param maxQueued the maximum number of operations waiting to run.
+     * @param policy what happens to new operations once the queue is full.
+     * @param mainThread whether the calling thread is the main thread of the server, which never waits (e.g. {@code Bukkit::isPrimaryThread}).
+     */
+    public BoundedExecutor(@NotNull final Executor delegate, final int maxInFlight, final int maxQueued, @NotNull final OverflowPolicy policy,
+                           @NotNull final BooleanSupplier mainThread) {
+        if (maxInFlight < 1 || maxQueued < 0) throw new IllegalArgumentException("maxInFlight must be at least 1 and maxQueued positive.");
+
+        this.delegate = delegate;
+        this.maxInFlight = maxInFlight;
+        this.maxQueued = maxQueued;
+        this.policy = policy;
+        this.mainThread = mainThread;
+        this.queues = new ArrayList<>(Priority.values().length);
+
+        for (int i = 0; i < Priority.values().length; i++) queues.add(new ArrayDeque<>());
+    }
+
+    /**
+     * Runs an action, every operation executed by the current thread meanwhile has the given priority.
+     *
+     * @param priority the priority of the operations.
+     * @param action the action to run (e.g. calling {@link CollectionWrapper#updateOneAsync}).
+     */
+    public static void withPriority(@NotNull final Priority priority, @NotNull final Runnable action) {
+        withPriority(priority, () -> {
+            action.run();
+            return null;
+        });
+    }
+
+    /**
+     * Runs an action, every operation executed by the current thread meanwhile has the given priority.
+     *
+     * @param priority the priority of the operations.
+     * @param action the action to run.
+     * @return the result of the action.
+     */
+    public static <T> T withPriority(@NotNull final Priority priority, @NotNull final Supplier<T> action) {
+        final Priority previous = PRIORITY.get();
+        PRIORITY.set(priority);
+
+        try {
+            return action.get();
+        } finally {
+            PRIORITY.set(previous);
+        }
+    }
+
+    /**
+     * Runs an action, every operation executed by the current thread meanwhile runs directly on it, beyond the limit, instead of being queued.
+     * Used by operations waiting for other operations, which could otherwise wait for a thread they are holding.
+     *
+     * @param action the action to run.
+     * @return the result of the action.
+     */
+    public static <T> T inline(@NotNull final Supplier<T> action) {
+        final boolean previous = INLINE.get();
+        INLINE.set(true);
+
+        try {
+            return action.get();
+        } finally {
+            INLINE.set(previous);
+        }
+    }
+
+    /**
+     * @return true if the current thread is running an operation of a bounded executor, see {@link #inline(Supplier)}.
+     */
+    public static boolean isWorkerThread() {
+        return WORKER.get();
+    }
+
+    /**
+     * Gets a view of this executor running every operation with the given priority, e.g. {@code collection.async().withExecutor(executor.prioritized(Priority.LOW))}.
+     *
+     * @param priority the priority of the operations.
+     * @return the view.
+     */
+    public @NotNull Executor prioritized(@NotNull final Priority priority) {
+        return task -> execute(task, priority);
+    }
+
+    /**
+     * Executes an operation with the priority of the calling thread ({@link Priority#NORMAL} by default).
+     *
+     * @param task the operation to execute.
+     * @throws RejectedExecutionException if the queue is full and the operation was rejected (or dropped, see {@link OverflowPolicy#DROP_LOWEST}).
+     */
+    @Override
+    public void execute(@NotNull final Runnable task) {
+        execute(task, PRIORITY.get());
+    }
+
+    /**
+     * Executes an operation with the given priority.
+     *
+     * @param task the operation to execute.
+     * @param priority the priority of the operation.
+     * @throws RejectedExecutionException if the queue is full and the operation was rejected (or dropped, see {@link OverflowPolicy#DROP_LOWEST}).
+     */
+    public void execute(@NotNull final Runnable task, @NotNull final Priority priority) {
+        Future<?> discarded = null;
+        boolean inline = false;
+
+        lock.lock();
+        try {
+            submitted++;
+
+            if (INLINE.get()) {
+                inline = true;
+            } else if (queued >= maxQueued && inFlight >= maxInFlight) {
+                if (priority == Priority.CRITICAL || policy == OverflowPolicy.DROP_LOWEST) {
+                    discarded = dropLowerThan(priority);
+
+                    if (discarded == null && priority != Priority.CRITICAL) { // nothing lower to drop, the new operation is the lowest.
+                        dropped++;
+                        throw new RejectedExecutionException("The queue of Mongo operations is full (" + queued + " waiting), the operation was dropped.");
+                    }
+                } else if (policy == OverflowPolicy.BLOCK && WORKER.get()) { // waiting for its own threads could never end, the operation runs here.
+                    inline = true;
+                } else if (policy == OverflowPolicy.BLOCK && !mainThread.getAsBoolean()) {
+                    while (queued >= maxQueued && inFlight >= maxInFlight) notFull.await();
+                } else {
+                    rejected++;
+                    throw new RejectedExecutionException("The queue of Mongo operations is full (" + queued + " waiting).");
+                }
+            }
+
+            if (!inline) {
+                if (inFlight < maxInFlight) {
+                    inFlight++;
+                    started++;
+                } else {
+                    queues.get(priority.ordinal()).addLast(new Queued(task, java.lang.System.nanoTime()));
+                    queued++;
+
+                    return;
+                }
+            }
+        }catch (InterruptedException exception) {
+            Thread.currentThread().interrupt();
+
+            rejected++;
+            throw new RejectedExecutionException("Interrupted while waiting for the queue of Mongo operations.", exception);
+        } finally {
+            lock.unlock();
+
+            if (discarded != null) fail(discarded);
+        }
+
+        if (inline) run(task, false);
+        else start(task);
+    }
+
+    /**
+     * @return a snapshot of the queue depth, wait time and rejection counters.
+     */
+    public @NotNull Metrics getMetrics() {
+        lock.lock();
+        try {
+            final int[] depths = new int[queues.size()];
+            for (int i = 0; i < depths.length; i++) depths[i] = queues.get(i).size();
+
+            return new Metrics(inFlight, queued, depths, submitted, completed, rejected, dropped,
+                    started == 0 ? 0 : TimeUnit.NANOSECONDS.toMicros(totalWait / started), TimeUnit.NANOSECONDS.toMicros(maxWait));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the maximum number of operations running at once.
+     */
+    public int getMaxInFlight() {
+        return maxInFlight;
+    }
+
+    /**
+     * @return the maximum number of operations waiting to run.
+     */
+    public int getMaxQueued() {
+        return maxQueued;
+    }
+
+    /**
+     * @return what happens to new operations once the queue is full.
+     */
+    public @NotNull OverflowPolicy getPolicy() {
+        return policy;
+    }
+
+    private void start(@NotNull final Runnable task) {
+        try {
+            delegate.execute(() -> run(task, true));
+        }catch (RejectedExecutionException exception) { // e.g. the delegate was shut down.
+            lock.lock();
+            try {
+                inFlight--;
+                notFull.signal();
+            } finally {
+                lock.unlock();
+            }
+
+            throw exception;
+        }
+    }
+
+    /**
+     * Runs an operation, then the queued ones on the same thread while there are any.
+     *
+     * @param slot whether the operation holds a slot, otherwise it runs beyond the limit and no queued operation follows it.
+     */
+    private void run(@NotNull final Runnable first, final boolean slot) {
+        final boolean nested = WORKER.get();
+        WORKER.set(true);
+
+        try {
+            Runnable task = first;
+
+            while (task != null) {
+                try {
+                    task.run();
+                }catch (Throwable throwable) {
+                    throwable.printStackTrace();
+                }
+
+                if (slot) task = next();
+                else {
+                    complete();
+                    task = null;
+                }
+            }
+        } finally {
+            WORKER.set(nested);
+        }
+    }
+
+    /**
+     * Completes an operation run beyond the limit.
+     */
+    private void complete() {
+        lock.lock();
+        try {
+            completed++;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Completes the running operation and takes the next queued one, or releases its slot.
+     *
+     * @return the next operation, or null if none.
+     */
+    private Runnable next() {
+        lock.lock();
+        try {
+            completed++;
+
+            Runnable task = null;
+            for (final ArrayDeque<Queued> queue : queues) { // highest priority first.
+                final Queued next = queue.pollFirst();
+                if (next == null) continue;
+
+                final long wait = java.lang.System.nanoTime() - next.queuedAt();
+                totalWait += wait;
+                maxWait = Math.max(maxWait, wait);
+                started++;
+                queued--;
+
+                task = next.task();
+                break;
+            }
+
+            if (task == null) inFlight--;
+            notFull.signal();
+
+            return task;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Removes the newest queued operation of the lowest priority below the given one which can be dropped, see {@link #isDroppable(Runnable)}.
+     *
+     * @return the removed operation, or null if none.
+     */
+    private Future<?> dropLowerThan(@NotNull final Priority priority) {
+        for (int i = queues.size() - 1; i > priority.ordinal(); i--) {
+            final Iterator<Queued> iterator = queues.get(i).descendingIterator();
+
+            while (iterator.hasNext()) {
+                final Runnable task = iterator.next().task();
+                if (!isDroppable(task)) continue;
+
+                iterator.remove();
+                queued--;
+                dropped++;
+                return (Future<?>) task;
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * @return true if the owner of the operation is notified when it is dropped: it is a {@link Future} it holds. The tasks of
+     * {@link CompletableFuture#runAsync} are futures too, but cancelling them does not complete the future returned to their owner.
+     */
+    private static boolean isDroppable(@NotNull final Runnable task) {
+        return task instanceof Future<?> && !(task instanceof CompletableFuture.AsynchronousCompletionTask);
+    }
+
+    /**
+     * Fails a dropped operation, its owner sees a {@link RejectedExecutionException} like a rejected one (or a cancellation if it is not a {@link CompletableFuture}).
+     */
+    private static void fail(@NotNull final Future<?> task) {
+        if (task instanceof CompletableFuture<?> future) future.completeExceptionally(new RejectedExecutionException("The operation was dropped for a higher priority one."));
+        else task.cancel(false);
+    }
+
+    private record Queued(@NotNull Runnable task, long queuedAt) { }
+
+    /**
+     * The priority of an operation, higher priorities run first.
+     */
+    public enum Priority {
+        /**
+         * Operations that must not be lost, e.g. saving a session when a player quits.
+         */
+        CRITICAL,
+        NORMAL,
+        /**
+         * Operations that can be delayed or dropped, e.g. analytics.
+         */
+        LOW
+    }
+
+    /**
+     * What happens to a new operation once the queue is full.
+     */
+    public enum OverflowPolicy {
+        /**
+         * The calling thread waits for a place in the queue. The main thread of the server never waits, its operations are rejected instead.
+         * A thread running an operation of a bounded executor never waits either (it could wait for itself), its operation runs directly.
+         */
+        BLOCK,
+        /**
+         * The operation is rejected with a {@link RejectedExecutionException}.
+         */
+        REJECT,
+        /**
+         * The newest queued {@link Future} of the lowest priority below the new operation is dropped and fails with a {@link RejectedExecutionException}.
+         * If there is none, the new operation is rejected.
+         */
+        DROP_LOWEST
+    }
+
+    /**
+     * A snapshot of the state and counters of a {@link BoundedExecutor}.
+     *
+     * @param inFlight the number of running operations.
+     * @param queued the number of waiting operations.
+     * @param queuedByPriority the number of waiting operations, indexed by {@link Priority#ordinal()}.
+     * @param submitted the number of operations submitted.
+     * @param completed the number of operations completed.
+     * @param rejected the number of operations rejected.
+     * @param dropped the number of operations dropped.
+     * @param averageWaitMicros the average time operations waited in the queue, in microseconds.
+     * @param maxWaitMicros the longest time an operation waited in the queue, in microseconds.
+     */
+    public record Metrics(int inFlight, int queued, int[] queuedByPriority, long submitted, long completed, long rejected, long dropped,
+                          long averageWaitMicros, long maxWaitMicros) { }
+
+}
@@ -0,0 +1,228 @@
+package com.meturum.centra.mongo;
+
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.MongoException;
+import com.mongodb.ServerAddress;
+import com.mongodb.bulk.BulkWriteError;
+import com.mongodb.bulk.BulkWriteResult;
+import com.mongodb.bulk.BulkWriteUpsert;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.BulkWriteOptions;
+import com.mongodb.client.model.WriteModel;
+import org.bson.Document;
+import org.jetbrains.annotations.NotNull;
+
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletionException;
+
+/**
+ * The aggregated result of a bulk write sent in chunks, see {@link AsyncCollection#bulkWrite(List, BulkWriteOptions, int)}.
+ * <p>
+ * Indexes (of errors and upserts) refer to the position of the request in the whole list, not in its chunk.
+ * An ordered bulk write stops at the first chunk with an error, an unordered one only stops if a chunk could not be sent at all (e.g. a network error).
+ * If the first chunk could not be sent because Mongo is unreachable ({@link CircuitBreaker#isDegradation(Throwable)}), nothing was written and the failure is thrown instead.
+ */
+public final class BulkResult {
+
+    /**
+     * The default number of requests sent per chunk.
+     * <p>
+     * When a chunk cannot be sent (e.g. a network error), the outcome of its requests is unknown and nothing is known of the following ones:
+     * smaller chunks bound how many writes have to be sent again. 1000 is also the batch size of Mongo before 3.6, one round trip per chunk with any server.
+     */
+    public static final int DEFAULT_CHUNK_SIZE = 1000;
+
+    /**
+     * The maximum number of requests the server accepts in one batch ({@code maxWriteBatchSize}), larger chunks are split by the driver.
+     */
+    public static final int MAX_CHUNK_SIZE = 100_000;
+
+    private final int requests;
+    private final List<BulkWriteResult> chunks = new ArrayList<>();
+    private final List<BulkWriteError> errors = new ArrayList<>();
+    private final List<BulkWriteUpsert> upserts = new ArrayList<>();
+
+    private final Set<String> errorLabels = new HashSet<>();
+
+    private int processed;
+    private int inserted, matched, modified, deleted;
+    private @Nullable ServerAddress serverAddress;
+    private @Nullable Exception failure;
+
+    private BulkResult(final int requests) {
+        this.requests = requests;
+    }
+
+    /**
+     * Sends the requests in chunks, one after the other. (thread-blocking)
+     *
+     * @param collection the collection to write to.
+     * @param requests the requests to send.
+     * @param options the options of every chunk.
+     * @param chunkSize the maximum number of requests per chunk.
+     * @return the aggregated result.
+     * @throws RuntimeException the failure of the first chunk if it is a degradation, see {@link CircuitBreaker#isDegradation(Throwable)}.
+     */
+    static @NotNull BulkResult execute(@NotNull final MongoCollection<Document> collection, @NotNull final List<? extends WriteModel<? extends Document>> requests,
+                                       @NotNull final BulkWriteOptions options, final int chunkSize) {
+        if (chunkSize < 1 || chunkSize > MAX_CHUNK_SIZE) throw new IllegalArgumentException("chunkSize must be between 1 and " + MAX_CHUNK_SIZE + ".");
+
+        final BulkResult result = new BulkResult(requests.size());
+
+        for (int offset = 0; offset < requests.size(); offset += chunkSize) {
+            final List<? extends WriteModel<? extends Document>> chunk = requests.subList(offset, Math.min(requests.size(), offset + chunkSize));
+
+            try {
+                result.add(offset, chunk.size(), collection.bulkWrite(chunk, options), List.of());
+            }catch (MongoBulkWriteException exception) {
+                result.add(offset, chunk.size(), exception.getWriteResult(), exception.getWriteErrors());
+                result.serverAddress = exception.getServerAddress();
+                result.errorLabels.addAll(exception.getErrorLabels());
+
+                if (exception.getWriteConcernError() != null || options.isOrdered()) {
+                    result.failure = exception;
+                    break;
+                }
+            }catch (RuntimeException exception) {
+                if (result.processed == 0 && CircuitBreaker.isDegradation(exception)) throw exception; // nothing was sent, the breaker and metrics see it.
+
+                result.failure = exception;
+                break;
+            }
+        }
+
+        return result;
+    }
+
+    private void add(final int offset, final int size, @NotNull final BulkWriteResult chunk, @NotNull final List<BulkWriteError> chunkErrors) {
+        chunks.add(chunk);
+        processed += size;
+
+        for (final BulkWriteError error : chunkErrors)
+            errors.add(new BulkWriteError(error.getCode(), error.getMessage(), error.getDetails(), error.getIndex() + offset));
+
+        if (!chunk.wasAcknowledged()) return;
+
+        inserted += chunk.getInsertedCount();
+        matched += chunk.getMatchedCount();
+        modified += chunk.getModifiedCount();
+        deleted += chunk.getDeletedCount();
+
+        for (final BulkWriteUpsert upsert : chunk.getUpserts()) upserts.add(new BulkWriteUpsert(upsert.getIndex() + offset, upsert.getId()));
+    }
+
+    /**
+     * @return the results of the chunks that were sent, in order.
+     */
+    public @NotNull List<BulkWriteResult> getChunks() {
+        return Collections.unmodifiableList(chunks);
+    }
+
+    /**
+     * @return the number of requests.
+     */
+    public int getRequestCount() {
+        return requests;
+    }
+
+    /**
+     * @return the number of requests that were sent, the others were skipped after a failure.
+     */
+    public int getProcessedCount() {
+        return processed;
+    }
+
+    /**
+     * @return the number of inserted documents.
+     */
+    public int getInsertedCount() {
+        return inserted;
+    }
+
+    /**
+     * @return the number of documents matched by updates and replacements.
+     */
+    public int getMatchedCount() {
+        return matched;
+    }
+
+    /**
+     * @return the number of documents modified by updates and replacements.
+     */
+    public int getModifiedCount() {
+        return modified;
+    }
+
+    /**
+     * @return the number of deleted documents.
+     */
+    public int getDeletedCount() {
+        return deleted;
+    }
+
+    /**
+     * @return the upserted documents.
+     */
+    public @NotNull List<BulkWriteUpsert> getUpserts() {
+        return Collections.unmodifiableList(upserts);
+    }
+
+    /**
+     * @return the requests that failed.
+     */
+    public @NotNull List<BulkWriteError> getErrors() {
+        return Collections.unmodifiableList(errors);
+    }
+
+    /**
+     * @return the exception reporting the failed requests of every chunk, with the address of the server that reported them, or null if none failed.
+     */
+    public @Nullable MongoBulkWriteException getWriteException() {
+        if (errors.isEmpty()) return null;
+
+        final BulkWriteResult result = BulkWriteResult.acknowledged(inserted, matched, deleted, modified, upserts, List.of());
+        return new MongoBulkWriteException(result, getErrors(), null, serverAddress, errorLabels);
+    }
+
+    /**
+     * @return the exception that stopped the bulk write, or null if every chunk was sent.
+     */
+    public @Nullable Exception getFailure() {
+        return failure;
+    }
+
+    /**
+     * @return true if every request was sent and none failed.
+     */
+    public boolean isSuccessful() {
+        return failure == null && errors.isEmpty() && processed == requests;
+    }
+
+    /**
+     * Converts this result to the one of a single {@code bulkWrite}, see {@link AsyncCollection#bulkWrite(List, BulkWriteOptions)}.
+     *
+     * @return the driver result.
+     * @throws MongoException the failure that stopped the writes, or a {@link MongoBulkWriteException} if some writes failed.
+     */
+    @NotNull BulkWriteResult toWriteResult() {
+        if (failure instanceof MongoException exception) throw exception;
+        if (failure != null) throw new CompletionException(failure);
+
+        final MongoBulkWriteException exception = getWriteException();
+        if (exception != null) throw exception;
+
+        return BulkWriteResult.acknowledged(inserted, matched, deleted, modified, upserts, List.of());
+    }
+
+    @Override
+    public String toString() {
+        return "BulkResult{requests=" + requests + ", processed=" + processed + ", chunks=" + chunks.size() + ", inserted=" + inserted + ", matched=" + matched
+                + ", modified=" + modified + ", deleted=" + deleted + ", upserts=" + upserts.size() + ", errors=" + errors.size() + ", failure=" + failure + '}';
+    }
+
+}
@@ -0,0 +1,320 @@
+package com.meturum.centra.mongo;
+
+import com.mongodb.CursorType;
+import com.mongodb.ExplainVerbosity;
+import com.mongodb.Function;
+import com.mongodb.MongoClientSettings;
+import com.mongodb.ServerAddress;
+import com.mongodb.ServerCursor;
+import com.mongodb.client.FindIterable;
+import com.mongodb.client.MongoCursor;
+import com.mongodb.client.MongoIterable;
+import com.mongodb.client.model.Collation;
+import org.bson.BsonDocument;
+import org.bson.BsonDocumentReader;
+import org.bson.BsonDocumentWriter;
+import org.bson.BsonValue;
+import org.bson.Document;
+import org.bson.codecs.Codec;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.EncoderContext;
+import org.bson.conversions.Bson;
+import org.jetbrains.annotations.NotNull;
+
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A {@link FindIterable} over documents already in memory, e.g. returned by {@link CachingCollectionWrapper}.
+ * <p>
+ * Options not changing the results (e.g. {@code batchSize}, {@code maxTime}) are ignored. {@code sort}, {@code skip}, {@code limit} and {@code projection}
+ * are applied to the documents in memory (like {@link LocalCollection}), the query is never sent again. The other options changing the results
+ * (e.g. {@code filter}, {@code collation}) throw {@link UnsupportedOperationException}.
+ */
+final class CachedFindIterable<T> implements FindIterable<T> {
+
+    private final List<T> documents;
+    private final @Nullable Codec<T> codec;
+
+    private @Nullable BsonDocument projection;
+    private @Nullable BsonDocument sort;
+    private int skip;
+    private int limit;
+
+    /**
+     * @param documents the cached documents.
+     * @param codec the codec of the documents, or null if the iterable only supports {@link MongoIterable} methods.
+     */
+    CachedFindIterable(@NotNull final List<T> documents, @Nullable final Codec<T> codec) {
+        this.documents = documents;
+        this.codec = codec;
+    }
+
+    @Override
+    public @NotNull MongoCursor<T> iterator() {
+        final List<T> results = results();
+        return new ListCursor<>(results.iterator(), results.size());
+    }
+
+    @Override
+    public @NotNull MongoCursor<T> cursor() {
+        return iterator();
+    }
+
+    @Override
+    public @Nullable T first() {
+        final List<T> results = results();
+        return results.isEmpty() ? null : results.get(0);
+    }
+
+    @Override
+    public <U> @NotNull MongoIterable<U> map(@NotNull final Function<T, U> mapper) {
+        final List<T> results = results();
+
+        final List<U> mapped = new ArrayList<>(results.size());
+        for (final T document : results) mapped.add(mapper.apply(document));
+
+        return new CachedFindIterable<>(mapped, null);
+    }
+
+    @Override
+    public <A extends Collection<? super T>> @NotNull A into(@NotNull final A target) {
+        target.addAll(results());
+        return target;
+    }
+
+    @Override
+    public @NotNull FindIterable<T> batchSize(final int batchSize) {
+        return this;
+    }
+
+    @Override
+    public @NotNull FindIterable<T> maxTime(final long maxTime, @NotNull final TimeUnit timeUnit) {
+        return this;
+    }
+
+    @Override
+    public @NotNull FindIterable<T> maxAwaitTime(final long maxAwaitTime, @NotNull final TimeUnit timeUnit) {
+        return this;
+    }
+
+    @Override
+    public @NotNull FindIterable<T> noCursorTimeout(final boolean noCursorTimeout) {
+        return this;
+    }
+
+    @Override
+    public @NotNull FindIterable<T> comment(@Nullable final String comment) {
+        return this;
+    }
+
+    @Override
+    public @NotNull FindIterable<T> comment(@Nullable final BsonValue comment) {
+        return this;
+    }
+
+    @Override
+    public @NotNull FindIterable<T> hint(@Nullable final Bson hint) {
+        return this;
+    }
+
+    @Override
+    public @NotNull FindIterable<T> hintString(@Nullable final String hint) {
+        return this;
+    }
+
+    @Override
+    public @NotNull FindIterable<T> allowDiskUse(@Nullable final Boolean allowDiskUse) {
+        return this;
+    }
+
+    @Override
+    public @NotNull FindIterable<T> filter(@Nullable final Bson filter) {
+        throw unsupported("filter");
+    }
+
+    @Override
+    public @NotNull FindIterable<T> limit(final int limit) {
+        codec("limit");
+        this.limit = limit;
+        return this;
+    }
+
+    @Override
+    public @NotNull FindIterable<T> skip(final int skip) {
+        codec("skip");
+        this.skip = Math.max(0, skip);
+        return this;
+    }
+
+    @Override
+    public @NotNull FindIterable<T> projection(@Nullable final Bson projection) {
+        codec("projection");
+        this.projection = projection != null ? toBsonDocument(projection) : null;
+        return this;
+    }
+
+    @Override
+    public @NotNull FindIterable<T> sort(@Nullable final Bson sort) {
+        codec("sort");
+        this.sort = sort != null ? toBsonDocument(sort) : null;
+        return this;
+    }
+
+    @Override
+    @Deprecated
+    public @NotNull FindIterable<T> oplogReplay(final boolean oplogReplay) {
+        throw unsupported("oplogReplay");
+    }
+
+    @Override
+    public @NotNull FindIterable<T> partial(final boolean partial) {
+        throw unsupported("partial");
+    }
+
+    @Override
+    public @NotNull FindIterable<T> cursorType(@NotNull final CursorType cursorType) {
+        throw unsupported("cursorType");
+    }
+
+    @Override
+    public @NotNull FindIterable<T> collation(@Nullable final Collation collation) {
+        throw unsupported("collation");
+    }
+
+    @Override
+    public @NotNull FindIterable<T> let(@Nullable final Bson variables) {
+        throw unsupported("let");
+    }
+
+    @Override
+    public @NotNull FindIterable<T> max(@Nullable final Bson max) {
+        throw unsupported("max");
+    }
+
+    @Override
+    public @NotNull FindIterable<T> min(@Nullable final Bson min) {
+        throw unsupported("min");
+    }
+
+    @Override
+    public @NotNull FindIterable<T> returnKey(final boolean returnKey) {
+        throw unsupported("returnKey");
+    }
+
+    @Override
+    public @NotNull FindIterable<T> showRecordId(final boolean showRecordId) {
+        throw unsupported("showRecordId");
+    }
+
+    @Override
+    public @NotNull Document explain() {
+        throw unsupported("explain");
+    }
+
+    @Override
+    public @NotNull Document explain(@NotNull final ExplainVerbosity verbosity) {
+        throw unsupported("explain");
+    }
+
+    @Override
+    public <E> @NotNull E explain(@NotNull final Class<E> type) {
+        throw unsupported("explain");
+    }
+
+    @Override
+    public <E> @NotNull E explain(@NotNull final Class<E> type, @NotNull final ExplainVerbosity verbosity) {
+        throw unsupported("explain");
+    }
+
+    /**
+     * Applies the sort, skip, limit and projection to the documents.
+     */
+    private @NotNull List<T> results() {
+        if (codec == null || (projection == null && sort == null && skip == 0 && limit == 0)) return documents;
+
+        final List<BsonDocument> encoded = new ArrayList<>(documents.size());
+        for (final T document : documents) {
+            final BsonDocument bson = new BsonDocument();
+            codec.encode(new BsonDocumentWriter(bson), document, EncoderContext.builder().build());
+            encoded.add(bson);
+        }
+
+        if (sort != null) encoded.sort(LocalQuery.comparator(sort));
+
+        final int from = Math.min(skip, encoded.size());
+        final int to = limit != 0 ? (int) Math.min(encoded.size(), (long) from + Math.abs((long) limit)) : encoded.size(); // like Mongo, a negative limit is its absolute value.
+
+        final List<T> results = new ArrayList<>(to - from);
+        for (final BsonDocument document : encoded.subList(from, to))
+            results.add(codec.decode(new BsonDocumentReader(projection != null ? LocalQuery.project(document, projection) : document), DecoderContext.builder().build()));
+
+        return results;
+    }
+
+    private void codec(@NotNull final String feature) {
+        if (codec == null) throw unsupported(feature);
+    }
+
+    private static @NotNull BsonDocument toBsonDocument(@NotNull final Bson bson) {
+        return bson.toBsonDocument(BsonDocument.class, MongoClientSettings.getDefaultCodecRegistry());
+    }
+
+    private static @NotNull UnsupportedOperationException unsupported(@NotNull final String feature) {
+        return new UnsupportedOperationException("The cached documents do not support " + feature + ", they cannot be queried again.");
+    }
+
+    private static final class ListCursor<T> implements MongoCursor<T> {
+
+        private final Iterator<T> iterator;
+        private int remaining;
+
+        private ListCursor(@NotNull final Iterator<T> iterator, final int size) {
+            this.iterator = iterator;
+            this.remaining = size;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return iterator.hasNext();
+        }
+
+        @Override
+        public @NotNull T next() {
+            if (!iterator.hasNext()) throw new NoSuchElementException();
+
+            remaining--;
+            return iterator.next();
+        }
+
+        @Override
+        public @Nullable T tryNext() {
+            return hasNext() ? next() : null;
+        }
+
+        @Override
+        public int available() {
+            return remaining;
+        }
+
+        @Override
+        public @Nullable ServerCursor getServerCursor() {
+            return null; // the documents are not read from a server cursor.
+        }
+
+        @Override
+        public @Nullable ServerAddress getServerAddress() {
+            return null;
+        }
+
+        @Override
+        public void close() { }
+
+    }
+
+}
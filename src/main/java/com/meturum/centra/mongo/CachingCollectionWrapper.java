@@ -0,0 +1,556 @@
+package com.meturum.centra.mongo;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.cache.RemovalCause;
+import com.google.common.cache.RemovalNotification;
+import com.mongodb.MongoClientSettings;
+import com.mongodb.client.FindIterable;
+import com.mongodb.client.MongoCursor;
+import com.mongodb.client.model.ReplaceOptions;
+import com.mongodb.client.model.UpdateOptions;
+import com.mongodb.client.model.WriteModel;
+import com.mongodb.client.model.changestream.ChangeStreamDocument;
+import com.mongodb.client.model.changestream.UpdateDescription;
+import org.bson.BsonArray;
+import org.bson.BsonDocument;
+import org.bson.BsonValue;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.jetbrains.annotations.NotNull;
+
+import javax.annotation.Nullable;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * A {@link CollectionWrapper} keeping the results of {@code findAsync} in memory, so hot and rarely changing documents
+ * (e.g. ranks or server-wide settings) are not requested again on every read.
+ * <p>
+ * Results are cached per filter and projection, evicted once their total weight (one per document) exceeds the maximum weight or once they expire.
+ * Results larger than the maximum result size are not cached: their first documents are read to find it out, then the
+ * {@link FindIterable} of the delegate is passed through unchanged (iterating it runs the query again). Cached reads call the lambda on {@link #getExecutor()},
+ * {@code sort}, {@code skip}, {@code limit} and {@code projection} of a cached result are applied in memory.
+ * <p>
+ * Writes made through this wrapper invalidate every cached result they may affect (bulk writes invalidate every result). Equality filters (e.g. {@code Filters.eq("uuid", uuid)})
+ * are compared field by field, a result is kept only if the written document could not match it, before or after the write; every other
+ * filter is invalidated by any write. Fields used in equality filters are assumed to hold a single value (not an array). Cached equality filters are indexed
+ * by their values, a write only compares the results of the values it may affect.
+ * Writes made through {@link #async()} are seen, those made through {@link #raw()} or by another server are not, use a {@link ChangeStreamWatcher}, {@link #invalidate(Bson)} or a short expiry.
+ *
+ * @apiNote The cached documents are shared between readers, they must not be modified.
+ */
+public final class CachingCollectionWrapper extends ForwardingCollectionWrapper {
+
+    /**
+     * The default maximum number of cached documents.
+     */
+    public static final long DEFAULT_MAXIMUM_WEIGHT = 10_000;
+
+    /**
+     * The default time a result is kept after being loaded.
+     */
+    public static final Duration DEFAULT_EXPIRE_AFTER_WRITE = Duration.ofMinutes(5);
+
+    /**
+     * The default maximum number of documents of a cached result.
+     */
+    public static final int DEFAULT_MAXIMUM_RESULT_SIZE = 100;
+
+    private static final BsonDocument EVERY_DOCUMENT = new BsonDocument();
+
+    private final Cache<Key, List<Document>> cache;
+    private final int maximumResultSize;
+    private long generation; // incremented on every invalidation, a result loaded meanwhile may be outdated.
+
+    // the cached results of equality filters by their fields, then by the values of their top-level fields. (guarded by cache)
+    private final Map<List<String>, Map<List<BsonValue>, Set<Key>>> index = new HashMap<>();
+    private final Set<Key> unindexed = new HashSet<>(); // the other cached results, compared on every write.
+
+    /**
+     * @param delegate the collection to read from.
+     */
+    public CachingCollectionWrapper(@NotNull final CollectionWrapper delegate) {
+        this(delegate, DEFAULT_MAXIMUM_WEIGHT, DEFAULT_EXPIRE_AFTER_WRITE);
+    }
+
+    /**
+     * @param delegate the collection to read from.
+     * @param maximumWeight the maximum number of cached documents.
+     * @param expireAfterWrite the time a result is kept after being loaded.
+     */
+    public CachingCollectionWrapper(@NotNull final CollectionWrapper delegate, final long maximumWeight, @NotNull final Duration expireAfterWrite) {
+        this(delegate, maximumWeight, DEFAULT_MAXIMUM_RESULT_SIZE, expireAfterWrite);
+    }
+
+    /**
+     * @param delegate the collection to read from.
+     * @param maximumWeight the maximum number of cached documents.
+     * @param maximumResultSize the maximum number of documents of a cached result, larger results are not cached.
+     * @param expireAfterWrite the time a result is kept after being loaded.
+     */
+    public CachingCollectionWrapper(@NotNull final CollectionWrapper delegate, final long maximumWeight, final int maximumResultSize, @NotNull final Duration expireAfterWrite) {
+        super(delegate);
+
+        if (maximumResultSize < 0) throw new IllegalArgumentException("maximumResultSize cannot be negative.");
+
+        this.maximumResultSize = maximumResultSize;
+        this.cache = CacheBuilder.newBuilder()
+                .maximumWeight(maximumWeight)
+                .<Key, List<Document>>weigher((key, documents) -> Math.max(1, documents.size()))
+                .expireAfterWrite(expireAfterWrite)
+                .<Key, List<Document>>removalListener(this::removed)
+                .recordStats()
+                .build();
+    }
+
+    /**
+     * Gets the hit, miss and eviction counters of the cache.
+     *
+     * @return a snapshot of the counters.
+     */
+    public @NotNull CacheStats getStats() {
+        return cache.stats();
+    }
+
+    /**
+     * @return the number of cached results.
+     */
+    public long size() {
+        return cache.size();
+    }
+
+    /**
+     * Invalidates the cached results which may contain a document matching the filter, or may after any change to it.
+     *
+     * @param filter the filter of the changed documents, or null to invalidate every result.
+     */
+    public void invalidate(@Nullable final Bson filter) {
+        if (filter == null) invalidateAll();
+        else invalidate(toBsonDocument(filter), null, null);
+    }
+
+    /**
+     * Invalidates the cached results a change made by another server may affect, e.g. received by a {@link ChangeStreamWatcher}.
+     *
+     * @param change the change of the collection.
+     */
+    public void invalidate(@NotNull final ChangeStreamDocument<Document> change) {
+        final Document full = change.getFullDocument();
+        final BsonDocument document = full != null ? toBsonDocument(full) : null;
+
+        switch (change.getOperationType()) {
+            case INSERT -> {
+                if (document != null) invalidate(true, null, null, document);
+                else invalidateAll();
+            }
+            case UPDATE -> {
+                final UpdateDescription description = change.getUpdateDescription();
+                if (description == null) {
+                    invalidate(false, change.getDocumentKey(), null, null);
+                    return;
+                }
+
+                final Set<String> changed = new HashSet<>();
+                if (description.getUpdatedFields() != null) description.getUpdatedFields().keySet().forEach(field -> changed.add(topLevel(field)));
+                if (description.getRemovedFields() != null) description.getRemovedFields().forEach(field -> changed.add(topLevel(field)));
+                if (description.getTruncatedArrays() != null) description.getTruncatedArrays().forEach(array -> changed.add(topLevel(array.getField())));
+
+                final Map<String, BsonValue> before = new HashMap<>(); // the unchanged fields had the same values before.
+                if (change.getDocumentKey() != null) before.putAll(change.getDocumentKey());
+                if (document != null) document.forEach((field, value) -> {
+                    if (!changed.contains(field)) before.put(field, value);
+                });
+
+                invalidate(false, before, changed, null);
+            }
+            case REPLACE -> invalidate(false, change.getDocumentKey(), null, document);
+            case DELETE -> invalidate(false, change.getDocumentKey(), Set.of(), null);
+            default -> invalidateAll(); // e.g. drop, rename or invalidate.
+        }
+    }
+
+    /**
+     * Invalidates every cached result.
+     */
+    public void invalidateAll() {
+        synchronized (cache) {
+            generation++;
+            cache.invalidateAll();
+        }
+    }
+
+    @Override
+    public void findAsync(@Nullable Bson filter, @NotNull FindLambda lambda) {
+        findAsync(filter, null, lambda);
+    }
+
+    @Override
+    public void findAsync(@Nullable Bson filter, @Nullable Bson projection, @NotNull FindLambda lambda) {
+        final Key key = new Key(filter != null ? toBsonDocument(filter) : EVERY_DOCUMENT, projection != null ? toBsonDocument(projection) : null);
+
+        final List<Document> cached = cache.getIfPresent(key);
+        if (cached != null) {
+            final FindIterable<Document> iterable = iterable(cached);
+
+            try {
+                getExecutor().execute(() -> lambda.run(iterable, null));
+            }catch (RejectedExecutionException exception) {
+                lambda.run(null, exception);
+            }
+            return;
+        }
+
+        final long loading;
+        synchronized (cache) {
+            loading = generation;
+        }
+
+        getDelegate().findAsync(filter, projection, (result, exception) -> {
+            if (result == null || exception != null) {
+                lambda.run(result, exception);
+                return;
+            }
+
+            final List<Document> documents = new ArrayList<>();
+            boolean cacheable = true;
+
+            try (final MongoCursor<Document> cursor = result.cursor()) {
+                while (cursor.hasNext()) {
+                    if (documents.size() == maximumResultSize) {
+                        cacheable = false;
+                        break;
+                    }
+
+                    documents.add(cursor.next());
+                }
+            }catch (Exception throwable) {
+                lambda.run(null, throwable);
+                return;
+            }
+
+            if (!cacheable) { // too large, the result is passed through.
+                lambda.run(result, null);
+                return;
+            }
+
+            final List<Document> unmodifiable = Collections.unmodifiableList(documents);
+            synchronized (cache) {
+                if (generation == loading) { // not cached if a write happened meanwhile.
+                    index(key);
+                    cache.put(key, unmodifiable);
+                }
+            }
+
+            lambda.run(iterable(unmodifiable), null);
+        });
+    }
+
+    @Override
+    public void insertOneAsync(@NotNull Document document, @Nullable InsertOneLambda lambda) {
+        final BsonDocument inserted = toBsonDocument(document);
+
+        invalidate(null, null, inserted);
+        getDelegate().insertOneAsync(document, (result, exception) -> {
+            invalidate(null, null, inserted);
+            if (lambda != null) lambda.run(result, exception);
+        });
+    }
+
+    @Override
+    public void updateOneAsync(@NotNull Bson filter, @NotNull Bson updates, @Nullable UpdateOptions options, @Nullable UpdateOneLambda lambda) {
+        final BsonDocument key = toBsonDocument(filter);
+        final Set<String> changed = changedFields(toBsonDocument(updates));
+
+        invalidate(key, changed, null);
+        getDelegate().updateOneAsync(filter, updates, options, (result, exception) -> {
+            invalidate(key, changed, null);
+            if (lambda != null) lambda.run(result, exception);
+        });
+    }
+
+    @Override
+    public void replaceOneAsync(@NotNull Bson filter, @NotNull Document document, @Nullable ReplaceOptions options, @Nullable ReplaceOneLambda lambda) {
+        final BsonDocument key = toBsonDocument(filter);
+        final BsonDocument replacement = toBsonDocument(document);
+
+        invalidate(key, null, replacement);
+        getDelegate().replaceOneAsync(filter, document, options, (result, exception) -> {
+            invalidate(key, null, replacement);
+            if (lambda != null) lambda.run(result, exception);
+        });
+    }
+
+    @Override
+    public void deleteOneAsync(@NotNull Bson filter, @Nullable DeleteOneLambda lambda) {
+        final BsonDocument key = toBsonDocument(filter);
+
+        invalidate(key, Set.of(), null);
+        getDelegate().deleteOneAsync(filter, (result, exception) -> {
+            invalidate(key, Set.of(), null);
+            if (lambda != null) lambda.run(result, exception);
+        });
+    }
+
+    @Override
+    public void bulkWriteAsync(@NotNull List<? extends WriteModel<? extends Document>> requests, boolean ordered, @Nullable BulkWriteLambda lambda) {
+        invalidateAll(); // bulk writes may change any document.
+        getDelegate().bulkWriteAsync(requests, ordered, (result, exception) -> {
+            invalidateAll();
+            if (lambda != null) lambda.run(result, exception);
+        });
+    }
+
+    @Override
+    public void insertManyAsync(@NotNull List<Document> documents, boolean ordered, @Nullable BulkWriteLambda lambda) {
+        invalidateAll();
+        getDelegate().insertManyAsync(documents, ordered, (result, exception) -> {
+            invalidateAll();
+            if (lambda != null) lambda.run(result, exception);
+        });
+    }
+
+    @Override
+    public void updateManyAsync(@NotNull Bson filter, @NotNull Bson updates, @Nullable UpdateOptions options, @Nullable UpdateManyLambda lambda) {
+        invalidateAll();
+        getDelegate().updateManyAsync(filter, updates, options, (result, exception) -> {
+            invalidateAll();
+            if (lambda != null) lambda.run(result, exception);
+        });
+    }
+
+    @Override
+    public void deleteManyAsync(@NotNull Bson filter, @Nullable DeleteManyLambda lambda) {
+        invalidateAll();
+        getDelegate().deleteManyAsync(filter, (result, exception) -> {
+            invalidateAll();
+            if (lambda != null) lambda.run(result, exception);
+        });
+    }
+
+    private @NotNull FindIterable<Document> iterable(@NotNull final List<Document> documents) {
+        return new CachedFindIterable<>(documents, raw().getCodecRegistry().get(Document.class));
+    }
+
+    /**
+     * Invalidates the cached results a write may affect.
+     *
+     * @param filter the filter of the written document, or null if the document is new.
+     * @param changed the top-level fields changed by the write, or null if unknown (e.g. replaced).
+     * @param document the document after the write if known (e.g. replacement or insertion).
+     */
+    private void invalidate(@Nullable final BsonDocument filter, @Nullable final Set<String> changed, @Nullable final BsonDocument document) {
+        invalidate(filter == null, filter != null ? equalities(filter) : null, changed, document);
+    }
+
+    /**
+     * Invalidates the cached results a write may affect.
+     *
+     * @param inserted whether the document is new.
+     * @param before known fields of the document before the write, or null if unknown.
+     * @param changed the top-level fields changed by the write, or null if unknown (e.g. replaced).
+     * @param document the document after the write if known (e.g. replacement or insertion).
+     */
+    private void invalidate(final boolean inserted, @Nullable final Map<String, BsonValue> before, @Nullable final Set<String> changed, @Nullable final BsonDocument document) {
+        synchronized (cache) {
+            generation++;
+
+            for (final Key key : candidates(inserted, before, changed, document)) {
+                final Map<String, BsonValue> cached = equalities(key.filter());
+                if (cached != null && !matches(inserted, before, changed, document, cached)) continue;
+
+                cache.invalidate(key);
+            }
+        }
+    }
+
+    /**
+     * Gets the cached results a write may affect, using the index. Every other result does not match it, see {@link #matches}.
+     */
+    private @NotNull List<Key> candidates(final boolean inserted, @Nullable final Map<String, BsonValue> before, @Nullable final Set<String> changed,
+                                          @Nullable final BsonDocument document) {
+        final List<Key> candidates = new ArrayList<>(unindexed);
+
+        for (final Map.Entry<List<String>, Map<List<BsonValue>, Set<Key>>> entry : index.entrySet()) {
+            final List<String> fields = entry.getKey();
+            final Map<List<BsonValue>, Set<Key>> buckets = entry.getValue();
+
+            final List<BsonValue> previous = inserted ? List.of() : before != null ? values(before, fields) : null; // null if unknown.
+
+            List<BsonValue> next = List.of(); // empty if it cannot match after the write.
+            if (document != null) next = values(document, fields);
+            else if (changed == null) next = null;
+            else for (final String field : fields) {
+                if (changed.contains(topLevel(field))) next = null;
+            }
+
+            if (previous == null || next == null) {
+                buckets.values().forEach(candidates::addAll);
+                continue;
+            }
+
+            if (!inserted) candidates.addAll(buckets.getOrDefault(previous, Set.of()));
+            if (document != null) candidates.addAll(buckets.getOrDefault(next, Set.of()));
+        }
+
+        return candidates;
+    }
+
+    /**
+     * Adds a result to the index. (guarded by cache)
+     */
+    private void index(@NotNull final Key key) {
+        final Map<String, BsonValue> equalities = equalities(key.filter());
+        final List<String> fields = equalities != null ? fields(equalities) : null;
+        final List<BsonValue> values = fields != null ? values(equalities, fields) : null;
+
+        if (values == null) unindexed.add(key);
+        else index.computeIfAbsent(fields, ignored -> new HashMap<>()).computeIfAbsent(values, ignored -> new HashSet<>()).add(key);
+    }
+
+    private void removed(@NotNull final RemovalNotification<Key, List<Document>> notification) {
+        if (notification.getCause() == RemovalCause.REPLACED || notification.getKey() == null) return; // still cached.
+
+        final Key key = notification.getKey();
+        synchronized (cache) {
+            final Map<String, BsonValue> equalities = equalities(key.filter());
+            final List<String> fields = equalities != null ? fields(equalities) : null;
+            final List<BsonValue> values = fields != null ? values(equalities, fields) : null;
+
+            if (values == null) {
+                unindexed.remove(key);
+                return;
+            }
+
+            final Map<List<BsonValue>, Set<Key>> buckets = index.get(fields);
+            final Set<Key> bucket = buckets != null ? buckets.get(values) : null;
+            if (bucket == null || !bucket.remove(key) || !bucket.isEmpty()) return;
+
+            buckets.remove(values);
+            if (buckets.isEmpty()) index.remove(fields);
+        }
+    }
+
+    /**
+     * @return the sorted fields of an equality filter.
+     */
+    private static @NotNull List<String> fields(@NotNull final Map<String, BsonValue> equalities) {
+        final List<String> fields = new ArrayList<>(equalities.keySet());
+        Collections.sort(fields);
+
+        return fields;
+    }
+
+    /**
+     * @return the single values of the top-level fields (dotted fields are skipped, like {@link #differs}), or null if one is missing or an array.
+     */
+    private static @Nullable List<BsonValue> values(@NotNull final Map<String, BsonValue> document, @NotNull final List<String> fields) {
+        final List<BsonValue> values = new ArrayList<>(fields.size());
+
+        for (final String field : fields) {
+            if (field.contains(".")) continue;
+
+            final BsonValue value = document.get(field);
+            if (value == null || value instanceof BsonArray) return null;
+
+            values.add(value);
+        }
+
+        return values;
+    }
+
+    /**
+     * @return false only if the written document can neither have matched the cached equality filter before the write nor after.
+     */
+    private static boolean matches(final boolean inserted, @Nullable final Map<String, BsonValue> before, @Nullable final Set<String> changed,
+                                   @Nullable final BsonDocument document, @NotNull final Map<String, BsonValue> cached) {
+        if (!inserted && (before == null || !differs(before, cached))) return true; // may have matched before.
+
+        if (document != null) return !differs(document, cached);
+        if (changed == null) return true;
+
+        for (final String field : cached.keySet()) {
+            if (changed.contains(topLevel(field))) return true;
+        }
+
+        return false; // the fields making it not match were not changed.
+    }
+
+    /**
+     * @return true if a field has a different single value in both.
+     */
+    private static boolean differs(@NotNull final Map<String, BsonValue> document, @NotNull final Map<String, BsonValue> filter) {
+        for (final Map.Entry<String, BsonValue> entry : filter.entrySet()) {
+            if (entry.getKey().contains(".")) continue;
+
+            final BsonValue value = document.get(entry.getKey());
+            if (value == null || value instanceof BsonArray || entry.getValue() instanceof BsonArray) continue;
+
+            if (!value.equals(entry.getValue())) return true;
+        }
+
+        return false;
+    }
+
+    /**
+     * @return the fields and values of an equality filter, or null if the filter is not one.
+     */
+    private static @Nullable Map<String, BsonValue> equalities(@NotNull final BsonDocument filter) {
+        if (filter.isEmpty()) return null;
+
+        final Map<String, BsonValue> equalities = new HashMap<>();
+        for (final Map.Entry<String, BsonValue> entry : filter.entrySet()) {
+            if (entry.getKey().startsWith("$")) return null;
+
+            BsonValue value = entry.getValue();
+            if (value.isDocument()) {
+                final BsonDocument operators = value.asDocument();
+                if (operators.size() != 1 || !operators.containsKey("$eq")) return null;
+
+                value = operators.get("$eq");
+            }
+
+            if (value.isDocument() || value.isRegularExpression()) return null;
+            equalities.put(entry.getKey(), value);
+        }
+
+        return equalities;
+    }
+
+    /**
+     * @return the top-level fields changed by an update, or null if unknown.
+     */
+    private static @Nullable Set<String> changedFields(@NotNull final BsonDocument update) {
+        final Set<String> fields = new HashSet<>();
+
+        for (final Map.Entry<String, BsonValue> entry : update.entrySet()) {
+            if (!entry.getKey().startsWith("$") || !entry.getValue().isDocument()) return null;
+
+            for (final Map.Entry<String, BsonValue> field : entry.getValue().asDocument().entrySet()) {
+                fields.add(topLevel(field.getKey()));
+
+                if (entry.getKey().equals("$rename") && field.getValue().isString())
+                    fields.add(topLevel(field.getValue().asString().getValue()));
+            }
+        }
+
+        return fields;
+    }
+
+    private static @NotNull String topLevel(@NotNull final String path) {
+        final int dot = path.indexOf('.');
+        return dot == -1 ? path : path.substring(0, dot);
+    }
+
+    private static @NotNull BsonDocument toBsonDocument(@NotNull final Bson bson) {
+        return bson.toBsonDocument(BsonDocument.class, MongoClientSettings.getDefaultCodecRegistry());
+    }
+
+    /**
+     * The filter and projection of a cached result.
+     */
+    private record Key(@NotNull BsonDocument filter, @Nullable BsonDocument projection) { }
+
+}
@@ -0,0 +1,175 @@
+package com.meturum.centra.mongo;
+
+import com.mongodb.MongoCommandException;
+import org.bson.BsonDocument;
+import org.jetbrains.annotations.NotNull;
+
+import javax.annotation.Nullable;
+import java.util.Objects;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * The position of a {@link ChangeStreamWatcher} in its change stream: the resume token the cursor is opened from, the token of the last handled change
+ * (the one stored in the {@link ResumeTokenStore}) and the delay before reopening the cursor after a failure.
+ * <p>
+ * Every method is called by the thread of the watcher, except {@link #handled(BsonDocument)} called on the dispatcher.
+ */
+final class ChangeStreamPosition {
+
+    static final long INITIAL_BACKOFF = 1000;
+    static final long MAX_BACKOFF = 30_000;
+
+    private static final Logger LOGGER = Logger.getLogger("Centra");
+    private static final Set<Integer> HISTORY_LOST = Set.of(260, 280, 286); // InvalidResumeToken, ChangeStreamFatalError, ChangeStreamHistoryLost.
+    private static final int NOT_A_REPLICA_SET = 40573;
+
+    private final ResumeTokenStore tokens;
+    private final String stream;
+
+    private @Nullable BsonDocument token; // the position of the cursor.
+    private volatile @Nullable BsonDocument handled; // the token of the last change the listeners and tracked tags received.
+    private @Nullable BsonDocument stored;
+    private boolean invalidated;
+    private long backoff = INITIAL_BACKOFF;
+
+    /**
+     * @param tokens the store of the resume token.
+     * @param stream the name of the stream.
+     */
+    ChangeStreamPosition(@NotNull final ResumeTokenStore tokens, @NotNull final String stream) {
+        this.tokens = tokens;
+        this.stream = stream;
+    }
+
+    /**
+     * Continues from the stored token, if any.
+     */
+    void load() {
+        token = handled = stored = tokens.load(stream);
+    }
+
+    /**
+     * @return the token to open the cursor from, or null to start from the current changes.
+     */
+    @Nullable BsonDocument getToken() {
+        return token;
+    }
+
+    /**
+     * @return true if the cursor must be started after the token (the last change was an invalidate event, the cursor cannot be resumed after it).
+     */
+    boolean isInvalidated() {
+        return invalidated;
+    }
+
+    /**
+     * Called once the cursor was opened.
+     */
+    void opened() {
+        invalidated = false;
+    }
+
+    /**
+     * Moves to a change read from the cursor, the cursor was read successfully so the backoff is reset.
+     *
+     * @param token the resume token of the change.
+     * @param invalidate whether the change is an invalidate event, closing the cursor.
+     */
+    void received(@NotNull final BsonDocument token, final boolean invalidate) {
+        this.token = token;
+        this.invalidated = invalidate;
+        this.backoff = INITIAL_BACKOFF;
+    }
+
+    /**
+     * Moves to the resume token of a cursor which read nothing during its await time (e.g. the post-batch resume token).
+     *
+     * @param token the resume token of the cursor.
+     * @return true if it moved, the token should be marked as handled once the changes read before were handled.
+     */
+    boolean idle(@Nullable final BsonDocument token) {
+        if (token == null || token.equals(this.token)) return false;
+
+        this.token = token;
+        return true;
+    }
+
+    /**
+     * Called on the dispatcher once a change was handled.
+     *
+     * @param token the resume token of the change, or null if the history was lost.
+     */
+    void handled(@Nullable final BsonDocument token) {
+        this.handled = token;
+    }
+
+    /**
+     * Restarts from the current changes, the changes since the token were lost.
+     */
+    void lost() {
+        token = null;
+    }
+
+    /**
+     * Stores the token of the last handled change, if it changed. A failure is retried on the next call.
+     */
+    void store() {
+        final BsonDocument handled = this.handled;
+        if (Objects.equals(handled, stored)) return;
+
+        try {
+            tokens.save(stream, handled);
+            stored = handled;
+        }catch (Exception exception) {
+            LOGGER.log(Level.WARNING, "Could not store the resume token of " + stream + ".", exception);
+        }
+    }
+
+    /**
+     * @return the delay before reopening the cursor, doubled for the next failure (up to {@link #MAX_BACKOFF}).
+     */
+    long nextBackoff() {
+        final long current = backoff;
+        backoff = Math.min(backoff * 2, MAX_BACKOFF);
+
+        return current;
+    }
+
+    /**
+     * @param exception the exception thrown by the cursor.
+     * @return how the watcher should recover from it.
+     */
+    static @NotNull Failure classify(@NotNull final Exception exception) {
+        if (exception instanceof MongoCommandException command) {
+            if (command.getErrorCode() == NOT_A_REPLICA_SET) return Failure.UNSUPPORTED;
+            if (HISTORY_LOST.contains(command.getErrorCode())) return Failure.HISTORY_LOST;
+        }
+
+        return Failure.TRANSIENT;
+    }
+
+    /**
+     * The ways a change stream fails.
+     */
+    enum Failure {
+
+        /**
+         * Change streams are not supported by the deployment (e.g. a standalone server), the watcher stops.
+         */
+        UNSUPPORTED,
+
+        /**
+         * The changes since the resume token are not available anymore, the watcher restarts from the current changes.
+         */
+        HISTORY_LOST,
+
+        /**
+         * The cursor can be reopened from the resume token after the backoff (e.g. a network error or an election).
+         */
+        TRANSIENT
+
+    }
+
+}
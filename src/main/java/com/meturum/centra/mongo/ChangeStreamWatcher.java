@@ -0,0 +1,376 @@
+package com.meturum.centra.mongo;
+
+import com.google.common.collect.MapMaker;
+import com.meturum.centra.conversions.DirtyTracker;
+import com.meturum.centra.conversions.IDynamicTag;
+import com.meturum.centra.system.SystemManager;
+import com.mongodb.MongoClientSettings;
+import com.mongodb.MongoException;
+import com.mongodb.client.ChangeStreamIterable;
+import com.mongodb.client.MongoChangeStreamCursor;
+import com.mongodb.client.model.changestream.ChangeStreamDocument;
+import com.mongodb.client.model.changestream.FullDocument;
+import com.mongodb.client.model.changestream.OperationType;
+import com.mongodb.client.model.changestream.UpdateDescription;
+import org.bson.BsonDocument;
+import org.bson.BsonValue;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.jetbrains.annotations.NotNull;
+
+import javax.annotation.Nullable;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Watches the changes made to a collection by every server, e.g. a {@link Mongo.MongoClientTypes#GLOBAL_DATABASE} collection shared by the network.
+ * <p>
+ * Changes are pushed to the registered {@link ChangeListener}s (e.g. {@link #invalidate(CachingCollectionWrapper)} keeps a cache up to date)
+ * and applied to the tracked {@link IDynamicTag}s with {@link DirtyTracker#merge}, fields changed locally and not saved yet are kept.
+ * The resume token of the last change handled on the dispatcher is stored in a {@link ResumeTokenStore}, a restarted watcher continues where it stopped
+ * (changes read but not handled yet are read again).
+ * <p>
+ * Changes are read on a dedicated daemon thread and dispatched in order on the dispatcher (by default the same thread).
+ * Tracked tags are updated on the dispatcher, use the main thread of the server if they are read there
+ * (e.g. {@code runnable -> Bukkit.getScheduler().runTask(plugin, runnable)}).
+ *
+ * @apiNote Change streams require a replica set, a single-node replica set is enough for local testing
+ * (e.g. {@code mongod --replSet rs0} followed by {@code rs.initiate()}).
+ */
+public final class ChangeStreamWatcher implements AutoCloseable {
+
+    private static final Logger LOGGER = Logger.getLogger("Centra");
+    private static final long MAX_AWAIT_TIME = 1000; // the delay before the thread checks whether the watcher was closed.
+
+    private final SystemManager manager;
+    private final CollectionWrapper collection;
+    private final Executor dispatcher;
+    private final String stream;
+    private final ChangeStreamPosition position;
+
+    private final List<ChangeListener> listeners = new CopyOnWriteArrayList<>();
+    private final ConcurrentMap<BsonDocument, IDynamicTag> tags = new MapMaker().weakValues().makeMap();
+    private final Set<Set<String>> tagKeys = ConcurrentHashMap.newKeySet();
+
+    private volatile boolean running;
+    private @Nullable Thread thread;
+
+    /**
+     * @param manager the system manager, used to decode the changes of tracked tags.
+     * @param collection the collection to watch.
+     * @param tokens the store of the resume token.
+     */
+    public ChangeStreamWatcher(@NotNull final SystemManager manager, @NotNull final CollectionWrapper collection, @NotNull final ResumeTokenStore tokens) {
+        this(manager, collection, tokens, Runnable::run);
+    }
+
+    /**
+     * @param manager the system manager, used to decode the changes of tracked tags.
+     * @param collection the collection to watch.
+     * @param tokens the store of the resume token.
+     * @param dispatcher the executor running the listeners and updating the tracked tags, it must run tasks in order.
+     */
+    public ChangeStreamWatcher(@NotNull final SystemManager manager, @NotNull final CollectionWrapper collection, @NotNull final ResumeTokenStore tokens, @NotNull final Executor dispatcher) {
+        this.manager = manager;
+        this.collection = collection;
+        this.dispatcher = dispatcher;
+        this.stream = collection.raw().getNamespace().getFullName();
+        this.position = new ChangeStreamPosition(tokens, stream);
+    }
+
+    /**
+     * Registers a listener receiving every change of the collection.
+     *
+     * @param listener the listener to register.
+     * @return this watcher.
+     */
+    public @NotNull ChangeStreamWatcher addListener(@NotNull final ChangeListener listener) {
+        listeners.add(listener);
+        return this;
+    }
+
+    /**
+     * Unregisters a listener.
+     *
+     * @param listener the listener to unregister.
+     */
+    public void removeListener(@NotNull final ChangeListener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Keeps a cache of the collection up to date, the results a change may affect are invalidated.
+     *
+     * @param cache the cache to invalidate.
+     * @return this watcher.
+     */
+    public @NotNull ChangeStreamWatcher invalidate(@NotNull final CachingCollectionWrapper cache) {
+        return addListener(new ChangeListener() {
+            @Override
+            public void onChange(@NotNull ChangeStreamDocument<Document> change) {
+                cache.invalidate(change);
+            }
+
+            @Override
+            public void onReset() {
+                cache.invalidateAll();
+            }
+        });
+    }
+
+    /**
+     * Applies the changes of the document of the tag to it, until it is garbage collected or {@link #untrack(IDynamicTag) untracked}.
+     *
+     * @param tag the tag to track, its {@link IDynamicTag#getFilter() filter} must be an equality filter (e.g. {@code Filters.eq("uuid", ...)}).
+     * @return this watcher.
+     */
+    public @NotNull ChangeStreamWatcher track(@NotNull final IDynamicTag tag) {
+        final BsonDocument key = key(tag.getFilter());
+
+        tagKeys.add(Set.copyOf(key.keySet()));
+        tags.put(key, tag);
+        return this;
+    }
+
+    /**
+     * Stops applying the changes of the document of the tag to it.
+     *
+     * @param tag the tag to untrack.
+     */
+    public void untrack(@NotNull final IDynamicTag tag) {
+        tags.remove(key(tag.getFilter()), tag);
+    }
+
+    /**
+     * Starts watching the collection, from the stored resume token if any.
+     *
+     * @return this watcher.
+     */
+    public synchronized @NotNull ChangeStreamWatcher start() {
+        if (running) return this;
+
+        running = true;
+        thread = new Thread(this::run, "centra-change-stream-" + collection.raw().getNamespace().getCollectionName());
+        thread.setDaemon(true);
+        thread.start();
+
+        return this;
+    }
+
+    /**
+     * @return true if the watcher was started and not closed.
+     */
+    public boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * Stops watching the collection and stores the resume token of the last handled change. (thread-blocking)
+     */
+    @Override
+    public void close() {
+        final Thread thread;
+        synchronized (this) {
+            running = false;
+            thread = this.thread;
+            this.thread = null;
+        }
+
+        if (thread == null) return;
+
+        try {
+            thread.join(MAX_AWAIT_TIME * 5);
+        }catch (InterruptedException exception) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void run() {
+        position.load();
+
+        while (running) {
+            try (MongoChangeStreamCursor<ChangeStreamDocument<Document>> cursor = open()) {
+                position.opened();
+
+                while (running && !position.isInvalidated()) {
+                    final ChangeStreamDocument<Document> change = cursor.tryNext();
+
+                    if (change == null) { // nothing happened during the await time.
+                        final BsonDocument resumeToken = cursor.getResumeToken();
+                        if (position.idle(resumeToken))
+                            dispatcher.execute(() -> position.handled(resumeToken)); // once the changes dispatched before were handled.
+
+                        position.store();
+                        continue;
+                    }
+
+                    position.received(change.getResumeToken(), change.getOperationType() == OperationType.INVALIDATE);
+                    dispatch(change);
+
+                    if (cursor.available() == 0) position.store(); // once per batch.
+                }
+            }catch (Exception exception) {
+                switch (ChangeStreamPosition.classify(exception)) {
+                    case UNSUPPORTED -> {
+                        LOGGER.warning("Change streams require a replica set, " + stream + " is not watched.");
+                        running = false;
+                    }
+                    case HISTORY_LOST -> {
+                        LOGGER.warning("The changes of " + stream + " since the last resume token were lost, restarting from now.");
+
+                        position.lost();
+                        dispatcher.execute(() -> {
+                            listeners.forEach(ChangeListener::onReset);
+                            position.handled(null);
+                        });
+                        position.store();
+                    }
+                    case TRANSIENT -> sleep(exception);
+                }
+            }
+        }
+
+        position.store();
+    }
+
+    private @NotNull MongoChangeStreamCursor<ChangeStreamDocument<Document>> open() {
+        final ChangeStreamIterable<Document> iterable = collection.raw().watch()
+                .fullDocument(FullDocument.UPDATE_LOOKUP)
+                .maxAwaitTime(MAX_AWAIT_TIME, TimeUnit.MILLISECONDS);
+
+        final BsonDocument token = position.getToken();
+        if (token == null) return iterable.cursor();
+
+        return (position.isInvalidated() ? iterable.startAfter(token) : iterable.resumeAfter(token)).cursor(); // an invalidate event can only be started after.
+    }
+
+    private void sleep(@NotNull final Exception exception) {
+        if (!running) return;
+
+        final long backoff = position.nextBackoff();
+        final String message = "Lost the change stream of " + stream + ", retrying in " + backoff + "ms.";
+
+        if (exception instanceof MongoException) LOGGER.warning(message + " (" + exception.getMessage() + ")");
+        else LOGGER.log(Level.WARNING, message, exception); // not a server error, likely a bug.
+
+        try {
+            Thread.sleep(backoff);
+        }catch (InterruptedException interrupted) {
+            Thread.currentThread().interrupt();
+            running = false;
+        }
+    }
+
+    private void dispatch(@NotNull final ChangeStreamDocument<Document> change) {
+        dispatcher.execute(() -> {
+            for (final ChangeListener listener : listeners) {
+                try {
+                    listener.onChange(change);
+                }catch (Exception exception) {
+                    LOGGER.log(Level.WARNING, "A listener of " + stream + " failed.", exception);
+                }
+            }
+
+            try {
+                apply(change);
+            }catch (Exception exception) {
+                LOGGER.log(Level.WARNING, "Could not apply a change of " + stream + " to its tracked tag.", exception);
+            }
+
+            position.handled(change.getResumeToken());
+        });
+    }
+
+    /**
+     * Applies a change to the tracked tag of its document, if any.
+     */
+    private void apply(@NotNull final ChangeStreamDocument<Document> change) {
+        final Document document = change.getFullDocument();
+        if (tags.isEmpty() || document == null) return;
+
+        final BsonDocument bson = document.toBsonDocument(BsonDocument.class, MongoClientSettings.getDefaultCodecRegistry());
+
+        IDynamicTag tag = null;
+        for (final Set<String> keys : tagKeys) {
+            final BsonDocument key = new BsonDocument();
+            for (final String field : keys) {
+                final BsonValue value = bson.get(field);
+                if (value != null) key.put(field, value);
+            }
+
+            if (key.size() == keys.size() && (tag = tags.get(key)) != null) break;
+        }
+
+        if (tag == null) return;
+
+        switch (change.getOperationType()) {
+            case INSERT, REPLACE -> DirtyTracker.merge(manager, tag, document, List.of());
+            case UPDATE -> {
+                final UpdateDescription description = change.getUpdateDescription();
+                if (description == null) return;
+
+                final Set<String> changed = new HashSet<>();
+                if (description.getUpdatedFields() != null) description.getUpdatedFields().keySet().forEach(field -> changed.add(topLevel(field)));
+                if (description.getRemovedFields() != null) description.getRemovedFields().forEach(field -> changed.add(topLevel(field)));
+                if (description.getTruncatedArrays() != null) description.getTruncatedArrays().forEach(array -> changed.add(topLevel(array.getField())));
+
+                final Document changes = new Document();
+                final List<String> removed = new ArrayList<>();
+                for (final String field : changed) {
+                    if (document.containsKey(field)) changes.append(field, document.get(field));
+                    else removed.add(field);
+                }
+
+                DirtyTracker.merge(manager, tag, changes, removed);
+            }
+            default -> { }
+        }
+    }
+
+    private static @NotNull BsonDocument key(@NotNull final Bson filter) {
+        final BsonDocument key = new BsonDocument();
+
+        for (final Map.Entry<String, BsonValue> entry : filter.toBsonDocument(BsonDocument.class, MongoClientSettings.getDefaultCodecRegistry()).entrySet()) {
+            BsonValue value = entry.getValue();
+            if (value.isDocument() && value.asDocument().size() == 1 && value.asDocument().containsKey("$eq")) value = value.asDocument().get("$eq");
+
+            if (entry.getKey().startsWith("$") || entry.getKey().contains(".") || value.isDocument())
+                throw new IllegalArgumentException("The filter of a tracked tag must be an equality filter on top-level fields: " + filter);
+
+            key.put(entry.getKey(), value);
+        }
+
+        return key;
+    }
+
+    private static @NotNull String topLevel(@NotNull final String path) {
+        final int dot = path.indexOf('.');
+        return dot == -1 ? path : path.substring(0, dot);
+    }
+
+    /**
+     * Receives the changes of a watched collection.
+     */
+    public interface ChangeListener {
+
+        /**
+         * Called for every change of the collection, in order.
+         *
+         * @param change the change, with the current document for inserts, updates and replaces (null if it was deleted meanwhile).
+         */
+        void onChange(@NotNull ChangeStreamDocument<Document> change);
+
+        /**
+         * Called when changes may have been missed (e.g. the resume token expired), any state derived from the collection should be reloaded.
+         */
+        default void onReset() { }
+
+    }
+
+}
@@ -0,0 +1,357 @@
+package com.meturum.centra.mongo;
+
+import com.mongodb.*;
+import org.jetbrains.annotations.NotNull;
+
+import javax.annotation.Nullable;
+import java.time.Duration;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A circuit breaker detecting when a Mongo client becomes unreachable, so operations fail fast instead of waiting for the server selection timeout of the driver.
+ * <p>
+ * The breaker is {@link State#CLOSED} while Mongo responds. After {@code failureThreshold} consecutive connection failures (see {@link #isDegradation(Throwable)})
+ * it opens: operations are refused with a {@link MongoUnavailableException} without being sent. Once the open duration elapsed, it is {@link State#HALF_OPEN}:
+ * up to {@code probes} operations are let through, the breaker closes if they succeed and opens again if one fails.
+ * <p>
+ * Each operation must acquire a permit ({@link #tryAcquire()}) and report its outcome exactly once ({@link #record(Throwable)}).
+ * {@link AsyncCollection} and {@link OfflineCollectionWrapper} do so, synchronous calls can use {@link #call(Supplier)}.
+ *
+ * @see #get(Mongo.MongoClientTypes)
+ */
+public final class CircuitBreaker {
+
+    /**
+     * The default number of consecutive failures opening the breaker.
+     */
+    public static final int DEFAULT_FAILURE_THRESHOLD = 5;
+
+    /**
+     * The default time the breaker stays open before letting probes through.
+     */
+    public static final Duration DEFAULT_OPEN_DURATION = Duration.ofSeconds(10);
+
+    /**
+     * The default number of operations let through while half-open.
+     */
+    public static final int DEFAULT_PROBES = 1;
+
+    private static final Logger LOGGER = Logger.getLogger("Centra");
+    private static final Map<Mongo.MongoClientTypes, CircuitBreaker> BREAKERS = new EnumMap<>(Mongo.MongoClientTypes.class);
+
+    private final Mongo.MongoClientTypes type;
+    private final int failureThreshold;
+    private final long openDuration;
+    private final int probes;
+
+    private final List<StateListener> listeners = new CopyOnWriteArrayList<>();
+
+    private State state = State.CLOSED;
+    private long changedAt = java.lang.System.nanoTime();
+    private int failures, probing;
+    private long rejected, opened;
+
+    /**
+     * @param type the type of the client.
+     */
+    public CircuitBreaker(@NotNull final Mongo.MongoClientTypes type) {
+        this(type, DEFAULT_FAILURE_THRESHOLD, DEFAULT_OPEN_DURATION, DEFAULT_PROBES);
+    }
+
+    /**
+     * @param type the type of the client.
+     * @param failureThreshold the number of consecutive failures opening the breaker.
+     * @param openDuration the time the breaker stays open before letting probes through.
+     * @param probes the number of operations let through while half-open.
+     */
+    public CircuitBreaker(@NotNull final Mongo.MongoClientTypes type, final int failureThreshold, @NotNull final Duration openDuration, final int probes) {
+        if (failureThreshold < 1 || probes < 1 || openDuration.isNegative()) throw new IllegalArgumentException("failureThreshold and probes must be at least 1, openDuration positive.");
+
+        this.type = type;
+        this.failureThreshold = failureThreshold;
+        this.openDuration = openDuration.toNanos();
+        this.probes = probes;
+    }
+
+    /**
+     * Gets the circuit breaker of a client.
+     *
+     * @param type the type of the client.
+     * @return the breaker, created on first use with the default settings.
+     */
+    public static @NotNull CircuitBreaker get(@NotNull final Mongo.MongoClientTypes type) {
+        synchronized (BREAKERS) {
+            return BREAKERS.computeIfAbsent(type, CircuitBreaker::new);
+        }
+    }
+
+    /**
+     * Replaces the circuit breaker of a client, e.g. with other settings.
+     *
+     * @param breaker the new breaker.
+     */
+    public static void set(@NotNull final CircuitBreaker breaker) {
+        synchronized (BREAKERS) {
+            BREAKERS.put(breaker.type, breaker);
+        }
+    }
+
+    /**
+     * Checks whether a failure means Mongo is unreachable or degraded (network errors, timeouts, no primary, an open breaker), rather than a rejected operation.
+     *
+     * @param throwable the failure.
+     * @return true if the failure counts towards opening the breaker.
+     */
+    public static boolean isDegradation(@NotNull Throwable throwable) {
+        if (throwable instanceof CompletionException && throwable.getCause() != null) throwable = throwable.getCause();
+
+        return throwable instanceof MongoSocketException
+                || throwable instanceof MongoTimeoutException
+                || throwable instanceof MongoExecutionTimeoutException
+                || throwable instanceof MongoNotPrimaryException
+                || throwable instanceof MongoNodeIsRecoveringException
+                || throwable instanceof MongoUnavailableException; // refused by a breaker, e.g. of the collection it decorates.
+    }
+
+    /**
+     * Acquires a permit to send an operation, its outcome must then be reported with {@link #record(Throwable)}.
+     *
+     * @return true if the operation may be sent, false if it must be refused.
+     */
+    public boolean tryAcquire() {
+        final State previous;
+        final State next;
+
+        synchronized (this) {
+            previous = state;
+
+            if (state == State.OPEN) {
+                if (java.lang.System.nanoTime() - changedAt < openDuration) {
+                    rejected++;
+                    return false;
+                }
+
+                transition(State.HALF_OPEN);
+            }
+
+            if (state == State.HALF_OPEN) {
+                if (probing >= probes) {
+                    rejected++;
+                    return false;
+                }
+
+                probing++;
+            }
+
+            next = state;
+        }
+
+        notify(previous, next);
+        return true;
+    }
+
+    /**
+     * Acquires a permit to send an operation, its outcome must then be reported with {@link #record(Throwable)}.
+     *
+     * @throws MongoUnavailableException if the operation must be refused.
+     */
+    public void acquire() {
+        if (!tryAcquire()) throw new MongoUnavailableException(type);
+    }
+
+    /**
+     * Reports the outcome of an operation sent with a permit.
+     *
+     * @param throwable the failure of the operation, or null if it succeeded. Failures other than degradations (e.g. a duplicate key) count as a success,
+     *                  the operation was not sent if it was cancelled, rejected or refused by a breaker.
+     */
+    public void record(@Nullable Throwable throwable) {
+        if (throwable instanceof CompletionException && throwable.getCause() != null) throwable = throwable.getCause();
+
+        final State previous;
+        final State next;
+
+        synchronized (this) {
+            previous = state;
+            if (state == State.HALF_OPEN && probing > 0) probing--;
+
+            if (throwable instanceof CancellationException || throwable instanceof RejectedExecutionException || throwable instanceof MongoUnavailableException) {
+                return;
+            } else if (throwable != null && isDegradation(throwable)) {
+                failures++;
+                if (state == State.HALF_OPEN || state == State.CLOSED && failures >= failureThreshold) {
+                    transition(State.OPEN);
+                    opened++;
+                }
+            } else {
+                failures = 0;
+                if (state == State.HALF_OPEN && probing == 0) transition(State.CLOSED);
+            }
+
+            next = state;
+        }
+
+        notify(previous, next);
+    }
+
+    /**
+     * Runs a synchronous operation through the breaker, e.g. {@code breaker.call(() -> collection.raw().replaceOne(filter, document))}.
+     *
+     * @param operation the operation to run.
+     * @return the result of the operation.
+     * @throws MongoUnavailableException if the breaker is open, the operation is not run.
+     */
+    public <T> T call(@NotNull final Supplier<T> operation) {
+        acquire();
+
+        try {
+            final T result = operation.get();
+            record(null);
+
+            return result;
+        }catch (RuntimeException exception) {
+            record(exception);
+            throw exception;
+        }
+    }
+
+    /**
+     * Opens the breaker immediately, e.g. for maintenance.
+     */
+    public void trip() {
+        final State previous;
+        synchronized (this) {
+            previous = state;
+            if (state != State.OPEN) opened++;
+
+            transition(State.OPEN);
+        }
+
+        notify(previous, State.OPEN);
+    }
+
+    /**
+     * Closes the breaker immediately.
+     */
+    public void reset() {
+        final State previous;
+        synchronized (this) {
+            previous = state;
+            failures = 0;
+
+            transition(State.CLOSED);
+        }
+
+        notify(previous, State.CLOSED);
+    }
+
+    /**
+     * Adds a listener called on every change of state, on the thread causing it.
+     *
+     * @param listener the listener.
+     */
+    public void addListener(@NotNull final StateListener listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * @param listener the listener to remove.
+     */
+    public void removeListener(@NotNull final StateListener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * @return the type of the client.
+     */
+    public @NotNull Mongo.MongoClientTypes getType() {
+        return type;
+    }
+
+    /**
+     * @return the current state, an open breaker whose open duration elapsed becomes half-open on the next operation.
+     */
+    public synchronized @NotNull State getState() {
+        return state;
+    }
+
+    /**
+     * @return the time since the last change of state.
+     */
+    public synchronized @NotNull Duration getTimeInState() {
+        return Duration.ofNanos(java.lang.System.nanoTime() - changedAt);
+    }
+
+    /**
+     * @return the number of consecutive failures.
+     */
+    public synchronized int getConsecutiveFailures() {
+        return failures;
+    }
+
+    /**
+     * @return the number of operations refused.
+     */
+    public synchronized long getRejectedCount() {
+        return rejected;
+    }
+
+    /**
+     * @return the number of times the breaker opened.
+     */
+    public synchronized long getOpenedCount() {
+        return opened;
+    }
+
+    private void transition(@NotNull final State next) {
+        if (state == next) return;
+
+        state = next;
+        changedAt = java.lang.System.nanoTime();
+        probing = 0;
+    }
+
+    private void notify(@NotNull final State previous, @NotNull final State next) {
+        if (previous == next) return;
+
+        for (final StateListener listener : listeners) {
+            try {
+                listener.onStateChange(this, previous, next);
+            }catch (Exception exception) {
+                LOGGER.log(Level.WARNING, "A listener of the " + type + " circuit breaker failed.", exception);
+            }
+        }
+    }
+
+    /**
+     * The state of a {@link CircuitBreaker}.
+     */
+    public enum State {
+        /**
+         * Mongo responds, every operation is sent.
+         */
+        CLOSED,
+        /**
+         * Mongo is unreachable, every operation is refused.
+         */
+        OPEN,
+        /**
+         * A few operations are let through to check whether Mongo is reachable again.
+         */
+        HALF_OPEN
+    }
+
+    public interface StateListener {
+        void onStateChange(@NotNull CircuitBreaker breaker, @NotNull State previous, @NotNull State next);
+    }
+
+}
@@ -0,0 +1,216 @@
+package com.meturum.centra.mongo;
+
+import com.mongodb.MongoClientSettings;
+import com.mongodb.client.model.ReplaceOptions;
+import com.mongodb.client.model.UpdateOptions;
+import com.mongodb.client.model.WriteModel;
+import org.bson.BsonDocument;
+import org.bson.Document;
+import org.bson.codecs.Codec;
+import org.bson.conversions.Bson;
+import org.jetbrains.annotations.NotNull;
+
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * A {@link CollectionWrapper} coalescing concurrent identical {@code findAsync} calls (same filter and projection): the first call sends the query,
+ * the calls made while it is in flight wait for its result instead of sending their own (single-flight).
+ * <p>
+ * The result is read before the flight closes, the calls made while it is read join it too, and its documents are shared by every waiter.
+ * Writes made through this wrapper detach the queries in flight, the calls made after a write never receive a result read before it.
+ *
+ * @apiNote The shared documents must not be modified.
+ */
+public final class CoalescingCollectionWrapper extends ForwardingCollectionWrapper {
+
+    private static final BsonDocument EVERY_DOCUMENT = new BsonDocument();
+
+    private final Map<Key, Flight> flights = new ConcurrentHashMap<>();
+    private final LongAdder queries = new LongAdder();
+    private final LongAdder coalesced = new LongAdder();
+
+    /**
+     * @param delegate the collection to read from.
+     */
+    public CoalescingCollectionWrapper(@NotNull final CollectionWrapper delegate) {
+        super(delegate);
+    }
+
+    /**
+     * @return the number of queries sent.
+     */
+    public long getQueryCount() {
+        return queries.sum();
+    }
+
+    /**
+     * @return the number of calls which waited for the query of another call instead of sending their own.
+     */
+    public long getCoalescedCount() {
+        return coalesced.sum();
+    }
+
+    /**
+     * @return the number of queries in flight.
+     */
+    public int getInFlightCount() {
+        return flights.size();
+    }
+
+    @Override
+    public void findAsync(@Nullable Bson filter, @NotNull FindLambda lambda) {
+        findAsync(filter, null, lambda);
+    }
+
+    @Override
+    public void findAsync(@Nullable Bson filter, @Nullable Bson projection, @NotNull FindLambda lambda) {
+        final Key key = new Key(filter != null ? toBsonDocument(filter) : EVERY_DOCUMENT, projection != null ? toBsonDocument(projection) : null);
+        final Flight created = new Flight(key);
+
+        final Flight flight = flights.compute(key, (ignored, current) -> current != null && current.join(lambda) ? current : created.lead(lambda));
+        if (flight != created) {
+            coalesced.increment();
+            return;
+        }
+
+        queries.increment();
+        getDelegate().findAsync(filter, projection, (result, exception) -> {
+            if (result == null || exception != null) {
+                fanOut(flight.land(), waiter -> waiter.run(result, exception));
+                return;
+            }
+
+            final List<Document> documents;
+            try {
+                documents = Collections.unmodifiableList(result.into(new ArrayList<>())); // the iterable is lazy, the query is sent now: the flight stays open.
+            }catch (Exception throwable) {
+                fanOut(flight.land(), waiter -> waiter.run(null, throwable));
+                return;
+            }
+
+            final Codec<Document> codec = raw().getCodecRegistry().get(Document.class);
+            fanOut(flight.land(), waiter -> waiter.run(new CachedFindIterable<>(documents, codec), null));
+        });
+    }
+
+    @Override
+    public void insertOneAsync(@NotNull Document document, @Nullable InsertOneLambda lambda) {
+        flights.clear();
+        getDelegate().insertOneAsync(document, lambda);
+    }
+
+    @Override
+    public void updateOneAsync(@NotNull Bson filter, @NotNull Bson updates, @Nullable UpdateOptions options, @Nullable UpdateOneLambda lambda) {
+        flights.clear();
+        getDelegate().updateOneAsync(filter, updates, options, lambda);
+    }
+
+    @Override
+    public void replaceOneAsync(@NotNull Bson filter, @NotNull Document document, @Nullable ReplaceOptions options, @Nullable ReplaceOneLambda lambda) {
+        flights.clear();
+        getDelegate().replaceOneAsync(filter, document, options, lambda);
+    }
+
+    @Override
+    public void deleteOneAsync(@NotNull Bson filter, @Nullable DeleteOneLambda lambda) {
+        flights.clear();
+        getDelegate().deleteOneAsync(filter, lambda);
+    }
+
+    @Override
+    public void bulkWriteAsync(@NotNull List<? extends WriteModel<? extends Document>> requests, boolean ordered, @Nullable BulkWriteLambda lambda) {
+        flights.clear();
+        getDelegate().bulkWriteAsync(requests, ordered, lambda);
+    }
+
+    @Override
+    public void insertManyAsync(@NotNull List<Document> documents, boolean ordered, @Nullable BulkWriteLambda lambda) {
+        flights.clear();
+        getDelegate().insertManyAsync(documents, ordered, lambda);
+    }
+
+    @Override
+    public void updateManyAsync(@NotNull Bson filter, @NotNull Bson updates, @Nullable UpdateOptions options, @Nullable UpdateManyLambda lambda) {
+        flights.clear();
+        getDelegate().updateManyAsync(filter, updates, options, lambda);
+    }
+
+    @Override
+    public void deleteManyAsync(@NotNull Bson filter, @Nullable DeleteManyLambda lambda) {
+        flights.clear();
+        getDelegate().deleteManyAsync(filter, lambda);
+    }
+
+    private static void fanOut(@NotNull final List<FindLambda> waiters, @NotNull final Consumer<FindLambda> result) {
+        for (final FindLambda waiter : waiters) {
+            try {
+                result.accept(waiter);
+            }catch (Exception exception) {
+                exception.printStackTrace(); // the other waiters still receive the result.
+            }
+        }
+    }
+
+    private static @NotNull BsonDocument toBsonDocument(@NotNull final Bson bson) {
+        return bson.toBsonDocument(BsonDocument.class, MongoClientSettings.getDefaultCodecRegistry());
+    }
+
+    /**
+     * The filter and projection of a query.
+     */
+    private record Key(@NotNull BsonDocument filter, @Nullable BsonDocument projection) { }
+
+    /**
+     * A query in flight and the calls waiting for its result.
+     */
+    private final class Flight {
+
+        private final Key key;
+        private final List<FindLambda> waiters = new ArrayList<>(1);
+        private boolean done;
+
+        private Flight(@NotNull final Key key) {
+            this.key = key;
+        }
+
+        private synchronized @NotNull Flight lead(@NotNull final FindLambda lambda) {
+            waiters.add(lambda);
+            return this;
+        }
+
+        /**
+         * @return false if the result was already fanned out, a new query must be sent.
+         */
+        private synchronized boolean join(@NotNull final FindLambda lambda) {
+            if (done) return false;
+
+            waiters.add(lambda);
+            return true;
+        }
+
+        /**
+         * Closes the flight, the calls made from now on send a new query.
+         *
+         * @return the calls waiting for the result.
+         */
+        private @NotNull List<FindLambda> land() {
+            final List<FindLambda> waiters;
+            synchronized (this) {
+                done = true;
+                waiters = List.copyOf(this.waiters);
+            }
+
+            flights.remove(key, this);
+            return waiters;
+        }
+
+    }
+
+}
@@ -0,0 +1,138 @@
+package com.meturum.centra.mongo;
+
+import org.jetbrains.annotations.NotNull;
+
+import javax.annotation.Nullable;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The operation metrics of a collection: count, errors, queue wait and execution latency of every {@link Operation}.
+ * <p>
+ * Recorded by {@link MetricsCollectionWrapper} (the latency of the callback methods, from the call to the callback) and by {@link AsyncCollection}
+ * (the time waiting for the executor, then the time running). Recording is lock-free.
+ *
+ * @see MongoMetrics#getMetrics(Mongo.MongoClientTypes, String)
+ */
+public final class CollectionMetrics {
+
+    private final String collection;
+    private final @Nullable Mongo.MongoClientTypes type;
+    private final Map<Operation, OperationMetrics> operations = new EnumMap<>(Operation.class);
+
+    /**
+     * @param collection the name of the collection.
+     * @param type the type of its client, or null if unknown.
+     */
+    public CollectionMetrics(@NotNull final String collection, @Nullable final Mongo.MongoClientTypes type) {
+        this.collection = collection;
+        this.type = type;
+
+        for (final Operation operation : Operation.values()) operations.put(operation, new OperationMetrics());
+    }
+
+    /**
+     * @return the name of the collection.
+     */
+    public @NotNull String getCollection() {
+        return collection;
+    }
+
+    /**
+     * @return the type of the client, or null if unknown.
+     */
+    public @Nullable Mongo.MongoClientTypes getType() {
+        return type;
+    }
+
+    /**
+     * @param operation the operation.
+     * @return the metrics of the operation.
+     */
+    public @NotNull OperationMetrics get(@NotNull final Operation operation) {
+        return operations.get(operation);
+    }
+
+    /**
+     * @return a snapshot of the metrics of every operation.
+     */
+    public @NotNull Map<Operation, Snapshot> snapshot() {
+        final Map<Operation, Snapshot> snapshot = new EnumMap<>(Operation.class);
+        operations.forEach((operation, metrics) -> snapshot.put(operation, metrics.snapshot()));
+
+        return Collections.unmodifiableMap(snapshot);
+    }
+
+    /**
+     * An operation of a collection.
+     */
+    public enum Operation {
+        FIND, COUNT, INSERT_ONE, UPDATE_ONE, REPLACE_ONE, DELETE_ONE, BULK_WRITE, INSERT_MANY, UPDATE_MANY, DELETE_MANY
+    }
+
+    /**
+     * The metrics of one operation of a collection.
+     */
+    public static final class OperationMetrics {
+
+        private final LongAdder count = new LongAdder();
+        private final LongAdder errors = new LongAdder();
+        private final LatencyHistogram wait = new LatencyHistogram();
+        private final LatencyHistogram latency = new LatencyHistogram();
+
+        private OperationMetrics() { }
+
+        /**
+         * Records a completed operation.
+         *
+         * @param waitNanos the time the operation waited for the executor, in nanoseconds, or a negative value if unknown.
+         * @param latencyNanos the time the operation ran, in nanoseconds.
+         * @param failed whether the operation failed.
+         */
+        public void record(final long waitNanos, final long latencyNanos, final boolean failed) {
+            count.increment();
+            if (failed) errors.increment();
+            if (waitNanos >= 0) wait.record(waitNanos);
+
+            latency.record(latencyNanos);
+        }
+
+        /**
+         * @return a snapshot of the metrics.
+         */
+        public @NotNull Snapshot snapshot() {
+            return new Snapshot(count.sum(), errors.sum(), wait.snapshot(), latency.snapshot());
+        }
+
+    }
+
+    /**
+     * A snapshot of the metrics of one operation.
+     *
+     * @param count the number of completed operations.
+     * @param errors the number of failed operations.
+     * @param queueWait the time the operations waited for the executor (only recorded by {@link AsyncCollection}).
+     * @param latency the time the operations ran.
+     */
+    public record Snapshot(long count, long errors, @NotNull LatencyHistogram.Snapshot queueWait, @NotNull LatencyHistogram.Snapshot latency) {
+
+        /**
+         * Gets the operations completed since a previous snapshot of the same operation, e.g. for periodic exports.
+         *
+         * @param previous the previous snapshot.
+         * @return the difference.
+         */
+        public @NotNull Snapshot since(@NotNull final Snapshot previous) {
+            return new Snapshot(count - previous.count, errors - previous.errors, queueWait.since(previous.queueWait), latency.since(previous.latency));
+        }
+
+        @Override
+        public String toString() {
+            return "count=" + count + ", errors=" + errors + ", latency={" + latency + "}" + (queueWait.getCount() > 0 ? ", queueWait={" + queueWait + "}" : "");
+        }
+
+    }
+
+}
@@ -1,17 +1,28 @@
 package com.meturum.centra.mongo;
 
+import com.meturum.centra.conversions.Documentable;
+import com.meturum.centra.conversions.DocumentableCodecProvider;
+import com.meturum.centra.system.SystemManager;
 import com.mongodb.client.FindIterable;
 import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.BulkWriteOptions;
 import com.mongodb.client.model.ReplaceOptions;
 import com.mongodb.client.model.UpdateOptions;
+import com.mongodb.client.model.WriteModel;
 import com.mongodb.client.result.DeleteResult;
 import com.mongodb.client.result.InsertOneResult;
 import com.mongodb.client.result.UpdateResult;
 import org.bson.Document;
+import org.bson.codecs.configuration.CodecRegistries;
 import org.bson.conversions.Bson;
 import org.jetbrains.annotations.NotNull;
 
 import javax.annotation.Nullable;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.function.BiConsumer;
 
 public interface CollectionWrapper {
 
@@ -30,6 +41,23 @@ public interface CollectionWrapper {
      */
     void findAsync(@NotNull FindLambda lambda);
 
+    /**
+     * Searches for a document by the specified filter, returning only the fields included by the projection.
+     *
+     * @param filter the filter to search for.
+     * @param projection the fields to return (e.g. {@code Projections.include("name", "rank")} or {@link com.meturum.centra.conversions.Documentable#projection}), or null for every field.
+     * @param lambda the lambda to execute on the document.
+     * @apiNote By default, the projection is applied to the result of {@link #findAsync(Bson, FindLambda)} before it is iterated.
+     */
+    default void findAsync(@Nullable Bson filter, @Nullable Bson projection, @NotNull FindLambda lambda) {
+        if (projection == null) {
+            findAsync(filter, lambda);
+            return;
+        }
+
+        findAsync(filter, (result, exception) -> lambda.run(result != null ? result.projection(projection) : null, exception));
+    }
+
     /**
      * Inserts a document into the collection.
      *
@@ -131,8 +159,153 @@ public interface CollectionWrapper {
      */
     void deleteOneAsync(@NotNull Bson filter);
 
+    /**
+     * Executes several writes, sent in chunks of {@link BulkResult#DEFAULT_CHUNK_SIZE} requests.
+     *
+     * @param requests the writes to execute.
+     * @param ordered whether to stop at the first failed write.
+     * @param lambda the lambda to execute on the aggregated result, the exception is the failure that stopped the writes if any.
+     * @apiNote By default, this runs {@link AsyncCollection#bulkWrite(List, BulkWriteOptions, int)} on {@link #async()}.
+     */
+    default void bulkWriteAsync(@NotNull List<? extends WriteModel<? extends Document>> requests, boolean ordered, @Nullable BulkWriteLambda lambda) {
+        complete(async().bulkWrite(requests, new BulkWriteOptions().ordered(ordered), BulkResult.DEFAULT_CHUNK_SIZE), lambda != null ? (result, exception) ->
+                lambda.run(result, result != null ? result.getFailure() : exception) : null);
+    }
+
+    /**
+     * Inserts several documents, sent in chunks of {@link BulkResult#DEFAULT_CHUNK_SIZE} documents.
+     *
+     * @param documents the documents to insert.
+     * @param ordered whether to stop at the first failed insertion.
+     * @param lambda the lambda to execute on the aggregated result, the exception is the failure that stopped the insertions if any.
+     */
+    default void insertManyAsync(@NotNull List<Document> documents, boolean ordered, @Nullable BulkWriteLambda lambda) {
+        complete(async().insertMany(documents, ordered), lambda != null ? (result, exception) ->
+                lambda.run(result, result != null ? result.getFailure() : exception) : null);
+    }
+
+    /**
+     * Updates every document matching the filter.
+     *
+     * @param filter the filter to search for.
+     * @param updates the updates to apply.
+     * @param options the options to apply.
+     * @param lambda the lambda to execute on the result.
+     */
+    default void updateManyAsync(@NotNull Bson filter, @NotNull Bson updates, @Nullable UpdateOptions options, @Nullable UpdateManyLambda lambda) {
+        complete(async().updateMany(filter, updates, options), lambda != null ? lambda::run : null);
+    }
+
+    /**
+     * Deletes every document matching the filter.
+     *
+     * @param filter the filter to search for.
+     * @param lambda the lambda to execute on the result.
+     */
+    default void deleteManyAsync(@NotNull Bson filter, @Nullable DeleteManyLambda lambda) {
+        complete(async().deleteMany(filter), lambda != null ? lambda::run : null);
+    }
+
     @NotNull MongoCollection<Document> raw();
 
+    /**
+     * Gets the type of the client this collection belongs to.
+     *
+     * @return the type of the client, or null if unknown.
+     */
+    default @Nullable Mongo.MongoClientTypes getType() {
+        return null;
+    }
+
+    /**
+     * Gets the circuit breaker of the client this collection belongs to, {@link #async()} refuses operations while it is open.
+     *
+     * @return the breaker of the client ({@link CircuitBreaker#get(Mongo.MongoClientTypes)}), or null if the type is unknown.
+     */
+    default @Nullable CircuitBreaker getCircuitBreaker() {
+        final Mongo.MongoClientTypes type = getType();
+        return type != null ? CircuitBreaker.get(type) : null;
+    }
+
+    /**
+     * Gets the metrics of this collection, recorded by {@link #async()} and by a {@link MetricsCollectionWrapper}.
+     *
+     * @return the metrics, or null if this collection is not instrumented.
+     */
+    default @Nullable CollectionMetrics getMetrics() {
+        return null;
+    }
+
+    /**
+     * Gets the executor running the operations of {@link #async()}.
+     *
+     * @return the executor of this collection.
+     * @apiNote By default, this is the {@link BoundedExecutor} of the client ({@link MongoExecutors#getExecutor(Mongo.MongoClientTypes)}) if the type is known,
+     * {@link MongoExecutors#getDefaultExecutor()} (virtual threads when available) otherwise. Implementations should run their asynchronous operations on it too.
+     */
+    default @NotNull Executor getExecutor() {
+        final Mongo.MongoClientTypes type = getType();
+        return type != null ? MongoExecutors.getExecutor(type) : MongoExecutors.getDefaultExecutor();
+    }
+
+    /**
+     * Gets a future-based view of this collection, running on {@link #getExecutor()}.
+     *
+     * @return the future-based view.
+     */
+    default @NotNull AsyncCollection async() {
+        return new AsyncCollection(this, getExecutor());
+    }
+
+    /**
+     * Gets a future-based view of this collection whose operations have the given priority, see {@link AsyncCollection#withPriority(BoundedExecutor.Priority)}.
+     *
+     * @param priority the priority of the operations, e.g. {@link BoundedExecutor.Priority#LOW} for analytics.
+     * @return the prioritized view.
+     */
+    default @NotNull AsyncCollection async(@NotNull final BoundedExecutor.Priority priority) {
+        return async().withPriority(priority);
+    }
+
+    /**
+     * Streams the documents matching the filter, reading them from the cursor only as the subscriber requests them.
+     *
+     * @param filter the filter to search for, or null to match every document.
+     * @param batchSize the number of documents fetched per request to the server.
+     * @return the publisher of the documents, read on {@link #getExecutor()}.
+     */
+    default @NotNull DocumentPublisher<Document> stream(@Nullable Bson filter, int batchSize) {
+        return new DocumentPublisher<>(() -> filter != null ? raw().find(filter) : raw().find(), batchSize, getExecutor());
+    }
+
+    /**
+     * Streams the documents matching the filter, each decoded straight from the driver into the given class by a
+     * {@link com.meturum.centra.conversions.DocumentableCodec} (no intermediate {@link Document}).
+     *
+     * @param filter the filter to search for, or null to match every document.
+     * @param manager the system manager.
+     * @param type the class of the documents.
+     * @param batchSize the number of documents fetched per request to the server.
+     * @return the publisher of the objects, read on {@link #getExecutor()}.
+     */
+    default @NotNull <T extends Documentable> DocumentPublisher<T> stream(@Nullable Bson filter, @NotNull SystemManager manager, @NotNull Class<T> type, int batchSize) {
+        final MongoCollection<T> collection = raw().withCodecRegistry(CodecRegistries.fromRegistries(
+                CodecRegistries.fromProviders(new DocumentableCodecProvider(manager)),
+                raw().getCodecRegistry()
+        )).withDocumentClass(type);
+
+        return new DocumentPublisher<>(() -> filter != null ? collection.find(filter) : collection.find(), batchSize, getExecutor());
+    }
+
+    private static <T> void complete(@NotNull CompletableFuture<T> future, @Nullable BiConsumer<T, Exception> lambda) {
+        if (lambda == null) return;
+
+        future.whenComplete((result, throwable) -> {
+            if (throwable instanceof CompletionException && throwable.getCause() != null) throwable = throwable.getCause();
+            lambda.accept(result, throwable == null ? null : throwable instanceof Exception exception ? exception : new CompletionException(throwable));
+        });
+    }
+
     interface FindLambda {
         void run(@Nullable FindIterable<Document> result, @Nullable Exception exception);
     }
@@ -153,4 +326,16 @@ public interface CollectionWrapper {
         void run(@Nullable DeleteResult result, @Nullable Exception exception);
     }
 
+    interface BulkWriteLambda {
+        void run(@Nullable BulkResult result, @Nullable Exception exception);
+    }
+
+    interface UpdateManyLambda {
+        void run(@Nullable UpdateResult result, @Nullable Exception exception);
+    }
+
+    interface DeleteManyLambda {
+        void run(@Nullable DeleteResult result, @Nullable Exception exception);
+    }
+
 }
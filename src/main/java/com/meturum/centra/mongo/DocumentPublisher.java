@@ -0,0 +1,155 @@
+package com.meturum.centra.mongo;
+
+import com.mongodb.client.FindIterable;
+import com.mongodb.client.MongoCursor;
+import org.jetbrains.annotations.NotNull;
+
+import javax.annotation.Nullable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * A {@link Flow.Publisher} streaming the results of a query, for scans too large to be loaded at once (e.g. leaderboard rebuilds or migrations).
+ * <p>
+ * Documents are read from the cursor only as the subscriber requests them, at most one batch of {@code batchSize} documents is held in memory.
+ * Every subscriber opens its own cursor, the cursor is read on the executor and closed once the stream completes, fails or is cancelled.
+ *
+ * @see CollectionWrapper#stream(org.bson.conversions.Bson, int)
+ */
+public final class DocumentPublisher<T> implements Flow.Publisher<T> {
+
+    private final Supplier<FindIterable<T>> query;
+    private final int batchSize;
+    private final Executor executor;
+
+    /**
+     * @param query the query to stream, e.g. {@code () -> collection.raw().find().sort(Sorts.descending("kills"))}.
+     * @param batchSize the number of documents fetched per request to the server.
+     * @param executor the executor reading the cursor.
+     */
+    public DocumentPublisher(@NotNull final Supplier<FindIterable<T>> query, final int batchSize, @NotNull final Executor executor) {
+        if (batchSize < 1) throw new IllegalArgumentException("batchSize must be at least 1.");
+
+        this.query = query;
+        this.batchSize = batchSize;
+        this.executor = executor;
+    }
+
+    /**
+     * @return the number of documents fetched per request to the server.
+     */
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    @Override
+    public void subscribe(@NotNull final Flow.Subscriber<? super T> subscriber) {
+        final CursorSubscription subscription = new CursorSubscription(subscriber);
+        subscriber.onSubscribe(subscription);
+    }
+
+    private final class CursorSubscription implements Flow.Subscription, Runnable {
+
+        private final Flow.Subscriber<? super T> subscriber;
+        private final AtomicLong demand = new AtomicLong();
+        private final AtomicInteger pending = new AtomicInteger(); // the number of signals since the last drain, a single drain runs at a time.
+
+        private volatile boolean cancelled;
+        private volatile @Nullable Throwable error;
+
+        private @Nullable MongoCursor<T> cursor;
+        private boolean done;
+
+        private CursorSubscription(@NotNull final Flow.Subscriber<? super T> subscriber) {
+            this.subscriber = subscriber;
+        }
+
+        @Override
+        public void request(final long n) {
+            if (n <= 0) error = new IllegalArgumentException("The number of requested documents must be positive (rule 3.9), was " + n + ".");
+            else demand.getAndUpdate(current -> current + n < 0 ? Long.MAX_VALUE : current + n);
+
+            schedule();
+        }
+
+        @Override
+        public void cancel() {
+            cancelled = true;
+            schedule(); // the cursor is closed by the drain.
+        }
+
+        private void schedule() {
+            if (pending.getAndIncrement() != 0) return;
+
+            try {
+                executor.execute(this);
+            }catch (RejectedExecutionException exception) {
+                pending.set(0);
+                if (!done) {
+                    done = true;
+                    subscriber.onError(exception);
+                }
+            }
+        }
+
+        @Override
+        public void run() {
+            int missed = 1;
+
+            do {
+                drain();
+                missed = pending.addAndGet(-missed);
+            } while (missed != 0);
+        }
+
+        private void drain() {
+            if (done) return;
+
+            if (cancelled || error != null) {
+                terminate();
+                if (!cancelled) subscriber.onError(error);
+                return;
+            }
+
+            try {
+                if (cursor == null) cursor = query.get().batchSize(batchSize).cursor();
+
+                while (demand.get() > 0 && !cancelled && error == null) {
+                    if (!cursor.hasNext()) { // fetches the next batch when needed.
+                        terminate();
+                        subscriber.onComplete();
+                        return;
+                    }
+
+                    final T next = cursor.next();
+                    demand.decrementAndGet();
+                    subscriber.onNext(next);
+                }
+            }catch (Throwable throwable) {
+                terminate();
+                subscriber.onError(throwable);
+                return;
+            }
+
+            if (cancelled) terminate();
+        }
+
+        private void terminate() {
+            done = true;
+
+            if (cursor != null) {
+                try {
+                    cursor.close();
+                }catch (Exception exception) {
+                    exception.printStackTrace();
+                }
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,165 @@
+package com.meturum.centra.mongo;
+
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.ReplaceOptions;
+import com.mongodb.client.model.UpdateOptions;
+import com.mongodb.client.model.WriteModel;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.jetbrains.annotations.NotNull;
+
+import javax.annotation.Nullable;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+/**
+ * A {@link CollectionWrapper} forwarding every operation to another wrapper, the base of decorating wrappers.
+ * <p>
+ * The shorter overloads call the complete overload of this wrapper (e.g. {@link #updateOneAsync(Bson, Bson)} calls
+ * {@link #updateOneAsync(Bson, Bson, UpdateOptions, UpdateOneLambda)}), subclasses only have to override the complete overloads.
+ * {@link #async()} goes through the callback methods of this wrapper, see {@link AsyncCollection#ofCallbacks(CollectionWrapper)}.
+ */
+public abstract class ForwardingCollectionWrapper implements CollectionWrapper {
+
+    private final CollectionWrapper delegate;
+
+    protected ForwardingCollectionWrapper(@NotNull final CollectionWrapper delegate) {
+        this.delegate = delegate;
+    }
+
+    /**
+     * @return the wrapper operations are forwarded to.
+     */
+    public @NotNull CollectionWrapper getDelegate() {
+        return delegate;
+    }
+
+    @Override
+    public void findAsync(@Nullable Bson filter, @NotNull FindLambda lambda) {
+        delegate.findAsync(filter, lambda);
+    }
+
+    @Override
+    public void findAsync(@NotNull FindLambda lambda) {
+        findAsync(null, lambda);
+    }
+
+    @Override
+    public void findAsync(@Nullable Bson filter, @Nullable Bson projection, @NotNull FindLambda lambda) {
+        delegate.findAsync(filter, projection, lambda);
+    }
+
+    @Override
+    public void insertOneAsync(@NotNull Document document, @Nullable InsertOneLambda lambda) {
+        delegate.insertOneAsync(document, lambda);
+    }
+
+    @Override
+    public void insertOneAsync(@NotNull Document document) {
+        insertOneAsync(document, null);
+    }
+
+    @Override
+    public void updateOneAsync(@NotNull Bson filter, @NotNull Bson updates, @Nullable UpdateOptions options, @Nullable UpdateOneLambda lambda) {
+        delegate.updateOneAsync(filter, updates, options, lambda);
+    }
+
+    @Override
+    public void updateOneAsync(@NotNull Bson filter, @NotNull Bson updates, @Nullable UpdateOneLambda lambda) {
+        updateOneAsync(filter, updates, null, lambda);
+    }
+
+    @Override
+    public void updateOneAsync(@NotNull Bson filter, @NotNull Bson updates, @Nullable UpdateOptions options) {
+        updateOneAsync(filter, updates, options, null);
+    }
+
+    @Override
+    public void updateOneAsync(@NotNull Bson filter, @NotNull Bson updates) {
+        updateOneAsync(filter, updates, null, null);
+    }
+
+    @Override
+    public void replaceOneAsync(@NotNull Bson filter, @NotNull Document document, @Nullable ReplaceOptions options, @Nullable ReplaceOneLambda lambda) {
+        delegate.replaceOneAsync(filter, document, options, lambda);
+    }
+
+    @Override
+    public void replaceOneAsync(@NotNull Bson filter, @NotNull Document document, @Nullable ReplaceOneLambda lambda) {
+        replaceOneAsync(filter, document, null, lambda);
+    }
+
+    @Override
+    public void replaceOneAsync(@NotNull Bson filter, @NotNull Document document, @Nullable ReplaceOptions options) {
+        replaceOneAsync(filter, document, options, null);
+    }
+
+    @Override
+    public void replaceOneAsync(@NotNull Bson filter, @NotNull Document document) {
+        replaceOneAsync(filter, document, null, null);
+    }
+
+    @Override
+    public void deleteOneAsync(@NotNull Bson filter, @Nullable DeleteOneLambda lambda) {
+        delegate.deleteOneAsync(filter, lambda);
+    }
+
+    @Override
+    public void deleteOneAsync(@NotNull Bson filter) {
+        deleteOneAsync(filter, null);
+    }
+
+    @Override
+    public void bulkWriteAsync(@NotNull List<? extends WriteModel<? extends Document>> requests, boolean ordered, @Nullable BulkWriteLambda lambda) {
+        delegate.bulkWriteAsync(requests, ordered, lambda);
+    }
+
+    @Override
+    public void insertManyAsync(@NotNull List<Document> documents, boolean ordered, @Nullable BulkWriteLambda lambda) {
+        delegate.insertManyAsync(documents, ordered, lambda);
+    }
+
+    @Override
+    public void updateManyAsync(@NotNull Bson filter, @NotNull Bson updates, @Nullable UpdateOptions options, @Nullable UpdateManyLambda lambda) {
+        delegate.updateManyAsync(filter, updates, options, lambda);
+    }
+
+    @Override
+    public void deleteManyAsync(@NotNull Bson filter, @Nullable DeleteManyLambda lambda) {
+        delegate.deleteManyAsync(filter, lambda);
+    }
+
+    @Override
+    public @NotNull MongoCollection<Document> raw() {
+        return delegate.raw();
+    }
+
+    @Override
+    public @Nullable Mongo.MongoClientTypes getType() {
+        return delegate.getType();
+    }
+
+    @Override
+    public @Nullable CircuitBreaker getCircuitBreaker() {
+        return delegate.getCircuitBreaker();
+    }
+
+    @Override
+    public @Nullable CollectionMetrics getMetrics() {
+        return delegate.getMetrics();
+    }
+
+    @Override
+    public @NotNull Executor getExecutor() {
+        return delegate.getExecutor();
+    }
+
+    /**
+     * @return a future-based view running its operations through the callback methods of this wrapper, and of the wrappers it decorates.
+     */
+    @Override
+    public @NotNull AsyncCollection async() {
+        return AsyncCollection.ofCallbacks(this);
+    }
+
+}
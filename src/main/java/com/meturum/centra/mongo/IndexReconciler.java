@@ -0,0 +1,256 @@
+package com.meturum.centra.mongo;
+
+import com.meturum.centra.conversions.Documentable;
+import com.mongodb.MongoClientSettings;
+import com.mongodb.MongoCommandException;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.IndexModel;
+import com.mongodb.client.model.IndexOptions;
+import org.bson.BsonDocument;
+import org.bson.BsonValue;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.jetbrains.annotations.NotNull;
+
+import javax.annotation.Nullable;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Reconciles the indexes of a collection with those declared by a {@link Documentable} class ({@link Documentable.Indexed}).
+ * <p>
+ * {@link #reconcile()} creates the missing indexes in the background, at {@link BoundedExecutor.Priority#NORMAL} priority (a reconciliation is never dropped), and logs the existing ones whose options
+ * (unique, sparse, TTL) differ from the declaration. Those are never dropped, drop them manually to let them be recreated.
+ * {@link #check(Bson)} logs, once per shape, the queries whose filter cannot use any index of the collection, the collections returned by
+ * {@link Mongo#getCollection(String, Mongo.MongoClientTypes, Class)} and {@link Mongo#getIndexedCollection(String, Mongo.MongoClientTypes, Class)} check every query.
+ *
+ * @see IndexedCollectionWrapper
+ * @see Mongo#getCollection(String, Mongo.MongoClientTypes, Class)
+ */
+public final class IndexReconciler {
+
+    private static final Logger LOGGER = Logger.getLogger("Centra");
+    private static final Map<String, IndexReconciler> RECONCILERS = new ConcurrentHashMap<>();
+    private static final Set<String> FILTERED = Set.of("find", "countDocuments", "distinct", "updateOne", "updateMany", "replaceOne", "deleteOne", "deleteMany",
+            "findOneAndUpdate", "findOneAndReplace", "findOneAndDelete"); // the methods of MongoCollection taking a filter, as their first Bson.
+
+    private final CollectionWrapper collection;
+    private final Class<?> type;
+    private final Logger logger;
+
+    private final List<BsonDocument> keys = new CopyOnWriteArrayList<>(); // the key patterns of the collection, once listed.
+    private final Set<Set<String>> reported = ConcurrentHashMap.newKeySet();
+    private volatile @Nullable CompletableFuture<Void> reconciliation;
+
+    /**
+     * @param collection the collection to reconcile.
+     * @param type the class of its documents.
+     * @param logger the logger of mismatches and unindexed queries.
+     */
+    public IndexReconciler(@NotNull final CollectionWrapper collection, @NotNull final Class<?> type, @NotNull final Logger logger) {
+        this.collection = collection;
+        this.type = type;
+        this.logger = logger;
+    }
+
+    /**
+     * Gets the reconciler of a collection and class, reconciling the indexes the first time.
+     *
+     * @param collection the collection to reconcile.
+     * @param type the class of its documents.
+     * @return the reconciler.
+     */
+    public static @NotNull IndexReconciler of(@NotNull final CollectionWrapper collection, @NotNull final Class<?> type) {
+        final String key = collection.raw().getNamespace().getFullName() + '/' + type.getName();
+
+        final IndexReconciler reconciler = RECONCILERS.computeIfAbsent(key, ignored -> new IndexReconciler(collection, type, LOGGER));
+        reconciler.reconcile();
+
+        return reconciler;
+    }
+
+    /**
+     * Creates the missing indexes in the background, only once: a reconciliation that failed, was rejected by the executor or was cancelled is started again
+     * by the next call.
+     *
+     * @return a future completed once every index was checked.
+     */
+    public synchronized @NotNull CompletableFuture<Void> reconcile() {
+        if (reconciliation != null) return reconciliation;
+
+        final Executor executor = collection.getExecutor();
+        final Executor background = executor instanceof BoundedExecutor bounded ? bounded.prioritized(BoundedExecutor.Priority.NORMAL) : executor;
+
+        final CompletableFuture<Void> attempt;
+        try {
+            attempt = CompletableFuture.runAsync(this::run, background).whenComplete((ignored, throwable) -> {
+                if (throwable != null) logger.log(Level.WARNING, "Could not reconcile the indexes of " + getNamespace() + ".", throwable);
+            });
+        }catch (RejectedExecutionException exception) { // e.g. the queue of a BoundedExecutor is full.
+            logger.log(Level.WARNING, "Could not reconcile the indexes of " + getNamespace() + ".", exception);
+            return CompletableFuture.failedFuture(exception);
+        }
+
+        reconciliation = attempt;
+        attempt.whenComplete((ignored, throwable) -> {
+            if (throwable != null) forget(attempt); // after the assignment, even if already completed.
+        });
+
+        return attempt;
+    }
+
+    /**
+     * Logs the filter if it cannot use any index of the collection, once per shape (the set of its top-level fields).
+     * Filters are not checked before the indexes of the collection were listed.
+     *
+     * @param filter the filter of a query.
+     * @return false if the filter was found unindexed.
+     */
+    public boolean check(@Nullable final Bson filter) {
+        if (filter == null || keys.isEmpty()) return true;
+
+        final Set<String> shape = new TreeSet<>();
+        if (!shape(filter.toBsonDocument(BsonDocument.class, MongoClientSettings.getDefaultCodecRegistry()), shape) || shape.isEmpty() || isIndexed(shape))
+            return true;
+
+        if (reported.add(shape))
+            logger.warning("Unindexed query on " + getNamespace() + " by " + shape + ", declare a @Documentable.Indexed on one of these fields of " + type.getSimpleName() + ".");
+
+        return false;
+    }
+
+    /**
+     * Wraps a collection to {@link #check(Bson)} the filter of its queries. The collections derived from it ({@code withCodecRegistry}, {@code withDocumentClass}...)
+     * are wrapped too.
+     *
+     * @param collection the collection to wrap, of the same namespace as the reconciled one.
+     * @return the checking collection.
+     */
+    @SuppressWarnings("unchecked")
+    public <T> @NotNull MongoCollection<T> checking(@NotNull final MongoCollection<T> collection) {
+        return (MongoCollection<T>) Proxy.newProxyInstance(IndexReconciler.class.getClassLoader(), new Class<?>[]{MongoCollection.class}, (proxy, method, arguments) -> {
+            if (arguments != null && FILTERED.contains(method.getName())) {
+                for (final Object argument : arguments) {
+                    if (!(argument instanceof Bson filter)) continue; // e.g. a ClientSession or the field name of distinct.
+
+                    check(filter);
+                    break;
+                }
+            }
+
+            final Object result;
+            try {
+                result = method.invoke(collection, arguments);
+            }catch (InvocationTargetException exception) {
+                throw exception.getCause();
+            }
+
+            return result instanceof MongoCollection<?> derived && method.getName().startsWith("with") ? checking(derived) : result;
+        });
+    }
+
+    /**
+     * @return the key patterns of the indexes of the collection, empty until they were listed.
+     */
+    public @NotNull List<BsonDocument> getIndexes() {
+        return Collections.unmodifiableList(keys);
+    }
+
+    private synchronized void forget(@NotNull final CompletableFuture<Void> attempt) {
+        if (reconciliation == attempt) reconciliation = null;
+    }
+
+    private void run() {
+        final MongoCollection<Document> raw = collection.raw();
+        final List<Document> existing = raw.listIndexes().into(new ArrayList<>());
+
+        for (final Document index : existing) keys.add(toBsonDocument(index.get("key", Document.class)));
+
+        for (final IndexModel model : Documentable.indexes(type)) {
+            final BsonDocument key = toBsonDocument(model.getKeys());
+            final IndexOptions options = model.getOptions();
+
+            final Document current = existing.stream().filter(index -> toBsonDocument(index.get("key", Document.class)).equals(key)).findFirst().orElse(null);
+            if (current != null) {
+                compare(current, options);
+                continue;
+            }
+
+            try {
+                raw.createIndex(model.getKeys(), options);
+                keys.add(key);
+
+                logger.info("Created the index " + options.getName() + " " + key.toJson() + " on " + getNamespace() + ".");
+            }catch (MongoCommandException exception) { // e.g. an index with the same name but other keys.
+                logger.warning("Could not create the index " + options.getName() + " on " + getNamespace() + ": " + exception.getErrorMessage());
+            }
+        }
+    }
+
+    private void compare(@NotNull final Document current, @NotNull final IndexOptions expected) {
+        final List<String> differences = new ArrayList<>();
+
+        if (current.getBoolean("unique", false) != expected.isUnique()) differences.add("unique=" + expected.isUnique());
+        if (current.getBoolean("sparse", false) != expected.isSparse()) differences.add("sparse=" + expected.isSparse());
+
+        final Number ttl = current.get("expireAfterSeconds", Number.class);
+        final Long expectedTtl = expected.getExpireAfter(TimeUnit.SECONDS);
+        if (!Objects.equals(ttl != null ? ttl.longValue() : null, expectedTtl)) differences.add("expireAfterSeconds=" + expectedTtl);
+
+        if (!differences.isEmpty())
+            logger.warning("The index " + current.getString("name") + " on " + getNamespace() + " differs from its declaration in " + type.getSimpleName()
+                    + ", expected " + differences + ". Drop it to let it be recreated.");
+    }
+
+    private boolean isIndexed(@NotNull final Set<String> shape) {
+        for (final BsonDocument key : keys) {
+            if (key.isEmpty()) continue;
+
+            final String first = key.getFirstKey();
+            final int dot = first.indexOf('.');
+            if (shape.contains(dot == -1 ? first : first.substring(0, dot))) return true; // the index prefix is usable.
+        }
+
+        return false;
+    }
+
+    /**
+     * Collects the top-level fields of a filter, merging {@code $and} clauses.
+     *
+     * @return false if the shape cannot be judged (e.g. {@code $or}, {@code $text} or {@code $where}).
+     */
+    private static boolean shape(@NotNull final BsonDocument filter, @NotNull final Set<String> shape) {
+        for (final Map.Entry<String, BsonValue> entry : filter.entrySet()) {
+            if (entry.getKey().equals("$and") && entry.getValue().isArray()) {
+                for (final BsonValue clause : entry.getValue().asArray()) {
+                    if (!clause.isDocument() || !shape(clause.asDocument(), shape)) return false;
+                }
+            } else if (entry.getKey().startsWith("$")) {
+                return false;
+            } else {
+                final int dot = entry.getKey().indexOf('.');
+                shape.add(dot == -1 ? entry.getKey() : entry.getKey().substring(0, dot));
+            }
+        }
+
+        return true;
+    }
+
+    private @NotNull String getNamespace() {
+        return collection.raw().getNamespace().getFullName();
+    }
+
+    private static @NotNull BsonDocument toBsonDocument(@NotNull final Bson bson) {
+        return bson.toBsonDocument(BsonDocument.class, MongoClientSettings.getDefaultCodecRegistry());
+    }
+
+}
@@ -0,0 +1,88 @@
+package com.meturum.centra.mongo;
+
+import com.mongodb.client.model.ReplaceOptions;
+import com.mongodb.client.model.UpdateOptions;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.jetbrains.annotations.NotNull;
+
+import javax.annotation.Nullable;
+
+/**
+ * A {@link CollectionWrapper} reconciling the indexes declared by the class of its documents, and logging the queries whose filter cannot use any index.
+ *
+ * @see IndexReconciler
+ */
+public final class IndexedCollectionWrapper extends ForwardingCollectionWrapper {
+
+    private final IndexReconciler reconciler;
+
+    /**
+     * @param delegate the collection to operate on.
+     * @param type the class of its documents, declaring the indexes with {@link com.meturum.centra.conversions.Documentable.Indexed}.
+     */
+    public IndexedCollectionWrapper(@NotNull final CollectionWrapper delegate, @NotNull final Class<?> type) {
+        this(delegate, IndexReconciler.of(delegate, type));
+    }
+
+    /**
+     * @param delegate the collection to operate on.
+     * @param reconciler the reconciler of the collection.
+     */
+    public IndexedCollectionWrapper(@NotNull final CollectionWrapper delegate, @NotNull final IndexReconciler reconciler) {
+        super(delegate);
+
+        this.reconciler = reconciler;
+        reconciler.reconcile();
+    }
+
+    /**
+     * @return the reconciler of the collection.
+     */
+    public @NotNull IndexReconciler getReconciler() {
+        return reconciler;
+    }
+
+    @Override
+    public void findAsync(@Nullable Bson filter, @NotNull FindLambda lambda) {
+        reconciler.check(filter);
+        getDelegate().findAsync(filter, lambda);
+    }
+
+    @Override
+    public void findAsync(@Nullable Bson filter, @Nullable Bson projection, @NotNull FindLambda lambda) {
+        reconciler.check(filter);
+        getDelegate().findAsync(filter, projection, lambda);
+    }
+
+    @Override
+    public void updateOneAsync(@NotNull Bson filter, @NotNull Bson updates, @Nullable UpdateOptions options, @Nullable UpdateOneLambda lambda) {
+        reconciler.check(filter);
+        getDelegate().updateOneAsync(filter, updates, options, lambda);
+    }
+
+    @Override
+    public void replaceOneAsync(@NotNull Bson filter, @NotNull Document document, @Nullable ReplaceOptions options, @Nullable ReplaceOneLambda lambda) {
+        reconciler.check(filter);
+        getDelegate().replaceOneAsync(filter, document, options, lambda);
+    }
+
+    @Override
+    public void deleteOneAsync(@NotNull Bson filter, @Nullable DeleteOneLambda lambda) {
+        reconciler.check(filter);
+        getDelegate().deleteOneAsync(filter, lambda);
+    }
+
+    @Override
+    public void updateManyAsync(@NotNull Bson filter, @NotNull Bson updates, @Nullable UpdateOptions options, @Nullable UpdateManyLambda lambda) {
+        reconciler.check(filter);
+        getDelegate().updateManyAsync(filter, updates, options, lambda);
+    }
+
+    @Override
+    public void deleteManyAsync(@NotNull Bson filter, @Nullable DeleteManyLambda lambda) {
+        reconciler.check(filter);
+        getDelegate().deleteManyAsync(filter, lambda);
+    }
+
+}
@@ -0,0 +1,311 @@
+package com.meturum.centra.mongo;
+
+import com.mongodb.ErrorCategory;
+import com.mongodb.MongoClientSettings;
+import com.mongodb.MongoWriteException;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.ReplaceOptions;
+import com.mongodb.client.model.UpdateOptions;
+import org.bson.*;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.DocumentCodec;
+import org.bson.conversions.Bson;
+import org.bson.types.ObjectId;
+import org.jetbrains.annotations.NotNull;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A {@link CollectionWrapper} recording every {@code insertOneAsync}/{@code updateOneAsync}/{@code replaceOneAsync}/{@code deleteOneAsync}
+ * call in a {@link WriteJournal} before it is sent, and acknowledging it once the write was confirmed.
+ * <p>
+ * Writes that never completed (the server crashed, or Mongo was unreachable) stay in the journal and are sent again by {@link #replay()},
+ * call it when the plugin is enabled. Replays also start by themselves once a write succeeds again after a failure (e.g. Mongo reconnected).
+ * Writes rejected by the server (e.g. a validation error) are acknowledged, sending them again would not help.
+ * <p>
+ * Replays are idempotent for replacements, deletes, inserts (the {@code _id} is assigned before the insert is journaled, a duplicate key is ignored)
+ * and {@code $set}/{@code $unset} updates, i.e. every write made by {@link com.meturum.centra.conversions.IDynamicTag}.
+ * Other operators (e.g. {@code $inc}) may be applied twice if the server applied the write but its confirmation was lost.
+ * <p>
+ * Writes are replayed in the order they were made. Once a replacement or a delete is confirmed, the earlier unconfirmed writes to the same filter are
+ * acknowledged without being replayed, it overwrote them. A confirmed {@code $set}/{@code $unset} update stays in the journal while earlier writes to
+ * the same filter are unconfirmed, and is replayed after them, so the fields it changed are not overwritten by older values. Other confirmed updates
+ * (e.g. {@code $inc}) are not replayed again, an earlier write replayed after them may overwrite the fields they changed.
+ * <p>
+ * To combine with write-behind, the journal must wrap it, e.g. {@code new JournalingCollectionWrapper(new WriteBehindCollectionWrapper(collection), journal)}:
+ * writes are then journaled as soon as they are queued. Only the upsert flag and array filters of the options are journaled, bulk operations are not journaled.
+ */
+public final class JournalingCollectionWrapper extends ForwardingCollectionWrapper {
+
+    private static final Logger LOGGER = Logger.getLogger("Centra");
+    private static final String INSERT = "insert", UPDATE = "update", REPLACE = "replace", DELETE = "delete";
+
+    private final WriteJournal journal;
+
+    private final Set<Long> inFlight = ConcurrentHashMap.newKeySet(); // sent, not completed yet; replays skip them.
+    private final Map<BsonDocument, Long> confirmed = new ConcurrentHashMap<>(); // the last confirmed replacement or delete by filter, while entries are pending.
+    private final Set<Long> kept = ConcurrentHashMap.newKeySet(); // confirmed updates replayed after the earlier unconfirmed writes, see release.
+    private final AtomicBoolean failed = new AtomicBoolean();
+    private final AtomicBoolean replaying = new AtomicBoolean();
+
+    /**
+     * @param delegate the collection to write to.
+     * @param journal the journal of this collection, one journal must not be shared by several collections.
+     */
+    public JournalingCollectionWrapper(@NotNull final CollectionWrapper delegate, @NotNull final WriteJournal journal) {
+        super(delegate);
+
+        this.journal = journal;
+    }
+
+    /**
+     * @return the journal of this collection.
+     */
+    public @NotNull WriteJournal getJournal() {
+        return journal;
+    }
+
+    @Override
+    public void insertOneAsync(@NotNull Document document, @Nullable InsertOneLambda lambda) {
+        if (!document.containsKey("_id")) document.put("_id", new ObjectId()); // as the driver would, a replayed insert has the same _id.
+
+        final BsonDocument entry = new BsonDocument("op", new BsonString(INSERT)).append("document", toBsonDocument(document));
+        final long sequence = record(entry);
+
+        getDelegate().insertOneAsync(document, (result, exception) -> {
+            complete(sequence, entry, exception);
+            if (lambda != null) lambda.run(result, exception);
+        });
+    }
+
+    @Override
+    public void updateOneAsync(@NotNull Bson filter, @NotNull Bson updates, @Nullable UpdateOptions options, @Nullable UpdateOneLambda lambda) {
+        final BsonDocument entry = new BsonDocument("op", new BsonString(UPDATE))
+                .append("filter", toBsonDocument(filter))
+                .append("update", toBsonDocument(updates))
+                .append("upsert", BsonBoolean.valueOf(options != null && options.isUpsert()));
+
+        if (options != null && options.getArrayFilters() != null) {
+            final BsonArray arrayFilters = new BsonArray();
+            for (final Bson arrayFilter : options.getArrayFilters()) arrayFilters.add(toBsonDocument(arrayFilter));
+
+            entry.append("arrayFilters", arrayFilters);
+        }
+
+        final long sequence = record(entry);
+
+        getDelegate().updateOneAsync(filter, updates, options, (result, exception) -> {
+            complete(sequence, entry, exception);
+            if (lambda != null) lambda.run(result, exception);
+        });
+    }
+
+    @Override
+    public void replaceOneAsync(@NotNull Bson filter, @NotNull Document document, @Nullable ReplaceOptions options, @Nullable ReplaceOneLambda lambda) {
+        final BsonDocument entry = new BsonDocument("op", new BsonString(REPLACE))
+                .append("filter", toBsonDocument(filter))
+                .append("document", toBsonDocument(document))
+                .append("upsert", BsonBoolean.valueOf(options != null && options.isUpsert()));
+        final long sequence = record(entry);
+
+        getDelegate().replaceOneAsync(filter, document, options, (result, exception) -> {
+            complete(sequence, entry, exception);
+            if (lambda != null) lambda.run(result, exception);
+        });
+    }
+
+    @Override
+    public void deleteOneAsync(@NotNull Bson filter, @Nullable DeleteOneLambda lambda) {
+        final BsonDocument entry = new BsonDocument("op", new BsonString(DELETE)).append("filter", toBsonDocument(filter));
+        final long sequence = record(entry);
+
+        getDelegate().deleteOneAsync(filter, (result, exception) -> {
+            complete(sequence, entry, exception);
+            if (lambda != null) lambda.run(result, exception);
+        });
+    }
+
+    /**
+     * Sends again, in order, the journaled writes that were not confirmed. (thread-blocking)
+     * <p>
+     * Writes still in flight are skipped, with the confirmed updates following them. The replay stops at the first write that cannot be sent
+     * (e.g. Mongo is still unreachable).
+     *
+     * @return the number of writes replayed.
+     * @throws RuntimeException if a write could not be sent, the remaining writes stay in the journal.
+     */
+    public synchronized int replay() {
+        final MongoCollection<Document> collection = raw();
+        int replayed = 0;
+
+        final List<Map.Entry<Long, BsonDocument>> entries;
+        synchronized (journal) { // see record.
+            entries = List.copyOf(journal.getPending().entrySet());
+        }
+
+        final Set<BsonValue> skipped = new HashSet<>(); // the filters of the writes still in flight.
+
+        for (final Map.Entry<Long, BsonDocument> pending : entries) {
+            final long sequence = pending.getKey();
+            if (!journal.getPending().containsKey(sequence)) continue; // acknowledged meanwhile, e.g. superseded.
+
+            final BsonDocument entry = pending.getValue();
+            final BsonValue filter = entry.get("filter");
+
+            if (inFlight.contains(sequence) || (kept.contains(sequence) && skipped.contains(filter))) { // must follow the write in flight.
+                if (filter != null) skipped.add(filter);
+                continue;
+            }
+
+            try {
+                if (!isSuperseded(sequence, entry)) {
+                    apply(collection, entry);
+                    replayed++;
+                }
+            }catch (MongoWriteException exception) {
+                if (exception.getError().getCategory() != ErrorCategory.DUPLICATE_KEY || !INSERT.equals(entry.getString("op").getValue()))
+                    LOGGER.log(Level.WARNING, "A journaled write was rejected by the server, it is dropped.", exception);
+            }
+
+            acknowledge(sequence);
+        }
+
+        failed.set(false);
+        if (journal.getPendingCount() == 0) confirmed.clear();
+
+        return replayed;
+    }
+
+    /**
+     * Sends again the journaled writes that were not confirmed, see {@link #replay()}.
+     *
+     * @return a future completed with the number of writes replayed.
+     */
+    public @NotNull CompletableFuture<Integer> replayAsync() {
+        return CompletableFuture.supplyAsync(this::replay, getExecutor());
+    }
+
+    private long record(@NotNull final BsonDocument entry) {
+        try {
+            synchronized (journal) { // a replay must not see the entry before it is in flight.
+                final long sequence = journal.append(entry);
+                inFlight.add(sequence);
+
+                return sequence;
+            }
+        }catch (IOException exception) {
+            LOGGER.log(Level.WARNING, "Could not journal a write, it is sent without being journaled.", exception);
+            return -1;
+        }
+    }
+
+    private void complete(final long sequence, @NotNull final BsonDocument entry, @Nullable final Exception exception) {
+        if (sequence < 0) return;
+
+        inFlight.remove(sequence);
+
+        if (exception != null && !(exception instanceof MongoWriteException)) {
+            if (isSuperseded(sequence, entry)) acknowledge(sequence); // a later replacement or delete of the document was confirmed meanwhile.
+            else failed.set(true); // not confirmed, kept for the next replay.
+            return;
+        }
+
+        final BsonDocument filter = entry.containsKey("filter") ? entry.getDocument("filter") : null;
+
+        if (exception == null && filter != null && journal.getPendingCount() > 1) {
+            if (!UPDATE.equals(entry.getString("op").getValue())) supersede(sequence, filter);
+            else if (isIdempotent(entry.getDocument("update"))) kept.add(sequence);
+        }
+
+        if (!kept.contains(sequence)) acknowledge(sequence);
+        if (filter != null && !kept.isEmpty()) release(filter);
+
+        if (exception == null && failed.get() && replaying.compareAndSet(false, true)) { // Mongo is reachable again.
+            replayAsync().whenComplete((replayed, throwable) -> replaying.set(false));
+        }
+    }
+
+    private void acknowledge(final long sequence) {
+        try {
+            journal.acknowledge(sequence);
+            kept.remove(sequence);
+        }catch (IOException exception) {
+            LOGGER.log(Level.WARNING, "Could not acknowledge a journaled write, it will be sent again by the next replay.", exception);
+        }
+    }
+
+    /**
+     * Acknowledges the confirmed updates to a filter kept in the journal, once no earlier write to the filter is unconfirmed.
+     */
+    private void release(@NotNull final BsonDocument filter) {
+        for (final Map.Entry<Long, BsonDocument> pending : journal.getPending().entrySet()) {
+            if (!filter.equals(pending.getValue().get("filter"))) continue;
+            if (!kept.contains(pending.getKey())) return; // the writes after an unconfirmed one are replayed after it.
+
+            acknowledge(pending.getKey());
+        }
+    }
+
+    /**
+     * Acknowledges the unconfirmed writes to a filter made before a confirmed replacement or delete, it overwrote them.
+     */
+    private void supersede(final long sequence, @NotNull final BsonDocument filter) {
+        confirmed.merge(filter, sequence, Math::max);
+
+        for (final Map.Entry<Long, BsonDocument> pending : journal.getPending().headMap(sequence).entrySet()) {
+            if (!inFlight.contains(pending.getKey()) && isSuperseded(pending.getKey(), pending.getValue())) acknowledge(pending.getKey());
+        }
+    }
+
+    private boolean isSuperseded(final long sequence, @NotNull final BsonDocument entry) {
+        if (!entry.containsKey("filter")) return false; // an insert.
+
+        final Long last = confirmed.get(entry.getDocument("filter"));
+        return last != null && last > sequence;
+    }
+
+    /**
+     * @return true if sending the update again has no other effect, i.e. it only uses {@code $set} and {@code $unset}.
+     */
+    private static boolean isIdempotent(@NotNull final BsonDocument update) {
+        for (final String operator : update.keySet()) {
+            if (!operator.equals("$set") && !operator.equals("$unset")) return false;
+        }
+
+        return !update.isEmpty();
+    }
+
+    private static void apply(@NotNull final MongoCollection<Document> collection, @NotNull final BsonDocument entry) {
+        final String op = entry.getString("op").getValue();
+
+        switch (op) {
+            case INSERT -> collection.insertOne(toDocument(entry.getDocument("document")));
+            case UPDATE -> {
+                final UpdateOptions options = new UpdateOptions().upsert(entry.getBoolean("upsert").getValue());
+                if (entry.containsKey("arrayFilters")) options.arrayFilters(entry.getArray("arrayFilters").stream().map(value -> (Bson) value.asDocument()).toList());
+
+                collection.updateOne(entry.getDocument("filter"), entry.getDocument("update"), options);
+            }
+            case REPLACE -> collection.replaceOne(entry.getDocument("filter"), toDocument(entry.getDocument("document")),
+                    new ReplaceOptions().upsert(entry.getBoolean("upsert").getValue()));
+            case DELETE -> collection.deleteOne(entry.getDocument("filter"));
+            default -> throw new IllegalStateException("Unknown journaled operation: " + op + ".");
+        }
+    }
+
+    private static @NotNull Document toDocument(@NotNull final BsonDocument document) {
+        return new DocumentCodec().decode(new BsonDocumentReader(document), DecoderContext.builder().build());
+    }
+
+    private static @NotNull BsonDocument toBsonDocument(@NotNull final Bson bson) {
+        return bson.toBsonDocument(BsonDocument.class, MongoClientSettings.getDefaultCodecRegistry());
+    }
+
+}
@@ -0,0 +1,169 @@
+package com.meturum.centra.mongo;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A lock-free histogram of durations, in microseconds, with log-linear buckets (as HdrHistogram): every power of two is split in
+ * {@value #SUB_BUCKETS} buckets, percentiles are precise to about 3%.
+ * <p>
+ * Recording is a few atomic increments, it never allocates nor blocks. Durations above an hour are recorded as an hour.
+ */
+public final class LatencyHistogram {
+
+    /**
+     * The number of buckets per power of two.
+     */
+    public static final int SUB_BUCKETS = 32;
+
+    private static final int SUB_BITS = Integer.numberOfTrailingZeros(SUB_BUCKETS);
+    private static final long MAX_VALUE = TimeUnit.HOURS.toMicros(1);
+    private static final int BUCKETS = index(MAX_VALUE) + 1;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final LongAdder total = new LongAdder();
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * Records a duration.
+     *
+     * @param nanos the duration, in nanoseconds.
+     */
+    public void record(final long nanos) {
+        final long micros = Math.min(MAX_VALUE, Math.max(0, TimeUnit.NANOSECONDS.toMicros(nanos)));
+
+        counts.incrementAndGet(index(micros));
+        total.add(micros);
+        if (micros > max.get()) max.accumulateAndGet(micros, Math::max);
+    }
+
+    /**
+     * @return a copy of the recorded durations, the histogram keeps recording meanwhile.
+     */
+    public @NotNull Snapshot snapshot() {
+        final long[] copy = new long[BUCKETS];
+        long count = 0;
+
+        for (int i = 0; i < BUCKETS; i++) {
+            copy[i] = counts.get(i);
+            count += copy[i];
+        }
+
+        return new Snapshot(copy, count, total.sum(), max.get());
+    }
+
+    private static int index(final long value) {
+        if (value < SUB_BUCKETS) return (int) value;
+
+        final int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BITS;
+        return (shift + 1) * SUB_BUCKETS + (int) (value >>> shift) - SUB_BUCKETS;
+    }
+
+    /**
+     * @return the highest value recorded in the bucket.
+     */
+    private static long highest(final int index) {
+        if (index < SUB_BUCKETS) return index;
+
+        final int shift = index / SUB_BUCKETS - 1;
+        return ((long) (SUB_BUCKETS + index % SUB_BUCKETS + 1) << shift) - 1;
+    }
+
+    /**
+     * A copy of the durations recorded by a {@link LatencyHistogram}, in microseconds.
+     */
+    public static final class Snapshot {
+
+        private static final Snapshot EMPTY = new Snapshot(new long[BUCKETS], 0, 0, 0);
+
+        private final long[] counts;
+        private final long count;
+        private final long total;
+        private final long max;
+
+        private Snapshot(final long[] counts, final long count, final long total, final long max) {
+            this.counts = counts;
+            this.count = count;
+            this.total = total;
+            this.max = max;
+        }
+
+        /**
+         * @return an empty snapshot.
+         */
+        public static @NotNull Snapshot empty() {
+            return EMPTY;
+        }
+
+        /**
+         * Gets the durations recorded since a previous snapshot of the same histogram, e.g. for periodic exports.
+         *
+         * @param previous the previous snapshot.
+         * @return the difference, its maximum is the one of this snapshot (the maximum of the interval is not known).
+         */
+        public @NotNull Snapshot since(@NotNull final Snapshot previous) {
+            final long[] difference = new long[BUCKETS];
+            long count = 0;
+
+            for (int i = 0; i < BUCKETS; i++) {
+                difference[i] = Math.max(0, counts[i] - previous.counts[i]);
+                count += difference[i];
+            }
+
+            return new Snapshot(difference, count, Math.max(0, total - previous.total), count == 0 ? 0 : max);
+        }
+
+        /**
+         * @return the number of recorded durations.
+         */
+        public long getCount() {
+            return count;
+        }
+
+        /**
+         * @return the mean duration, in microseconds.
+         */
+        public double getMean() {
+            return count == 0 ? 0 : (double) total / count;
+        }
+
+        /**
+         * @return the longest duration, in microseconds.
+         */
+        public long getMax() {
+            return max;
+        }
+
+        /**
+         * Gets the duration under which the given percentage of the durations are.
+         *
+         * @param percentile the percentile, between 0 and 100 (e.g. 99.9).
+         * @return the duration, in microseconds, rounded up to its bucket.
+         */
+        public long getPercentile(final double percentile) {
+            if (count == 0) return 0;
+
+            final long rank = Math.max(1, (long) Math.ceil(Math.min(100, Math.max(0, percentile)) / 100 * count));
+            long seen = 0;
+
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= rank) return Math.min(highest(i), max);
+            }
+
+            return max;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("count=%d, mean=%.1fus, p50=%dus, p99=%dus, p999=%dus, max=%dus",
+                    count, getMean(), getPercentile(50), getPercentile(99), getPercentile(99.9), max);
+        }
+
+    }
+
+}
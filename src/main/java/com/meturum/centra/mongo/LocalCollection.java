@@ -0,0 +1,392 @@
+package com.meturum.centra.mongo;
+
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.MongoClientSettings;
+import com.mongodb.MongoNamespace;
+import com.mongodb.MongoWriteException;
+import com.mongodb.ServerAddress;
+import com.mongodb.WriteError;
+import com.mongodb.bulk.BulkWriteError;
+import com.mongodb.bulk.BulkWriteInsert;
+import com.mongodb.bulk.BulkWriteResult;
+import com.mongodb.bulk.BulkWriteUpsert;
+import com.mongodb.client.ClientSession;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.*;
+import com.mongodb.client.result.DeleteResult;
+import com.mongodb.client.result.InsertManyResult;
+import com.mongodb.client.result.InsertOneResult;
+import com.mongodb.client.result.UpdateResult;
+import org.bson.*;
+import org.bson.codecs.BsonDocumentCodec;
+import org.bson.codecs.Codec;
+import org.bson.codecs.CollectibleCodec;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.EncoderContext;
+import org.bson.codecs.configuration.CodecRegistry;
+import org.bson.conversions.Bson;
+import org.bson.types.ObjectId;
+import org.jetbrains.annotations.NotNull;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.*;
+
+/**
+ * A {@link MongoCollection} stored in a {@link LocalStore}, returned by {@link LocalCollectionWrapper#raw()}.
+ * <p>
+ * Only what Centra uses is implemented: {@code find}, {@code countDocuments}, {@code estimatedDocumentCount}, {@code insertOne}, {@code insertMany},
+ * {@code replaceOne}, {@code updateOne}, {@code updateMany}, {@code deleteOne}, {@code deleteMany} and {@code bulkWrite}, with the filters and updates of
+ * {@link LocalQuery}, and {@code withCodecRegistry} / {@code withDocumentClass} for typed collections. Filters selecting an {@code _id}, or a value of an
+ * indexed field ({@link LocalStore#getIndexedFields()}), read the indexes, any other filter scans the store. Any other method, and sessions,
+ * throw {@link UnsupportedOperationException}. Like Mongo, rejected writes throw a {@link MongoWriteException}, or a {@link MongoBulkWriteException}
+ * reporting every rejected write of {@code insertMany} and {@code bulkWrite}.
+ */
+final class LocalCollection implements InvocationHandler {
+
+    private static final ServerAddress ADDRESS = new ServerAddress("localhost");
+    private static final DecoderContext DECODER = DecoderContext.builder().build();
+    private static final EncoderContext ENCODER = EncoderContext.builder().isEncodingCollectibleDocument(true).build();
+    private static final int BAD_VALUE = 2, IMMUTABLE_FIELD = 66, DUPLICATE_KEY = 11000;
+
+    private final LocalStore store;
+    private final MongoNamespace namespace;
+    private final CodecRegistry registry;
+    private final Class<?> documentClass;
+
+    private LocalCollection(@NotNull final LocalStore store, @NotNull final MongoNamespace namespace, @NotNull final CodecRegistry registry, @NotNull final Class<?> documentClass) {
+        this.store = store;
+        this.namespace = namespace;
+        this.registry = registry;
+        this.documentClass = documentClass;
+    }
+
+    /**
+     * @param store the store of the documents.
+     * @param namespace the namespace of the collection.
+     * @return a collection of {@link Document}s stored in the store.
+     */
+    static @NotNull MongoCollection<Document> create(@NotNull final LocalStore store, @NotNull final MongoNamespace namespace) {
+        return proxy(new LocalCollection(store, namespace, MongoClientSettings.getDefaultCodecRegistry(), Document.class));
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> @NotNull MongoCollection<T> proxy(@NotNull final LocalCollection collection) {
+        return (MongoCollection<T>) Proxy.newProxyInstance(LocalCollection.class.getClassLoader(), new Class<?>[]{MongoCollection.class}, collection);
+    }
+
+    @Override
+    public Object invoke(final Object proxy, final Method method, final Object[] args) {
+        final Object[] arguments = args != null ? args : new Object[0];
+        if (arguments.length > 0 && arguments[0] instanceof ClientSession)
+            throw new UnsupportedOperationException("The local storage does not support sessions.");
+
+        switch (method.getName()) {
+            case "getNamespace" -> { return namespace; }
+            case "getDocumentClass" -> { return documentClass; }
+            case "getCodecRegistry" -> { return registry; }
+            case "withCodecRegistry" -> { return proxy(new LocalCollection(store, namespace, (CodecRegistry) arguments[0], documentClass)); }
+            case "withDocumentClass" -> { return proxy(new LocalCollection(store, namespace, registry, (Class<?>) arguments[0])); }
+            case "withReadPreference", "withWriteConcern", "withReadConcern" -> { return proxy; }
+            case "find" -> {
+                Bson filter = null;
+                Class<?> resultClass = documentClass;
+
+                for (final Object argument : arguments) {
+                    if (argument instanceof Bson bson) filter = bson;
+                    else if (argument instanceof Class<?> type) resultClass = type;
+                }
+
+                return new LocalFindIterable<>(this, filter != null ? toBsonDocument(filter) : new BsonDocument(), resultClass);
+            }
+            case "countDocuments" -> { return count(arguments.length > 0 ? (Bson) arguments[0] : null, arguments.length > 1 ? (CountOptions) arguments[1] : null); }
+            case "estimatedDocumentCount" -> { return (long) store.size(); }
+            case "insertOne" -> { return InsertOneResult.acknowledged(insert(arguments[0])); }
+            case "insertMany" -> { return insertMany((List<?>) arguments[0], arguments.length < 2 || ((InsertManyOptions) arguments[1]).isOrdered()); }
+            case "replaceOne" -> { return replace((Bson) arguments[0], arguments[1], arguments.length > 2 && ((ReplaceOptions) arguments[2]).isUpsert()); }
+            case "updateOne", "updateMany" -> {
+                if (!(arguments[1] instanceof Bson update)) throw new UnsupportedOperationException("The local storage does not support update pipelines.");
+                return update((Bson) arguments[0], update, arguments.length > 2 && ((UpdateOptions) arguments[2]).isUpsert(), method.getName().equals("updateMany"));
+            }
+            case "deleteOne", "deleteMany" -> { return delete((Bson) arguments[0], method.getName().equals("deleteMany")); }
+            case "bulkWrite" -> { return bulkWrite((List<?>) arguments[0], arguments.length < 2 || ((BulkWriteOptions) arguments[1]).isOrdered()); }
+            case "hashCode" -> { return java.lang.System.identityHashCode(proxy); }
+            case "equals" -> { return proxy == arguments[0]; }
+            case "toString" -> { return "LocalCollection[" + namespace + "]"; }
+            default -> throw new UnsupportedOperationException("The local storage does not support " + method.getName() + ".");
+        }
+    }
+
+    /**
+     * Selects the documents matching a filter, by {@code _id} from the index when the filter selects some, by the secondary indexes of the store when
+     * the filter requires an indexed field to equal a value, otherwise by scanning the store.
+     *
+     * @param filter the filter.
+     * @return the matching documents, which may be modified.
+     */
+    @NotNull List<BsonDocument> select(@NotNull final BsonDocument filter) {
+        final List<BsonDocument> selected = new ArrayList<>();
+
+        final BsonValue id = LocalQuery.getId(filter);
+        final BsonValue in = filter.isDocument("_id") ? filter.getDocument("_id").get("$in") : null;
+
+        Collection<BsonValue> candidates = id != null ? List.of(id) : in != null && in.isArray() ? new LinkedHashSet<>(in.asArray()) : null;
+        for (final String field : store.getIndexedFields()) {
+            if (candidates != null) break;
+
+            final BsonValue value = LocalQuery.getEquality(filter, field);
+            if (value != null) candidates = store.lookup(field, value);
+        }
+
+        if (candidates != null) {
+            for (final BsonValue candidate : candidates) {
+                final RawBsonDocument document = store.get(candidate);
+                if (document != null && LocalQuery.matches(document, filter)) selected.add(decode(document));
+            }
+
+            return selected;
+        }
+
+        store.forEach(document -> {
+            if (LocalQuery.matches(document, filter)) selected.add(decode(document));
+        });
+
+        return selected;
+    }
+
+    @NotNull BsonDocument toBsonDocument(@NotNull final Bson bson) {
+        return bson.toBsonDocument(documentClass, registry);
+    }
+
+    <T> @NotNull T decode(@NotNull final BsonDocument document, @NotNull final Class<T> type) {
+        if (type == BsonDocument.class) return type.cast(document);
+        return registry.get(type).decode(new BsonDocumentReader(document), DECODER);
+    }
+
+    private long count(@Nullable final Bson filter, @Nullable final CountOptions options) {
+        long count = select(filter != null ? toBsonDocument(filter) : new BsonDocument()).size();
+        if (options == null) return count;
+
+        count = Math.max(0, count - options.getSkip());
+        return options.getLimit() > 0 ? Math.min(count, options.getLimit()) : count;
+    }
+
+    private @NotNull BsonValue insert(@NotNull final Object value) {
+        final BsonDocument document = encode(value);
+
+        synchronized (store) {
+            final BsonValue id = document.get("_id");
+            if (store.contains(id)) throw duplicate(id);
+
+            write(document);
+            return id;
+        }
+    }
+
+    private @NotNull InsertManyResult insertMany(@NotNull final List<?> values, final boolean ordered) {
+        final List<InsertOneModel<?>> models = new ArrayList<>(values.size());
+        for (final Object value : values) models.add(new InsertOneModel<>(value));
+
+        final Map<Integer, BsonValue> ids = new LinkedHashMap<>();
+        for (final BulkWriteInsert insert : bulkWrite(models, ordered).getInserts()) ids.put(insert.getIndex(), insert.getId());
+
+        return InsertManyResult.acknowledged(ids);
+    }
+
+    private @NotNull UpdateResult replace(@NotNull final Bson filter, @NotNull final Object value, final boolean upsert) {
+        final BsonDocument query = toBsonDocument(filter);
+        final BsonDocument replacement = encode(value, false);
+
+        synchronized (store) {
+            final List<BsonDocument> matches = select(query);
+            if (matches.isEmpty()) {
+                if (!upsert) return UpdateResult.acknowledged(0, 0L, null);
+
+                final BsonValue seed = LocalQuery.seed(query).get("_id");
+                final BsonDocument document = withId(replacement, replacement.containsKey("_id") ? replacement.get("_id") : seed != null ? seed : new BsonObjectId(new ObjectId()));
+                if (store.contains(document.get("_id"))) throw duplicate(document.get("_id"));
+
+                write(document);
+                return UpdateResult.acknowledged(0, 0L, document.get("_id"));
+            }
+
+            final BsonDocument current = matches.get(0);
+            final BsonValue id = current.get("_id");
+            if (replacement.containsKey("_id") && !replacement.get("_id").equals(id))
+                throw rejected(IMMUTABLE_FIELD, "After applying the update, the (immutable) field '_id' was found to have been altered to _id: " + replacement.get("_id"));
+
+            final BsonDocument document = withId(replacement, id);
+            if (document.equals(current)) return UpdateResult.acknowledged(1, 0L, null);
+
+            write(document);
+            return UpdateResult.acknowledged(1, 1L, null);
+        }
+    }
+
+    private @NotNull UpdateResult update(@NotNull final Bson filter, @NotNull final Bson updates, final boolean upsert, final boolean many) {
+        final BsonDocument query = toBsonDocument(filter);
+        final BsonDocument update = toBsonDocument(updates);
+
+        synchronized (store) {
+            final List<BsonDocument> matches = select(query);
+            if (matches.isEmpty()) {
+                if (!upsert) return UpdateResult.acknowledged(0, 0L, null);
+
+                BsonDocument document = LocalQuery.seed(query);
+                apply(document, update, true);
+                if (!document.containsKey("_id")) document = withId(document, new BsonObjectId(new ObjectId()));
+                if (store.contains(document.get("_id"))) throw duplicate(document.get("_id"));
+
+                write(document);
+                return UpdateResult.acknowledged(0, 0L, document.get("_id"));
+            }
+
+            long modified = 0;
+            for (final BsonDocument document : many ? matches : matches.subList(0, 1)) {
+                final BsonDocument previous = document.clone();
+                apply(document, update, false);
+
+                if (document.equals(previous)) continue; // nothing to write.
+
+                write(document);
+                modified++;
+            }
+
+            return UpdateResult.acknowledged(many ? matches.size() : 1, modified, null);
+        }
+    }
+
+    private @NotNull DeleteResult delete(@NotNull final Bson filter, final boolean many) {
+        final BsonDocument query = toBsonDocument(filter);
+
+        synchronized (store) {
+            final List<BsonDocument> matches = select(query);
+
+            long deleted = 0;
+            for (final BsonDocument document : many ? matches : matches.subList(0, Math.min(1, matches.size()))) {
+                try {
+                    if (store.delete(document.get("_id"))) deleted++;
+                }catch (IOException exception) {
+                    throw new UncheckedIOException(exception);
+                }
+            }
+
+            return DeleteResult.acknowledged(deleted);
+        }
+    }
+
+    private @NotNull BulkWriteResult bulkWrite(@NotNull final List<?> models, final boolean ordered) {
+        int inserted = 0, matched = 0, deleted = 0, modified = 0;
+        final List<BulkWriteInsert> inserts = new ArrayList<>();
+        final List<BulkWriteUpsert> upserts = new ArrayList<>();
+        final List<BulkWriteError> errors = new ArrayList<>();
+
+        for (int i = 0; i < models.size(); i++) {
+            final Object model = models.get(i);
+
+            try {
+                UpdateResult result = null;
+
+                if (model instanceof InsertOneModel<?> insert) {
+                    inserts.add(new BulkWriteInsert(i, insert(insert.getDocument())));
+                    inserted++;
+                } else if (model instanceof ReplaceOneModel<?> replace) {
+                    result = replace(replace.getFilter(), replace.getReplacement(), replace.getReplaceOptions().isUpsert());
+                } else if (model instanceof UpdateOneModel<?> update && update.getUpdate() != null) {
+                    result = update(update.getFilter(), update.getUpdate(), update.getOptions().isUpsert(), false);
+                } else if (model instanceof UpdateManyModel<?> update && update.getUpdate() != null) {
+                    result = update(update.getFilter(), update.getUpdate(), update.getOptions().isUpsert(), true);
+                } else if (model instanceof DeleteOneModel<?> delete) {
+                    deleted += delete(delete.getFilter(), false).getDeletedCount();
+                } else if (model instanceof DeleteManyModel<?> delete) {
+                    deleted += delete(delete.getFilter(), true).getDeletedCount();
+                } else {
+                    throw new UnsupportedOperationException("The local storage does not support " + model.getClass().getSimpleName() + ".");
+                }
+
+                if (result != null) {
+                    matched += (int) result.getMatchedCount();
+                    modified += (int) result.getModifiedCount();
+                    if (result.getUpsertedId() != null) upserts.add(new BulkWriteUpsert(i, result.getUpsertedId()));
+                }
+            }catch (MongoWriteException exception) {
+                final WriteError error = exception.getError();
+                errors.add(new BulkWriteError(error.getCode(), error.getMessage(), error.getDetails(), i));
+
+                if (ordered) break;
+            }
+        }
+
+        final BulkWriteResult result = BulkWriteResult.acknowledged(inserted, matched, deleted, modified, upserts, inserts);
+        if (!errors.isEmpty()) throw new MongoBulkWriteException(result, errors, null, ADDRESS, Collections.emptySet());
+
+        return result;
+    }
+
+    private void write(@NotNull final BsonDocument document) {
+        try {
+            store.put(document);
+        }catch (IOException exception) {
+            throw new UncheckedIOException(exception);
+        }
+    }
+
+    private @NotNull BsonDocument encode(@NotNull final Object value) {
+        final BsonDocument document = encode(value, true);
+        return document.containsKey("_id") ? document : withId(document, new BsonObjectId(new ObjectId()));
+    }
+
+    /**
+     * @param generateId whether the {@code _id} of a document missing one is generated by its codec, e.g. set on a {@link Document} like the driver does.
+     */
+    @SuppressWarnings("unchecked")
+    private @NotNull BsonDocument encode(@NotNull Object value, final boolean generateId) {
+        final Codec<Object> codec = (Codec<Object>) registry.get(value.getClass());
+        if (generateId && codec instanceof CollectibleCodec<Object> collectible) value = collectible.generateIdIfAbsentFromDocument(value);
+
+        final BsonDocument document = new BsonDocument();
+        codec.encode(new BsonDocumentWriter(document), value, ENCODER);
+
+        return document;
+    }
+
+    private static @NotNull BsonDocument decode(@NotNull final RawBsonDocument document) {
+        return document.decode(new BsonDocumentCodec());
+    }
+
+    /**
+     * @return a copy of the document with the {@code _id} first, like Mongo stores it.
+     */
+    private static @NotNull BsonDocument withId(@NotNull final BsonDocument document, @NotNull final BsonValue id) {
+        final BsonDocument copy = new BsonDocument("_id", id);
+        document.forEach((key, value) -> {
+            if (!key.equals("_id")) copy.put(key, value);
+        });
+
+        return copy;
+    }
+
+    /**
+     * Applies update operators, rejecting the invalid ones (e.g. {@code $inc} of a string) like Mongo.
+     */
+    private static void apply(@NotNull final BsonDocument document, @NotNull final BsonDocument update, final boolean insert) {
+        try {
+            LocalQuery.apply(document, update, insert);
+        }catch (IllegalArgumentException exception) {
+            throw rejected(BAD_VALUE, exception.getMessage());
+        }
+    }
+
+    private @NotNull MongoWriteException duplicate(@NotNull final BsonValue id) {
+        return rejected(DUPLICATE_KEY, "E11000 duplicate key error collection: " + namespace + " index: _id_ dup key: { _id: " + id + " }");
+    }
+
+    private static @NotNull MongoWriteException rejected(final int code, @NotNull final String message) {
+        return new MongoWriteException(new WriteError(code, message, new BsonDocument()), ADDRESS);
+    }
+
+}
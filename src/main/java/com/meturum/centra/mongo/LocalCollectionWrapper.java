@@ -0,0 +1,191 @@
+package com.meturum.centra.mongo;
+
+import com.mongodb.MongoNamespace;
+import com.mongodb.client.FindIterable;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.ReplaceOptions;
+import com.mongodb.client.model.UpdateOptions;
+import com.mongodb.client.result.DeleteResult;
+import com.mongodb.client.result.InsertOneResult;
+import com.mongodb.client.result.UpdateResult;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.jetbrains.annotations.NotNull;
+
+import javax.annotation.Nullable;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.BiConsumer;
+
+/**
+ * A {@link CollectionWrapper} stored on local disk by a {@link LocalStore}, instead of Mongo, see {@link LocalStorage}.
+ * <p>
+ * The store answers in microseconds, the callback operations therefore run on the calling thread, in call order, and their lambda is called on
+ * {@link #getExecutor()} like the lambdas of Mongo: a lambda never runs while the caller still holds its locks, e.g. on the main thread.
+ * Bulk and {@link #async()} operations run on the executor too.
+ * Queries are limited to the filters and updates of {@link LocalQuery}, filters on {@code _id} or an indexed field ({@link LocalStore#getIndexedFields()})
+ * read the indexes, any other filter scans the collection.
+ */
+public final class LocalCollectionWrapper implements CollectionWrapper {
+
+    private final LocalStore store;
+    private final MongoCollection<Document> collection;
+    private final @Nullable Mongo.MongoClientTypes type;
+
+    /**
+     * @param store the store of the documents.
+     * @param namespace the namespace of the collection.
+     * @param type the type of the client the collection replaces, or null if none.
+     */
+    public LocalCollectionWrapper(@NotNull final LocalStore store, @NotNull final MongoNamespace namespace, @Nullable final Mongo.MongoClientTypes type) {
+        this.store = store;
+        this.collection = LocalCollection.create(store, namespace);
+        this.type = type;
+    }
+
+    /**
+     * @return the store of the documents.
+     */
+    public @NotNull LocalStore getStore() {
+        return store;
+    }
+
+    @Override
+    public void findAsync(@Nullable Bson filter, @NotNull FindLambda lambda) {
+        FindIterable<Document> result = null;
+        Exception exception = null;
+        try {
+            result = filter != null ? collection.find(filter) : collection.find();
+        }catch (Exception e) {
+            exception = e;
+        }
+
+        dispatch(lambda::run, result, exception);
+    }
+
+    @Override
+    public void findAsync(@NotNull FindLambda lambda) {
+        findAsync(null, lambda);
+    }
+
+    @Override
+    public void insertOneAsync(@NotNull Document document, @Nullable InsertOneLambda lambda) {
+        InsertOneResult result = null;
+        Exception exception = null;
+        try {
+            result = collection.insertOne(document);
+        }catch (Exception e) {
+            exception = e;
+        }
+
+        if (lambda != null) dispatch(lambda::run, result, exception);
+    }
+
+    @Override
+    public void insertOneAsync(@NotNull Document document) {
+        insertOneAsync(document, null);
+    }
+
+    @Override
+    public void updateOneAsync(@NotNull Bson filter, @NotNull Bson updates, @Nullable UpdateOptions options, @Nullable UpdateOneLambda lambda) {
+        UpdateResult result = null;
+        Exception exception = null;
+        try {
+            result = collection.updateOne(filter, updates, options != null ? options : new UpdateOptions());
+        }catch (Exception e) {
+            exception = e;
+        }
+
+        if (lambda != null) dispatch(lambda::run, result, exception);
+    }
+
+    @Override
+    public void updateOneAsync(@NotNull Bson filter, @NotNull Bson updates, @Nullable UpdateOneLambda lambda) {
+        updateOneAsync(filter, updates, null, lambda);
+    }
+
+    @Override
+    public void updateOneAsync(@NotNull Bson filter, @NotNull Bson updates, @Nullable UpdateOptions options) {
+        updateOneAsync(filter, updates, options, null);
+    }
+
+    @Override
+    public void updateOneAsync(@NotNull Bson filter, @NotNull Bson updates) {
+        updateOneAsync(filter, updates, null, null);
+    }
+
+    @Override
+    public void replaceOneAsync(@NotNull Bson filter, @NotNull Document document, @Nullable ReplaceOptions options, @Nullable ReplaceOneLambda lambda) {
+        UpdateResult result = null;
+        Exception exception = null;
+        try {
+            result = collection.replaceOne(filter, document, options != null ? options : new ReplaceOptions());
+        }catch (Exception e) {
+            exception = e;
+        }
+
+        if (lambda != null) dispatch(lambda::run, result, exception);
+    }
+
+    @Override
+    public void replaceOneAsync(@NotNull Bson filter, @NotNull Document document, @Nullable ReplaceOneLambda lambda) {
+        replaceOneAsync(filter, document, null, lambda);
+    }
+
+    @Override
+    public void replaceOneAsync(@NotNull Bson filter, @NotNull Document document, @Nullable ReplaceOptions options) {
+        replaceOneAsync(filter, document, options, null);
+    }
+
+    @Override
+    public void replaceOneAsync(@NotNull Bson filter, @NotNull Document document) {
+        replaceOneAsync(filter, document, null, null);
+    }
+
+    @Override
+    public void deleteOneAsync(@NotNull Bson filter, @Nullable DeleteOneLambda lambda) {
+        DeleteResult result = null;
+        Exception exception = null;
+        try {
+            result = collection.deleteOne(filter);
+        }catch (Exception e) {
+            exception = e;
+        }
+
+        if (lambda != null) dispatch(lambda::run, result, exception);
+    }
+
+    @Override
+    public void deleteOneAsync(@NotNull Bson filter) {
+        deleteOneAsync(filter, null);
+    }
+
+    /**
+     * Calls the lambda of an operation on the executor, or on the calling thread if the executor rejects it: the operation was applied.
+     */
+    private <R> void dispatch(@NotNull final BiConsumer<R, Exception> lambda, @Nullable final R result, @Nullable final Exception exception) {
+        try {
+            getExecutor().execute(() -> lambda.accept(result, exception));
+        }catch (RejectedExecutionException rejected) {
+            lambda.accept(result, exception);
+        }
+    }
+
+    @Override
+    public @NotNull MongoCollection<Document> raw() {
+        return collection;
+    }
+
+    @Override
+    public @Nullable Mongo.MongoClientTypes getType() {
+        return type;
+    }
+
+    /**
+     * @return null, the local storage never becomes unreachable.
+     */
+    @Override
+    public @Nullable CircuitBreaker getCircuitBreaker() {
+        return null;
+    }
+
+}
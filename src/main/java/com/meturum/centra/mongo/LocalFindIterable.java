@@ -0,0 +1,246 @@
+package com.meturum.centra.mongo;
+
+import com.mongodb.CursorType;
+import com.mongodb.ExplainVerbosity;
+import com.mongodb.Function;
+import com.mongodb.client.FindIterable;
+import com.mongodb.client.MongoCursor;
+import com.mongodb.client.MongoIterable;
+import com.mongodb.client.model.Collation;
+import org.bson.BsonDocument;
+import org.bson.BsonValue;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.jetbrains.annotations.NotNull;
+
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A {@link FindIterable} of a {@link LocalCollection}, the query runs each time the iterable is iterated.
+ * <p>
+ * {@code filter}, {@code projection}, {@code sort}, {@code skip} and {@code limit} are applied, options not changing the results (e.g. {@code batchSize},
+ * {@code hint}) are ignored, the others (e.g. {@code collation}, {@code min}) throw {@link UnsupportedOperationException}.
+ */
+final class LocalFindIterable<T> implements FindIterable<T> {
+
+    private final LocalCollection collection;
+    private final Class<T> type;
+
+    private BsonDocument filter;
+    private @Nullable BsonDocument projection;
+    private @Nullable BsonDocument sort;
+    private int skip;
+    private int limit;
+
+    /**
+     * @param collection the collection to query.
+     * @param filter the filter of the query.
+     * @param type the class of the results.
+     */
+    LocalFindIterable(@NotNull final LocalCollection collection, @NotNull final BsonDocument filter, @NotNull final Class<T> type) {
+        this.collection = collection;
+        this.filter = filter;
+        this.type = type;
+    }
+
+    @Override
+    public @NotNull MongoCursor<T> iterator() {
+        return results(limit).iterator();
+    }
+
+    @Override
+    public @NotNull MongoCursor<T> cursor() {
+        return iterator();
+    }
+
+    @Override
+    public @Nullable T first() {
+        return results(limit == 0 ? 1 : Math.min(Math.abs(limit), 1)).first();
+    }
+
+    @Override
+    public <U> @NotNull MongoIterable<U> map(@NotNull final Function<T, U> mapper) {
+        return results(limit).map(mapper);
+    }
+
+    @Override
+    public <A extends Collection<? super T>> @NotNull A into(@NotNull final A target) {
+        return results(limit).into(target);
+    }
+
+    @Override
+    public @NotNull FindIterable<T> filter(@Nullable final Bson filter) {
+        this.filter = filter != null ? collection.toBsonDocument(filter) : new BsonDocument();
+        return this;
+    }
+
+    @Override
+    public @NotNull FindIterable<T> limit(final int limit) {
+        this.limit = limit;
+        return this;
+    }
+
+    @Override
+    public @NotNull FindIterable<T> skip(final int skip) {
+        this.skip = skip;
+        return this;
+    }
+
+    @Override
+    public @NotNull FindIterable<T> projection(@Nullable final Bson projection) {
+        this.projection = projection != null ? collection.toBsonDocument(projection) : null;
+        return this;
+    }
+
+    @Override
+    public @NotNull FindIterable<T> sort(@Nullable final Bson sort) {
+        this.sort = sort != null ? collection.toBsonDocument(sort) : null;
+        return this;
+    }
+
+    @Override
+    public @NotNull FindIterable<T> batchSize(final int batchSize) {
+        return this;
+    }
+
+    @Override
+    public @NotNull FindIterable<T> maxTime(final long maxTime, @NotNull final TimeUnit timeUnit) {
+        return this;
+    }
+
+    @Override
+    public @NotNull FindIterable<T> maxAwaitTime(final long maxAwaitTime, @NotNull final TimeUnit timeUnit) {
+        return this;
+    }
+
+    @Override
+    public @NotNull FindIterable<T> noCursorTimeout(final boolean noCursorTimeout) {
+        return this;
+    }
+
+    @Override
+    public @NotNull FindIterable<T> comment(@Nullable final String comment) {
+        return this;
+    }
+
+    @Override
+    public @NotNull FindIterable<T> comment(@Nullable final BsonValue comment) {
+        return this;
+    }
+
+    @Override
+    public @NotNull FindIterable<T> hint(@Nullable final Bson hint) {
+        return this;
+    }
+
+    @Override
+    public @NotNull FindIterable<T> hintString(@Nullable final String hint) {
+        return this;
+    }
+
+    @Override
+    public @NotNull FindIterable<T> allowDiskUse(@Nullable final Boolean allowDiskUse) {
+        return this;
+    }
+
+    @Override
+    @Deprecated
+    public @NotNull FindIterable<T> oplogReplay(final boolean oplogReplay) {
+        return this;
+    }
+
+    @Override
+    public @NotNull FindIterable<T> partial(final boolean partial) {
+        return this;
+    }
+
+    @Override
+    public @NotNull FindIterable<T> cursorType(@NotNull final CursorType cursorType) {
+        if (cursorType != CursorType.NonTailable) throw unsupported("tailable cursors");
+        return this;
+    }
+
+    @Override
+    public @NotNull FindIterable<T> collation(@Nullable final Collation collation) {
+        if (collation != null) throw unsupported("collations");
+        return this;
+    }
+
+    @Override
+    public @NotNull FindIterable<T> let(@Nullable final Bson variables) {
+        if (variables != null) throw unsupported("variables");
+        return this;
+    }
+
+    @Override
+    public @NotNull FindIterable<T> max(@Nullable final Bson max) {
+        if (max != null) throw unsupported("max");
+        return this;
+    }
+
+    @Override
+    public @NotNull FindIterable<T> min(@Nullable final Bson min) {
+        if (min != null) throw unsupported("min");
+        return this;
+    }
+
+    @Override
+    public @NotNull FindIterable<T> returnKey(final boolean returnKey) {
+        if (returnKey) throw unsupported("returnKey");
+        return this;
+    }
+
+    @Override
+    public @NotNull FindIterable<T> showRecordId(final boolean showRecordId) {
+        if (showRecordId) throw unsupported("showRecordId");
+        return this;
+    }
+
+    @Override
+    public @NotNull Document explain() {
+        throw unsupported("explain");
+    }
+
+    @Override
+    public @NotNull Document explain(@NotNull final ExplainVerbosity verbosity) {
+        throw unsupported("explain");
+    }
+
+    @Override
+    public <E> @NotNull E explain(@NotNull final Class<E> type) {
+        throw unsupported("explain");
+    }
+
+    @Override
+    public <E> @NotNull E explain(@NotNull final Class<E> type, @NotNull final ExplainVerbosity verbosity) {
+        throw unsupported("explain");
+    }
+
+    /**
+     * Runs the query.
+     *
+     * @param limit the maximum number of results, 0 for no limit. Like Mongo, a negative limit is its absolute value.
+     */
+    private @NotNull CachedFindIterable<T> results(final int limit) {
+        final List<BsonDocument> documents = collection.select(filter);
+        if (sort != null) documents.sort(LocalQuery.comparator(sort));
+
+        final int from = Math.min(skip, documents.size());
+        final int to = limit != 0 ? (int) Math.min(documents.size(), (long) from + Math.abs((long) limit)) : documents.size();
+
+        final List<T> results = new ArrayList<>(to - from);
+        for (final BsonDocument document : documents.subList(from, to))
+            results.add(collection.decode(projection != null ? LocalQuery.project(document, projection) : document, type));
+
+        return new CachedFindIterable<>(results, null);
+    }
+
+    private static @NotNull UnsupportedOperationException unsupported(@NotNull final String feature) {
+        return new UnsupportedOperationException("The local storage does not support " + feature + ".");
+    }
+
+}
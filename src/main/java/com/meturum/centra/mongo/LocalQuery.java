@@ -0,0 +1,395 @@
+package com.meturum.centra.mongo;
+
+import org.bson.*;
+import org.bson.types.Decimal128;
+import org.jetbrains.annotations.NotNull;
+
+import javax.annotation.Nullable;
+import java.math.BigDecimal;
+import java.util.*;
+import java.util.function.IntPredicate;
+
+/**
+ * The query language of {@link LocalCollection}, a subset of the one of Mongo evaluated on {@link BsonDocument}s.
+ * <p>
+ * Filters support equality, {@code $eq}, {@code $ne}, {@code $gt}, {@code $gte}, {@code $lt}, {@code $lte}, {@code $in}, {@code $nin}, {@code $exists},
+ * {@code $and}, {@code $or} and {@code $nor} on dotted paths, an array field matches if one of its elements does. Updates support {@code $set},
+ * {@code $unset}, {@code $inc} and {@code $setOnInsert}. Anything else throws an {@link UnsupportedOperationException}.
+ */
+final class LocalQuery {
+
+    private LocalQuery() { }
+
+    /**
+     * @param document the document.
+     * @param filter the filter.
+     * @return true if the document matches the filter.
+     */
+    static boolean matches(@NotNull final BsonDocument document, @NotNull final BsonDocument filter) {
+        for (final Map.Entry<String, BsonValue> entry : filter.entrySet()) {
+            final String key = entry.getKey();
+
+            switch (key) {
+                case "$and" -> {
+                    for (final BsonValue clause : entry.getValue().asArray()) {
+                        if (!matches(document, clause.asDocument())) return false;
+                    }
+                }
+                case "$or", "$nor" -> {
+                    boolean any = false;
+                    for (final BsonValue clause : entry.getValue().asArray()) {
+                        if (matches(document, clause.asDocument())) {
+                            any = true;
+                            break;
+                        }
+                    }
+
+                    if (any != key.equals("$or")) return false;
+                }
+                default -> {
+                    if (key.startsWith("$")) throw new UnsupportedOperationException("The local storage does not support " + key + ".");
+                    if (!matchesField(resolve(document, key), entry.getValue())) return false;
+                }
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Gets the {@code _id} selected by a filter, if it selects a single one by equality.
+     *
+     * @param filter the filter.
+     * @return the {@code _id}, or null if the filter does not select one.
+     */
+    static @Nullable BsonValue getId(@NotNull final BsonDocument filter) {
+        return getEquality(filter, "_id");
+    }
+
+    /**
+     * Gets the value a filter requires a top-level field to equal, directly or in one of its {@code $and} clauses.
+     *
+     * @param filter the filter.
+     * @param field the field.
+     * @return the value, or null if the filter does not require one.
+     */
+    static @Nullable BsonValue getEquality(@NotNull final BsonDocument filter, @NotNull final String field) {
+        final BsonValue value = filter.get(field);
+        if (value != null) {
+            if (!value.isDocument() || value.asDocument().isEmpty()) return value;
+            if (value.asDocument().size() == 1 && value.asDocument().containsKey("$eq")) return value.asDocument().get("$eq");
+
+            return value.asDocument().getFirstKey().startsWith("$") ? null : value; // an embedded document.
+        }
+
+        final BsonValue clauses = filter.get("$and");
+        if (clauses == null || !clauses.isArray()) return null;
+
+        for (final BsonValue clause : clauses.asArray()) {
+            final BsonValue equality = clause.isDocument() ? getEquality(clause.asDocument(), field) : null;
+            if (equality != null) return equality;
+        }
+
+        return null;
+    }
+
+    /**
+     * Applies update operators to a document.
+     *
+     * @param document the document, modified in place.
+     * @param update the update operators.
+     * @param insert whether the document is being upserted, applying {@code $setOnInsert}.
+     */
+    static void apply(@NotNull final BsonDocument document, @NotNull final BsonDocument update, final boolean insert) {
+        final BsonValue id = document.get("_id");
+
+        for (final Map.Entry<String, BsonValue> operator : update.entrySet()) {
+            final BsonDocument fields = operator.getValue().asDocument();
+
+            switch (operator.getKey()) {
+                case "$set" -> fields.forEach((path, value) -> set(document, path, value));
+                case "$setOnInsert" -> {
+                    if (insert) fields.forEach((path, value) -> set(document, path, value));
+                }
+                case "$unset" -> fields.keySet().forEach(path -> unset(document, path));
+                case "$inc" -> fields.forEach((path, increment) -> set(document, path, increment(resolve(document, path), increment)));
+                default -> throw new UnsupportedOperationException("The local storage does not support " + operator.getKey() + ".");
+            }
+        }
+
+        if (id != null && !id.equals(document.get("_id"))) throw new IllegalArgumentException("The _id of a document cannot be modified.");
+    }
+
+    /**
+     * Creates the document upserted by a filter, from its equalities.
+     *
+     * @param filter the filter.
+     * @return the new document.
+     */
+    static @NotNull BsonDocument seed(@NotNull final BsonDocument filter) {
+        final BsonDocument document = new BsonDocument();
+
+        for (final Map.Entry<String, BsonValue> entry : filter.entrySet()) {
+            if (entry.getKey().equals("$and")) {
+                for (final BsonValue clause : entry.getValue().asArray()) seed(clause.asDocument()).forEach((path, value) -> set(document, path, value));
+            } else if (!entry.getKey().startsWith("$")) {
+                final BsonValue value = entry.getValue();
+
+                if (!isOperators(value)) set(document, entry.getKey(), value);
+                else if (value.asDocument().containsKey("$eq")) set(document, entry.getKey(), value.asDocument().get("$eq"));
+            }
+        }
+
+        return document;
+    }
+
+    /**
+     * Applies a projection to a document.
+     *
+     * @param document the document.
+     * @param projection the projection, including or excluding fields.
+     * @return the projected document.
+     */
+    static @NotNull BsonDocument project(@NotNull final BsonDocument document, @NotNull final BsonDocument projection) {
+        boolean inclusion = false;
+        for (final Map.Entry<String, BsonValue> entry : projection.entrySet()) {
+            if (!entry.getKey().equals("_id") && isTrue(entry.getValue())) inclusion = true;
+        }
+
+        final boolean id = !projection.containsKey("_id") || isTrue(projection.get("_id"));
+
+        if (!inclusion) {
+            final BsonDocument projected = document.clone();
+            projection.keySet().forEach(path -> unset(projected, path));
+
+            if (!id) projected.remove("_id");
+            return projected;
+        }
+
+        final BsonDocument projected = new BsonDocument();
+        if (id && document.containsKey("_id")) projected.put("_id", document.get("_id"));
+
+        for (final Map.Entry<String, BsonValue> entry : projection.entrySet()) {
+            if (entry.getKey().equals("_id") || !isTrue(entry.getValue())) continue;
+
+            final BsonValue value = resolve(document, entry.getKey());
+            if (value != null) set(projected, entry.getKey(), value);
+        }
+
+        return projected;
+    }
+
+    /**
+     * @param sort the sort specification, e.g. {@code {"level": -1}}.
+     * @return a comparator of documents following the specification.
+     */
+    static @NotNull Comparator<BsonDocument> comparator(@NotNull final BsonDocument sort) {
+        Comparator<BsonDocument> comparator = (first, second) -> 0;
+
+        for (final Map.Entry<String, BsonValue> entry : sort.entrySet()) {
+            final String path = entry.getKey();
+            final int direction = entry.getValue().isNumber() && entry.getValue().asNumber().intValue() < 0 ? -1 : 1;
+
+            comparator = comparator.thenComparing((first, second) -> direction * compare(resolve(first, path), resolve(second, path)));
+        }
+
+        return comparator;
+    }
+
+    private static boolean matchesField(@Nullable final BsonValue value, @NotNull final BsonValue predicate) {
+        if (!isOperators(predicate)) return equalsOrContains(value, predicate);
+
+        for (final Map.Entry<String, BsonValue> operator : predicate.asDocument().entrySet()) {
+            final BsonValue operand = operator.getValue();
+
+            final boolean matches = switch (operator.getKey()) {
+                case "$eq" -> equalsOrContains(value, operand);
+                case "$ne" -> !equalsOrContains(value, operand);
+                case "$gt" -> anyCompared(value, operand, comparison -> comparison > 0);
+                case "$gte" -> anyCompared(value, operand, comparison -> comparison >= 0);
+                case "$lt" -> anyCompared(value, operand, comparison -> comparison < 0);
+                case "$lte" -> anyCompared(value, operand, comparison -> comparison <= 0);
+                case "$in" -> operand.asArray().stream().anyMatch(candidate -> equalsOrContains(value, candidate));
+                case "$nin" -> operand.asArray().stream().noneMatch(candidate -> equalsOrContains(value, candidate));
+                case "$exists" -> (value != null) == isTrue(operand);
+                default -> throw new UnsupportedOperationException("The local storage does not support " + operator.getKey() + ".");
+            };
+
+            if (!matches) return false;
+        }
+
+        return true;
+    }
+
+    private static boolean equalsOrContains(@Nullable final BsonValue value, @NotNull final BsonValue expected) {
+        if (value == null) return expected.isNull();
+        if (equal(value, expected)) return true;
+
+        return value.isArray() && value.asArray().stream().anyMatch(element -> equal(element, expected));
+    }
+
+    private static boolean anyCompared(@Nullable final BsonValue value, @NotNull final BsonValue operand, @NotNull final IntPredicate predicate) {
+        if (value == null) return false;
+        if (value.isArray()) return value.asArray().stream().anyMatch(element -> anyCompared(element, operand, predicate));
+
+        return rank(value) == rank(operand) && predicate.test(compare(value, operand)); // like Mongo, only values of the same type are compared.
+    }
+
+    /**
+     * Compares two values like Mongo: numbers by value, documents in the order of their fields.
+     */
+    private static boolean equal(@NotNull final BsonValue first, @NotNull final BsonValue second) {
+        if (first.isNumber() || first.isDecimal128()) return (second.isNumber() || second.isDecimal128()) && compare(first, second) == 0;
+
+        if (first.isDocument() && second.isDocument()) {
+            final Iterator<Map.Entry<String, BsonValue>> others = second.asDocument().entrySet().iterator();
+            for (final Map.Entry<String, BsonValue> entry : first.asDocument().entrySet()) {
+                if (!others.hasNext()) return false;
+
+                final Map.Entry<String, BsonValue> other = others.next();
+                if (!entry.getKey().equals(other.getKey()) || !equal(entry.getValue(), other.getValue())) return false;
+            }
+
+            return !others.hasNext();
+        }
+
+        if (first.isArray() && second.isArray()) {
+            final BsonArray array = first.asArray(), other = second.asArray();
+            if (array.size() != other.size()) return false;
+
+            for (int i = 0; i < array.size(); i++) {
+                if (!equal(array.get(i), other.get(i))) return false;
+            }
+
+            return true;
+        }
+
+        return first.equals(second);
+    }
+
+    /**
+     * Compares two values, values of different types are ordered by type like Mongo (null, numbers, strings, documents, arrays, binaries, object ids,
+     * booleans, dates, timestamps).
+     */
+    private static int compare(@Nullable final BsonValue first, @Nullable final BsonValue second) {
+        final int rank = Integer.compare(rank(first), rank(second));
+        if (rank != 0 || first == null || second == null) return rank;
+
+        return switch (first.getBsonType()) {
+            case INT32, INT64, DOUBLE, DECIMAL128 -> decimal(first).compareTo(decimal(second));
+            case STRING, SYMBOL -> string(first).compareTo(string(second));
+            case OBJECT_ID -> first.asObjectId().getValue().compareTo(second.asObjectId().getValue());
+            case BOOLEAN -> Boolean.compare(first.asBoolean().getValue(), second.asBoolean().getValue());
+            case DATE_TIME -> Long.compare(first.asDateTime().getValue(), second.asDateTime().getValue());
+            case TIMESTAMP -> first.asTimestamp().compareTo(second.asTimestamp());
+            default -> first.equals(second) ? 0 : first.toString().compareTo(second.toString());
+        };
+    }
+
+    private static int rank(@Nullable final BsonValue value) {
+        if (value == null) return 1;
+
+        return switch (value.getBsonType()) {
+            case MIN_KEY -> 0;
+            case NULL, UNDEFINED -> 1;
+            case INT32, INT64, DOUBLE, DECIMAL128 -> 2;
+            case STRING, SYMBOL -> 3;
+            case DOCUMENT -> 4;
+            case ARRAY -> 5;
+            case BINARY -> 6;
+            case OBJECT_ID -> 7;
+            case BOOLEAN -> 8;
+            case DATE_TIME -> 9;
+            case TIMESTAMP -> 10;
+            case REGULAR_EXPRESSION -> 11;
+            case MAX_KEY -> 13;
+            default -> 12;
+        };
+    }
+
+    private static @NotNull BigDecimal decimal(@NotNull final BsonValue value) {
+        return switch (value.getBsonType()) {
+            case INT32 -> BigDecimal.valueOf(value.asInt32().getValue());
+            case INT64 -> BigDecimal.valueOf(value.asInt64().getValue());
+            case DOUBLE -> Double.isFinite(value.asDouble().getValue()) ? BigDecimal.valueOf(value.asDouble().getValue())
+                    : BigDecimal.valueOf(value.asDouble().getValue() > 0 ? Double.MAX_VALUE : -Double.MAX_VALUE);
+            default -> value.asDecimal128().getValue().bigDecimalValue();
+        };
+    }
+
+    private static @NotNull String string(@NotNull final BsonValue value) {
+        return value.isSymbol() ? value.asSymbol().getSymbol() : value.asString().getValue();
+    }
+
+    private static @NotNull BsonValue increment(@Nullable final BsonValue current, @NotNull final BsonValue increment) {
+        if (!increment.isNumber() && !increment.isDecimal128()) throw new IllegalArgumentException("Cannot $inc by the non-numeric value " + increment + ".");
+        if (current == null) return increment;
+        if (!current.isNumber() && !current.isDecimal128()) throw new IllegalArgumentException("Cannot $inc the non-numeric value " + current + ".");
+
+        if (current.isDecimal128() || increment.isDecimal128()) return new BsonDecimal128(new Decimal128(decimal(current).add(decimal(increment))));
+        if (current.isDouble() || increment.isDouble()) return new BsonDouble(current.asNumber().doubleValue() + increment.asNumber().doubleValue());
+
+        final long sum = current.asNumber().longValue() + increment.asNumber().longValue();
+        return current.isInt32() && increment.isInt32() && sum == (int) sum ? new BsonInt32((int) sum) : new BsonInt64(sum);
+    }
+
+    private static @Nullable BsonValue resolve(@NotNull final BsonDocument document, @NotNull final String path) {
+        BsonValue value = document;
+
+        for (final String key : path.split("\\.")) {
+            if (value instanceof BsonDocument container) {
+                value = container.get(key);
+            } else if (value instanceof BsonArray array && isIndex(key)) {
+                final int index = Integer.parseInt(key);
+                value = index < array.size() ? array.get(index) : null;
+            } else {
+                return null;
+            }
+
+            if (value == null) return null;
+        }
+
+        return value;
+    }
+
+    private static void set(@NotNull final BsonDocument document, @NotNull final String path, @NotNull final BsonValue value) {
+        final String[] keys = path.split("\\.");
+
+        BsonDocument container = document;
+        for (int i = 0; i < keys.length - 1; i++) {
+            final BsonValue child = container.get(keys[i]);
+            if (child == null) {
+                final BsonDocument created = new BsonDocument();
+                container.put(keys[i], created);
+                container = created;
+            } else if (child.isDocument()) {
+                container = child.asDocument();
+            } else {
+                throw new IllegalArgumentException("Cannot set " + path + ", " + keys[i] + " is not a document.");
+            }
+        }
+
+        container.put(keys[keys.length - 1], value);
+    }
+
+    private static void unset(@NotNull final BsonDocument document, @NotNull final String path) {
+        final int dot = path.lastIndexOf('.');
+        final BsonValue container = dot == -1 ? document : resolve(document, path.substring(0, dot));
+
+        if (container instanceof BsonDocument parent) parent.remove(path.substring(dot + 1));
+    }
+
+    private static boolean isOperators(@NotNull final BsonValue value) {
+        return value.isDocument() && !value.asDocument().isEmpty() && value.asDocument().getFirstKey().startsWith("$");
+    }
+
+    private static boolean isIndex(@NotNull final String key) {
+        return !key.isEmpty() && key.chars().allMatch(Character::isDigit);
+    }
+
+    private static boolean isTrue(@NotNull final BsonValue value) {
+        if (value.isBoolean()) return value.asBoolean().getValue();
+        return !value.isNumber() || value.asNumber().doubleValue() != 0;
+    }
+
+}
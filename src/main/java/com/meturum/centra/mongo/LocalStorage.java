@@ -0,0 +1,124 @@
+package com.meturum.centra.mongo;
+
+import com.mongodb.MongoNamespace;
+import org.jetbrains.annotations.NotNull;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * An embedded storage on local disk replacing Mongo for the collections of a {@link Mongo.MongoClientTypes}, e.g. the {@code SERVER_DATABASE}
+ * of nodes whose data never leaves them. Each collection is a {@link LocalStore} in its own directory, opened on first use.
+ * <p>
+ * Storages are selected per client type with {@link #select(Mongo.MongoClientTypes, Path)}, {@link Mongo#getCollection(String, Mongo.MongoClientTypes)}
+ * then returns its collections instead of those of Mongo.
+ *
+ * @see LocalCollectionWrapper
+ */
+public final class LocalStorage implements AutoCloseable {
+
+    private static final Map<Mongo.MongoClientTypes, LocalStorage> STORAGES = new EnumMap<>(Mongo.MongoClientTypes.class);
+
+    private final Mongo.MongoClientTypes type;
+    private final Path directory;
+    private final Map<String, LocalCollectionWrapper> collections = new ConcurrentHashMap<>();
+
+    /**
+     * @param type the type of the client the storage replaces.
+     * @param directory the directory of the collections.
+     */
+    public LocalStorage(@NotNull final Mongo.MongoClientTypes type, @NotNull final Path directory) {
+        this.type = type;
+        this.directory = directory;
+    }
+
+    /**
+     * Selects a local storage for the collections of a client, closing the storage previously selected.
+     *
+     * @param type the type of the client.
+     * @param directory the directory of the collections.
+     * @return the selected storage.
+     */
+    public static @NotNull LocalStorage select(@NotNull final Mongo.MongoClientTypes type, @NotNull final Path directory) {
+        final LocalStorage storage = new LocalStorage(type, directory);
+
+        final LocalStorage previous;
+        synchronized (STORAGES) {
+            previous = STORAGES.put(type, storage);
+        }
+
+        if (previous != null) previous.close();
+        return storage;
+    }
+
+    /**
+     * Deselects the local storage of a client, its collections are those of Mongo again.
+     *
+     * @param type the type of the client.
+     * @apiNote The storage is closed.
+     */
+    public static void deselect(@NotNull final Mongo.MongoClientTypes type) {
+        final LocalStorage previous;
+        synchronized (STORAGES) {
+            previous = STORAGES.remove(type);
+        }
+
+        if (previous != null) previous.close();
+    }
+
+    /**
+     * @param type the type of the client.
+     * @return the local storage selected for the client, or null if it uses Mongo.
+     */
+    public static @Nullable LocalStorage get(@NotNull final Mongo.MongoClientTypes type) {
+        synchronized (STORAGES) {
+            return STORAGES.get(type);
+        }
+    }
+
+    /**
+     * Gets a collection, opening its store the first time.
+     *
+     * @param name the name of the collection.
+     * @return the collection.
+     * @throws UncheckedIOException if the store cannot be opened.
+     */
+    public @NotNull LocalCollectionWrapper getCollection(@NotNull final String name) {
+        return collections.computeIfAbsent(name, key -> {
+            try {
+                return new LocalCollectionWrapper(new LocalStore(directory.resolve(key)), new MongoNamespace(type.name().toLowerCase(), key), type);
+            }catch (IOException exception) {
+                throw new UncheckedIOException(exception);
+            }
+        });
+    }
+
+    /**
+     * @return the type of the client the storage replaces.
+     */
+    public @NotNull Mongo.MongoClientTypes getType() {
+        return type;
+    }
+
+    /**
+     * @return the directory of the collections.
+     */
+    public @NotNull Path getDirectory() {
+        return directory;
+    }
+
+    /**
+     * Closes the store of every collection.
+     */
+    @Override
+    public void close() {
+        collections.values().forEach(collection -> collection.getStore().close());
+        collections.clear();
+    }
+
+}
@@ -0,0 +1,535 @@
+package com.meturum.centra.mongo;
+
+import org.bson.BsonDocument;
+import org.bson.BsonValue;
+import org.bson.RawBsonDocument;
+import org.bson.codecs.BsonDocumentCodec;
+import org.jetbrains.annotations.NotNull;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * An embedded log-structured key-value store of documents, keyed by their {@code _id}, on local disk.
+ * <p>
+ * Every write is appended to the current memory-mapped segment, an in-memory index maps each {@code _id} to its latest record,
+ * reads copy the record straight from the mapping. Secondary indexes map the values of a few top-level fields ({@link #DEFAULT_INDEXED_FIELDS} by default)
+ * to the {@code _id}s of their documents, see {@link #lookup(String, BsonValue)}. Records are never modified: the space of the overwritten and deleted documents
+ * is reclaimed by compaction, which rewrites the live records of the segments with more than {@link #DEFAULT_COMPACTION_THRESHOLD} garbage
+ * at the end of the log and deletes them. Compaction runs in the background once a segment is filled, one segment at a time.
+ * <p>
+ * Memory-mapped writes survive a crash of the process. Pass {@code sync = true} to also flush every record to the disk (surviving a power loss), at the cost of latency.
+ * Records are checksummed, a record torn by a crash is ignored with everything after it in its segment.
+ *
+ * @see LocalStorage
+ */
+public final class LocalStore implements AutoCloseable {
+
+    /**
+     * The default size of a segment, in bytes.
+     */
+    public static final int DEFAULT_SEGMENT_SIZE = 16 * 1024 * 1024;
+
+    /**
+     * The default share of garbage (overwritten or deleted records) from which a segment is compacted.
+     */
+    public static final double DEFAULT_COMPACTION_THRESHOLD = 0.5;
+
+    /**
+     * The fields indexed by default, {@code uuid} is the field of the filter of {@link com.meturum.centra.conversions.IDynamicTag#getFilter()}.
+     */
+    public static final Set<String> DEFAULT_INDEXED_FIELDS = Set.of("uuid");
+
+    private static final String EXTENSION = ".segment";
+    private static final byte PUT = 1, DELETE = 2;
+    private static final int HEADER = Integer.BYTES + Byte.BYTES, TRAILER = Integer.BYTES; // length, type | checksum.
+
+    private final Path directory;
+    private final int segmentSize;
+    private final boolean sync;
+    private final double threshold;
+    private final Executor executor;
+
+    private final Map<BsonValue, Location> index = new ConcurrentHashMap<>();
+    private final Map<String, Map<BsonValue, Set<BsonValue>>> secondary = new HashMap<>(); // by field, then value: the _ids.
+    private final TreeMap<Long, Segment> segments = new TreeMap<>(); // by name, oldest first.
+
+    private @Nullable Segment current;
+    private @Nullable CompletableFuture<Void> compaction;
+    private long next;
+    private boolean closed;
+
+    /**
+     * Opens the store in the directory, loading the index from its segments.
+     *
+     * @param directory the directory of the segments, created if missing.
+     * @throws IOException if the directory cannot be read.
+     */
+    public LocalStore(@NotNull final Path directory) throws IOException {
+        this(directory, DEFAULT_SEGMENT_SIZE, false, DEFAULT_COMPACTION_THRESHOLD, MongoExecutors.getDefaultExecutor());
+    }
+
+    /**
+     * Opens the store in the directory, loading the index from its segments.
+     *
+     * @param directory the directory of the segments, created if missing.
+     * @param segmentSize the size of a segment, in bytes.
+     * @param sync whether every record is flushed to the disk before the method returns.
+     * @param threshold the share of garbage from which a segment is compacted, between 0 (exclusive) and 1.
+     * @param executor the executor running the compaction.
+     * @throws IOException if the directory cannot be read.
+     */
+    public LocalStore(@NotNull final Path directory, final int segmentSize, final boolean sync, final double threshold, @NotNull final Executor executor) throws IOException {
+        this(directory, segmentSize, sync, threshold, executor, DEFAULT_INDEXED_FIELDS);
+    }
+
+    /**
+     * Opens the store in the directory, loading the indexes from its segments.
+     *
+     * @param directory the directory of the segments, created if missing.
+     * @param segmentSize the size of a segment, in bytes.
+     * @param sync whether every record is flushed to the disk before the method returns.
+     * @param threshold the share of garbage from which a segment is compacted, between 0 (exclusive) and 1.
+     * @param executor the executor running the compaction.
+     * @param indexedFields the top-level fields with a secondary index.
+     * @throws IOException if the directory cannot be read.
+     */
+    public LocalStore(@NotNull final Path directory, final int segmentSize, final boolean sync, final double threshold, @NotNull final Executor executor,
+                      @NotNull final Set<String> indexedFields) throws IOException {
+        if (segmentSize < 4096) throw new IllegalArgumentException("segmentSize must be at least 4096 bytes.");
+        if (threshold <= 0 || threshold > 1) throw new IllegalArgumentException("threshold must be between 0 (exclusive) and 1.");
+
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.sync = sync;
+        this.threshold = threshold;
+        this.executor = executor;
+
+        for (final String field : indexedFields) secondary.put(field, new ConcurrentHashMap<>());
+
+        Files.createDirectories(directory);
+        recover();
+    }
+
+    /**
+     * Reads a document.
+     *
+     * @param id the {@code _id} of the document.
+     * @return the document, or null if there is none.
+     */
+    public @Nullable RawBsonDocument get(@NotNull final BsonValue id) {
+        final Location location = index.get(id);
+        return location != null ? location.read() : null;
+    }
+
+    /**
+     * @param id the {@code _id} of a document.
+     * @return true if the store contains the document.
+     */
+    public boolean contains(@NotNull final BsonValue id) {
+        return index.containsKey(id);
+    }
+
+    /**
+     * Gets the documents whose field equals a value, or contains it if the field is an array.
+     * Numbers, null, documents and arrays cannot be looked up: their equality is not the one of their {@link BsonValue} (e.g. {@code 1} equals {@code 1L}).
+     *
+     * @param field a top-level field.
+     * @param value the value of the field.
+     * @return the {@code _id}s of the documents, or null if the field is not indexed or the value cannot be looked up.
+     */
+    public @Nullable Set<BsonValue> lookup(@NotNull final String field, @NotNull final BsonValue value) {
+        final Map<BsonValue, Set<BsonValue>> values = secondary.get(field);
+        if (values == null || value.isNumber() || value.isDecimal128() || value.isNull() || value.isDocument() || value.isArray()) return null;
+
+        final Set<BsonValue> ids = values.get(value);
+        return ids != null ? Set.copyOf(ids) : Set.of();
+    }
+
+    /**
+     * @return the top-level fields with a secondary index.
+     */
+    public @NotNull Set<String> getIndexedFields() {
+        return Collections.unmodifiableSet(secondary.keySet());
+    }
+
+    /**
+     * Reads every document, in no particular order. Documents written during the iteration may or may not be visited.
+     *
+     * @param consumer the consumer of the documents.
+     */
+    public void forEach(@NotNull final Consumer<RawBsonDocument> consumer) {
+        for (final Location location : index.values()) consumer.accept(location.read());
+    }
+
+    /**
+     * Writes a document, replacing the document with the same {@code _id}.
+     *
+     * @param document the document, it must contain an {@code _id}.
+     * @return true if a document was replaced.
+     * @throws IOException if the document could not be written.
+     */
+    public synchronized boolean put(@NotNull final BsonDocument document) throws IOException {
+        final BsonValue id = document.get("_id");
+        if (id == null) throw new IllegalArgumentException("The document has no _id.");
+
+        final RawBsonDocument raw = document instanceof RawBsonDocument bytes ? bytes : new RawBsonDocument(document, new BsonDocumentCodec());
+        final Location location = append(PUT, raw.getByteBuffer().asNIO());
+        location.segment.live += location.size();
+
+        final Location previous = index.put(id, location);
+        if (previous != null) previous.segment.live -= previous.size();
+
+        index(id, previous, raw);
+        return previous != null;
+    }
+
+    /**
+     * Deletes a document.
+     *
+     * @param id the {@code _id} of the document.
+     * @return true if a document was deleted.
+     * @throws IOException if the deletion could not be written.
+     */
+    public synchronized boolean delete(@NotNull final BsonValue id) throws IOException {
+        if (!index.containsKey(id)) return false;
+
+        append(DELETE, new RawBsonDocument(new BsonDocument("_id", id), new BsonDocumentCodec()).getByteBuffer().asNIO());
+
+        final Location previous = Objects.requireNonNull(index.remove(id));
+        previous.segment.live -= previous.size();
+
+        index(id, previous, null);
+        return true;
+    }
+
+    /**
+     * @return the number of documents.
+     */
+    public int size() {
+        return index.size();
+    }
+
+    /**
+     * @return the number of segments on disk.
+     */
+    public synchronized int getSegmentCount() {
+        return segments.size();
+    }
+
+    /**
+     * @return the share of the bytes on disk taken by overwritten or deleted records.
+     */
+    public synchronized double getGarbageRatio() {
+        long written = 0, live = 0;
+        for (final Segment segment : segments.values()) {
+            written += segment.written;
+            live += segment.live;
+        }
+
+        return written == 0 ? 0 : 1 - (double) live / written;
+    }
+
+    /**
+     * @return the directory of the segments.
+     */
+    public @NotNull Path getDirectory() {
+        return directory;
+    }
+
+    /**
+     * Compacts the filled segments with more garbage than the threshold, one at a time.
+     *
+     * @throws IOException if a live record could not be rewritten.
+     */
+    public void compact() throws IOException {
+        while (true) {
+            synchronized (this) {
+                if (closed) return;
+
+                final Segment segment = findCompactable();
+                if (segment == null) return;
+
+                rewrite(segment);
+            }
+        }
+    }
+
+    /**
+     * Compacts the filled segments in the background, unless a compaction is already running.
+     *
+     * @return a future completed once the compaction is done.
+     */
+    public synchronized @NotNull CompletableFuture<Void> compactAsync() {
+        if (compaction != null && !compaction.isDone()) return compaction;
+
+        return compaction = CompletableFuture.runAsync(() -> {
+            try {
+                compact();
+            }catch (IOException exception) {
+                throw new UncheckedIOException(exception);
+            }
+        }, executor).whenComplete((ignored, throwable) -> {
+            if (throwable != null) throwable.printStackTrace(); // retried once the next segment is filled.
+        });
+    }
+
+    /**
+     * Flushes the current segment to the disk and closes the store.
+     */
+    @Override
+    public synchronized void close() {
+        if (closed) return;
+        closed = true;
+
+        if (current != null) current.buffer.force();
+    }
+
+    private @NotNull Location append(final byte type, @NotNull final ByteBuffer payload) throws IOException {
+        if (closed) throw new IOException("The store is closed.");
+
+        final int length = HEADER + payload.remaining() + TRAILER;
+        if (current == null || current.buffer.capacity() - current.written < length) rotate(length);
+
+        final Segment segment = Objects.requireNonNull(current);
+        final ByteBuffer buffer = segment.buffer.duplicate();
+        final int start = segment.written;
+
+        buffer.position(start + Integer.BYTES); // the length is written last, a record is only valid once complete.
+        buffer.put(type).put(payload.duplicate());
+
+        final CRC32 checksum = new CRC32();
+        checksum.update(buffer.duplicate().position(start + Integer.BYTES).limit(buffer.position()));
+        buffer.putInt((int) checksum.getValue());
+        buffer.putInt(start, payload.remaining());
+
+        if (sync) segment.buffer.force(start, length);
+
+        segment.written += length;
+        return new Location(segment, start, payload.remaining());
+    }
+
+    private void rotate(final int length) throws IOException {
+        final Segment previous = current;
+
+        long name = next++;
+        while (Files.exists(path(name))) name = next++; // a segment that could not be deleted.
+
+        final Path path = path(name);
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            current = new Segment(path, channel.map(FileChannel.MapMode.READ_WRITE, 0, Math.max(segmentSize, length + Integer.BYTES)));
+        }
+
+        segments.put(name, current);
+
+        if (previous != null) {
+            previous.buffer.force();
+            if (findCompactable() != null) compactAsync();
+        }
+    }
+
+    private @Nullable Segment findCompactable() {
+        for (final Segment segment : segments.values()) {
+            if (segment != current && segment.written > 0 && 1 - (double) segment.live / segment.written >= threshold) return segment;
+        }
+
+        return null;
+    }
+
+    /**
+     * Appends the live records of a filled segment to the current one, then deletes it.
+     * Deletions are kept while an older segment may still contain the deleted document.
+     */
+    private void rewrite(@NotNull final Segment segment) throws IOException {
+        final boolean oldest = segments.firstEntry().getValue() == segment;
+        final ByteBuffer buffer = segment.buffer.duplicate();
+
+        int position = 0;
+        while (position < segment.written) {
+            final int length = buffer.getInt(position);
+            final byte type = buffer.get(position + Integer.BYTES);
+            final ByteBuffer payload = buffer.slice(position + HEADER, length);
+
+            final BsonValue id = new RawBsonDocument(bytes(payload)).get("_id");
+            final Location location = index.get(id);
+
+            if (type == PUT && location != null && location.segment == segment && location.offset == position) {
+                final Location moved = append(PUT, payload);
+                moved.segment.live += moved.size();
+                index.put(id, moved);
+            } else if (type == DELETE && !oldest && location == null) {
+                append(DELETE, payload);
+            }
+
+            position += HEADER + length + TRAILER;
+        }
+
+        Objects.requireNonNull(current).buffer.force(); // the rewritten records are on the disk before their previous copies are deleted.
+        segments.values().remove(segment);
+
+        try {
+            Files.deleteIfExists(segment.path);
+        }catch (IOException exception) {
+            exception.printStackTrace(); // its records are superseded by the rewritten ones.
+        }
+    }
+
+    /**
+     * Reads every segment in order, rebuilding the index.
+     */
+    private void recover() throws IOException {
+        final List<Path> paths;
+        try (Stream<Path> files = Files.list(directory)) {
+            paths = files.filter(path -> path.getFileName().toString().endsWith(EXTENSION)).sorted().toList();
+        }
+
+        for (final Path path : paths) {
+            final MappedByteBuffer mapping;
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                mapping = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            }
+
+            final Segment segment = new Segment(path, mapping);
+            final ByteBuffer buffer = mapping.duplicate();
+
+            while (buffer.remaining() >= HEADER + TRAILER) {
+                final int start = buffer.position();
+                final int length = buffer.getInt();
+                if (length <= 0 || buffer.remaining() < Byte.BYTES + length + TRAILER) break;
+
+                final byte type = buffer.get();
+                if (type != PUT && type != DELETE) break; // the end of the segment, or a torn record.
+
+                final ByteBuffer payload = buffer.slice(buffer.position(), length);
+                buffer.position(buffer.position() + length);
+
+                final CRC32 checksum = new CRC32();
+                checksum.update(buffer.duplicate().position(start + Integer.BYTES).limit(buffer.position()));
+                if ((int) checksum.getValue() != buffer.getInt()) break;
+
+                final BsonValue id = new RawBsonDocument(bytes(payload)).get("_id");
+                final Location location = new Location(segment, start, length);
+                final Location previous = type == PUT ? index.put(id, location) : index.remove(id);
+
+                if (type == PUT) segment.live += location.size();
+                if (previous != null) previous.segment.live -= previous.size();
+
+                index(id, previous, type == PUT ? location.read() : null);
+
+                segment.written = buffer.position();
+            }
+
+            final long name = name(path);
+            segments.put(name, segment);
+            next = Math.max(next, name + 1);
+        }
+
+        if (findCompactable() != null) compactAsync();
+    }
+
+    /**
+     * Updates the secondary indexes once a document was written or deleted.
+     *
+     * @param previous the previous record of the document, or null if it is new.
+     * @param document the document, or null if it was deleted.
+     */
+    private void index(@NotNull final BsonValue id, @Nullable final Location previous, @Nullable final BsonDocument document) {
+        if (secondary.isEmpty()) return;
+
+        final BsonDocument before = previous != null ? previous.read() : null;
+
+        for (final Map.Entry<String, Map<BsonValue, Set<BsonValue>>> field : secondary.entrySet()) {
+            final BsonValue removed = before != null ? before.get(field.getKey()) : null;
+            final BsonValue added = document != null ? document.get(field.getKey()) : null;
+            if (Objects.equals(removed, added)) continue;
+
+            for (final BsonValue value : keys(removed)) {
+                field.getValue().computeIfPresent(value, (ignored, ids) -> {
+                    ids.remove(id);
+                    return ids.isEmpty() ? null : ids;
+                });
+            }
+
+            for (final BsonValue value : keys(added)) field.getValue().computeIfAbsent(value, ignored -> ConcurrentHashMap.newKeySet()).add(id);
+        }
+    }
+
+    /**
+     * @return the values a document is indexed by, the elements of an array.
+     */
+    private static @NotNull List<BsonValue> keys(@Nullable final BsonValue value) {
+        if (value == null) return List.of();
+        return value.isArray() ? value.asArray().getValues() : List.of(value);
+    }
+
+    private @NotNull Path path(final long name) {
+        return directory.resolve(String.format("segment-%020d%s", name, EXTENSION));
+    }
+
+    private static long name(@NotNull final Path path) {
+        final String name = path.getFileName().toString();
+
+        try {
+            return Long.parseLong(name.substring("segment-".length(), name.length() - EXTENSION.length()));
+        }catch (RuntimeException exception) {
+            return 0;
+        }
+    }
+
+    private static byte @NotNull [] bytes(@NotNull final ByteBuffer payload) {
+        final byte[] bytes = new byte[payload.remaining()];
+        payload.duplicate().get(bytes);
+
+        return bytes;
+    }
+
+    /**
+     * The latest record of a document.
+     *
+     * @param offset the offset of the record in its segment.
+     * @param length the length of the document.
+     */
+    private record Location(@NotNull Segment segment, int offset, int length) {
+
+        private int size() {
+            return HEADER + length + TRAILER;
+        }
+
+        private @NotNull RawBsonDocument read() {
+            final byte[] bytes = new byte[length];
+            segment.buffer.get(offset + HEADER, bytes); // absolute, the mapping stays readable after the segment is compacted.
+
+            return new RawBsonDocument(bytes);
+        }
+
+    }
+
+    private static final class Segment {
+
+        private final Path path;
+        private final MappedByteBuffer buffer;
+        private int written; // the bytes of valid records.
+        private long live; // the bytes of the records still in the index.
+
+        private Segment(@NotNull final Path path, @NotNull final MappedByteBuffer buffer) {
+            this.path = path;
+            this.buffer = buffer;
+        }
+
+    }
+
+}
@@ -0,0 +1,150 @@
+package com.meturum.centra.mongo;
+
+import com.mongodb.client.model.ReplaceOptions;
+import com.mongodb.client.model.UpdateOptions;
+import com.mongodb.client.model.WriteModel;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.jetbrains.annotations.NotNull;
+
+import javax.annotation.Nullable;
+import java.util.List;
+
+/**
+ * A {@link CollectionWrapper} recording the count, errors and latency (from the call to the callback) of every operation in the {@link CollectionMetrics}
+ * of the collection, see {@link MongoMetrics}. The operations of {@link #async()} go through the callback methods and are recorded the same way,
+ * counts are recorded with the time they waited for the executor.
+ * <p>
+ * Recording costs two {@link java.lang.System#nanoTime()} calls and a few atomic increments per operation.
+ */
+public final class MetricsCollectionWrapper extends ForwardingCollectionWrapper {
+
+    private final CollectionMetrics metrics;
+
+    /**
+     * @param delegate the collection to instrument.
+     */
+    public MetricsCollectionWrapper(@NotNull final CollectionWrapper delegate) {
+        this(delegate, MongoMetrics.getMetrics(delegate.getType(), delegate.raw().getNamespace().getCollectionName()));
+    }
+
+    /**
+     * @param delegate the collection to instrument.
+     * @param metrics the metrics to record into.
+     */
+    public MetricsCollectionWrapper(@NotNull final CollectionWrapper delegate, @NotNull final CollectionMetrics metrics) {
+        super(delegate);
+
+        this.metrics = metrics;
+    }
+
+    @Override
+    public @NotNull CollectionMetrics getMetrics() {
+        return metrics;
+    }
+
+    @Override
+    public void findAsync(@Nullable Bson filter, @NotNull FindLambda lambda) {
+        final long start = java.lang.System.nanoTime();
+
+        getDelegate().findAsync(filter, (result, exception) -> {
+            record(CollectionMetrics.Operation.FIND, start, exception);
+            lambda.run(result, exception);
+        });
+    }
+
+    @Override
+    public void findAsync(@Nullable Bson filter, @Nullable Bson projection, @NotNull FindLambda lambda) {
+        final long start = java.lang.System.nanoTime();
+
+        getDelegate().findAsync(filter, projection, (result, exception) -> {
+            record(CollectionMetrics.Operation.FIND, start, exception);
+            lambda.run(result, exception);
+        });
+    }
+
+    @Override
+    public void insertOneAsync(@NotNull Document document, @Nullable InsertOneLambda lambda) {
+        final long start = java.lang.System.nanoTime();
+
+        getDelegate().insertOneAsync(document, (result, exception) -> {
+            record(CollectionMetrics.Operation.INSERT_ONE, start, exception);
+            if (lambda != null) lambda.run(result, exception);
+        });
+    }
+
+    @Override
+    public void updateOneAsync(@NotNull Bson filter, @NotNull Bson updates, @Nullable UpdateOptions options, @Nullable UpdateOneLambda lambda) {
+        final long start = java.lang.System.nanoTime();
+
+        getDelegate().updateOneAsync(filter, updates, options, (result, exception) -> {
+            record(CollectionMetrics.Operation.UPDATE_ONE, start, exception);
+            if (lambda != null) lambda.run(result, exception);
+        });
+    }
+
+    @Override
+    public void replaceOneAsync(@NotNull Bson filter, @NotNull Document document, @Nullable ReplaceOptions options, @Nullable ReplaceOneLambda lambda) {
+        final long start = java.lang.System.nanoTime();
+
+        getDelegate().replaceOneAsync(filter, document, options, (result, exception) -> {
+            record(CollectionMetrics.Operation.REPLACE_ONE, start, exception);
+            if (lambda != null) lambda.run(result, exception);
+        });
+    }
+
+    @Override
+    public void deleteOneAsync(@NotNull Bson filter, @Nullable DeleteOneLambda lambda) {
+        final long start = java.lang.System.nanoTime();
+
+        getDelegate().deleteOneAsync(filter, (result, exception) -> {
+            record(CollectionMetrics.Operation.DELETE_ONE, start, exception);
+            if (lambda != null) lambda.run(result, exception);
+        });
+    }
+
+    @Override
+    public void bulkWriteAsync(@NotNull List<? extends WriteModel<? extends Document>> requests, boolean ordered, @Nullable BulkWriteLambda lambda) {
+        final long start = java.lang.System.nanoTime();
+
+        getDelegate().bulkWriteAsync(requests, ordered, (result, exception) -> {
+            record(CollectionMetrics.Operation.BULK_WRITE, start, exception);
+            if (lambda != null) lambda.run(result, exception);
+        });
+    }
+
+    @Override
+    public void insertManyAsync(@NotNull List<Document> documents, boolean ordered, @Nullable BulkWriteLambda lambda) {
+        final long start = java.lang.System.nanoTime();
+
+        getDelegate().insertManyAsync(documents, ordered, (result, exception) -> {
+            record(CollectionMetrics.Operation.INSERT_MANY, start, exception);
+            if (lambda != null) lambda.run(result, exception);
+        });
+    }
+
+    @Override
+    public void updateManyAsync(@NotNull Bson filter, @NotNull Bson updates, @Nullable UpdateOptions options, @Nullable UpdateManyLambda lambda) {
+        final long start = java.lang.System.nanoTime();
+
+        getDelegate().updateManyAsync(filter, updates, options, (result, exception) -> {
+            record(CollectionMetrics.Operation.UPDATE_MANY, start, exception);
+            if (lambda != null) lambda.run(result, exception);
+        });
+    }
+
+    @Override
+    public void deleteManyAsync(@NotNull Bson filter, @Nullable DeleteManyLambda lambda) {
+        final long start = java.lang.System.nanoTime();
+
+        getDelegate().deleteManyAsync(filter, (result, exception) -> {
+            record(CollectionMetrics.Operation.DELETE_MANY, start, exception);
+            if (lambda != null) lambda.run(result, exception);
+        });
+    }
+
+    private void record(@NotNull final CollectionMetrics.Operation operation, final long start, @Nullable final Exception exception) {
+        metrics.get(operation).record(-1, java.lang.System.nanoTime() - start, exception != null);
+    }
+
+}
@@ -1,8 +1,15 @@
 package com.meturum.centra.mongo;
 
+import com.meturum.centra.conversions.Documentable;
+import com.meturum.centra.conversions.DocumentableCodecProvider;
+import com.mongodb.client.MongoCollection;
+import org.bson.Document;
+import org.bson.codecs.configuration.CodecRegistries;
 import org.jetbrains.annotations.NotNull;
 import com.meturum.centra.system.System;
 
+import javax.annotation.Nullable;
+
 public interface Mongo extends System {
 
     /**
@@ -13,9 +20,72 @@ public interface Mongo extends System {
      * @return the collection.
      *
      * @apiNote The object returned is not the actual collection, but a wrapper around it. to access the actual collection, use {@link CollectionWrapper#raw()}.
+     * @implNote When a {@link LocalStorage} is selected for the type, implementations return {@link LocalStorage#getCollection(String)} instead, see {@link #getLocalStorage(MongoClientTypes)}.
+     * The queries of this collection are not checked against its indexes, see {@link #getIndexedCollection(String, MongoClientTypes, Class)}.
      */
     @NotNull CollectionWrapper getCollection(@NotNull String name, @NotNull MongoClientTypes type);
 
+    /**
+     * Searches for a collection by the specified name and binds it to a {@link Documentable} class. If the collection does not exist, it will be created.
+     * Objects are streamed straight to the driver by a {@link com.meturum.centra.conversions.DocumentableCodec}, no intermediate {@link Document} is built.
+     * The indexes declared by the class ({@link Documentable.Indexed}) are reconciled in the background the first time and the queries whose filter cannot use
+     * any index are logged, see {@link IndexReconciler}, unless the collection is stored by a {@link LocalStorage}.
+     *
+     * @param name the name of the collection.
+     * @param type the type of the collection.
+     * @param clazz the class of the documents.
+     * @return the typed collection.
+     */
+    default @NotNull <T extends Documentable> MongoCollection<T> getCollection(@NotNull String name, @NotNull MongoClientTypes type, @NotNull Class<T> clazz) {
+        final CollectionWrapper wrapper = getCollection(name, type);
+        final MongoCollection<Document> collection = wrapper.raw();
+
+        final MongoCollection<T> typed = collection.withCodecRegistry(CodecRegistries.fromRegistries(
+                CodecRegistries.fromProviders(new DocumentableCodecProvider(getSystemManager())),
+                collection.getCodecRegistry()
+        )).withDocumentClass(clazz);
+
+        return getLocalStorage(type) == null ? IndexReconciler.of(wrapper, clazz).checking(typed) : typed;
+    }
+
+    /**
+     * Searches for a collection by the specified name, reconciling the indexes declared by a {@link Documentable} class ({@link Documentable.Indexed})
+     * and logging the queries whose filter cannot use any index, see {@link IndexedCollectionWrapper}. If the collection does not exist, it will be created.
+     *
+     * @param name the name of the collection.
+     * @param type the type of the collection.
+     * @param clazz the class of the documents stored in the collection.
+     * @return the collection, not checked if it is stored by a {@link LocalStorage}.
+     */
+    default @NotNull CollectionWrapper getIndexedCollection(@NotNull String name, @NotNull MongoClientTypes type, @NotNull Class<? extends Documentable> clazz) {
+        final CollectionWrapper wrapper = getCollection(name, type);
+
+        return getLocalStorage(type) == null ? new IndexedCollectionWrapper(wrapper, clazz) : wrapper;
+    }
+
+    /**
+     * Gets the circuit breaker of a client, monitoring whether it is reachable.
+     *
+     * @param type the type of the client.
+     * @return the breaker of the client.
+     * @apiNote By default, this is {@link CircuitBreaker#get(MongoClientTypes)}. Implementations should run their synchronous operations
+     * (e.g. {@link com.meturum.centra.conversions.IDynamicTag#saveSync}) through it, see {@link CircuitBreaker#call(java.util.function.Supplier)}.
+     */
+    default @NotNull CircuitBreaker getCircuitBreaker(@NotNull MongoClientTypes type) {
+        return CircuitBreaker.get(type);
+    }
+
+    /**
+     * Gets the local storage replacing Mongo for the collections of a client.
+     *
+     * @param type the type of the client.
+     * @return the storage, or null if the client uses Mongo.
+     * @apiNote By default, this is {@link LocalStorage#get(MongoClientTypes)}.
+     */
+    default @Nullable LocalStorage getLocalStorage(@NotNull MongoClientTypes type) {
+        return LocalStorage.get(type);
+    }
+
     enum MongoClientTypes {
         GLOBAL_DATABASE, SERVER_DATABASE
     }
@@ -0,0 +1,160 @@
+package com.meturum.centra.mongo;
+
+import org.bukkit.Bukkit;
+import org.jetbrains.annotations.NotNull;
+
+import javax.annotation.Nullable;
+import java.lang.reflect.Method;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+/**
+ * The executors running the blocking driver calls of {@link AsyncCollection}.
+ * <p>
+ * On runtimes supporting virtual threads (Java 21+), a virtual-thread-per-task executor is used, thousands of concurrent
+ * operations can wait on the driver without a large platform thread pool. Older runtimes fall back to a cached pool of daemon threads.
+ * Centra is compiled for Java 17, virtual threads are therefore looked up reflectively.
+ * <p>
+ * The operations of each {@link Mongo.MongoClientTypes} are limited by a {@link BoundedExecutor}, see {@link #getExecutor(Mongo.MongoClientTypes)}.
+ */
+public final class MongoExecutors {
+
+    private static final @Nullable Method VIRTUAL_THREAD_PER_TASK = findVirtualThreadPerTask();
+
+    /**
+     * The default maximum number of operations running at once per {@link Mongo.MongoClientTypes}.
+     */
+    public static final int DEFAULT_MAX_IN_FLIGHT = 64;
+
+    /**
+     * The default maximum number of operations waiting to run per {@link Mongo.MongoClientTypes}.
+     */
+    public static final int DEFAULT_MAX_QUEUED = 4096;
+
+    private static volatile @Nullable Executor defaultExecutor;
+    private static volatile BooleanSupplier mainThread = () -> Bukkit.getServer() != null && Bukkit.isPrimaryThread(); // the server is not running in tests.
+    private static final Map<Mongo.MongoClientTypes, BoundedExecutor> EXECUTORS = new EnumMap<>(Mongo.MongoClientTypes.class);
+
+    private MongoExecutors() { }
+
+    /**
+     * @return true if the runtime supports virtual threads.
+     */
+    public static boolean isVirtualThreadsAvailable() {
+        return VIRTUAL_THREAD_PER_TASK != null;
+    }
+
+    /**
+     * Creates a new executor running each task on its own virtual thread, or on a cached pool of daemon threads if virtual threads are not available.
+     *
+     * @return the new executor, it should be shut down by the caller once no longer used.
+     */
+    public static @NotNull ExecutorService newVirtualThreadPerTaskExecutor() {
+        if (VIRTUAL_THREAD_PER_TASK != null) {
+            try {
+                return (ExecutorService) VIRTUAL_THREAD_PER_TASK.invoke(null);
+            }catch (Exception exception) {
+                exception.printStackTrace();
+            }
+        }
+
+        return Executors.newCachedThreadPool(new MongoThreadFactory());
+    }
+
+    /**
+     * Gets the executor used by {@link CollectionWrapper#getExecutor()} unless the wrapper overrides it.
+     *
+     * @return the default executor, created on first use with {@link #newVirtualThreadPerTaskExecutor()}.
+     */
+    public static @NotNull Executor getDefaultExecutor() {
+        Executor executor = defaultExecutor;
+        if (executor != null) return executor;
+
+        synchronized (MongoExecutors.class) {
+            if (defaultExecutor == null) defaultExecutor = newVirtualThreadPerTaskExecutor();
+            return defaultExecutor;
+        }
+    }
+
+    /**
+     * Replaces the default executor, e.g. with a bounded pool or the scheduler of the server.
+     *
+     * @param executor the new default executor.
+     * @apiNote The previous executor is not shut down.
+     */
+    public static void setDefaultExecutor(@NotNull final Executor executor) {
+        defaultExecutor = executor;
+    }
+
+    /**
+     * Sets how the main thread of the server is recognized, by default {@link Bukkit#isPrimaryThread()} (e.g. for a server with several main threads).
+     * A {@link BoundedExecutor} never makes the main thread wait, see {@link BoundedExecutor.OverflowPolicy#BLOCK}.
+     *
+     * @param check whether the calling thread is the main thread.
+     */
+    public static void setMainThreadCheck(@NotNull final BooleanSupplier check) {
+        mainThread = check;
+    }
+
+    /**
+     * @return true if the calling thread is the main thread of the server, see {@link #setMainThreadCheck(BooleanSupplier)}. Always false if no server is running.
+     */
+    public static boolean isMainThread() {
+        return mainThread.getAsBoolean();
+    }
+
+    /**
+     * Gets the bounded executor of the operations of a client, each client has its own limit so a slow database does not starve the other.
+     *
+     * @param type the type of the client.
+     * @return the executor, created on first use on top of {@link #getDefaultExecutor()} with {@link #DEFAULT_MAX_IN_FLIGHT},
+     * {@link #DEFAULT_MAX_QUEUED} and {@link BoundedExecutor.OverflowPolicy#BLOCK}.
+     */
+    public static @NotNull BoundedExecutor getExecutor(@NotNull final Mongo.MongoClientTypes type) {
+        synchronized (EXECUTORS) {
+            return EXECUTORS.computeIfAbsent(type, key -> new BoundedExecutor(getDefaultExecutor(), DEFAULT_MAX_IN_FLIGHT, DEFAULT_MAX_QUEUED, BoundedExecutor.OverflowPolicy.BLOCK));
+        }
+    }
+
+    /**
+     * Replaces the bounded executor of the operations of a client, e.g. with other limits or another overflow policy.
+     *
+     * @param type the type of the client.
+     * @param executor the new executor.
+     * @apiNote Operations already queued on the previous executor still run on it.
+     */
+    public static void setExecutor(@NotNull final Mongo.MongoClientTypes type, @NotNull final BoundedExecutor executor) {
+        synchronized (EXECUTORS) {
+            EXECUTORS.put(type, executor);
+        }
+    }
+
+    private static @Nullable Method findVirtualThreadPerTask() {
+        try {
+            return Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+        }catch (NoSuchMethodException exception) {
+            return null;
+        }
+    }
+
+    private static final class MongoThreadFactory implements ThreadFactory {
+
+        private final AtomicInteger counter = new AtomicInteger();
+
+        @Override
+        public Thread newThread(@NotNull final Runnable runnable) {
+            final Thread thread = new Thread(runnable, "centra-mongo-" + counter.incrementAndGet());
+            thread.setDaemon(true); // must never prevent the server from shutting down.
+
+            return thread;
+        }
+
+    }
+
+}
@@ -0,0 +1,138 @@
+package com.meturum.centra.mongo;
+
+import org.jetbrains.annotations.NotNull;
+
+import javax.annotation.Nullable;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * The {@link CollectionMetrics} of every instrumented collection, by client type and name.
+ * <p>
+ * {@link #snapshot()} reads the metrics since the start, {@link #export(Duration, Consumer)} periodically reports those of the last interval,
+ * e.g. {@code MongoMetrics.export(Duration.ofMinutes(1), MongoMetrics.log(getLogger()))}.
+ *
+ * @see MetricsCollectionWrapper
+ */
+public final class MongoMetrics {
+
+    private static final Map<Key, CollectionMetrics> METRICS = new ConcurrentHashMap<>();
+
+    private MongoMetrics() { }
+
+    /**
+     * Gets the metrics of a collection.
+     *
+     * @param type the type of the client, or null if unknown.
+     * @param collection the name of the collection.
+     * @return the metrics, created on first use.
+     */
+    public static @NotNull CollectionMetrics getMetrics(@Nullable final Mongo.MongoClientTypes type, @NotNull final String collection) {
+        return METRICS.computeIfAbsent(new Key(type, collection), key -> new CollectionMetrics(collection, type));
+    }
+
+    /**
+     * @return the metrics of every instrumented collection.
+     */
+    public static @NotNull Collection<CollectionMetrics> getAll() {
+        return Collections.unmodifiableCollection(METRICS.values());
+    }
+
+    /**
+     * Reads the metrics of every operation since the start, skipping the operations never run.
+     *
+     * @return the reports, by collection.
+     */
+    public static @NotNull List<Report> snapshot() {
+        final List<Report> reports = new ArrayList<>();
+
+        for (final CollectionMetrics metrics : METRICS.values()) {
+            metrics.snapshot().forEach((operation, snapshot) -> {
+                if (snapshot.count() > 0) reports.add(new Report(metrics.getCollection(), metrics.getType(), operation, snapshot));
+            });
+        }
+
+        reports.sort(Comparator.comparing(Report::collection).thenComparing(Report::operation));
+        return reports;
+    }
+
+    /**
+     * Reports the metrics of the last interval periodically, on a daemon thread. Operations not run during the interval are skipped.
+     *
+     * @param interval the interval between two reports.
+     * @param exporter the consumer of the reports, e.g. {@link #log(Logger)}.
+     * @return a handle stopping the export once closed.
+     */
+    public static @NotNull AutoCloseable export(@NotNull final Duration interval, @NotNull final Consumer<List<Report>> exporter) {
+        final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            final Thread thread = new Thread(runnable, "centra-metrics");
+            thread.setDaemon(true);
+
+            return thread;
+        });
+
+        final Map<Key, Map<CollectionMetrics.Operation, CollectionMetrics.Snapshot>> previous = new HashMap<>();
+
+        scheduler.scheduleAtFixedRate(() -> {
+            final List<Report> reports = new ArrayList<>();
+
+            for (final Map.Entry<Key, CollectionMetrics> entry : METRICS.entrySet()) {
+                final Map<CollectionMetrics.Operation, CollectionMetrics.Snapshot> current = entry.getValue().snapshot();
+                final Map<CollectionMetrics.Operation, CollectionMetrics.Snapshot> last = previous.put(entry.getKey(), current);
+
+                current.forEach((operation, snapshot) -> {
+                    final CollectionMetrics.Snapshot delta = last != null ? snapshot.since(last.get(operation)) : snapshot;
+                    if (delta.count() > 0) reports.add(new Report(entry.getValue().getCollection(), entry.getValue().getType(), operation, delta));
+                });
+            }
+
+            reports.sort(Comparator.comparing(Report::collection).thenComparing(Report::operation));
+
+            try {
+                exporter.accept(reports);
+            }catch (Exception exception) {
+                exception.printStackTrace();
+            }
+        }, interval.toNanos(), interval.toNanos(), TimeUnit.NANOSECONDS);
+
+        return scheduler::shutdownNow;
+    }
+
+    /**
+     * Gets an exporter logging one line per report.
+     *
+     * @param logger the logger, e.g. the one of the plugin.
+     * @return the exporter.
+     */
+    public static @NotNull Consumer<List<Report>> log(@NotNull final Logger logger) {
+        return reports -> reports.forEach(report -> logger.log(Level.INFO, report.toString()));
+    }
+
+    private record Key(@Nullable Mongo.MongoClientTypes type, @NotNull String collection) { }
+
+    /**
+     * The metrics of one operation of a collection.
+     *
+     * @param collection the name of the collection.
+     * @param type the type of its client, or null if unknown.
+     * @param operation the operation.
+     * @param metrics the metrics.
+     */
+    public record Report(@NotNull String collection, @Nullable Mongo.MongoClientTypes type, @NotNull CollectionMetrics.Operation operation,
+                         @NotNull CollectionMetrics.Snapshot metrics) {
+
+        @Override
+        public String toString() {
+            return collection + (type != null ? " [" + type + "]" : "") + " " + operation + ": " + metrics;
+        }
+
+    }
+
+}
@@ -0,0 +1,31 @@
+package com.meturum.centra.mongo;
+
+import com.mongodb.MongoClientException;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Thrown when an operation is refused without being sent because the {@link CircuitBreaker} of its client is open.
+ */
+public final class MongoUnavailableException extends MongoClientException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final Mongo.MongoClientTypes type;
+
+    /**
+     * @param type the type of the unavailable client.
+     */
+    public MongoUnavailableException(@NotNull final Mongo.MongoClientTypes type) {
+        super("The " + type + " client is unavailable, the operation was not sent.");
+
+        this.type = type;
+    }
+
+    /**
+     * @return the type of the unavailable client.
+     */
+    public @NotNull Mongo.MongoClientTypes getType() {
+        return type;
+    }
+
+}
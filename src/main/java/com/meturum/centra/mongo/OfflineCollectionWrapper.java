@@ -0,0 +1,286 @@
+package com.meturum.centra.mongo;
+
+import com.mongodb.client.model.ReplaceOptions;
+import com.mongodb.client.model.UpdateOptions;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.jetbrains.annotations.NotNull;
+
+import javax.annotation.Nullable;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+
+/**
+ * A {@link CollectionWrapper} switching to an offline mode while the {@link CircuitBreaker} of its client is open.
+ * <p>
+ * Offline, reads fail immediately with a {@link MongoUnavailableException} instead of waiting for the driver, wrap this collection in a
+ * {@link CachingCollectionWrapper} to keep serving the cached results. Writes ({@code insertOneAsync}, {@code updateOneAsync}, {@code replaceOneAsync}
+ * and {@code deleteOneAsync}) are buffered in order, as well as writes failing because Mongo became unreachable (they take back their place among the
+ * buffered writes), and sent once probes are let through again.
+ * Their callbacks run once they were sent. Writes beyond the maximum number of buffered writes fail with a {@link MongoUnavailableException}.
+ * Bulk operations are not buffered, they fail fast through the {@link #async()} of the collection it decorates.
+ * <p>
+ * Buffered writes only live in memory, wrap this collection in a {@link JournalingCollectionWrapper} to keep them across a restart.
+ * Call {@link #close()} when the plugin is disabled.
+ */
+public final class OfflineCollectionWrapper extends ForwardingCollectionWrapper implements AutoCloseable {
+
+    /**
+     * The default maximum number of buffered writes.
+     */
+    public static final int DEFAULT_MAX_BUFFERED = 10_000;
+
+    private static final long RETRY_INTERVAL = TimeUnit.SECONDS.toNanos(1);
+
+    private final CircuitBreaker breaker;
+    private final int maxBuffered;
+    private final ScheduledExecutorService scheduler;
+    private final CircuitBreaker.StateListener listener;
+
+    private final TreeMap<Long, Write<?>> buffer = new TreeMap<>(); // by sequence, the order of the calls.
+    private long sequence;
+    private boolean draining, scheduled, closed;
+
+    /**
+     * @param delegate the collection to operate on, its client type must be known.
+     */
+    public OfflineCollectionWrapper(@NotNull final CollectionWrapper delegate) {
+        this(delegate, requireBreaker(delegate), DEFAULT_MAX_BUFFERED);
+    }
+
+    /**
+     * @param delegate the collection to operate on.
+     * @param breaker the breaker of the client.
+     * @param maxBuffered the maximum number of buffered writes.
+     */
+    public OfflineCollectionWrapper(@NotNull final CollectionWrapper delegate, @NotNull final CircuitBreaker breaker, final int maxBuffered) {
+        super(delegate);
+
+        if (maxBuffered < 0) throw new IllegalArgumentException("maxBuffered must be positive.");
+
+        this.breaker = breaker;
+        this.maxBuffered = maxBuffered;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            final Thread thread = new Thread(runnable, "centra-offline-" + delegate.raw().getNamespace().getCollectionName());
+            thread.setDaemon(true);
+
+            return thread;
+        });
+
+        this.listener = (source, previous, next) -> {
+            if (next == CircuitBreaker.State.CLOSED) scheduler.execute(this::drain);
+        };
+        breaker.addListener(listener);
+    }
+
+    /**
+     * @return true if the breaker of the client is not closed.
+     */
+    public boolean isOffline() {
+        return breaker.getState() != CircuitBreaker.State.CLOSED;
+    }
+
+    /**
+     * @return the number of buffered writes.
+     */
+    public synchronized int getBufferedCount() {
+        return buffer.size();
+    }
+
+    @Override
+    public @NotNull CircuitBreaker getCircuitBreaker() {
+        return breaker;
+    }
+
+    @Override
+    public void findAsync(@Nullable Bson filter, @NotNull FindLambda lambda) {
+        findAsync(filter, null, lambda);
+    }
+
+    @Override
+    public void findAsync(@Nullable Bson filter, @Nullable Bson projection, @NotNull FindLambda lambda) {
+        if (!breaker.tryAcquire()) {
+            lambda.run(null, new MongoUnavailableException(breaker.getType()));
+            return;
+        }
+
+        getDelegate().findAsync(filter, projection, (result, exception) -> {
+            breaker.record(exception);
+            lambda.run(result, exception);
+        });
+    }
+
+    @Override
+    public void insertOneAsync(@NotNull Document document, @Nullable InsertOneLambda lambda) {
+        write(callback -> getDelegate().insertOneAsync(document, callback::accept), lambda != null ? lambda::run : null);
+    }
+
+    @Override
+    public void updateOneAsync(@NotNull Bson filter, @NotNull Bson updates, @Nullable UpdateOptions options, @Nullable UpdateOneLambda lambda) {
+        write(callback -> getDelegate().updateOneAsync(filter, updates, options, callback::accept), lambda != null ? lambda::run : null);
+    }
+
+    @Override
+    public void replaceOneAsync(@NotNull Bson filter, @NotNull Document document, @Nullable ReplaceOptions options, @Nullable ReplaceOneLambda lambda) {
+        write(callback -> getDelegate().replaceOneAsync(filter, document, options, callback::accept), lambda != null ? lambda::run : null);
+    }
+
+    @Override
+    public void deleteOneAsync(@NotNull Bson filter, @Nullable DeleteOneLambda lambda) {
+        write(callback -> getDelegate().deleteOneAsync(filter, callback::accept), lambda != null ? lambda::run : null);
+    }
+
+    /**
+     * Stops retrying, the writes still buffered fail with a {@link MongoUnavailableException}.
+     */
+    @Override
+    public void close() {
+        final List<Write<?>> remaining;
+
+        synchronized (this) {
+            if (closed) return;
+
+            closed = true;
+            remaining = List.copyOf(buffer.values());
+            buffer.clear();
+        }
+
+        breaker.removeListener(listener);
+        scheduler.shutdown();
+
+        remaining.forEach(write -> write.fail(new MongoUnavailableException(breaker.getType())));
+    }
+
+    private <R> void write(@NotNull final Sender<R> sender, @Nullable final BiConsumer<R, Exception> lambda) {
+        final Write<R> write;
+
+        synchronized (this) {
+            write = new Write<>(sequence++, sender, lambda);
+
+            if (draining || !buffer.isEmpty()) { // behind the buffered writes, in order.
+                buffer(write, false);
+                return;
+            }
+        }
+
+        if (breaker.tryAcquire()) write.send(false);
+        else buffer(write, false);
+    }
+
+    /**
+     * @param retry whether the write was already accepted and failed because Mongo became unreachable, it is buffered beyond the maximum.
+     */
+    private void buffer(@NotNull final Write<?> write, final boolean retry) {
+        synchronized (this) {
+            if (!closed && (retry || buffer.size() < maxBuffered)) {
+                buffer.put(write.sequence, write);
+
+                schedule();
+                return;
+            }
+        }
+
+        write.fail(new MongoUnavailableException(breaker.getType()));
+    }
+
+    private synchronized void schedule() {
+        if (scheduled || closed) return;
+
+        scheduled = true;
+        scheduler.schedule(() -> {
+            synchronized (this) {
+                scheduled = false;
+            }
+
+            drain();
+        }, RETRY_INTERVAL, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Sends the first buffered write if the breaker lets it through, the next one is sent once it completed.
+     */
+    private void drain() {
+        final Write<?> next;
+
+        synchronized (this) {
+            if (draining || closed || buffer.isEmpty()) return;
+
+            if (!breaker.tryAcquire()) {
+                schedule();
+                return;
+            }
+
+            draining = true;
+            next = buffer.pollFirstEntry().getValue();
+        }
+
+        next.send(true);
+    }
+
+    private void drained(final boolean sent) {
+        synchronized (this) {
+            draining = false;
+            if (closed) return;
+        }
+
+        if (sent) scheduler.execute(this::drain); // not on the callback thread, a synchronous delegate would recurse.
+    }
+
+    private static @NotNull CircuitBreaker requireBreaker(@NotNull final CollectionWrapper delegate) {
+        final CircuitBreaker breaker = delegate.getCircuitBreaker();
+        if (breaker == null) throw new IllegalArgumentException("The type of the collection is unknown, pass its circuit breaker.");
+
+        return breaker;
+    }
+
+    private interface Sender<R> {
+        void send(@NotNull BiConsumer<R, Exception> callback);
+    }
+
+    private final class Write<R> {
+
+        private final long sequence;
+        private final Sender<R> sender;
+        private final @Nullable BiConsumer<R, Exception> lambda;
+
+        private Write(final long sequence, @NotNull final Sender<R> sender, @Nullable final BiConsumer<R, Exception> lambda) {
+            this.sequence = sequence;
+            this.sender = sender;
+            this.lambda = lambda;
+        }
+
+        private void send(final boolean buffered) {
+            try {
+                sender.send((result, exception) -> complete(result, exception, buffered));
+            }catch (RuntimeException exception) {
+                complete(null, exception, buffered);
+            }
+        }
+
+        private void complete(@Nullable final R result, @Nullable final Exception exception, final boolean buffered) {
+            breaker.record(exception);
+
+            if (exception != null && CircuitBreaker.isDegradation(exception)) { // kept for the next attempt, at its place.
+                buffer(this, true);
+                if (buffered) drained(false);
+                return;
+            }
+
+            try {
+                if (lambda != null) lambda.accept(result, exception);
+            } finally {
+                if (buffered) drained(true);
+            }
+        }
+
+        private void fail(@NotNull final Exception exception) {
+            if (lambda != null) lambda.accept(null, exception);
+        }
+
+    }
+
+}
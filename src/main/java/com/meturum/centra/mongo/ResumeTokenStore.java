@@ -0,0 +1,82 @@
+package com.meturum.centra.mongo;
+
+import com.mongodb.MongoClientSettings;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.ReplaceOptions;
+import org.bson.BsonDocument;
+import org.bson.Document;
+import org.jetbrains.annotations.NotNull;
+
+import javax.annotation.Nullable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Stores the resume token of each {@link ChangeStreamWatcher}, so a restarted server continues from the last change it received.
+ */
+public interface ResumeTokenStore {
+
+    /**
+     * Loads the last stored token of a stream.
+     *
+     * @param stream the name of the stream, e.g. the namespace of the collection.
+     * @return the token, or null if none was stored.
+     */
+    @Nullable BsonDocument load(@NotNull String stream);
+
+    /**
+     * Stores the last token of a stream.
+     *
+     * @param stream the name of the stream.
+     * @param token the token, or null to forget it (e.g. when the change history was lost).
+     */
+    void save(@NotNull String stream, @Nullable BsonDocument token);
+
+    /**
+     * Creates a store keeping the tokens in memory, the stream starts from the current changes after a restart.
+     *
+     * @return the new store.
+     */
+    static @NotNull ResumeTokenStore inMemory() {
+        final ConcurrentMap<String, BsonDocument> tokens = new ConcurrentHashMap<>();
+
+        return new ResumeTokenStore() {
+            @Override
+            public @Nullable BsonDocument load(@NotNull String stream) {
+                return tokens.get(stream);
+            }
+
+            @Override
+            public void save(@NotNull String stream, @Nullable BsonDocument token) {
+                if (token != null) tokens.put(stream, token);
+                else tokens.remove(stream);
+            }
+        };
+    }
+
+    /**
+     * Creates a store keeping the tokens in a collection, one document per stream. (thread-blocking)
+     * A {@link Mongo.MongoClientTypes#SERVER_DATABASE} collection should be used, each server has its own position in the streams.
+     *
+     * @param collection the collection to store the tokens in.
+     * @return the new store.
+     */
+    static @NotNull ResumeTokenStore collection(@NotNull final CollectionWrapper collection) {
+        return new ResumeTokenStore() {
+            @Override
+            public @Nullable BsonDocument load(@NotNull String stream) {
+                final Document document = collection.raw().find(Filters.eq("_id", stream)).first();
+                if (document == null || !(document.get("token") instanceof Document token)) return null;
+
+                return token.toBsonDocument(BsonDocument.class, MongoClientSettings.getDefaultCodecRegistry());
+            }
+
+            @Override
+            public void save(@NotNull String stream, @Nullable BsonDocument token) {
+                if (token == null) collection.raw().deleteOne(Filters.eq("_id", stream));
+                else collection.raw().replaceOne(Filters.eq("_id", stream), new Document("_id", stream).append("token", token), new ReplaceOptions().upsert(true));
+            }
+        };
+    }
+
+}
@@ -0,0 +1,563 @@
+package com.meturum.centra.mongo;
+
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.MongoClientSettings;
+import com.mongodb.bulk.BulkWriteError;
+import com.mongodb.bulk.BulkWriteUpsert;
+import com.mongodb.client.model.*;
+import com.mongodb.client.result.UpdateResult;
+import org.bson.BsonDocument;
+import org.bson.BsonValue;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.jetbrains.annotations.NotNull;
+
+import javax.annotation.Nullable;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A {@link CollectionWrapper} delaying {@code updateOneAsync}/{@code replaceOneAsync} calls, so successive writes to the same document
+ * are coalesced and sent together with one unordered {@code bulkWrite}.
+ * <p>
+ * Writes are grouped by filter. A {@code $set}/{@code $unset} update is merged into the pending write of the same document
+ * (later fields win), a replacement supersedes it. Writes that cannot be merged (other operators, conflicting paths, different
+ * upsert flags) are kept in order and sent in a following round. Pending writes are flushed once the window elapsed since the first one,
+ * or as soon as the number of pending writes reaches the limit.
+ * <p>
+ * Only writes filtering on a single top-level field by equality (e.g. {@code Filters.eq("uuid", uuid)}) and not modifying it are delayed, conditional
+ * filters (e.g. versioned saves) and other writes are sent in order without being coalesced.
+ * <p>
+ * Every original call still receives its own callback once its write was flushed. The matched count of a {@code bulkWrite} is only known for the whole round:
+ * when some writes of a round matched and others did not, the documents matching each filter are read to report the matched count of each write.
+ * The modified count is unknown (null).
+ * <p>
+ * Inserts, deletes, bulk operations and finds flush the pending writes first, then run in order. {@link #async()} goes through the queue, {@link #raw()} bypasses it.
+ * Call {@link #close()} (e.g. when the plugin is disabled) to flush the last writes.
+ */
+public final class WriteBehindCollectionWrapper extends ForwardingCollectionWrapper implements AutoCloseable {
+
+    private static final Logger LOGGER = Logger.getLogger("Centra");
+
+    /**
+     * The default delay between the first pending write and the flush.
+     */
+    public static final Duration DEFAULT_WINDOW = Duration.ofMillis(50);
+
+    /**
+     * The default number of pending writes triggering an immediate flush.
+     */
+    public static final int DEFAULT_MAX_PENDING = 500;
+
+    private final long window;
+    private final int maxPending;
+    private final ScheduledThreadPoolExecutor scheduler;
+
+    private Map<BsonDocument, Deque<Pending>> pending = new LinkedHashMap<>();
+    private int size;
+    private boolean scheduled;
+
+    /**
+     * @param delegate the collection to write to.
+     */
+    public WriteBehindCollectionWrapper(@NotNull final CollectionWrapper delegate) {
+        this(delegate, DEFAULT_WINDOW, DEFAULT_MAX_PENDING);
+    }
+
+    /**
+     * @param delegate the collection to write to.
+     * @param window the delay between the first pending write and the flush.
+     * @param maxPending the number of pending writes triggering an immediate flush.
+     */
+    public WriteBehindCollectionWrapper(@NotNull final CollectionWrapper delegate, @NotNull final Duration window, final int maxPending) {
+        super(delegate);
+
+        if (window.isNegative() || maxPending < 1) throw new IllegalArgumentException("window must be positive and maxPending at least 1.");
+
+        this.window = window.toNanos();
+        this.maxPending = maxPending;
+        this.scheduler = new ScheduledThreadPoolExecutor(1, runnable -> {
+            final Thread thread = new Thread(runnable, "centra-write-behind-" + delegate.raw().getNamespace().getCollectionName());
+            thread.setDaemon(true);
+
+            return thread;
+        });
+        this.scheduler.setExecuteExistingDelayedTasksAfterShutdownPolicy(false); // close() flushes right away, not once the window elapsed.
+    }
+
+    /**
+     * @return the number of writes waiting to be flushed, after coalescing.
+     */
+    public synchronized int getPendingCount() {
+        return size;
+    }
+
+    @Override
+    public void updateOneAsync(@NotNull Bson filter, @NotNull Bson updates, @Nullable UpdateOptions options, @Nullable UpdateOneLambda lambda) {
+        final BsonDocument key = toBsonDocument(filter);
+        final BsonDocument update = toBsonDocument(updates);
+        if (!isPlain(options) || !isOperators(update) || !isDelayable(key) || modifies(update, key.getFirstKey())) { // e.g. array filters, the write is not delayed.
+            barrier(() -> await(done -> getDelegate().updateOneAsync(filter, updates, options, (result, exception) -> {
+                try {
+                    if (lambda != null) lambda.run(result, exception);
+                } finally { done.run(); }
+            })));
+            return;
+        }
+
+        enqueue(new Pending(filter, key, update, null, options != null && options.isUpsert(), lambda != null ? lambda::run : null));
+    }
+
+    @Override
+    public void replaceOneAsync(@NotNull Bson filter, @NotNull Document document, @Nullable ReplaceOptions options, @Nullable ReplaceOneLambda lambda) {
+        final BsonDocument key = toBsonDocument(filter);
+        if (!isPlain(options) || !isDelayable(key) || modifies(document, key)) {
+            barrier(() -> await(done -> getDelegate().replaceOneAsync(filter, document, options, (result, exception) -> {
+                try {
+                    if (lambda != null) lambda.run(result, exception);
+                } finally { done.run(); }
+            })));
+            return;
+        }
+
+        enqueue(new Pending(filter, key, null, document, options != null && options.isUpsert(), lambda != null ? lambda::run : null));
+    }
+
+    @Override
+    public void insertOneAsync(@NotNull Document document, @Nullable InsertOneLambda lambda) {
+        barrier(() -> await(done -> getDelegate().insertOneAsync(document, (result, exception) -> {
+            try {
+                if (lambda != null) lambda.run(result, exception);
+            } finally { done.run(); }
+        })));
+    }
+
+    @Override
+    public void deleteOneAsync(@NotNull Bson filter, @Nullable DeleteOneLambda lambda) {
+        barrier(() -> await(done -> getDelegate().deleteOneAsync(filter, (result, exception) -> {
+            try {
+                if (lambda != null) lambda.run(result, exception);
+            } finally { done.run(); }
+        })));
+    }
+
+    @Override
+    public void findAsync(@Nullable Bson filter, @NotNull FindLambda lambda) {
+        barrier(() -> getDelegate().findAsync(filter, lambda)); // reads see every write made before them.
+    }
+
+    @Override
+    public void findAsync(@Nullable Bson filter, @Nullable Bson projection, @NotNull FindLambda lambda) {
+        barrier(() -> getDelegate().findAsync(filter, projection, lambda));
+    }
+
+    @Override
+    public void bulkWriteAsync(@NotNull List<? extends WriteModel<? extends Document>> requests, boolean ordered, @Nullable BulkWriteLambda lambda) {
+        barrier(() -> await(done -> getDelegate().bulkWriteAsync(requests, ordered, (result, exception) -> {
+            try {
+                if (lambda != null) lambda.run(result, exception);
+            } finally { done.run(); }
+        })));
+    }
+
+    @Override
+    public void insertManyAsync(@NotNull List<Document> documents, boolean ordered, @Nullable BulkWriteLambda lambda) {
+        barrier(() -> await(done -> getDelegate().insertManyAsync(documents, ordered, (result, exception) -> {
+            try {
+                if (lambda != null) lambda.run(result, exception);
+            } finally { done.run(); }
+        })));
+    }
+
+    @Override
+    public void updateManyAsync(@NotNull Bson filter, @NotNull Bson updates, @Nullable UpdateOptions options, @Nullable UpdateManyLambda lambda) {
+        barrier(() -> await(done -> getDelegate().updateManyAsync(filter, updates, options, (result, exception) -> {
+            try {
+                if (lambda != null) lambda.run(result, exception);
+            } finally { done.run(); }
+        })));
+    }
+
+    @Override
+    public void deleteManyAsync(@NotNull Bson filter, @Nullable DeleteManyLambda lambda) {
+        barrier(() -> await(done -> getDelegate().deleteManyAsync(filter, (result, exception) -> {
+            try {
+                if (lambda != null) lambda.run(result, exception);
+            } finally { done.run(); }
+        })));
+    }
+
+    /**
+     * Flushes the pending writes now.
+     *
+     * @return a future completed once the pending writes were sent.
+     */
+    public @NotNull CompletableFuture<Void> flush() {
+        return CompletableFuture.runAsync(this::flushNow, scheduler);
+    }
+
+    /**
+     * Flushes the pending writes and stops the flushing thread, later writes are rejected. (thread-blocking)
+     */
+    @Override
+    public void close() {
+        scheduler.execute(this::flushNow);
+        scheduler.shutdown();
+
+        try {
+            if (!scheduler.awaitTermination(30, TimeUnit.SECONDS))
+                LOGGER.warning("Timed out while flushing the pending writes of " + getDelegate().raw().getNamespace() + ".");
+        }catch (InterruptedException exception) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void enqueue(@NotNull final Pending write) {
+        final boolean full;
+
+        synchronized (this) {
+            if (scheduler.isShutdown()) throw new RejectedExecutionException("The write-behind queue was closed.");
+
+            final Deque<Pending> queue = pending.computeIfAbsent(write.key, key -> new ArrayDeque<>());
+            final Pending last = queue.peekLast();
+
+            if (last == null || !last.merge(write)) {
+                queue.addLast(write);
+                size++;
+            }
+
+            if (!scheduled) {
+                scheduled = true;
+                scheduler.schedule(this::flushNow, window, TimeUnit.NANOSECONDS);
+            }
+
+            full = size >= maxPending;
+        }
+
+        if (full) scheduler.execute(this::flushNow);
+    }
+
+    private void barrier(@NotNull final Runnable operation) {
+        scheduler.execute(() -> {
+            flushNow();
+            operation.run();
+        });
+    }
+
+    /**
+     * Runs an operation of the delegate and waits for its callback, so later writes are not sent before it.
+     */
+    private static void await(@NotNull final java.util.function.Consumer<Runnable> operation) {
+        final CountDownLatch latch = new CountDownLatch(1);
+
+        try {
+            operation.accept(latch::countDown);
+            latch.await();
+        }catch (InterruptedException exception) {
+            Thread.currentThread().interrupt();
+        }catch (Exception exception) {
+            LOGGER.log(Level.WARNING, "Could not send a delayed write.", exception);
+        }
+    }
+
+    private void flushNow() {
+        final Map<BsonDocument, Deque<Pending>> snapshot;
+        synchronized (this) {
+            scheduled = false;
+            if (size == 0) return;
+
+            snapshot = pending;
+            pending = new LinkedHashMap<>();
+            size = 0;
+        }
+
+        final List<Deque<Pending>> queues = new ArrayList<>(snapshot.values());
+        while (!queues.isEmpty()) { // one round per position, writes of the same document stay in order.
+            final List<Pending> round = new ArrayList<>(queues.size());
+            for (final Iterator<Deque<Pending>> iterator = queues.iterator(); iterator.hasNext(); ) {
+                final Deque<Pending> queue = iterator.next();
+
+                round.add(queue.pollFirst());
+                if (queue.isEmpty()) iterator.remove();
+            }
+
+            for (int i = 0; i < round.size(); i += BulkResult.DEFAULT_CHUNK_SIZE) { // one chunk per bulk write, failures are known per write.
+                write(round.subList(i, Math.min(round.size(), i + BulkResult.DEFAULT_CHUNK_SIZE)));
+            }
+        }
+    }
+
+    /**
+     * Sends a round through the delegate and waits for its result, so the next round of the same documents is not sent before it.
+     */
+    private void write(@NotNull final List<Pending> round) {
+        final List<WriteModel<Document>> models = new ArrayList<>(round.size());
+        for (final Pending write : round) models.add(write.toModel());
+
+        await(done -> getDelegate().bulkWriteAsync(models, false, (result, exception) -> {
+            try {
+                complete(round, result, exception);
+            } finally { done.run(); }
+        }));
+    }
+
+    private void complete(@NotNull final List<Pending> round, @Nullable final BulkResult result, @Nullable final Exception exception) {
+        if (result == null || result.getFailure() != null) { // not sent, or its outcome is unknown.
+            final Exception failure = result != null ? result.getFailure() : exception;
+            for (final Pending write : round) write.complete(null, failure != null ? failure : new IllegalStateException("The bulk write returned no result."));
+            return;
+        }
+
+        final Map<Integer, Exception> failed = new HashMap<>();
+        final MongoBulkWriteException errors = result.getWriteException();
+        if (errors != null) {
+            for (final BulkWriteError error : errors.getWriteErrors()) failed.put(error.getIndex(), errors);
+        }
+
+        final Map<Integer, BsonValue> upserts = new HashMap<>();
+        for (final BulkWriteUpsert upsert : result.getUpserts()) upserts.put(upsert.getIndex(), upsert.getId());
+
+        final List<Pending> updated = new ArrayList<>();
+        for (int i = 0; i < round.size(); i++) {
+            final Pending write = round.get(i);
+
+            if (failed.containsKey(i)) write.complete(null, failed.get(i));
+            else if (upserts.containsKey(i)) write.complete(UpdateResult.acknowledged(0, 0L, upserts.get(i)), null);
+            else updated.add(write);
+        }
+
+        if (updated.isEmpty()) return;
+
+        final int matched = result.getMatchedCount();
+        final Set<BsonDocument> matching = matched == 0 || matched == updated.size() ? null : findMatching(updated);
+
+        for (final Pending write : updated) {
+            final boolean found = matching != null ? matching.contains(write.key) : matched > 0;
+            write.complete(UpdateResult.acknowledged(found ? 1 : 0, null, null), null);
+        }
+    }
+
+    /**
+     * Reads which filters match a document, when only some writes of a round matched.
+     *
+     * @return the filters matching a document, empty if they could not be read.
+     */
+    private @NotNull Set<BsonDocument> findMatching(@NotNull final List<Pending> writes) {
+        final Set<String> fields = new HashSet<>();
+        final List<Bson> filters = new ArrayList<>(writes.size());
+        for (final Pending write : writes) {
+            fields.add(write.key.getFirstKey());
+            filters.add(write.key);
+        }
+
+        final Set<BsonDocument> matching = new HashSet<>();
+        try {
+            for (final BsonDocument document : raw().withDocumentClass(BsonDocument.class).find(Filters.or(filters)).projection(Projections.include(List.copyOf(fields)))) {
+                for (final String field : fields) {
+                    if (document.containsKey(field)) matching.add(new BsonDocument(field, document.get(field)));
+                }
+            }
+        }catch (Exception exception) {
+            LOGGER.log(Level.WARNING, "Could not read which delayed writes matched a document, they are reported as unmatched.", exception);
+        }
+
+        return matching;
+    }
+
+    /**
+     * @return true if the filter selects documents by equality on a single top-level field, the only filters whose writes are delayed.
+     */
+    private static boolean isDelayable(@NotNull final BsonDocument filter) {
+        if (filter.size() != 1) return false;
+
+        final String field = filter.getFirstKey();
+        final BsonValue value = filter.get(field);
+
+        return !field.startsWith("$") && !field.contains(".") && !(value.isDocument() && !value.asDocument().isEmpty() && value.asDocument().getFirstKey().startsWith("$"))
+                && !value.isRegularExpression() && !value.isArray();
+    }
+
+    /**
+     * @return true if the update modifies the field of the filter, the document would no longer match it.
+     */
+    private static boolean modifies(@NotNull final BsonDocument update, @NotNull final String field) {
+        for (final BsonValue operator : update.values()) {
+            if (!operator.isDocument()) return true;
+
+            for (final String path : operator.asDocument().keySet()) {
+                if (path.equals(field) || path.startsWith(field + ".")) return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * @return true if the replacement changes the value of the field of the filter.
+     */
+    private static boolean modifies(@NotNull final Document replacement, @NotNull final BsonDocument filter) {
+        final String field = filter.getFirstKey();
+        if (!replacement.containsKey(field)) return false;
+
+        return !toBsonDocument(new Document(field, replacement.get(field))).equals(filter);
+    }
+
+    private static boolean isPlain(@Nullable final UpdateOptions options) {
+        return options == null || (options.getArrayFilters() == null && options.getCollation() == null && options.getHint() == null
+                && options.getHintString() == null && options.getBypassDocumentValidation() == null);
+    }
+
+    private static boolean isPlain(@Nullable final ReplaceOptions options) {
+        return options == null || (options.getCollation() == null && options.getHint() == null
+                && options.getHintString() == null && options.getBypassDocumentValidation() == null);
+    }
+
+    private static boolean isOperators(@NotNull final BsonDocument update) {
+        if (update.isEmpty()) return false;
+
+        for (final String key : update.keySet()) {
+            if (!key.startsWith("$")) return false;
+        }
+
+        return true;
+    }
+
+    private static @NotNull BsonDocument toBsonDocument(@NotNull final Bson bson) {
+        return bson.toBsonDocument(BsonDocument.class, MongoClientSettings.getDefaultCodecRegistry());
+    }
+
+    /**
+     * A coalesced write, either an update or a replacement.
+     */
+    private static final class Pending {
+
+        private final Bson filter;
+        private final BsonDocument key;
+        private @Nullable BsonDocument update;
+        private @Nullable Document replacement;
+        private boolean upsert;
+        private final List<Callback> callbacks = new ArrayList<>(1);
+
+        private Pending(@NotNull final Bson filter, @NotNull final BsonDocument key, @Nullable final BsonDocument update, @Nullable final Document replacement,
+                        final boolean upsert, @Nullable final Callback callback) {
+            this.filter = filter;
+            this.key = key;
+            this.update = update;
+            this.replacement = replacement;
+            this.upsert = upsert;
+
+            if (callback != null) callbacks.add(callback);
+        }
+
+        /**
+         * Merges a later write of the same document into this one.
+         *
+         * @return true if merged, false if the write has to be sent after this one.
+         */
+        private boolean merge(@NotNull final Pending next) {
+            if (next.replacement != null) { // the replacement overwrites whatever this write did.
+                update = null;
+                replacement = next.replacement;
+                upsert |= next.upsert;
+                callbacks.addAll(next.callbacks);
+                return true;
+            }
+
+            final BsonDocument changes = Objects.requireNonNull(next.update);
+            if (upsert != next.upsert || !isSetUnset(changes)) return false;
+
+            final BsonDocument set = changes.getDocument("$set", new BsonDocument());
+            final BsonDocument unset = changes.getDocument("$unset", new BsonDocument());
+
+            if (replacement != null) {
+                for (final String key : set.keySet()) if (key.contains(".")) return false;
+                for (final String key : unset.keySet()) if (key.contains(".")) return false;
+
+                final Document merged = new Document(replacement);
+                merged.putAll(set); // BsonValues are encoded as is.
+                unset.keySet().forEach(merged::remove);
+
+                replacement = merged;
+            } else {
+                if (!isSetUnset(Objects.requireNonNull(update))) return false;
+
+                final BsonDocument currentSet = update.getDocument("$set", new BsonDocument());
+                final BsonDocument currentUnset = update.getDocument("$unset", new BsonDocument());
+
+                final Set<String> paths = new HashSet<>(currentSet.keySet());
+                paths.addAll(currentUnset.keySet());
+                if (conflicts(paths, set.keySet()) || conflicts(paths, unset.keySet())) return false;
+
+                final BsonDocument mergedSet = currentSet.clone();
+                final BsonDocument mergedUnset = currentUnset.clone();
+
+                for (final Map.Entry<String, BsonValue> entry : set.entrySet()) {
+                    mergedSet.put(entry.getKey(), entry.getValue());
+                    mergedUnset.remove(entry.getKey());
+                }
+
+                for (final Map.Entry<String, BsonValue> entry : unset.entrySet()) {
+                    mergedUnset.put(entry.getKey(), entry.getValue());
+                    mergedSet.remove(entry.getKey());
+                }
+
+                final BsonDocument merged = new BsonDocument();
+                if (!mergedSet.isEmpty()) merged.put("$set", mergedSet);
+                if (!mergedUnset.isEmpty()) merged.put("$unset", mergedUnset);
+
+                update = merged;
+            }
+
+            callbacks.addAll(next.callbacks);
+            return true;
+        }
+
+        private @NotNull WriteModel<Document> toModel() {
+            if (replacement != null) return new ReplaceOneModel<>(filter, replacement, new ReplaceOptions().upsert(upsert));
+            if (update != null && !update.isEmpty()) return new UpdateOneModel<>(filter, update, new UpdateOptions().upsert(upsert));
+
+            return new UpdateOneModel<>(filter, new BsonDocument("$set", new BsonDocument()), new UpdateOptions().upsert(upsert)); // every field was set then unset.
+        }
+
+        private void complete(@Nullable final UpdateResult result, @Nullable final Exception exception) {
+            for (final Callback callback : callbacks) {
+                try {
+                    callback.run(result, exception);
+                }catch (Exception throwable) {
+                    LOGGER.log(Level.WARNING, "The callback of a delayed write failed.", throwable);
+                }
+            }
+        }
+
+        private static boolean isSetUnset(@NotNull final BsonDocument update) {
+            for (final Map.Entry<String, BsonValue> entry : update.entrySet()) {
+                if (!entry.getKey().equals("$set") && !entry.getKey().equals("$unset")) return false;
+                if (!entry.getValue().isDocument()) return false;
+            }
+
+            return true;
+        }
+
+        /**
+         * @return true if a path is the parent of another (e.g. {@code a} and {@code a.b}), they cannot be part of the same update.
+         */
+        private static boolean conflicts(@NotNull final Set<String> paths, @NotNull final Set<String> others) {
+            for (final String other : others) {
+                for (final String path : paths) {
+                    if (!path.equals(other) && (path.startsWith(other + ".") || other.startsWith(path + "."))) return true;
+                }
+            }
+
+            return false;
+        }
+
+    }
+
+    private interface Callback {
+        void run(@Nullable UpdateResult result, @Nullable Exception exception);
+    }
+
+}
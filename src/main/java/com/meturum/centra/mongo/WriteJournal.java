@@ -0,0 +1,355 @@
+package com.meturum.centra.mongo;
+
+import org.bson.BsonDocument;
+import org.bson.RawBsonDocument;
+import org.bson.codecs.BsonDocumentCodec;
+import org.jetbrains.annotations.NotNull;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * An append-only journal of writes on local disk, split into memory-mapped segments.
+ * <p>
+ * Every entry is appended before its write is sent and acknowledged once the write was confirmed, the entries never acknowledged
+ * (e.g. the server crashed or Mongo was unreachable) are loaded again when the journal is opened, see {@link #getPending()}.
+ * Segments are deleted oldest first, once every entry they contain was acknowledged: a segment holding the acknowledgements of entries of an older
+ * segment is kept as long as that segment. When a segment is full, the pending entries of the oldest segments are copied forward into the new one
+ * (up to a quarter of it), so a few long-pending entries do not keep every later segment on disk.
+ * <p>
+ * Memory-mapped writes survive a crash of the process. Pass {@code sync = true} to also flush every record to the disk (surviving a power loss), at the cost of latency.
+ * Records are checksummed, a record torn by a crash is ignored with everything after it in its segment.
+ *
+ * @see JournalingCollectionWrapper
+ */
+public final class WriteJournal implements AutoCloseable {
+
+    /**
+     * The default size of a segment, in bytes.
+     */
+    public static final int DEFAULT_SEGMENT_SIZE = 8 * 1024 * 1024;
+
+    private static final Logger LOGGER = Logger.getLogger("Centra");
+    private static final String EXTENSION = ".journal";
+    private static final byte ENTRY = 1, ACKNOWLEDGEMENT = 2;
+    private static final int HEADER = Integer.BYTES + Long.BYTES + Byte.BYTES, TRAILER = Integer.BYTES; // length, sequence, type | checksum.
+
+    private final Path directory;
+    private final int segmentSize;
+    private final boolean sync;
+
+    private final ConcurrentSkipListMap<Long, BsonDocument> pending = new ConcurrentSkipListMap<>();
+    private final TreeMap<Long, Segment> segments = new TreeMap<>(); // by name.
+    private final Map<Long, Segment> owners = new HashMap<>(); // the segment of every pending entry.
+
+    private @Nullable Segment current;
+    private long sequence;
+    private boolean closed;
+
+    /**
+     * Opens the journal stored in the directory, loading the entries that were never acknowledged.
+     *
+     * @param directory the directory of the segments, created if missing.
+     * @throws IOException if the directory cannot be read.
+     */
+    public WriteJournal(@NotNull final Path directory) throws IOException {
+        this(directory, DEFAULT_SEGMENT_SIZE, false);
+    }
+
+    /**
+     * Opens the journal stored in the directory, loading the entries that were never acknowledged.
+     *
+     * @param directory the directory of the segments, created if missing.
+     * @param segmentSize the size of a segment, in bytes.
+     * @param sync whether every record is flushed to the disk before the method returns.
+     * @throws IOException if the directory cannot be read.
+     */
+    public WriteJournal(@NotNull final Path directory, final int segmentSize, final boolean sync) throws IOException {
+        if (segmentSize < 4096) throw new IllegalArgumentException("segmentSize must be at least 4096 bytes.");
+
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.sync = sync;
+
+        Files.createDirectories(directory);
+        recover();
+    }
+
+    /**
+     * Appends an entry to the journal.
+     *
+     * @param entry the entry to append.
+     * @return the sequence of the entry, used to acknowledge it.
+     * @throws IOException if the entry could not be written.
+     */
+    public synchronized long append(@NotNull final BsonDocument entry) throws IOException {
+        final long sequence = ++this.sequence;
+        final Segment segment = write(sequence, ENTRY, encode(entry));
+        segment.pending.add(sequence);
+        owners.put(sequence, segment);
+        pending.put(sequence, entry);
+
+        return sequence;
+    }
+
+    /**
+     * Acknowledges an entry, it will not be loaded again.
+     *
+     * @param sequence the sequence of the entry.
+     * @throws IOException if the acknowledgement could not be written.
+     */
+    public synchronized void acknowledge(final long sequence) throws IOException {
+        if (pending.remove(sequence) == null) return;
+
+        final Segment owner = owners.remove(sequence);
+        if (owner != null) owner.pending.remove(sequence); // before writing, a rotation must not copy it forward.
+
+        write(sequence, ACKNOWLEDGEMENT, ByteBuffer.allocate(0));
+        deletePrefix();
+    }
+
+    /**
+     * Gets the entries that were not acknowledged yet, by sequence.
+     *
+     * @return an unmodifiable view of the entries, in order.
+     */
+    public @NotNull SortedMap<Long, BsonDocument> getPending() {
+        return Collections.unmodifiableSortedMap(pending);
+    }
+
+    /**
+     * @return the number of entries that were not acknowledged yet.
+     */
+    public int getPendingCount() {
+        return pending.size();
+    }
+
+    /**
+     * @return the directory of the segments.
+     */
+    public @NotNull Path getDirectory() {
+        return directory;
+    }
+
+    /**
+     * Flushes the current segment to the disk and closes the journal.
+     */
+    @Override
+    public synchronized void close() {
+        if (closed) return;
+        closed = true;
+
+        if (current != null) current.close();
+    }
+
+    private @NotNull Segment write(final long sequence, final byte type, @NotNull final ByteBuffer payload) throws IOException {
+        if (closed) throw new IOException("The journal is closed.");
+
+        final int length = HEADER + payload.remaining() + TRAILER;
+        if (current == null || current.buffer.remaining() < length) rotate(length);
+
+        final Segment segment = Objects.requireNonNull(current);
+        put(segment, sequence, type, payload);
+
+        return segment;
+    }
+
+    private void put(@NotNull final Segment segment, final long sequence, final byte type, @NotNull final ByteBuffer payload) {
+        final MappedByteBuffer buffer = Objects.requireNonNull(segment.buffer);
+        final int length = HEADER + payload.remaining() + TRAILER;
+
+        final CRC32 checksum = new CRC32();
+        final int start = buffer.position();
+
+        buffer.position(start + Integer.BYTES); // the length is written last, a record is only valid once complete.
+        buffer.putLong(sequence).put(type).put(payload.duplicate());
+        checksum.update(buffer.duplicate().position(start + Integer.BYTES).limit(buffer.position()));
+        buffer.putInt((int) checksum.getValue());
+        buffer.putInt(start, payload.remaining());
+
+        if (sync) buffer.force(start, length);
+    }
+
+    private void rotate(final int length) throws IOException {
+        final Segment previous = current;
+
+        long name = Math.max(sequence, segments.isEmpty() ? 0 : segments.lastKey() + 1);
+        while (Files.exists(path(name))) name++; // a segment that could not be deleted.
+
+        final Path path = path(name);
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            current = new Segment(path, channel.map(FileChannel.MapMode.READ_WRITE, 0, Math.max(segmentSize, length + Integer.BYTES)));
+        }
+
+        segments.put(name, current);
+
+        if (previous != null) previous.close();
+        if (copyForward(current, length)) current.close(); // the copies are on the disk before the older segments are deleted.
+
+        deletePrefix();
+    }
+
+    /**
+     * Copies the pending entries of the oldest segments into the new segment, a quarter of it at most.
+     *
+     * @param length the length of the record the segment was created for, it must still fit.
+     * @return true if entries were copied.
+     */
+    private boolean copyForward(@NotNull final Segment segment, final int length) {
+        final MappedByteBuffer buffer = Objects.requireNonNull(segment.buffer);
+        final int budget = Math.min(buffer.capacity() / 4, buffer.remaining() - length - Integer.BYTES);
+
+        boolean copied = false;
+        int used = 0;
+
+        for (final Segment older : List.copyOf(segments.values())) {
+            if (older == segment) break;
+
+            final List<Long> sequences = new ArrayList<>(older.pending);
+            Collections.sort(sequences);
+
+            final List<ByteBuffer> payloads = new ArrayList<>(sequences.size());
+            int size = 0;
+            for (final long sequence : sequences) {
+                final ByteBuffer payload = encode(pending.get(sequence));
+                payloads.add(payload);
+                size += HEADER + payload.remaining() + TRAILER;
+            }
+
+            if (used + size > budget) break; // only a prefix of the segments can be deleted.
+            used += size;
+
+            for (int i = 0; i < sequences.size(); i++) {
+                put(segment, sequences.get(i), ENTRY, payloads.get(i));
+                segment.pending.add(sequences.get(i));
+                owners.put(sequences.get(i), segment);
+            }
+
+            copied |= !sequences.isEmpty();
+            older.pending.clear();
+        }
+
+        return copied;
+    }
+
+    /**
+     * Deletes the oldest segments without pending entries, the acknowledgements they hold are not needed once every older segment was deleted.
+     */
+    private void deletePrefix() {
+        while (!segments.isEmpty()) {
+            final Segment oldest = segments.firstEntry().getValue();
+            if (oldest == current || !oldest.pending.isEmpty()) return;
+
+            delete(oldest);
+        }
+    }
+
+    private void delete(@NotNull final Segment segment) {
+        segments.values().remove(segment);
+
+        try {
+            Files.deleteIfExists(segment.path);
+        }catch (IOException exception) {
+            LOGGER.log(Level.WARNING, "Could not delete the journal segment " + segment.path + ", it is deleted on the next opening.", exception);
+        }
+    }
+
+    /**
+     * Reads every segment in order, keeping the entries that were not acknowledged.
+     */
+    private void recover() throws IOException {
+        final List<Path> paths;
+        try (Stream<Path> files = Files.list(directory)) {
+            paths = files.filter(path -> path.getFileName().toString().endsWith(EXTENSION)).sorted().toList();
+        }
+
+        for (final Path path : paths) {
+            final ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(path));
+            final Segment segment = new Segment(path, null);
+
+            while (buffer.remaining() >= HEADER + TRAILER) {
+                final int start = buffer.position();
+                final int length = buffer.getInt();
+                if (length < 0 || buffer.remaining() < Long.BYTES + Byte.BYTES + length + TRAILER) break;
+
+                final long sequence = buffer.getLong();
+                final byte type = buffer.get();
+                if (type != ENTRY && type != ACKNOWLEDGEMENT) break; // the end of the segment, or a torn record.
+
+                final ByteBuffer payload = buffer.slice(buffer.position(), length);
+                buffer.position(buffer.position() + length);
+
+                final CRC32 checksum = new CRC32();
+                checksum.update(buffer.duplicate().position(start + Integer.BYTES).limit(buffer.position()));
+                if ((int) checksum.getValue() != buffer.getInt()) break;
+
+                this.sequence = Math.max(this.sequence, sequence);
+
+                if (type == ENTRY) {
+                    final byte[] bytes = new byte[length];
+                    payload.get(bytes);
+
+                    pending.put(sequence, new RawBsonDocument(bytes));
+                    segment.pending.add(sequence);
+
+                    final Segment previous = owners.put(sequence, segment); // an entry copied forward, see copyForward.
+                    if (previous != null && previous != segment) previous.pending.remove(sequence);
+                } else if (pending.remove(sequence) != null) {
+                    owners.remove(sequence).pending.remove(sequence);
+                }
+            }
+
+            segments.put(first(path), segment);
+        }
+
+        deletePrefix();
+    }
+
+    private static @NotNull ByteBuffer encode(@NotNull final BsonDocument entry) {
+        return new RawBsonDocument(entry, new BsonDocumentCodec()).getByteBuffer().asNIO();
+    }
+
+    private @NotNull Path path(final long name) {
+        return directory.resolve(String.format("segment-%020d%s", name, EXTENSION));
+    }
+
+    private static long first(@NotNull final Path path) {
+        final String name = path.getFileName().toString();
+
+        try {
+            return Long.parseLong(name.substring("segment-".length(), name.length() - EXTENSION.length()));
+        }catch (RuntimeException exception) {
+            return 0;
+        }
+    }
+
+    private static final class Segment {
+
+        private final Path path;
+        private final @Nullable MappedByteBuffer buffer; // null for segments loaded from a previous run, only read.
+        private final Set<Long> pending = new HashSet<>();
+
+        private Segment(@NotNull final Path path, @Nullable final MappedByteBuffer buffer) {
+            this.path = path;
+            this.buffer = buffer;
+        }
+
+        private void close() {
+            if (buffer != null) buffer.force();
+        }
+
+    }
+
+}
@@ -0,0 +1,148 @@
+package com.meturum.centra.conversions;
+
+import com.meturum.centra.mongo.BoundedExecutor;
+import com.meturum.centra.mongo.BulkResult;
+import com.meturum.centra.mongo.CollectionWrapper;
+import com.meturum.centra.mongo.ForwardingCollectionWrapper;
+import com.meturum.centra.mongo.LocalCollectionWrapper;
+import com.meturum.centra.mongo.LocalStore;
+import com.mongodb.MongoNamespace;
+import com.mongodb.client.model.BulkWriteOptions;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.WriteModel;
+import org.bson.Document;
+import org.jetbrains.annotations.NotNull;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SavePlanTest {
+
+    @TempDir
+    Path directory;
+
+    private LocalStore store;
+    private LocalCollectionWrapper collection;
+
+    @BeforeEach
+    void open() throws IOException {
+        store = new LocalStore(directory);
+        collection = new LocalCollectionWrapper(store, new MongoNamespace("centra", "tags"), null);
+    }
+
+    @AfterEach
+    void close() {
+        store.close();
+    }
+
+    @Test
+    void deletedTagsAreReplacedInFull() throws Exception {
+        final TestTag kept = load(new TestTag("kept", 1), 3);
+        final TestTag deleted = load(new TestTag("deleted", 1), 0);
+        collection.raw().deleteOne(deleted.getFilter()); // by another server.
+
+        kept.level = 2;
+        deleted.level = 2;
+
+        final SavePlan plan = new SavePlan();
+        plan.add(kept);
+        plan.add(deleted);
+
+        assertTrue(plan.execute());
+
+        final Document keptDocument = collection.raw().find(kept.getFilter()).first();
+        assertEquals(2, keptDocument.getInteger("level"));
+        assertEquals(3L, keptDocument.get(DirtyTracker.VERSION_KEY, Number.class).longValue(), "the update does not touch the version");
+        assertEquals(3, DirtyTracker.getVersion(kept), "nor does marking the tag clean");
+
+        final Document deletedDocument = collection.raw().find(deleted.getFilter()).first();
+        assertNotNull(deletedDocument);
+        assertEquals("deleted", deletedDocument.getString("name"), "the whole document is inserted, not only the changed fields");
+        assertEquals(2, deletedDocument.getInteger("level"));
+        assertFalse(DirtyTracker.isDirty(deleted));
+    }
+
+    @Test
+    void untrackedTagsAreUpserted() {
+        final TestTag tag = new TestTag("new", 1);
+        tag.collection = collection;
+
+        final SavePlan plan = new SavePlan();
+        plan.add(tag);
+
+        assertTrue(plan.execute());
+        assertEquals(1, collection.raw().countDocuments(Filters.and(tag.getFilter(), Filters.eq("name", "new"))));
+        assertFalse(DirtyTracker.isDirty(tag));
+    }
+
+    @Test
+    void executingFromAWorkerDoesNotWaitForItself() throws Exception {
+        final ExecutorService threads = Executors.newSingleThreadExecutor();
+        try {
+            final BoundedExecutor executor = new BoundedExecutor(threads, 1, 16, BoundedExecutor.OverflowPolicy.BLOCK, () -> false);
+            final TestTag tag = load(new TestTag("tag", 1), 0);
+            tag.collection = new Bounded(collection, executor); // its writes need the only slot of the executor.
+            tag.level = 2;
+
+            final SavePlan plan = new SavePlan();
+            plan.add(tag);
+
+            final CompletableFuture<Boolean> saved = new CompletableFuture<>();
+            executor.execute(() -> saved.complete(plan.execute()));
+
+            assertTrue(saved.get(5, TimeUnit.SECONDS));
+            assertEquals(2, collection.raw().find(tag.getFilter()).first().getInteger("level"));
+        } finally {
+            threads.shutdownNow();
+        }
+    }
+
+    /**
+     * Stores the tag with the given version, then loads it back the way a plugin would.
+     */
+    private @NotNull TestTag load(@NotNull final TestTag tag, final long version) throws Exception {
+        final Document document = Documentable.toDocument(tag);
+        if (version > 0) document.append(DirtyTracker.VERSION_KEY, version);
+        collection.raw().insertOne(document);
+
+        final TestTag loaded = Documentable.fromDocument(null, collection.raw().find(tag.getFilter()).first(), TestTag.class);
+        loaded.collection = collection;
+
+        return loaded;
+    }
+
+    /**
+     * Sends the bulk writes on the given executor.
+     */
+    private static final class Bounded extends ForwardingCollectionWrapper {
+
+        private final BoundedExecutor executor;
+
+        private Bounded(@NotNull final CollectionWrapper delegate, @NotNull final BoundedExecutor executor) {
+            super(delegate);
+            this.executor = executor;
+        }
+
+        @Override
+        public void bulkWriteAsync(@NotNull final List<? extends WriteModel<? extends Document>> requests, final boolean ordered, @Nullable final BulkWriteLambda lambda) {
+            getDelegate().async().withExecutor(executor).bulkWrite(requests, new BulkWriteOptions().ordered(ordered), BulkResult.DEFAULT_CHUNK_SIZE)
+                    .whenComplete((result, throwable) -> {
+                        if (lambda != null) lambda.run(result, throwable instanceof Exception exception ? exception : null);
+                    });
+        }
+
+    }
+
+}
@@ -0,0 +1,112 @@
+package com.meturum.centra.conversions;
+
+import com.meturum.centra.conversions.annotations.DocumentableMethod;
+import com.meturum.centra.mongo.CollectionWrapper;
+import com.mongodb.client.model.ReplaceOptions;
+import org.bson.Document;
+import org.jetbrains.annotations.NotNull;
+
+import javax.annotation.Nullable;
+import java.util.UUID;
+
+/**
+ * A tag saved into a local collection by the tests.
+ */
+final class TestTag implements IDynamicTag {
+
+    UUID uuid = UUID.randomUUID();
+    String name;
+    int level;
+
+    transient @Nullable CollectionWrapper collection;
+
+    TestTag() { }
+
+    TestTag(@NotNull final String name, final int level) {
+        this.name = name;
+        this.level = level;
+    }
+
+    @Override
+    public @NotNull UUID getUniqueId() {
+        return uuid;
+    }
+
+    @Override
+    public @Nullable CollectionWrapper getCollection() {
+        return collection;
+    }
+
+    @Override
+    public @NotNull Document asDocument() {
+        return Documentable.toDocument(this);
+    }
+
+    @Override
+    @DocumentableMethod
+    public String serialize() {
+        return uuid.toString();
+    }
+
+    @Override
+    public boolean save(boolean async, @Nullable SaveLambda lambda, boolean upsert) {
+        if (collection == null) return false;
+
+        collection.replaceOneAsync(getFilter(), asDocument(), new ReplaceOptions().upsert(upsert), (result, exception) -> {
+            if (lambda != null) lambda.run(exception == null);
+        });
+
+        return true;
+    }
+
+    @Override
+    public boolean save(boolean async, boolean upsert) {
+        return save(async, null, upsert);
+    }
+
+    @Override
+    public boolean save(boolean async, @Nullable SaveLambda lambda) {
+        return save(async, lambda, false);
+    }
+
+    @Override
+    public boolean save(boolean async) {
+        return save(async, null, false);
+    }
+
+    @Override
+    public boolean save() {
+        return save(true, null, false);
+    }
+
+    @Override
+    public boolean saveSync(boolean upsert) {
+        return save(false, null, upsert);
+    }
+
+    @Override
+    public boolean saveSync() {
+        return saveSync(false);
+    }
+
+    @Override
+    public void saveAsync(@Nullable SaveLambda lambda, boolean upsert) {
+        save(true, lambda, upsert);
+    }
+
+    @Override
+    public void saveAsync(boolean upsert) {
+        save(true, null, upsert);
+    }
+
+    @Override
+    public void saveAsync(@Nullable SaveLambda lambda) {
+        save(true, lambda, false);
+    }
+
+    @Override
+    public void saveAsync() {
+        save(true, null, false);
+    }
+
+}
@@ -0,0 +1,177 @@
+package com.meturum.centra.conversions;
+
+import com.meturum.centra.mongo.LocalCollectionWrapper;
+import com.meturum.centra.mongo.LocalStore;
+import com.mongodb.MongoNamespace;
+import com.mongodb.client.model.Updates;
+import org.bson.Document;
+import org.jetbrains.annotations.NotNull;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class VersionedSaveTest {
+
+    @TempDir
+    Path directory;
+
+    private LocalStore store;
+    private LocalCollectionWrapper collection;
+
+    @BeforeEach
+    void open() throws IOException {
+        store = new LocalStore(directory);
+        collection = new LocalCollectionWrapper(store, new MongoNamespace("centra", "tags"), null);
+    }
+
+    @AfterEach
+    void close() {
+        store.close();
+    }
+
+    @Test
+    void savesWithoutConflictStampTheNextVersion() throws Exception {
+        final TestTag tag = load(new TestTag("tag", 1), 3);
+        tag.level = 2;
+
+        assertEquals(true, save(tag, ConflictStrategy.FAIL, false).get(5, TimeUnit.SECONDS));
+
+        final Document document = find(tag);
+        assertEquals(2, document.getInteger("level"));
+        assertEquals(4L, version(document));
+        assertEquals(4, DirtyTracker.getVersion(tag));
+        assertFalse(DirtyTracker.isDirty(tag));
+    }
+
+    @Test
+    void conflictsAreReportedWithFail() throws Exception {
+        final TestTag tag = load(new TestTag("tag", 1), 3);
+        saveRemotely(tag, "remote", 4);
+        tag.level = 2;
+
+        final Object result = save(tag, ConflictStrategy.FAIL, false).get(5, TimeUnit.SECONDS);
+        final ConflictStrategy.Conflict conflict = assertInstanceOf(ConflictStrategy.Conflict.class, result);
+        assertSame(tag, conflict.tag());
+        assertEquals(3, conflict.expected());
+        assertEquals(4, conflict.remoteVersion());
+        assertEquals(1, conflict.attempt());
+
+        final Document document = find(tag);
+        assertEquals(1, document.getInteger("level"), "nothing was written");
+        assertEquals("remote", document.getString("name"));
+        assertTrue(DirtyTracker.isDirty(tag));
+    }
+
+    @Test
+    void mergesKeepTheRemoteAndLocalChanges() throws Exception {
+        final TestTag tag = load(new TestTag("tag", 1), 3);
+        saveRemotely(tag, "remote", 4);
+        tag.level = 2;
+
+        assertEquals(true, save(tag, ConflictStrategy.merge(null), false).get(5, TimeUnit.SECONDS));
+
+        final Document document = find(tag);
+        assertEquals("remote", document.getString("name"));
+        assertEquals(2, document.getInteger("level"));
+        assertEquals(5L, version(document), "based on the remote version");
+        assertEquals("remote", tag.name, "the remote change was read into the tag");
+    }
+
+    @Test
+    void overwritesWriteTheLocalState() throws Exception {
+        final TestTag tag = load(new TestTag("tag", 1), 3);
+        saveRemotely(tag, "remote", 4);
+        tag.level = 2;
+
+        assertEquals(true, save(tag, ConflictStrategy.OVERWRITE, false).get(5, TimeUnit.SECONDS));
+
+        final Document document = find(tag);
+        assertEquals("tag", document.getString("name"), "the remote change was overwritten");
+        assertEquals(2, document.getInteger("level"));
+        assertEquals(5L, version(document));
+        assertEquals(5, DirtyTracker.getVersion(tag));
+    }
+
+    @Test
+    void deletedTagsAreNotRecreatedWithoutUpsert() throws Exception {
+        final TestTag tag = load(new TestTag("tag", 1), 3);
+        collection.raw().deleteOne(tag.getFilter()); // by another server.
+        tag.level = 2;
+
+        assertEquals(false, save(tag, ConflictStrategy.OVERWRITE, false).get(5, TimeUnit.SECONDS), "a failed save, not a conflict");
+        assertNull(find(tag));
+    }
+
+    @Test
+    void deletedTagsAreRecreatedByOverwritesWithUpsert() throws Exception {
+        final TestTag tag = load(new TestTag("tag", 1), 3);
+        collection.raw().deleteOne(tag.getFilter());
+        tag.level = 2;
+
+        assertEquals(true, save(tag, ConflictStrategy.OVERWRITE, true).get(5, TimeUnit.SECONDS));
+
+        final Document document = find(tag);
+        assertEquals("tag", document.getString("name"), "every field is written");
+        assertEquals(2, document.getInteger("level"));
+        assertEquals(1L, version(document));
+    }
+
+    /**
+     * Saves the tag, the future holds whether it was saved or the conflict it gave up on.
+     */
+    private static @NotNull CompletableFuture<Object> save(@NotNull final TestTag tag, @NotNull final ConflictStrategy strategy, final boolean upsert) {
+        final CompletableFuture<Object> future = new CompletableFuture<>();
+
+        tag.saveVersioned(tag.getCollection(), strategy, new IDynamicTag.SaveLambda() {
+            @Override
+            public void run(boolean saved) {
+                future.complete(saved);
+            }
+
+            @Override
+            public void conflicted(@NotNull ConflictStrategy.Conflict conflict) {
+                future.complete(conflict);
+            }
+        }, upsert);
+
+        return future;
+    }
+
+    /**
+     * Stores the tag with the given version, then loads it back the way a plugin would.
+     */
+    private @NotNull TestTag load(@NotNull final TestTag tag, final long version) throws Exception {
+        final Document document = Documentable.toDocument(tag);
+        if (version > 0) document.append(DirtyTracker.VERSION_KEY, version);
+        collection.raw().insertOne(document);
+
+        final TestTag loaded = Documentable.fromDocument(null, collection.raw().find(tag.getFilter()).first(), TestTag.class);
+        loaded.collection = collection;
+
+        return loaded;
+    }
+
+    /**
+     * Changes the name of the stored tag the way another server saving it would.
+     */
+    private void saveRemotely(@NotNull final TestTag tag, @NotNull final String name, final long version) {
+        collection.raw().updateOne(tag.getFilter(), Updates.combine(Updates.set("name", name), Updates.set(DirtyTracker.VERSION_KEY, version)));
+    }
+
+    private Document find(@NotNull final TestTag tag) {
+        return collection.raw().find(tag.getFilter()).first();
+    }
+
+    private static long version(@NotNull final Document document) {
+        return document.get(DirtyTracker.VERSION_KEY, Number.class).longValue();
+    }
+
+}
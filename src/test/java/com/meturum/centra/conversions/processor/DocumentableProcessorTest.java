@@ -0,0 +1,205 @@
+package com.meturum.centra.conversions.processor;
+
+import com.meturum.centra.conversions.DocumentCodecs;
+import com.meturum.centra.conversions.Documentable;
+import com.meturum.centra.conversions.DocumentableCodecProvider;
+import com.meturum.centra.system.SystemManager;
+import com.mongodb.MongoClientSettings;
+import org.bson.BsonDocument;
+import org.bson.BsonDocumentReader;
+import org.bson.BsonDocumentWriter;
+import org.bson.Document;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.EncoderContext;
+import org.bson.codecs.configuration.CodecRegistries;
+import org.bson.codecs.configuration.CodecRegistry;
+import org.jetbrains.annotations.NotNull;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import javax.annotation.Nullable;
+import javax.tools.DiagnosticCollector;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+import java.io.File;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DocumentableProcessorTest {
+
+    private static final String PROFILE = """
+            package fixture;
+
+            import com.meturum.centra.conversions.Documentable;
+            import com.meturum.centra.conversions.annotations.DocumentableMethod;
+            import com.meturum.centra.system.SystemManager;
+            import org.bson.Document;
+
+            import java.util.ArrayList;
+            import java.util.List;
+            import java.util.UUID;
+
+            public class Profile extends Base implements Documentable {
+
+                static int loaded;
+
+                @Serialize private String name = "Steve";
+                public int level = 3;
+                private long[] scores = {1, 2, 3};
+                protected List<String> tags = new ArrayList<>(List.of("vip", "builder"));
+                UUID uuid = UUID.fromString("5b7b0f5e-64b5-4a0e-9d4c-7f0a3c1d2e3f");
+                @Serialize(method = SerializationMethod.METHOD) private Rank rank = new Rank("admin");
+                private Settings settings = new Settings();
+                private transient String cache = "cache";
+
+                public void setLevel(final int level) {
+                    this.level = level;
+                }
+
+                @Override
+                public Document asDocument() {
+                    return Documentable.toDocument(this);
+                }
+
+                public static final class Rank {
+
+                    private final String id;
+
+                    public Rank(final String id) {
+                        this.id = id;
+                    }
+
+                    @DocumentableMethod
+                    public Object serialize() {
+                        return id;
+                    }
+
+                    @DocumentableMethod
+                    public static Rank deserialize(final SystemManager manager, final String id) {
+                        return new Rank(id);
+                    }
+
+                }
+
+                public static final class Settings implements Documentable {
+
+                    public String language = "en";
+
+                    @Override
+                    public Document asDocument() {
+                        return Documentable.toDocument(this);
+                    }
+
+                }
+
+            }
+
+            class Base {
+
+                private String server = "lobby";
+
+            }
+            """;
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void generatedCodecsMatchTheReflectiveSerializer() throws Exception {
+        try (URLClassLoader generated = compile("generated", true); URLClassLoader reflective = compile("reflective", false)) {
+            final Class<?> generatedProfile = generated.loadClass("fixture.Profile");
+            final Class<?> reflectiveProfile = reflective.loadClass("fixture.Profile");
+
+            assertTrue(hasCodec(generatedProfile));
+            assertFalse(hasCodec(generated.loadClass("fixture.Profile$Settings")), "nothing in Settings is annotated with @Serialize");
+            assertFalse(hasCodec(reflectiveProfile));
+
+            final Document expected = encode(reflectiveProfile.getConstructor().newInstance());
+            final Document actual = encode(generatedProfile.getConstructor().newInstance());
+
+            assertEquals(expected, actual);
+            assertEquals(expected, stream(generatedProfile.getConstructor().newInstance()), "the streaming codec uses the generated codec too");
+            assertEquals(List.of("server", "name", "level", "scores", "tags", "uuid", "rank", "settings"), new ArrayList<>(actual.keySet()));
+
+            final Document modified = new Document(expected)
+                    .append("name", "Alex")
+                    .append("level", 7)
+                    .append("rank", "builder")
+                    .append("settings", new Document("language", "fr"));
+
+            assertEquals(encode(decode(modified, reflectiveProfile)), encode(decode(modified, generatedProfile)));
+            assertEquals(modified.get("rank"), encode(decode(modified, generatedProfile)).get("rank"));
+        }
+    }
+
+    private static boolean hasCodec(@NotNull final Class<?> type) {
+        try {
+            Class.forName(DocumentCodecs.getCodecName(type), false, type.getClassLoader());
+            return true;
+        }catch (ClassNotFoundException exception) {
+            return false;
+        }
+    }
+
+    private static @NotNull Document encode(@NotNull final Object object) {
+        return Documentable.toDocument((Documentable) object);
+    }
+
+    private static @NotNull Document stream(@NotNull final Object object) {
+        final CodecRegistry registry = CodecRegistries.fromRegistries(MongoClientSettings.getDefaultCodecRegistry(), CodecRegistries.fromProviders(new DocumentableCodecProvider(null)));
+        final BsonDocument document = new BsonDocument();
+
+        encode(registry, object.getClass().asSubclass(Documentable.class), object, new BsonDocumentWriter(document));
+        return registry.get(Document.class).decode(new BsonDocumentReader(document), DecoderContext.builder().build());
+    }
+
+    private static <T extends Documentable> void encode(@NotNull final CodecRegistry registry, @NotNull final Class<T> type, @NotNull final Object object, @NotNull final BsonDocumentWriter writer) {
+        registry.get(type).encode(writer, type.cast(object), EncoderContext.builder().build());
+    }
+
+    private static @NotNull Object decode(@NotNull final Document document, @NotNull final Class<?> type) throws Exception {
+        return Documentable.fromDocument(null, document, type); // the fixture never uses the manager.
+    }
+
+    private @NotNull URLClassLoader compile(@NotNull final String name, final boolean process) throws IOException, URISyntaxException {
+        final Path sources = Files.createDirectories(directory.resolve(name + "-sources/fixture"));
+        final Path classes = Files.createDirectories(directory.resolve(name + "-classes"));
+        final Path profile = Files.writeString(sources.resolve("Profile.java"), PROFILE);
+
+        final JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        final DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<>();
+
+        try (StandardJavaFileManager files = compiler.getStandardFileManager(diagnostics, null, null)) {
+            final List<String> options = new ArrayList<>(List.of("-classpath", classpath(), "-d", classes.toString(), "-s", classes.toString()));
+            if (!process) options.add("-proc:none");
+
+            final JavaCompiler.CompilationTask task = compiler.getTask(null, files, diagnostics, options, null, files.getJavaFileObjects(profile));
+            if (process) task.setProcessors(List.of(new DocumentableProcessor()));
+
+            assertTrue(task.call(), () -> diagnostics.getDiagnostics().stream().map(Object::toString).collect(Collectors.joining("\n")));
+        }
+
+        return new URLClassLoader(new URL[] { classes.toUri().toURL() }, DocumentableProcessorTest.class.getClassLoader());
+    }
+
+    private static @NotNull String classpath() throws URISyntaxException {
+        final List<String> entries = new ArrayList<>();
+        for (final Class<?> type : List.of(Documentable.class, SystemManager.class, Document.class, NotNull.class, Nullable.class)) {
+            entries.add(Path.of(type.getProtectionDomain().getCodeSource().getLocation().toURI()).toString());
+        }
+
+        return entries.stream().distinct().collect(Collectors.joining(File.pathSeparator));
+    }
+
+}
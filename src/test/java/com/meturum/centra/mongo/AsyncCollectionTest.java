@@ -0,0 +1,117 @@
+package com.meturum.centra.mongo;
+
+import com.mongodb.MongoNamespace;
+import com.mongodb.MongoWriteException;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.UpdateOptions;
+import com.mongodb.client.model.Updates;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.jetbrains.annotations.NotNull;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class AsyncCollectionTest {
+
+    @TempDir
+    Path directory;
+
+    private LocalStore store;
+    private LocalCollectionWrapper collection;
+    private ExecutorService threads;
+
+    @BeforeEach
+    void open() throws IOException {
+        store = new LocalStore(directory);
+        collection = new LocalCollectionWrapper(store, new MongoNamespace("centra", "profiles"), null);
+        threads = Executors.newFixedThreadPool(2);
+    }
+
+    @AfterEach
+    void close() {
+        threads.shutdownNow();
+        store.close();
+    }
+
+    @Test
+    void operationsRunOnTheExecutorOfTheView() throws Exception {
+        final AtomicInteger executed = new AtomicInteger();
+        final AsyncCollection async = collection.async().withExecutor(task -> {
+            executed.incrementAndGet();
+            threads.execute(task);
+        });
+
+        final List<Document> found = async.insertOne(new Document("uuid", "a").append("level", 1))
+                .thenCompose(inserted -> async.updateOne(Filters.eq("uuid", "a"), Updates.inc("level", 1)))
+                .thenCompose(updated -> async.find(Filters.eq("uuid", "a")))
+                .get(5, TimeUnit.SECONDS);
+
+        assertEquals(1, found.size());
+        assertEquals(2, found.get(0).getInteger("level"));
+        assertEquals(3, executed.get(), "one task per operation");
+    }
+
+    @Test
+    void failuresCompleteTheFutureExceptionally() throws Exception {
+        final AsyncCollection async = collection.async().withExecutor(threads);
+        async.insertOne(new Document("_id", 1)).get(5, TimeUnit.SECONDS);
+
+        final ExecutionException exception = assertThrows(ExecutionException.class, () -> async.insertOne(new Document("_id", 1)).get(5, TimeUnit.SECONDS));
+        assertInstanceOf(MongoWriteException.class, exception.getCause());
+    }
+
+    @Test
+    void rejectedOperationsAreNeverRun() {
+        final AsyncCollection async = collection.async().withExecutor(task -> { throw new RejectedExecutionException("full"); });
+
+        final CompletableFuture<?> future = async.insertOne(new Document("uuid", "a"));
+
+        assertTrue(future.isCompletedExceptionally());
+        final ExecutionException exception = assertThrows(ExecutionException.class, future::get);
+        assertInstanceOf(RejectedExecutionException.class, exception.getCause());
+        assertEquals(0, collection.raw().countDocuments());
+    }
+
+    @Test
+    void decoratingWrappersSeeTheOperationsOfTheirView() throws Exception {
+        final Counting counting = new Counting(collection);
+
+        counting.async().updateOne(Filters.eq("uuid", "a"), Updates.set("level", 1), new UpdateOptions().upsert(true)).get(5, TimeUnit.SECONDS);
+
+        assertEquals(1, counting.updates.get(), "the view goes through the callback of the wrapper");
+        assertEquals(1, collection.raw().countDocuments(Filters.eq("uuid", "a")));
+    }
+
+    private static final class Counting extends ForwardingCollectionWrapper {
+
+        private final AtomicInteger updates = new AtomicInteger();
+
+        private Counting(@NotNull final CollectionWrapper delegate) {
+            super(delegate);
+        }
+
+        @Override
+        public void updateOneAsync(@NotNull final Bson filter, @NotNull final Bson updates, @Nullable final UpdateOptions options, @Nullable final UpdateOneLambda lambda) {
+            this.updates.incrementAndGet();
+            super.updateOneAsync(filter, updates, options, lambda);
+        }
+
+    }
+
+}
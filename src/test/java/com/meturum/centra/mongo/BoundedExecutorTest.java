@@ -0,0 +1,175 @@
+package com.meturum.centra.mongo;
+
+import com.meturum.centra.mongo.BoundedExecutor.OverflowPolicy;
+import com.meturum.centra.mongo.BoundedExecutor.Priority;
+import org.jetbrains.annotations.NotNull;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BoundedExecutorTest {
+
+    private ExecutorService threads;
+    private CountDownLatch release;
+
+    @BeforeEach
+    void open() {
+        threads = Executors.newCachedThreadPool();
+        release = new CountDownLatch(1);
+    }
+
+    @AfterEach
+    void close() {
+        release.countDown();
+        threads.shutdownNow();
+    }
+
+    @Test
+    void queuedOperationsRunByPriority() throws Exception {
+        final BoundedExecutor executor = occupied(OverflowPolicy.REJECT, 10, false);
+        final List<Priority> order = new CopyOnWriteArrayList<>();
+
+        final Task last = new Task(() -> order.add(Priority.LOW));
+        executor.execute(last, Priority.LOW);
+        executor.execute(() -> order.add(Priority.NORMAL), Priority.NORMAL);
+        BoundedExecutor.withPriority(Priority.CRITICAL, () -> executor.execute(() -> order.add(Priority.CRITICAL)));
+
+        assertEquals(3, executor.getMetrics().queued());
+        release.countDown();
+        last.get(5, TimeUnit.SECONDS);
+
+        assertEquals(List.of(Priority.CRITICAL, Priority.NORMAL, Priority.LOW), order);
+    }
+
+    @Test
+    void operationsAreRejectedOnceTheQueueIsFull() throws Exception {
+        final BoundedExecutor executor = occupied(OverflowPolicy.REJECT, 1, false);
+        executor.execute(() -> { });
+
+        assertThrows(RejectedExecutionException.class, () -> executor.execute(() -> { }));
+        assertEquals(1, executor.getMetrics().rejected());
+
+        final Task critical = new Task(() -> { });
+        executor.execute(critical, Priority.CRITICAL); // never rejected, queued beyond the limit.
+        assertEquals(2, executor.getMetrics().queued());
+
+        release.countDown();
+        critical.get(5, TimeUnit.SECONDS);
+    }
+
+    @Test
+    void droppedOperationsFailTheirFuture() throws Exception {
+        final BoundedExecutor executor = occupied(OverflowPolicy.DROP_LOWEST, 1, false);
+        final Task low = new Task(() -> { });
+        final Task normal = new Task(() -> { });
+
+        executor.execute(low, Priority.LOW);
+        executor.execute(normal, Priority.NORMAL);
+
+        final ExecutionException exception = assertThrows(ExecutionException.class, () -> low.get(5, TimeUnit.SECONDS));
+        assertInstanceOf(RejectedExecutionException.class, exception.getCause());
+        assertThrows(RejectedExecutionException.class, () -> executor.execute(new Task(() -> { }), Priority.LOW), "nothing lower to drop");
+        assertEquals(2, executor.getMetrics().dropped());
+
+        release.countDown();
+        normal.get(5, TimeUnit.SECONDS);
+    }
+
+    @Test
+    void operationsWithoutAFutureAreNeverDropped() throws Exception {
+        final BoundedExecutor executor = occupied(OverflowPolicy.DROP_LOWEST, 1, false);
+        final CompletableFuture<Void> low = CompletableFuture.runAsync(() -> { }, executor.prioritized(Priority.LOW));
+
+        assertThrows(RejectedExecutionException.class, () -> CompletableFuture.runAsync(() -> { }, executor), "the new operation is rejected instead");
+
+        release.countDown();
+        low.get(5, TimeUnit.SECONDS);
+    }
+
+    @Test
+    void blockingWaitsForAPlaceInTheQueue() throws Exception {
+        final BoundedExecutor executor = occupied(OverflowPolicy.BLOCK, 1, false);
+        executor.execute(() -> { });
+
+        final Task submitted = new Task(() -> { });
+        final CompletableFuture<Void> submitting = CompletableFuture.runAsync(() -> executor.execute(submitted), threads);
+
+        assertThrows(TimeoutException.class, () -> submitting.get(100, TimeUnit.MILLISECONDS), "the queue is full");
+
+        release.countDown();
+        submitting.get(5, TimeUnit.SECONDS);
+        submitted.get(5, TimeUnit.SECONDS);
+    }
+
+    @Test
+    void theMainThreadNeverWaits() {
+        final BoundedExecutor executor = occupied(OverflowPolicy.BLOCK, 1, true);
+        executor.execute(() -> { });
+
+        assertThrows(RejectedExecutionException.class, () -> executor.execute(() -> { }));
+    }
+
+    @Test
+    void noServerMeansNoMainThread() {
+        assertFalse(MongoExecutors.isMainThread(), "the default check only recognizes the thread of a running server");
+    }
+
+    /**
+     * Creates an executor with a single slot, held until {@link #release} is counted down.
+     */
+    private @NotNull BoundedExecutor occupied(@NotNull final OverflowPolicy policy, final int maxQueued, final boolean mainThread) {
+        final BoundedExecutor executor = new BoundedExecutor(threads, 1, maxQueued, policy, () -> mainThread);
+        final CountDownLatch started = new CountDownLatch(1);
+
+        executor.execute(() -> {
+            started.countDown();
+
+            try {
+                release.await();
+            }catch (InterruptedException exception) {
+                Thread.currentThread().interrupt();
+            }
+        });
+
+        try {
+            assertTrue(started.await(5, TimeUnit.SECONDS));
+        }catch (InterruptedException exception) {
+            throw new AssertionError(exception);
+        }
+
+        return executor;
+    }
+
+    /**
+     * An operation whose owner holds its future, like those of {@link AsyncCollection}.
+     */
+    private static final class Task extends CompletableFuture<Void> implements Runnable {
+
+        private final Runnable action;
+
+        private Task(@NotNull final Runnable action) {
+            this.action = action;
+        }
+
+        @Override
+        public void run() {
+            action.run();
+            complete(null);
+        }
+
+    }
+
+}
@@ -0,0 +1,98 @@
+package com.meturum.centra.mongo;
+
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.MongoNamespace;
+import com.mongodb.bulk.BulkWriteError;
+import com.mongodb.bulk.BulkWriteUpsert;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.BulkWriteOptions;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.InsertOneModel;
+import com.mongodb.client.model.UpdateOneModel;
+import com.mongodb.client.model.UpdateOptions;
+import com.mongodb.client.model.Updates;
+import com.mongodb.client.model.WriteModel;
+import org.bson.Document;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BulkResultTest {
+
+    private static final List<WriteModel<Document>> REQUESTS = List.of(
+            new InsertOneModel<>(new Document("_id", 10)),
+            new InsertOneModel<>(new Document("_id", 1)), // a duplicate.
+            new InsertOneModel<>(new Document("_id", 11)),
+            new UpdateOneModel<>(Filters.eq("uuid", "a"), Updates.set("level", 1), new UpdateOptions().upsert(true)),
+            new InsertOneModel<>(new Document("_id", 1))); // a duplicate.
+
+    @TempDir
+    Path directory;
+
+    private LocalStore store;
+    private MongoCollection<Document> collection;
+
+    @BeforeEach
+    void open() throws IOException {
+        store = new LocalStore(directory);
+        collection = new LocalCollectionWrapper(store, new MongoNamespace("centra", "profiles"), null).raw();
+        collection.insertOne(new Document("_id", 1));
+    }
+
+    @AfterEach
+    void close() {
+        store.close();
+    }
+
+    @Test
+    void indexesReferToTheWholeList() {
+        final BulkResult result = BulkResult.execute(collection, REQUESTS, new BulkWriteOptions().ordered(false), 2);
+
+        assertEquals(3, result.getChunks().size());
+        assertEquals(5, result.getProcessedCount());
+        assertEquals(List.of(1, 4), result.getErrors().stream().map(BulkWriteError::getIndex).toList());
+        assertEquals(List.of(3), result.getUpserts().stream().map(BulkWriteUpsert::getIndex).toList());
+        assertEquals(2, result.getInsertedCount());
+        assertNull(result.getFailure(), "unordered writes go on after a rejected write");
+        assertFalse(result.isSuccessful());
+        assertEquals(4, collection.countDocuments());
+    }
+
+    @Test
+    void orderedWritesStopAtTheFirstChunkWithAnError() {
+        final BulkResult result = BulkResult.execute(collection, REQUESTS, new BulkWriteOptions().ordered(true), 2);
+
+        assertEquals(1, result.getChunks().size());
+        assertEquals(2, result.getProcessedCount());
+        assertEquals(List.of(1), result.getErrors().stream().map(BulkWriteError::getIndex).toList());
+        assertInstanceOf(MongoBulkWriteException.class, result.getFailure());
+        assertEquals(0, collection.countDocuments(Filters.eq("_id", 11)), "the following chunks are not sent");
+    }
+
+    @Test
+    void theWriteExceptionKeepsTheServerAddress() {
+        final MongoBulkWriteException original = assertThrows(MongoBulkWriteException.class, () -> collection.bulkWrite(List.of(new InsertOneModel<>(new Document("_id", 1)))));
+        final BulkResult result = BulkResult.execute(collection, REQUESTS, new BulkWriteOptions().ordered(false), 2);
+
+        final MongoBulkWriteException exception = assertThrows(MongoBulkWriteException.class, result::toWriteResult);
+
+        assertEquals(original.getServerAddress(), exception.getServerAddress());
+        assertEquals(List.of(1, 4), exception.getWriteErrors().stream().map(BulkWriteError::getIndex).toList());
+        assertEquals(2, exception.getWriteResult().getInsertedCount());
+        assertNull(BulkResult.execute(collection, List.of(new InsertOneModel<>(new Document("_id", 20))), new BulkWriteOptions(), 2).getWriteException());
+    }
+
+    @Test
+    void chunkSizesAreBounded() {
+        assertThrows(IllegalArgumentException.class, () -> BulkResult.execute(collection, REQUESTS, new BulkWriteOptions(), 0));
+        assertThrows(IllegalArgumentException.class, () -> BulkResult.execute(collection, REQUESTS, new BulkWriteOptions(), BulkResult.MAX_CHUNK_SIZE + 1));
+    }
+
+}
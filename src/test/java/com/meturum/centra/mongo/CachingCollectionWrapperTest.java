@@ -0,0 +1,154 @@
+package com.meturum.centra.mongo;
+
+import com.mongodb.MongoNamespace;
+import com.mongodb.client.FindIterable;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.Projections;
+import com.mongodb.client.model.Sorts;
+import com.mongodb.client.model.Updates;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.jetbrains.annotations.NotNull;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CachingCollectionWrapperTest {
+
+    @TempDir
+    Path directory;
+
+    private LocalStore store;
+    private LocalCollectionWrapper collection;
+    private Counting counting;
+
+    @BeforeEach
+    void open() throws IOException {
+        store = new LocalStore(directory);
+        collection = new LocalCollectionWrapper(store, new MongoNamespace("centra", "ranks"), null);
+        counting = new Counting(collection);
+
+        collection.raw().insertOne(new Document("uuid", "a").append("level", 1));
+        collection.raw().insertOne(new Document("uuid", "b").append("level", 3));
+        collection.raw().insertOne(new Document("uuid", "c").append("level", 2));
+    }
+
+    @AfterEach
+    void close() {
+        store.close();
+    }
+
+    @Test
+    void repeatedReadsAreServedFromMemory() throws Exception {
+        final CachingCollectionWrapper caching = new CachingCollectionWrapper(counting);
+
+        assertEquals(1, find(caching, Filters.eq("uuid", "a")).size());
+        assertEquals(1, find(caching, Filters.eq("uuid", "a")).size());
+
+        assertEquals(1, counting.finds.get());
+        assertEquals(1, caching.getStats().hitCount());
+        assertEquals(1, caching.size());
+    }
+
+    @Test
+    void writesOnlyInvalidateTheResultsTheyMayAffect() throws Exception {
+        final CachingCollectionWrapper caching = new CachingCollectionWrapper(counting);
+        find(caching, Filters.eq("uuid", "a"));
+        find(caching, Filters.eq("uuid", "b"));
+
+        caching.async().updateOne(Filters.eq("uuid", "a"), Updates.set("level", 5)).get(5, TimeUnit.SECONDS);
+
+        assertEquals(5, find(caching, Filters.eq("uuid", "a")).get(0).getInteger("level"), "the updated document is read again");
+        assertEquals(3, counting.finds.get());
+
+        find(caching, Filters.eq("uuid", "b"));
+        assertEquals(3, counting.finds.get(), "the other document is still cached");
+    }
+
+    @Test
+    void writesToAnotherFieldMayMakeADocumentMatch() throws Exception {
+        final CachingCollectionWrapper caching = new CachingCollectionWrapper(counting);
+        assertTrue(find(caching, Filters.eq("level", 5)).isEmpty());
+
+        caching.async().updateOne(Filters.eq("uuid", "c"), Updates.set("level", 5)).get(5, TimeUnit.SECONDS);
+
+        assertEquals(1, find(caching, Filters.eq("level", 5)).size());
+    }
+
+    @Test
+    void cachedResultsAreSortedAndLimitedInMemory() throws Exception {
+        final CachingCollectionWrapper caching = new CachingCollectionWrapper(counting);
+        find(caching, null);
+
+        final FindIterable<Document> cached = iterable(caching, null);
+        final Document second = cached.sort(Sorts.descending("level")).skip(1).limit(1).projection(Projections.excludeId()).first();
+
+        assertEquals(new Document("uuid", "c").append("level", 2), second);
+        assertEquals(1, counting.finds.get());
+        assertThrows(UnsupportedOperationException.class, () -> iterable(caching, null).filter(Filters.eq("uuid", "a")));
+    }
+
+    @Test
+    void largeResultsAreNotCached() throws Exception {
+        final CachingCollectionWrapper caching = new CachingCollectionWrapper(counting, 100, 2, Duration.ofMinutes(1));
+
+        assertEquals(3, find(caching, null).size(), "the whole result is still returned");
+        assertEquals(0, caching.size());
+    }
+
+    @Test
+    void changesOfOtherServersAreSeenOnceInvalidated() throws Exception {
+        final CachingCollectionWrapper caching = new CachingCollectionWrapper(counting);
+        find(caching, Filters.eq("uuid", "a"));
+
+        collection.raw().updateOne(Filters.eq("uuid", "a"), Updates.set("level", 7)); // by another server.
+        assertEquals(1, find(caching, Filters.eq("uuid", "a")).get(0).getInteger("level"), "not seen through raw()");
+
+        caching.invalidate(Filters.eq("uuid", "a"));
+        assertEquals(7, find(caching, Filters.eq("uuid", "a")).get(0).getInteger("level"));
+    }
+
+    private static @NotNull List<Document> find(@NotNull final CollectionWrapper collection, @Nullable final Bson filter) throws Exception {
+        return iterable(collection, filter).into(new ArrayList<>());
+    }
+
+    private static @NotNull FindIterable<Document> iterable(@NotNull final CollectionWrapper collection, @Nullable final Bson filter) throws Exception {
+        final CompletableFuture<FindIterable<Document>> future = new CompletableFuture<>();
+        collection.findAsync(filter, (result, exception) -> {
+            if (exception != null) future.completeExceptionally(exception);
+            else future.complete(result);
+        });
+
+        return future.get(5, TimeUnit.SECONDS);
+    }
+
+    private static final class Counting extends ForwardingCollectionWrapper {
+
+        private final AtomicInteger finds = new AtomicInteger();
+
+        private Counting(@NotNull final CollectionWrapper delegate) {
+            super(delegate);
+        }
+
+        @Override
+        public void findAsync(@Nullable final Bson filter, @Nullable final Bson projection, @NotNull final FindLambda lambda) {
+            finds.incrementAndGet();
+            super.findAsync(filter, projection, lambda);
+        }
+
+    }
+
+}
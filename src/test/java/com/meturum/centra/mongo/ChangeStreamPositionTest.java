@@ -0,0 +1,152 @@
+package com.meturum.centra.mongo;
+
+import com.mongodb.MongoCommandException;
+import com.mongodb.MongoSocketReadException;
+import com.mongodb.ServerAddress;
+import org.bson.BsonDocument;
+import org.bson.BsonInt32;
+import org.bson.BsonString;
+import org.jetbrains.annotations.NotNull;
+import org.junit.jupiter.api.Test;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ChangeStreamPositionTest {
+
+    private static final String STREAM = "centra.profiles";
+
+    @Test
+    void restartsFromTheStoredToken() {
+        final ResumeTokenStore tokens = ResumeTokenStore.inMemory();
+        tokens.save(STREAM, token(1));
+
+        final ChangeStreamPosition position = new ChangeStreamPosition(tokens, STREAM);
+        position.load();
+
+        assertEquals(token(1), position.getToken());
+        assertFalse(position.isInvalidated());
+    }
+
+    @Test
+    void onlyHandledChangesAreStored() {
+        final Recording tokens = new Recording();
+        final ChangeStreamPosition position = new ChangeStreamPosition(tokens, STREAM);
+        position.load();
+
+        position.received(token(1), false);
+        position.store();
+        assertEquals(List.of(), tokens.saved, "read but not handled yet");
+
+        position.handled(token(1));
+        position.store();
+        position.store();
+        assertEquals(List.of(token(1)), tokens.saved, "stored once");
+
+        assertFalse(position.idle(token(1)), "the cursor did not move");
+        assertTrue(position.idle(token(2)));
+        assertEquals(token(2), position.getToken());
+    }
+
+    @Test
+    void invalidateEventsAreStartedAfter() {
+        final ChangeStreamPosition position = new ChangeStreamPosition(ResumeTokenStore.inMemory(), STREAM);
+        position.load();
+
+        position.received(token(1), true);
+        assertTrue(position.isInvalidated());
+
+        position.opened();
+        assertFalse(position.isInvalidated());
+    }
+
+    @Test
+    void lostHistoriesRestartFromNow() {
+        final ResumeTokenStore tokens = ResumeTokenStore.inMemory();
+        tokens.save(STREAM, token(1));
+
+        final ChangeStreamPosition position = new ChangeStreamPosition(tokens, STREAM);
+        position.load();
+
+        position.lost();
+        position.handled(null);
+        position.store();
+
+        assertNull(position.getToken());
+        assertNull(tokens.load(STREAM));
+    }
+
+    @Test
+    void failedStoresAreRetried() {
+        final Recording tokens = new Recording();
+        tokens.failures = 1;
+
+        final ChangeStreamPosition position = new ChangeStreamPosition(tokens, STREAM);
+        position.load();
+
+        position.handled(token(1));
+        position.store();
+        assertEquals(List.of(), tokens.saved);
+
+        position.store();
+        assertEquals(List.of(token(1)), tokens.saved);
+    }
+
+    @Test
+    void theBackoffDoublesUntilAChangeIsRead() {
+        final ChangeStreamPosition position = new ChangeStreamPosition(ResumeTokenStore.inMemory(), STREAM);
+
+        final List<Long> delays = new ArrayList<>();
+        for (int i = 0; i < 7; i++) delays.add(position.nextBackoff());
+
+        assertEquals(List.of(1000L, 2000L, 4000L, 8000L, 16_000L, 30_000L, 30_000L), delays);
+
+        position.received(token(1), false);
+        assertEquals(ChangeStreamPosition.INITIAL_BACKOFF, position.nextBackoff());
+    }
+
+    @Test
+    void failuresAreClassifiedByTheirCode() {
+        assertEquals(ChangeStreamPosition.Failure.UNSUPPORTED, ChangeStreamPosition.classify(command(40573)));
+        assertEquals(ChangeStreamPosition.Failure.HISTORY_LOST, ChangeStreamPosition.classify(command(286)));
+        assertEquals(ChangeStreamPosition.Failure.HISTORY_LOST, ChangeStreamPosition.classify(command(260)));
+        assertEquals(ChangeStreamPosition.Failure.TRANSIENT, ChangeStreamPosition.classify(command(11600))); // InterruptedAtShutdown.
+        assertEquals(ChangeStreamPosition.Failure.TRANSIENT, ChangeStreamPosition.classify(new MongoSocketReadException("closed", new ServerAddress(), new IOException())));
+        assertEquals(ChangeStreamPosition.Failure.TRANSIENT, ChangeStreamPosition.classify(new IllegalStateException()));
+    }
+
+    private static @NotNull BsonDocument token(final int position) {
+        return new BsonDocument("_data", new BsonString("token-" + position));
+    }
+
+    private static @NotNull MongoCommandException command(final int code) {
+        return new MongoCommandException(new BsonDocument("ok", new BsonInt32(0)).append("code", new BsonInt32(code)).append("errmsg", new BsonString("failed")), new ServerAddress());
+    }
+
+    private static final class Recording implements ResumeTokenStore {
+
+        private final List<BsonDocument> saved = new ArrayList<>();
+        private int failures;
+
+        @Override
+        public @Nullable BsonDocument load(@NotNull String stream) {
+            return null;
+        }
+
+        @Override
+        public void save(@NotNull String stream, @Nullable BsonDocument token) {
+            if (failures > 0) {
+                failures--;
+                throw new IllegalStateException("unavailable");
+            }
+
+            saved.add(token);
+        }
+
+    }
+
+}
@@ -0,0 +1,99 @@
+package com.meturum.centra.mongo;
+
+import com.mongodb.MongoSocketReadException;
+import com.mongodb.MongoTimeoutException;
+import com.mongodb.ServerAddress;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.RejectedExecutionException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CircuitBreakerTest {
+
+    private static final MongoSocketReadException UNREACHABLE = new MongoSocketReadException("closed", new ServerAddress(), new IOException());
+
+    @Test
+    void consecutiveFailuresOpenTheBreaker() {
+        final CircuitBreaker breaker = new CircuitBreaker(Mongo.MongoClientTypes.GLOBAL_DATABASE, 3, Duration.ofMinutes(1), 1);
+
+        record(breaker, UNREACHABLE);
+        record(breaker, UNREACHABLE);
+        record(breaker, null);
+        record(breaker, UNREACHABLE);
+        record(breaker, UNREACHABLE);
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState(), "a success resets the failures");
+
+        record(breaker, new MongoTimeoutException("no server"));
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        assertFalse(breaker.tryAcquire());
+        assertThrows(MongoUnavailableException.class, () -> breaker.call(() -> "sent"));
+        assertEquals(2, breaker.getRejectedCount());
+        assertEquals(1, breaker.getOpenedCount());
+    }
+
+    @Test
+    void probesCloseOrReopenTheBreaker() throws Exception {
+        final CircuitBreaker breaker = new CircuitBreaker(Mongo.MongoClientTypes.GLOBAL_DATABASE, 1, Duration.ofMillis(20), 1);
+
+        breaker.trip();
+        Thread.sleep(40);
+        assertTrue(breaker.tryAcquire());
+        assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+        assertFalse(breaker.tryAcquire(), "a single probe at once");
+
+        breaker.record(UNREACHABLE);
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+
+        Thread.sleep(40);
+        assertEquals("sent", breaker.call(() -> "sent"));
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+    }
+
+    @Test
+    void onlyDegradationsCountAsFailures() {
+        final CircuitBreaker breaker = new CircuitBreaker(Mongo.MongoClientTypes.GLOBAL_DATABASE, 2, Duration.ofMinutes(1), 1);
+
+        record(breaker, UNREACHABLE);
+        record(breaker, new MongoUnavailableException(Mongo.MongoClientTypes.GLOBAL_DATABASE)); // never sent, not an outcome.
+        record(breaker, new RejectedExecutionException());
+        assertEquals(1, breaker.getConsecutiveFailures());
+
+        record(breaker, new IllegalStateException("rejected by the server"));
+        assertEquals(0, breaker.getConsecutiveFailures());
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+    }
+
+    @Test
+    void degradationsAreRecognized() {
+        assertTrue(CircuitBreaker.isDegradation(UNREACHABLE));
+        assertTrue(CircuitBreaker.isDegradation(new CompletionException(new MongoTimeoutException("no server"))));
+        assertTrue(CircuitBreaker.isDegradation(new MongoUnavailableException(Mongo.MongoClientTypes.SERVER_DATABASE)), "refused by the breaker of a decorated collection");
+        assertFalse(CircuitBreaker.isDegradation(new IllegalStateException()));
+    }
+
+    @Test
+    void listenersSeeEveryChangeOfState() throws Exception {
+        final CircuitBreaker breaker = new CircuitBreaker(Mongo.MongoClientTypes.GLOBAL_DATABASE, 1, Duration.ofMillis(20), 1);
+        final List<CircuitBreaker.State> states = new ArrayList<>();
+        breaker.addListener((source, previous, next) -> states.add(next));
+
+        record(breaker, UNREACHABLE);
+        Thread.sleep(40);
+        record(breaker, null);
+        breaker.reset(); // already closed.
+
+        assertEquals(List.of(CircuitBreaker.State.OPEN, CircuitBreaker.State.HALF_OPEN, CircuitBreaker.State.CLOSED), states);
+    }
+
+    private static void record(final CircuitBreaker breaker, final Exception exception) {
+        assertTrue(breaker.tryAcquire());
+        breaker.record(exception);
+    }
+
+}
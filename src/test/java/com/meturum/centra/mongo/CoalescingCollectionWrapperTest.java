@@ -0,0 +1,157 @@
+package com.meturum.centra.mongo;
+
+import com.mongodb.MongoNamespace;
+import com.mongodb.client.FindIterable;
+import com.mongodb.client.model.Filters;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.jetbrains.annotations.NotNull;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CoalescingCollectionWrapperTest {
+
+    @TempDir
+    Path directory;
+
+    private LocalStore store;
+    private LocalCollectionWrapper collection;
+    private Slow slow;
+    private CoalescingCollectionWrapper coalescing;
+
+    @BeforeEach
+    void open() throws IOException {
+        store = new LocalStore(directory);
+        collection = new LocalCollectionWrapper(store, new MongoNamespace("centra", "profiles"), null);
+        collection.raw().insertOne(new Document("uuid", "a").append("level", 1));
+
+        slow = new Slow(collection);
+        coalescing = new CoalescingCollectionWrapper(slow);
+    }
+
+    @AfterEach
+    void close() {
+        slow.release.countDown();
+        store.close();
+    }
+
+    @Test
+    void callsMadeWhileTheResultIsReadJoinIt() throws Exception {
+        final CompletableFuture<List<Document>> first = find(coalescing);
+        assertTrue(slow.reading.await(5, TimeUnit.SECONDS));
+
+        final CompletableFuture<List<Document>> second = find(coalescing);
+        slow.release.countDown();
+
+        assertEquals(1, first.get(5, TimeUnit.SECONDS).size());
+        assertEquals(first.get(5, TimeUnit.SECONDS), second.get(5, TimeUnit.SECONDS));
+        assertEquals(1, slow.queries.get());
+        assertEquals(1, coalescing.getQueryCount());
+        assertEquals(1, coalescing.getCoalescedCount());
+        assertEquals(0, coalescing.getInFlightCount());
+    }
+
+    @Test
+    void callsMadeAfterAWriteSendTheirOwnQuery() throws Exception {
+        final CompletableFuture<List<Document>> first = find(coalescing);
+        assertTrue(slow.reading.await(5, TimeUnit.SECONDS));
+
+        final CompletableFuture<Void> written = new CompletableFuture<>();
+        coalescing.insertOneAsync(new Document("uuid", "a").append("level", 2), (result, exception) -> written.complete(null));
+        written.get(5, TimeUnit.SECONDS);
+
+        final CompletableFuture<List<Document>> second = find(coalescing);
+        assertEquals(2, second.get(5, TimeUnit.SECONDS).size(), "not the result read before the write");
+
+        slow.release.countDown();
+        first.get(5, TimeUnit.SECONDS);
+        assertEquals(2, slow.queries.get());
+        assertEquals(0, coalescing.getCoalescedCount());
+    }
+
+    @Test
+    void failuresReachEveryWaiter() throws Exception {
+        slow.failure = new IllegalStateException("unreadable");
+
+        final CompletableFuture<List<Document>> first = find(coalescing);
+        assertTrue(slow.reading.await(5, TimeUnit.SECONDS));
+
+        final CompletableFuture<List<Document>> second = find(coalescing);
+        slow.release.countDown();
+
+        assertInstanceOf(IllegalStateException.class, assertThrows(ExecutionException.class, () -> first.get(5, TimeUnit.SECONDS)).getCause());
+        assertInstanceOf(IllegalStateException.class, assertThrows(ExecutionException.class, () -> second.get(5, TimeUnit.SECONDS)).getCause());
+        assertEquals(1, slow.queries.get());
+    }
+
+    private static @NotNull CompletableFuture<List<Document>> find(@NotNull final CollectionWrapper collection) {
+        final CompletableFuture<List<Document>> future = new CompletableFuture<>();
+        collection.findAsync(Filters.eq("uuid", "a"), (result, exception) -> {
+            if (exception != null) future.completeExceptionally(exception);
+            else future.complete(result.into(new ArrayList<>()));
+        });
+
+        return future;
+    }
+
+    /**
+     * Counts the queries, and holds the first read of a result until {@link #release} is counted down: like the iterables of the driver,
+     * the query is only sent once the result is read.
+     */
+    private static final class Slow extends ForwardingCollectionWrapper {
+
+        private final AtomicInteger queries = new AtomicInteger();
+        private final CountDownLatch reading = new CountDownLatch(1);
+        private final CountDownLatch release = new CountDownLatch(1);
+        private volatile @Nullable RuntimeException failure;
+
+        private Slow(@NotNull final CollectionWrapper delegate) {
+            super(delegate);
+        }
+
+        @Override
+        public void findAsync(@Nullable Bson filter, @Nullable Bson projection, @NotNull FindLambda lambda) {
+            final boolean first = queries.incrementAndGet() == 1;
+
+            super.findAsync(filter, projection, (result, exception) -> lambda.run(result != null && first ? held(result) : result, exception));
+        }
+
+        @SuppressWarnings("unchecked")
+        private @NotNull FindIterable<Document> held(@NotNull final FindIterable<Document> result) {
+            return (FindIterable<Document>) Proxy.newProxyInstance(CoalescingCollectionWrapperTest.class.getClassLoader(), new Class<?>[]{FindIterable.class}, (proxy, method, arguments) -> {
+                if (method.getName().equals("into")) {
+                    reading.countDown();
+                    if (!release.await(5, TimeUnit.SECONDS)) throw new IllegalStateException("never released");
+
+                    final RuntimeException failure = this.failure;
+                    if (failure != null) throw failure;
+                }
+
+                try {
+                    return method.invoke(result, arguments);
+                }catch (InvocationTargetException exception) {
+                    throw exception.getCause();
+                }
+            });
+        }
+
+    }
+
+}
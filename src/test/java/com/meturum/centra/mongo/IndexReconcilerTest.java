@@ -0,0 +1,194 @@
+package com.meturum.centra.mongo;
+
+import com.meturum.centra.conversions.Documentable;
+import com.mongodb.MongoNamespace;
+import com.mongodb.MongoSocketReadException;
+import com.mongodb.ServerAddress;
+import com.mongodb.client.ListIndexesIterable;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.Filters;
+import org.bson.BsonDocument;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.jetbrains.annotations.NotNull;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.lang.reflect.Proxy;
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class IndexReconcilerTest {
+
+    private static final Logger LOGGER = Logger.getLogger("Centra");
+
+    @TempDir
+    Path directory;
+
+    private LocalStore store;
+    private LocalCollectionWrapper collection;
+
+    @BeforeEach
+    void open() throws IOException {
+        store = new LocalStore(directory);
+        collection = new LocalCollectionWrapper(store, new MongoNamespace("centra", "profiles"), null);
+    }
+
+    @AfterEach
+    void close() {
+        store.close();
+    }
+
+    @Test
+    void missingIndexesAreCreatedOnce() throws Exception {
+        final Indexes indexes = new Indexes(collection, 0, Runnable::run);
+        final IndexReconciler reconciler = new IndexReconciler(indexes, Profile.class, LOGGER);
+
+        final CompletableFuture<Void> reconciliation = reconciler.reconcile();
+        reconciliation.get(5, TimeUnit.SECONDS);
+
+        assertSame(reconciliation, reconciler.reconcile());
+        assertEquals(1, indexes.listed.get());
+        assertEquals(List.of(BsonDocument.parse("{uuid: 1}")), indexes.created);
+        assertTrue(reconciler.check(Filters.eq("uuid", "a")));
+        assertFalse(reconciler.check(Filters.eq("name", "a")));
+    }
+
+    @Test
+    void failedReconciliationsAreStartedAgain() throws Exception {
+        final Indexes indexes = new Indexes(collection, 1, Runnable::run);
+        final IndexReconciler reconciler = new IndexReconciler(indexes, Profile.class, LOGGER);
+
+        final CompletableFuture<Void> failed = reconciler.reconcile();
+        assertThrows(ExecutionException.class, () -> failed.get(5, TimeUnit.SECONDS));
+
+        final CompletableFuture<Void> retried = reconciler.reconcile();
+        assertNotSame(failed, retried);
+        retried.get(5, TimeUnit.SECONDS);
+
+        assertSame(retried, reconciler.reconcile(), "a completed reconciliation is not started again");
+        assertEquals(2, indexes.listed.get());
+        assertEquals(1, indexes.created.size());
+    }
+
+    @Test
+    void rejectedReconciliationsAreStartedAgain() throws Exception {
+        final ExecutorService threads = Executors.newSingleThreadExecutor();
+        final CountDownLatch release = new CountDownLatch(1);
+
+        try {
+            final BoundedExecutor executor = new BoundedExecutor(threads, 1, 1, BoundedExecutor.OverflowPolicy.REJECT, () -> false);
+            executor.execute(() -> {
+                try {
+                    release.await();
+                }catch (InterruptedException exception) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+            final CompletableFuture<Void> queued = CompletableFuture.runAsync(() -> { }, executor); // the queue is full.
+
+            final IndexReconciler reconciler = new IndexReconciler(new Indexes(collection, 0, executor), Profile.class, LOGGER);
+
+            final CompletableFuture<Void> rejected = reconciler.reconcile();
+            assertInstanceOf(RejectedExecutionException.class, assertThrows(ExecutionException.class, () -> rejected.get(5, TimeUnit.SECONDS)).getCause());
+
+            release.countDown();
+            queued.get(5, TimeUnit.SECONDS);
+
+            final CompletableFuture<Void> retried = reconciler.reconcile();
+            assertNotSame(rejected, retried);
+            retried.get(5, TimeUnit.SECONDS);
+        } finally {
+            release.countDown();
+            threads.shutdownNow();
+        }
+    }
+
+    /**
+     * A class of documents declaring one index.
+     */
+    private static final class Profile {
+
+        @Documentable.Indexed(unique = true)
+        String uuid;
+        String name;
+
+    }
+
+    /**
+     * Serves the index commands the local collection does not support, the first listings fail like an unreachable server.
+     */
+    private static final class Indexes extends ForwardingCollectionWrapper {
+
+        private final AtomicInteger listed = new AtomicInteger();
+        private final List<BsonDocument> created = new CopyOnWriteArrayList<>();
+        private final int failures;
+        private final Executor executor;
+
+        private Indexes(@NotNull final CollectionWrapper delegate, final int failures, @NotNull final Executor executor) {
+            super(delegate);
+
+            this.failures = failures;
+            this.executor = executor;
+        }
+
+        @Override
+        public @NotNull Executor getExecutor() {
+            return executor;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public @NotNull MongoCollection<Document> raw() {
+            final MongoCollection<Document> raw = super.raw();
+
+            return (MongoCollection<Document>) Proxy.newProxyInstance(IndexReconcilerTest.class.getClassLoader(), new Class<?>[]{MongoCollection.class}, (proxy, method, arguments) -> {
+                switch (method.getName()) {
+                    case "listIndexes" -> {
+                        if (listed.incrementAndGet() <= failures) throw new MongoSocketReadException("closed", new ServerAddress(), new IOException());
+
+                        return listing();
+                    }
+                    case "createIndex" -> {
+                        created.add(((Bson) arguments[0]).toBsonDocument());
+                        return "created";
+                    }
+                    default -> {
+                        return method.invoke(raw, arguments);
+                    }
+                }
+            });
+        }
+
+        @SuppressWarnings("unchecked")
+        private @NotNull ListIndexesIterable<Document> listing() {
+            return (ListIndexesIterable<Document>) Proxy.newProxyInstance(IndexReconcilerTest.class.getClassLoader(), new Class<?>[]{ListIndexesIterable.class}, (proxy, method, arguments) -> {
+                if (!method.getName().equals("into")) throw new UnsupportedOperationException(method.getName());
+
+                final Collection<Document> target = (Collection<Document>) arguments[0];
+                for (final BsonDocument key : created) target.add(new Document("key", Document.parse(key.toJson())).append("name", "index"));
+
+                return target;
+            });
+        }
+
+    }
+
+}
@@ -0,0 +1,182 @@
+package com.meturum.centra.mongo;
+
+import com.mongodb.MongoNamespace;
+import com.mongodb.MongoSocketException;
+import com.mongodb.ServerAddress;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.ReplaceOptions;
+import com.mongodb.client.model.UpdateOptions;
+import com.mongodb.client.model.Updates;
+import com.mongodb.client.result.UpdateResult;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.jetbrains.annotations.NotNull;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class JournalingCollectionWrapperTest {
+
+    @TempDir
+    java.nio.file.Path directory;
+
+    private LocalStore store;
+    private Unreachable collection;
+
+    @BeforeEach
+    void open() throws IOException {
+        store = new LocalStore(directory.resolve("store"));
+        collection = new Unreachable(new LocalCollectionWrapper(store, new MongoNamespace("centra", "profiles"), null));
+    }
+
+    @AfterEach
+    void close() {
+        store.close();
+    }
+
+    @Test
+    void unconfirmedWritesAreReplayedAfterARestart() throws Exception {
+        final JournalingCollectionWrapper journaling = new JournalingCollectionWrapper(collection, journal());
+
+        collection.down = true;
+        assertThrows(ExecutionException.class, () -> update(journaling, "a", 1));
+        assertEquals(1, journaling.getJournal().getPendingCount());
+
+        collection.down = false;
+        final JournalingCollectionWrapper restarted = new JournalingCollectionWrapper(collection, journal()); // the journal was never closed.
+
+        assertEquals(1, restarted.getJournal().getPendingCount());
+        assertEquals(1, restarted.replay());
+        assertEquals(0, restarted.getJournal().getPendingCount());
+        assertEquals(1, find("a").getInteger("value"));
+    }
+
+    @Test
+    void confirmedUpdatesAreReplayedAfterEarlierUnconfirmedOnes() throws Exception {
+        final JournalingCollectionWrapper journaling = new JournalingCollectionWrapper(collection, journal());
+
+        collection.down = true;
+        assertThrows(ExecutionException.class, () -> update(journaling, "a", Updates.combine(Updates.set("value", 1), Updates.set("other", 1))));
+
+        collection.down = false;
+        update(journaling, "a", Updates.set("value", 2)); // Mongo is reachable again, the replay starts by itself.
+        waitForReplays(journaling);
+
+        assertEquals(0, journaling.getJournal().getPendingCount());
+        assertEquals(2, find("a").getInteger("value"), "the later update is sent again after the earlier one");
+        assertEquals(1, find("a").getInteger("other"), "the other changes of the earlier update are not lost");
+    }
+
+    @Test
+    void confirmedUpdatesAreKeptAcrossRestarts() throws Exception {
+        final JournalingCollectionWrapper journaling = new JournalingCollectionWrapper(collection, journal());
+
+        collection.down = true;
+        assertThrows(ExecutionException.class, () -> update(journaling, "a", Updates.combine(Updates.set("value", 1), Updates.set("other", 1))));
+
+        collection.down = false;
+        final JournalingCollectionWrapper restarted = new JournalingCollectionWrapper(collection, journal());
+        update(restarted, "a", Updates.set("value", 2));
+
+        assertEquals(2, restarted.getJournal().getPendingCount(), "kept until the earlier update is replayed");
+        assertEquals(2, journal().getPendingCount(), "even after another restart");
+
+        assertEquals(2, restarted.replay());
+        assertEquals(0, restarted.getJournal().getPendingCount());
+        assertEquals(2, find("a").getInteger("value"));
+        assertEquals(1, find("a").getInteger("other"));
+    }
+
+    @Test
+    void confirmedReplacementsSupersedeEarlierUnconfirmedWrites() throws Exception {
+        final JournalingCollectionWrapper journaling = new JournalingCollectionWrapper(collection, journal());
+
+        collection.down = true;
+        assertThrows(ExecutionException.class, () -> update(journaling, "a", 1));
+
+        collection.down = false;
+        final CompletableFuture<UpdateResult> replaced = new CompletableFuture<>();
+        journaling.replaceOneAsync(Filters.eq("uuid", "a"), new Document("uuid", "a").append("value", 2), new ReplaceOptions().upsert(true), (result, exception) -> {
+            if (exception != null) replaced.completeExceptionally(exception);
+            else replaced.complete(result);
+        });
+        replaced.get(5, TimeUnit.SECONDS);
+        waitForReplays(journaling);
+
+        assertEquals(0, journaling.getJournal().getPendingCount());
+        assertEquals(0, journaling.replay());
+        assertEquals(2, find("a").getInteger("value"), "the earlier write is not sent after the replacement");
+        assertEquals(0, journal().getPendingCount(), "nor after a restart");
+    }
+
+    @Test
+    void writesOfOtherDocumentsAreReplayedOnceReachable() throws Exception {
+        final JournalingCollectionWrapper journaling = new JournalingCollectionWrapper(collection, journal());
+
+        collection.down = true;
+        assertThrows(ExecutionException.class, () -> update(journaling, "a", 1));
+
+        collection.down = false;
+        update(journaling, "b", 1); // Mongo is reachable again, the replay starts by itself.
+        waitForReplays(journaling);
+
+        assertEquals(0, journaling.getJournal().getPendingCount());
+        assertEquals(1, find("a").getInteger("value"));
+    }
+
+    private WriteJournal journal() throws IOException {
+        return new WriteJournal(directory.resolve("journal"), 4096, false);
+    }
+
+    private Document find(final String uuid) {
+        return collection.raw().find(Filters.eq("uuid", uuid)).first();
+    }
+
+    private static UpdateResult update(final CollectionWrapper collection, final String uuid, final int value) throws Exception {
+        return update(collection, uuid, Updates.set("value", value));
+    }
+
+    private static UpdateResult update(final CollectionWrapper collection, final String uuid, final Bson updates) throws Exception {
+        final CompletableFuture<UpdateResult> future = new CompletableFuture<>();
+        collection.updateOneAsync(Filters.eq("uuid", uuid), updates, new UpdateOptions().upsert(true), (result, exception) -> {
+            if (exception != null) future.completeExceptionally(exception);
+            else future.complete(result);
+        });
+
+        return future.get(5, TimeUnit.SECONDS);
+    }
+
+    private static void waitForReplays(final JournalingCollectionWrapper collection) throws InterruptedException {
+        final long deadline = java.lang.System.currentTimeMillis() + 5000;
+        while (collection.getJournal().getPendingCount() > 0 && java.lang.System.currentTimeMillis() < deadline) Thread.sleep(10);
+    }
+
+    /**
+     * A collection failing every update like an unreachable server while {@link #down} is set.
+     */
+    private static final class Unreachable extends ForwardingCollectionWrapper {
+
+        private volatile boolean down;
+
+        private Unreachable(@NotNull final CollectionWrapper delegate) {
+            super(delegate);
+        }
+
+        @Override
+        public void updateOneAsync(@NotNull Bson filter, @NotNull Bson updates, @Nullable UpdateOptions options, @Nullable UpdateOneLambda lambda) {
+            if (!down) super.updateOneAsync(filter, updates, options, lambda);
+            else if (lambda != null) lambda.run(null, new MongoSocketException("The server is unreachable.", new ServerAddress()));
+        }
+
+    }
+
+}
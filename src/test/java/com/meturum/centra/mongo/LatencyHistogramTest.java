@@ -0,0 +1,66 @@
+package com.meturum.centra.mongo;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LatencyHistogramTest {
+
+    @Test
+    void percentilesArePreciseToTheirBucket() {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        for (int micros = 1; micros <= 10_000; micros++) histogram.record(TimeUnit.MICROSECONDS.toNanos(micros));
+
+        final LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+        assertEquals(10_000, snapshot.getCount());
+        assertEquals(5000.5, snapshot.getMean(), 0.001);
+        assertEquals(10_000, snapshot.getMax());
+
+        assertWithin(5_000, snapshot.getPercentile(50));
+        assertWithin(9_900, snapshot.getPercentile(99));
+        assertEquals(10_000, snapshot.getPercentile(100), "never above the maximum");
+    }
+
+    @Test
+    void smallDurationsAreExact() {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(TimeUnit.MICROSECONDS.toNanos(3));
+        histogram.record(TimeUnit.MICROSECONDS.toNanos(7));
+
+        assertEquals(3, histogram.snapshot().getPercentile(50));
+        assertEquals(7, histogram.snapshot().getPercentile(99));
+    }
+
+    @Test
+    void durationsAreBounded() {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(-1);
+        histogram.record(TimeUnit.HOURS.toNanos(5));
+
+        final LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+        assertEquals(0, snapshot.getPercentile(50));
+        assertEquals(TimeUnit.HOURS.toMicros(1), snapshot.getMax());
+    }
+
+    @Test
+    void snapshotsSubtractPreviousOnes() {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(TimeUnit.MILLISECONDS.toNanos(100));
+        final LatencyHistogram.Snapshot previous = histogram.snapshot();
+
+        histogram.record(TimeUnit.MICROSECONDS.toNanos(10));
+        final LatencyHistogram.Snapshot delta = histogram.snapshot().since(previous);
+
+        assertEquals(1, delta.getCount());
+        assertEquals(10, delta.getMean(), 0.001);
+        assertEquals(10, delta.getPercentile(99));
+        assertEquals(0, LatencyHistogram.Snapshot.empty().getPercentile(99));
+    }
+
+    private static void assertWithin(final long expected, final long actual) {
+        assertTrue(Math.abs(actual - expected) <= expected * 0.03, () -> expected + " expected, " + actual + " read");
+    }
+
+}
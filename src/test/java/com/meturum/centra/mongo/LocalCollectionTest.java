@@ -0,0 +1,116 @@
+package com.meturum.centra.mongo;
+
+import com.mongodb.ErrorCategory;
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.MongoNamespace;
+import com.mongodb.MongoWriteException;
+import com.mongodb.bulk.BulkWriteError;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.BulkWriteOptions;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.InsertManyOptions;
+import com.mongodb.client.model.InsertOneModel;
+import com.mongodb.client.model.ReplaceOneModel;
+import com.mongodb.client.model.UpdateOneModel;
+import com.mongodb.client.model.Updates;
+import com.mongodb.client.model.WriteModel;
+import org.bson.Document;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LocalCollectionTest {
+
+    @TempDir
+    Path directory;
+
+    private LocalStore store;
+    private LocalCollectionWrapper wrapper;
+    private MongoCollection<Document> collection;
+
+    @BeforeEach
+    void open() throws IOException {
+        store = new LocalStore(directory);
+        wrapper = new LocalCollectionWrapper(store, new MongoNamespace("centra", "profiles"), null);
+        collection = wrapper.raw();
+    }
+
+    @AfterEach
+    void close() {
+        store.close();
+    }
+
+    @Test
+    void unorderedBulkWritesReportEveryRejectedWrite() {
+        collection.insertOne(new Document("_id", 1).append("uuid", "a").append("level", 1));
+
+        final List<WriteModel<Document>> models = List.of(
+                new InsertOneModel<>(new Document("_id", 1)), // a duplicate.
+                new UpdateOneModel<>(Filters.eq("uuid", "a"), Updates.inc("uuid", 1)), // not a number.
+                new InsertOneModel<>(new Document("_id", 2).append("uuid", "b")),
+                new ReplaceOneModel<>(Filters.eq("uuid", "a"), new Document("_id", 3)));
+
+        final MongoBulkWriteException exception = assertThrows(MongoBulkWriteException.class, () -> collection.bulkWrite(models, new BulkWriteOptions().ordered(false)));
+
+        assertEquals(List.of(0, 1, 3), exception.getWriteErrors().stream().map(BulkWriteError::getIndex).toList());
+        assertEquals(ErrorCategory.DUPLICATE_KEY, ErrorCategory.fromErrorCode(exception.getWriteErrors().get(0).getCode()));
+        assertEquals(1, exception.getWriteResult().getInsertedCount(), "the other writes are applied");
+        assertEquals(2, collection.countDocuments());
+    }
+
+    @Test
+    void orderedBulkWritesStopAtTheFirstRejectedWrite() {
+        final List<Document> documents = List.of(new Document("_id", 1), new Document("_id", 1), new Document("_id", 2));
+
+        final MongoBulkWriteException exception = assertThrows(MongoBulkWriteException.class, () -> collection.insertMany(documents, new InsertManyOptions().ordered(true)));
+
+        assertEquals(1, exception.getWriteErrors().size());
+        assertEquals(1, exception.getWriteErrors().get(0).getIndex());
+        assertEquals(1, collection.countDocuments());
+    }
+
+    @Test
+    void singleWritesThrowWriteExceptions() {
+        collection.insertOne(new Document("_id", 1).append("uuid", "a"));
+
+        assertThrows(MongoWriteException.class, () -> collection.insertOne(new Document("_id", 1)));
+        assertThrows(MongoWriteException.class, () -> collection.replaceOne(Filters.eq("uuid", "a"), new Document("_id", 2)));
+    }
+
+    @Test
+    void indexedFiltersSelectTheMatchingDocuments() {
+        collection.insertMany(List.of(
+                new Document("uuid", "a").append("version", 1),
+                new Document("uuid", "b").append("version", 1),
+                new Document("uuid", "c").append("version", 2)));
+
+        collection.updateOne(Filters.and(Filters.eq("uuid", "a"), Filters.eq("version", 1)), Updates.set("uuid", "d"));
+
+        assertEquals(0, collection.countDocuments(Filters.eq("uuid", "a")));
+        assertEquals(1, collection.countDocuments(Filters.and(Filters.eq("uuid", "d"), Filters.eq("version", 1))));
+        assertEquals(0, collection.countDocuments(Filters.and(Filters.eq("uuid", "c"), Filters.eq("version", 1))));
+        assertEquals(List.of("b"), collection.find(Filters.eq("uuid", "b")).map(document -> document.getString("uuid")).into(new ArrayList<>()));
+    }
+
+    @Test
+    void lambdasRunOnTheExecutor() throws Exception {
+        final Thread caller = Thread.currentThread();
+        final CompletableFuture<Thread> thread = new CompletableFuture<>();
+
+        wrapper.insertOneAsync(new Document("uuid", "a"), (result, exception) -> thread.complete(Thread.currentThread()));
+
+        assertNotSame(caller, thread.get(5, TimeUnit.SECONDS));
+        assertEquals(1, collection.countDocuments(), "the write is applied before the call returns");
+    }
+
+}
@@ -0,0 +1,127 @@
+package com.meturum.centra.mongo;
+
+import org.bson.BsonDocument;
+import org.bson.BsonInt32;
+import org.bson.BsonInt64;
+import org.bson.BsonString;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LocalQueryTest {
+
+    private static final BsonDocument PROFILE = BsonDocument.parse("""
+            {"_id": 1, "uuid": "a", "level": 5, "coins": {"$numberLong": "12"}, "tags": ["vip", "builder"],
+             "stats": {"kills": 3, "deaths": 0}, "nickname": null}""");
+
+    @Test
+    void equalityMatchesValuesAndArrayElements() {
+        assertTrue(matches("{uuid: 'a'}"));
+        assertTrue(matches("{tags: 'vip'}"), "an array matches if one of its elements does");
+        assertTrue(matches("{tags: ['vip', 'builder']}"), "or if it equals the value");
+        assertTrue(matches("{'stats.kills': 3}"), "dotted paths resolve embedded fields");
+        assertTrue(matches("{stats: {kills: 3, deaths: 0}}"), "embedded documents are compared whole");
+        assertFalse(matches("{stats: {deaths: 0, kills: 3}}"), "in order");
+        assertTrue(matches("{stats: {kills: 3.0, deaths: 0}}"), "with their numbers compared by value");
+        assertFalse(matches("{uuid: 'b'}"));
+    }
+
+    @Test
+    void numbersAreComparedByValue() {
+        assertTrue(matches("{coins: 12}"), "an int matches a long");
+        assertTrue(matches("{level: 5.0}"), "and a double");
+        assertTrue(matches("{level: {$gt: 4, $lte: 5}}"));
+        assertFalse(matches("{level: {$gt: '4'}}"), "values of other types are never compared");
+    }
+
+    @Test
+    void nullMatchesMissingFields() {
+        assertTrue(matches("{nickname: null}"));
+        assertTrue(matches("{missing: null}"));
+        assertFalse(matches("{uuid: null}"));
+        assertTrue(matches("{nickname: {$exists: true}}"));
+        assertFalse(matches("{missing: {$exists: true}}"));
+    }
+
+    @Test
+    void operatorsFollowMongo() {
+        assertTrue(matches("{level: {$in: [1, 5]}}"));
+        assertTrue(matches("{tags: {$in: ['builder']}}"));
+        assertTrue(matches("{tags: {$nin: ['admin']}}"));
+        assertFalse(matches("{tags: {$ne: 'vip'}}"), "$ne fails if any element is equal");
+        assertTrue(matches("{$or: [{uuid: 'b'}, {level: 5}]}"));
+        assertFalse(matches("{$nor: [{uuid: 'b'}, {level: 5}]}"));
+        assertTrue(matches("{$and: [{uuid: 'a'}, {'stats.deaths': 0}]}"));
+        assertThrows(UnsupportedOperationException.class, () -> matches("{uuid: {$regex: 'a'}}"));
+    }
+
+    @Test
+    void equalitiesAreFoundInAndClauses() {
+        assertEquals(new BsonString("a"), LocalQuery.getEquality(BsonDocument.parse("{uuid: 'a'}"), "uuid"));
+        assertEquals(new BsonString("a"), LocalQuery.getEquality(BsonDocument.parse("{uuid: {$eq: 'a'}}"), "uuid"));
+        assertEquals(new BsonString("a"), LocalQuery.getEquality(BsonDocument.parse("{$and: [{version: 2}, {uuid: 'a'}]}"), "uuid"));
+        assertNull(LocalQuery.getEquality(BsonDocument.parse("{uuid: {$in: ['a']}}"), "uuid"));
+        assertNull(LocalQuery.getEquality(BsonDocument.parse("{$or: [{uuid: 'a'}]}"), "uuid"));
+    }
+
+    @Test
+    void updatesAreApplied() {
+        final BsonDocument document = PROFILE.clone();
+        LocalQuery.apply(document, BsonDocument.parse("{$set: {'stats.wins': 1}, $unset: {nickname: ''}, $inc: {level: 1, coins: 1}}"), false);
+
+        assertEquals(new BsonInt32(1), document.getDocument("stats").get("wins"));
+        assertFalse(document.containsKey("nickname"));
+        assertEquals(new BsonInt32(6), document.get("level"));
+        assertEquals(new BsonInt64(13), document.get("coins"), "the type of the field is kept");
+
+        LocalQuery.apply(document, BsonDocument.parse("{$setOnInsert: {level: 1}}"), false);
+        assertEquals(new BsonInt32(6), document.get("level"), "$setOnInsert only applies to upserts");
+
+        assertThrows(IllegalArgumentException.class, () -> LocalQuery.apply(document, BsonDocument.parse("{$inc: {uuid: 1}}"), false));
+        assertThrows(IllegalArgumentException.class, () -> LocalQuery.apply(document, BsonDocument.parse("{$set: {_id: 2}}"), false));
+    }
+
+    @Test
+    void upsertsAreSeededFromEqualities() {
+        final BsonDocument seed = LocalQuery.seed(BsonDocument.parse("{uuid: 'a', 'stats.kills': {$eq: 3}, level: {$gt: 1}, $and: [{server: 'lobby'}]}"));
+
+        assertEquals(BsonDocument.parse("{uuid: 'a', stats: {kills: 3}, server: 'lobby'}"), seed);
+    }
+
+    @Test
+    void projectionsIncludeOrExcludeFields() {
+        assertEquals(BsonDocument.parse("{_id: 1, uuid: 'a', stats: {kills: 3}}"), LocalQuery.project(PROFILE, BsonDocument.parse("{uuid: 1, 'stats.kills': 1}")));
+        assertEquals(BsonDocument.parse("{uuid: 'a'}"), LocalQuery.project(PROFILE, BsonDocument.parse("{uuid: 1, _id: 0}")));
+
+        final BsonDocument excluded = LocalQuery.project(PROFILE, BsonDocument.parse("{tags: 0, stats: 0}"));
+        assertFalse(excluded.containsKey("tags") || excluded.containsKey("stats"));
+        assertTrue(excluded.containsKey("_id") && excluded.containsKey("uuid"));
+    }
+
+    @Test
+    void sortsOrderTypesLikeMongo() {
+        final List<BsonDocument> documents = new ArrayList<>(List.of(
+                BsonDocument.parse("{level: 'ten'}"),
+                BsonDocument.parse("{level: 2}"),
+                BsonDocument.parse("{}"),
+                BsonDocument.parse("{level: {$numberLong: '10'}}"),
+                BsonDocument.parse("{level: 2.5}")));
+
+        documents.sort(LocalQuery.comparator(BsonDocument.parse("{level: 1}")));
+
+        assertEquals(List.of(
+                BsonDocument.parse("{}"), // missing fields sort like null, before numbers.
+                BsonDocument.parse("{level: 2}"),
+                BsonDocument.parse("{level: 2.5}"),
+                BsonDocument.parse("{level: {$numberLong: '10'}}"),
+                BsonDocument.parse("{level: 'ten'}")), documents);
+    }
+
+    private static boolean matches(final String filter) {
+        return LocalQuery.matches(PROFILE, BsonDocument.parse(filter));
+    }
+
+}
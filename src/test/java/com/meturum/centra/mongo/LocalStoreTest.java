@@ -0,0 +1,156 @@
+package com.meturum.centra.mongo;
+
+import org.bson.BsonArray;
+import org.bson.BsonDocument;
+import org.bson.BsonInt32;
+import org.bson.BsonString;
+import org.bson.RawBsonDocument;
+import org.bson.codecs.BsonDocumentCodec;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LocalStoreTest {
+
+    private static final int SEGMENT_SIZE = 4096;
+
+    @TempDir
+    Path directory;
+
+    private final List<LocalStore> stores = new ArrayList<>();
+
+    @AfterEach
+    void close() {
+        stores.forEach(LocalStore::close);
+    }
+
+    @Test
+    void documentsAreLoadedAfterACrash() throws IOException {
+        final LocalStore store = open();
+        store.put(document(1, "a", 1));
+        store.put(document(2, "b", 1));
+        store.put(document(1, "a", 2));
+        store.delete(new BsonInt32(2));
+
+        final LocalStore restarted = open(); // the first one is never closed.
+
+        assertEquals(1, restarted.size());
+        assertEquals(document(1, "a", 2), restarted.get(new BsonInt32(1)));
+        assertNull(restarted.get(new BsonInt32(2)));
+    }
+
+    @Test
+    void tornRecordsAreIgnored() throws IOException {
+        final LocalStore store = open();
+        store.put(document(1, "a", 1));
+        store.put(document(2, "b", 1));
+        store.close();
+
+        final Path segment;
+        try (Stream<Path> files = Files.list(directory)) {
+            segment = files.findFirst().orElseThrow();
+        }
+
+        final int first = Integer.BYTES + Byte.BYTES + size(document(1, "a", 1)) + Integer.BYTES;
+        final byte[] bytes = Files.readAllBytes(segment);
+        bytes[first + Integer.BYTES + Byte.BYTES + 8] ^= 0xFF; // inside the payload of the second record.
+        Files.write(segment, bytes);
+
+        final LocalStore restarted = open();
+
+        assertEquals(1, restarted.size());
+        assertNotNull(restarted.get(new BsonInt32(1)));
+    }
+
+    @Test
+    void compactionReclaimsOverwrittenRecords() throws IOException {
+        final LocalStore store = open();
+        for (int round = 0; round < 20; round++) {
+            for (int id = 0; id < 10; id++) store.put(document(id, "player-" + id, round));
+        }
+
+        final int segments = store.getSegmentCount();
+        store.compact();
+
+        assertTrue(store.getSegmentCount() < segments, "segments were deleted");
+        assertTrue(store.getGarbageRatio() < 0.5, "garbage ratio " + store.getGarbageRatio());
+        assertTrue(store.getSegmentCount() <= 3, store.getSegmentCount() + " segments");
+
+        final LocalStore restarted = open();
+        assertEquals(10, restarted.size());
+        for (int id = 0; id < 10; id++) assertEquals(document(id, "player-" + id, 19), restarted.get(new BsonInt32(id)));
+    }
+
+    @Test
+    void deletionsSurviveCompaction() throws IOException {
+        final LocalStore store = open();
+        store.put(document(0, "deleted", 0));
+
+        for (int round = 0; round < 20; round++) {
+            for (int id = 1; id < 10; id++) store.put(document(id, "player-" + id, round));
+            if (round == 10) store.delete(new BsonInt32(0)); // the deletion is in a later segment than the document.
+        }
+
+        store.compact();
+
+        final LocalStore restarted = open();
+        assertNull(restarted.get(new BsonInt32(0)));
+        assertEquals(9, restarted.size());
+    }
+
+    @Test
+    void indexedFieldsAreLookedUp() throws IOException {
+        final LocalStore store = open();
+        store.put(document(1, "a", 1));
+        store.put(document(2, "b", 1));
+        store.put(document(1, "c", 2)); // moved from a to c.
+        store.put(new BsonDocument("_id", new BsonInt32(3)).append("uuid", new BsonArray(List.of(new BsonString("a"), new BsonString("d")))));
+        store.delete(new BsonInt32(2));
+
+        assertEquals(Set.of(new BsonInt32(3)), store.lookup("uuid", new BsonString("a")));
+        assertEquals(Set.of(), store.lookup("uuid", new BsonString("b")));
+        assertEquals(Set.of(new BsonInt32(1)), store.lookup("uuid", new BsonString("c")));
+        assertNull(store.lookup("level", new BsonString("a")), "the field is not indexed");
+        assertNull(store.lookup("uuid", new BsonInt32(1)), "numbers cannot be looked up");
+
+        final LocalStore restarted = open();
+        assertEquals(Set.of(new BsonInt32(1)), restarted.lookup("uuid", new BsonString("c")));
+        assertEquals(Set.of(new BsonInt32(3)), restarted.lookup("uuid", new BsonString("d")));
+        assertEquals(Set.of(), restarted.lookup("uuid", new BsonString("b")));
+    }
+
+    @Test
+    void closedStoreRejectsWrites() throws IOException {
+        final LocalStore store = open();
+        store.close();
+
+        assertThrows(IOException.class, () -> store.put(document(1, "a", 1)));
+    }
+
+    private LocalStore open() throws IOException {
+        final LocalStore store = new LocalStore(directory, SEGMENT_SIZE, false, LocalStore.DEFAULT_COMPACTION_THRESHOLD, task -> { }); // only compacted by the tests.
+        stores.add(store);
+
+        return store;
+    }
+
+    private static BsonDocument document(final int id, final String uuid, final int level) {
+        return new BsonDocument("_id", new BsonInt32(id)).append("uuid", new BsonString(uuid)).append("level", new BsonInt32(level))
+                .append("padding", new BsonString("x".repeat(100)));
+    }
+
+    private static int size(final BsonDocument document) {
+        return new RawBsonDocument(document, new BsonDocumentCodec()).getByteBuffer().remaining();
+    }
+
+}
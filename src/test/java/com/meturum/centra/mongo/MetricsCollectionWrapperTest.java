@@ -0,0 +1,129 @@
+package com.meturum.centra.mongo;
+
+import com.mongodb.MongoNamespace;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.Updates;
+import org.bson.Document;
+import org.jetbrains.annotations.NotNull;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MetricsCollectionWrapperTest {
+
+    @TempDir
+    Path directory;
+
+    private LocalStore store;
+    private LocalCollectionWrapper collection;
+    private CollectionMetrics metrics;
+    private MetricsCollectionWrapper instrumented;
+
+    @BeforeEach
+    void open() throws IOException {
+        store = new LocalStore(directory);
+        collection = new LocalCollectionWrapper(store, new MongoNamespace("centra", "profiles"), null);
+        metrics = new CollectionMetrics("profiles", null);
+        instrumented = new MetricsCollectionWrapper(collection, metrics);
+    }
+
+    @AfterEach
+    void close() {
+        store.close();
+    }
+
+    @Test
+    void operationsAreCountedWithTheirFailures() throws Exception {
+        insert(new Document("_id", 1)).get(5, TimeUnit.SECONDS);
+        insert(new Document("_id", 1)).handle((result, throwable) -> null).get(5, TimeUnit.SECONDS); // duplicate key.
+
+        final CompletableFuture<Void> updated = new CompletableFuture<>();
+        instrumented.updateOneAsync(Filters.eq("_id", 1), Updates.set("level", 2), null, (result, exception) -> updated.complete(null));
+        updated.get(5, TimeUnit.SECONDS);
+
+        final CollectionMetrics.Snapshot inserts = metrics.get(CollectionMetrics.Operation.INSERT_ONE).snapshot();
+        assertEquals(2, inserts.count());
+        assertEquals(1, inserts.errors());
+        assertEquals(2, inserts.latency().getCount());
+        assertEquals(0, inserts.queueWait().getCount(), "the callback methods do not know the queue wait");
+
+        assertEquals(1, metrics.snapshot().get(CollectionMetrics.Operation.UPDATE_ONE).count());
+        assertEquals(0, metrics.snapshot().get(CollectionMetrics.Operation.DELETE_ONE).count());
+        assertSame(metrics, instrumented.getMetrics());
+    }
+
+    @Test
+    void theFutureViewRecordsTheQueueWait() throws Exception {
+        final ExecutorService threads = Executors.newSingleThreadExecutor();
+
+        try {
+            final AsyncCollection async = new AsyncCollection(instrumented, threads);
+            async.insertOne(new Document("uuid", "a")).get(5, TimeUnit.SECONDS);
+            async.count(Filters.eq("uuid", "a")).get(5, TimeUnit.SECONDS);
+        } finally {
+            threads.shutdown();
+        }
+
+        assertTrue(threads.awaitTermination(5, TimeUnit.SECONDS), "the metrics are recorded once the future was completed");
+
+        final CollectionMetrics.Snapshot inserts = metrics.get(CollectionMetrics.Operation.INSERT_ONE).snapshot();
+        assertEquals(1, inserts.count());
+        assertEquals(1, inserts.queueWait().getCount());
+        assertEquals(1, metrics.get(CollectionMetrics.Operation.COUNT).snapshot().count());
+    }
+
+    @Test
+    void snapshotsSubtractPreviousOnes() {
+        final CollectionMetrics.OperationMetrics finds = metrics.get(CollectionMetrics.Operation.FIND);
+        finds.record(-1, 1_000, false);
+        final CollectionMetrics.Snapshot previous = finds.snapshot();
+
+        finds.record(-1, 2_000, true);
+        finds.record(-1, 3_000, false);
+        final CollectionMetrics.Snapshot delta = finds.snapshot().since(previous);
+
+        assertEquals(2, delta.count());
+        assertEquals(1, delta.errors());
+        assertEquals(2, delta.latency().getCount());
+        assertEquals(2.5, delta.latency().getMean(), 0.001);
+    }
+
+    @Test
+    void theRegistryKeepsOneMetricsPerCollection() {
+        final String name = "registry-" + java.lang.System.nanoTime(); // the registry is global.
+        final CollectionMetrics registered = MongoMetrics.getMetrics(Mongo.MongoClientTypes.GLOBAL_DATABASE, name);
+
+        assertSame(registered, MongoMetrics.getMetrics(Mongo.MongoClientTypes.GLOBAL_DATABASE, name));
+        assertNotSame(registered, MongoMetrics.getMetrics(Mongo.MongoClientTypes.SERVER_DATABASE, name));
+        assertTrue(MongoMetrics.getAll().contains(registered));
+
+        registered.get(CollectionMetrics.Operation.DELETE_ONE).record(-1, 1_000, false);
+
+        final List<MongoMetrics.Report> reports = MongoMetrics.snapshot().stream().filter(report -> report.collection().equals(name)).toList();
+        assertEquals(1, reports.size(), "operations never run are skipped");
+        assertEquals(CollectionMetrics.Operation.DELETE_ONE, reports.get(0).operation());
+        assertEquals(Mongo.MongoClientTypes.GLOBAL_DATABASE, reports.get(0).type());
+    }
+
+    private @NotNull CompletableFuture<Void> insert(@NotNull final Document document) {
+        final CompletableFuture<Void> future = new CompletableFuture<>();
+        instrumented.insertOneAsync(document, (result, exception) -> {
+            if (exception != null) future.completeExceptionally(exception);
+            else future.complete(null);
+        });
+
+        return future;
+    }
+
+}
@@ -0,0 +1,188 @@
+package com.meturum.centra.mongo;
+
+import com.mongodb.MongoNamespace;
+import com.mongodb.MongoSocketReadException;
+import com.mongodb.ServerAddress;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.UpdateOptions;
+import com.mongodb.client.model.Updates;
+import com.mongodb.client.result.UpdateResult;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.jetbrains.annotations.NotNull;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class OfflineCollectionWrapperTest {
+
+    @TempDir
+    Path directory;
+
+    private LocalStore store;
+    private LocalCollectionWrapper collection;
+    private Held held;
+    private CircuitBreaker breaker;
+
+    @BeforeEach
+    void open() throws IOException {
+        store = new LocalStore(directory);
+        collection = new LocalCollectionWrapper(store, new MongoNamespace("centra", "profiles"), null);
+        held = new Held(collection);
+        breaker = new CircuitBreaker(Mongo.MongoClientTypes.GLOBAL_DATABASE, 1, Duration.ofMinutes(1), 1);
+    }
+
+    @AfterEach
+    void close() {
+        store.close();
+    }
+
+    @Test
+    void readsFailFastWhileOffline() {
+        try (OfflineCollectionWrapper offline = new OfflineCollectionWrapper(held, breaker, 10)) {
+            breaker.trip();
+
+            final CompletableFuture<Object> found = new CompletableFuture<>();
+            offline.findAsync(Filters.eq("uuid", "a"), (result, exception) -> found.complete(exception));
+
+            assertTrue(offline.isOffline());
+            assertInstanceOf(MongoUnavailableException.class, found.getNow(null));
+        }
+    }
+
+    @Test
+    void bufferedWritesAreSentInOrderOnceOnline() throws Exception {
+        try (OfflineCollectionWrapper offline = new OfflineCollectionWrapper(held, breaker, 10)) {
+            breaker.trip();
+
+            final CompletableFuture<UpdateResult> first = update(offline, 1);
+            final CompletableFuture<UpdateResult> second = update(offline, 2);
+            assertEquals(2, offline.getBufferedCount());
+            assertFalse(first.isDone());
+
+            breaker.reset();
+            CompletableFuture.allOf(first, second).get(5, TimeUnit.SECONDS);
+
+            assertEquals(0, offline.getBufferedCount());
+            assertEquals(List.of(1, 2), held.sent);
+            assertEquals(2, find().getInteger("value"));
+        }
+    }
+
+    @Test
+    void failedWritesTakeBackTheirPlace() throws Exception {
+        try (OfflineCollectionWrapper offline = new OfflineCollectionWrapper(held, breaker, 10)) {
+            held.hold = true;
+            final CompletableFuture<UpdateResult> first = update(offline, 1); // sent, waiting for Mongo.
+
+            breaker.trip(); // e.g. other operations failed meanwhile.
+            final CompletableFuture<UpdateResult> second = update(offline, 2);
+
+            held.fail(() -> new MongoSocketReadException("closed", new ServerAddress(), new IOException()));
+            assertEquals(2, offline.getBufferedCount());
+
+            breaker.reset();
+            CompletableFuture.allOf(first, second).get(5, TimeUnit.SECONDS);
+
+            assertEquals(List.of(1, 1, 2), held.sent, "the first write is sent again before the second");
+            assertEquals(2, find().getInteger("value"));
+        }
+    }
+
+    @Test
+    void writesRefusedByTheDecoratedCollectionAreBuffered() throws Exception {
+        try (OfflineCollectionWrapper offline = new OfflineCollectionWrapper(held, breaker, 10)) {
+            held.hold = true;
+            final CompletableFuture<UpdateResult> write = update(offline, 1);
+
+            held.fail(() -> new MongoUnavailableException(Mongo.MongoClientTypes.GLOBAL_DATABASE));
+            assertEquals(1, offline.getBufferedCount());
+            assertFalse(write.isDone());
+
+            write.get(5, TimeUnit.SECONDS);
+            assertEquals(List.of(1, 1), held.sent, "sent again after the retry interval");
+            assertEquals(1, find().getInteger("value"));
+        }
+    }
+
+    @Test
+    void writesBeyondTheLimitFail() throws Exception {
+        try (OfflineCollectionWrapper offline = new OfflineCollectionWrapper(held, breaker, 1)) {
+            breaker.trip();
+
+            final CompletableFuture<UpdateResult> buffered = update(offline, 1);
+            final CompletableFuture<UpdateResult> refused = update(offline, 2);
+
+            final ExecutionException exception = assertThrows(ExecutionException.class, () -> refused.get(5, TimeUnit.SECONDS));
+            assertInstanceOf(MongoUnavailableException.class, exception.getCause());
+
+            offline.close();
+            assertInstanceOf(MongoUnavailableException.class, assertThrows(ExecutionException.class, () -> buffered.get(5, TimeUnit.SECONDS)).getCause(),
+                    "closing fails the buffered writes");
+        }
+    }
+
+    private Document find() {
+        return collection.raw().find(Filters.eq("uuid", "a")).first();
+    }
+
+    private static @NotNull CompletableFuture<UpdateResult> update(@NotNull final CollectionWrapper collection, final int value) {
+        final CompletableFuture<UpdateResult> future = new CompletableFuture<>();
+        collection.updateOneAsync(Filters.eq("uuid", "a"), Updates.set("value", value), new UpdateOptions().upsert(true), (result, exception) -> {
+            if (exception != null) future.completeExceptionally(exception);
+            else future.complete(result);
+        });
+
+        return future;
+    }
+
+    /**
+     * Records the updates sent, and holds the first one while {@link #hold} is set, like a server not answering.
+     */
+    private static final class Held extends ForwardingCollectionWrapper {
+
+        private final List<Integer> sent = new CopyOnWriteArrayList<>();
+        private volatile boolean hold;
+        private volatile @Nullable UpdateOneLambda waiting;
+
+        private Held(@NotNull final CollectionWrapper delegate) {
+            super(delegate);
+        }
+
+        @Override
+        public void updateOneAsync(@NotNull Bson filter, @NotNull Bson updates, @Nullable UpdateOptions options, @Nullable UpdateOneLambda lambda) {
+            sent.add(updates.toBsonDocument().getDocument("$set").getInt32("value").getValue());
+
+            if (hold) {
+                hold = false;
+                waiting = lambda;
+                return;
+            }
+
+            super.updateOneAsync(filter, updates, options, lambda);
+        }
+
+        private void fail(@NotNull final Supplier<Exception> exception) {
+            final UpdateOneLambda lambda = waiting;
+            waiting = null;
+
+            if (lambda != null) lambda.run(null, exception.get());
+        }
+
+    }
+
+}
@@ -0,0 +1,178 @@
+package com.meturum.centra.mongo;
+
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.MongoNamespace;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.Updates;
+import com.mongodb.client.model.WriteModel;
+import com.mongodb.client.result.UpdateResult;
+import org.bson.Document;
+import org.jetbrains.annotations.NotNull;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class WriteBehindCollectionWrapperTest {
+
+    private static final Duration NEVER = Duration.ofHours(1);
+
+    @TempDir
+    Path directory;
+
+    private LocalStore store;
+    private LocalCollectionWrapper collection;
+    private Recording recording;
+
+    @BeforeEach
+    void open() throws IOException {
+        store = new LocalStore(directory);
+        collection = new LocalCollectionWrapper(store, new MongoNamespace("centra", "profiles"), null);
+        recording = new Recording(collection);
+
+        collection.raw().insertOne(new Document("uuid", "a").append("level", 0));
+        collection.raw().insertOne(new Document("uuid", "b").append("level", 0));
+    }
+
+    @AfterEach
+    void close() {
+        store.close();
+    }
+
+    @Test
+    void writesToTheSameDocumentAreCoalesced() throws Exception {
+        try (WriteBehindCollectionWrapper writeBehind = new WriteBehindCollectionWrapper(recording, NEVER, 100)) {
+            final CompletableFuture<UpdateResult> first = update(writeBehind, "a", Updates.set("level", 1));
+            final CompletableFuture<UpdateResult> second = update(writeBehind, "a", Updates.set("name", "Steve"));
+            final CompletableFuture<UpdateResult> third = update(writeBehind, "a", Updates.set("level", 2));
+
+            assertEquals(1, writeBehind.getPendingCount());
+            writeBehind.flush().get(5, TimeUnit.SECONDS);
+
+            assertEquals(List.of(1), recording.sizes, "one bulk write with one request");
+            for (final CompletableFuture<UpdateResult> callback : List.of(first, second, third))
+                assertEquals(1, callback.get(5, TimeUnit.SECONDS).getMatchedCount(), "every call receives its callback");
+
+            final Document document = collection.raw().find(Filters.eq("uuid", "a")).first();
+            assertEquals(2, document.getInteger("level"), "later fields win");
+            assertEquals("Steve", document.getString("name"));
+        }
+    }
+
+    @Test
+    void pendingWritesAreFlushedOnceTheWindowElapsed() throws Exception {
+        try (WriteBehindCollectionWrapper writeBehind = new WriteBehindCollectionWrapper(recording, Duration.ofMillis(20), 100)) {
+            update(writeBehind, "a", Updates.set("level", 1)).get(5, TimeUnit.SECONDS);
+
+            assertEquals(0, writeBehind.getPendingCount());
+            assertEquals(1, collection.raw().countDocuments(Filters.eq("level", 1)));
+        }
+    }
+
+    @Test
+    void reachingTheLimitFlushesImmediately() throws Exception {
+        try (WriteBehindCollectionWrapper writeBehind = new WriteBehindCollectionWrapper(recording, NEVER, 2)) {
+            final CompletableFuture<UpdateResult> first = update(writeBehind, "a", Updates.set("level", 1));
+            final CompletableFuture<UpdateResult> second = update(writeBehind, "b", Updates.set("level", 1));
+
+            CompletableFuture.allOf(first, second).get(5, TimeUnit.SECONDS);
+            assertEquals(List.of(2), recording.sizes);
+        }
+    }
+
+    @Test
+    void readsSeeThePendingWrites() throws Exception {
+        try (WriteBehindCollectionWrapper writeBehind = new WriteBehindCollectionWrapper(recording, NEVER, 100)) {
+            update(writeBehind, "a", Updates.set("level", 1));
+
+            final List<Document> found = writeBehind.async().find(Filters.eq("uuid", "a")).get(5, TimeUnit.SECONDS);
+            assertEquals(1, found.get(0).getInteger("level"));
+        }
+    }
+
+    @Test
+    void eachWriteReportsWhetherItMatched() throws Exception {
+        try (WriteBehindCollectionWrapper writeBehind = new WriteBehindCollectionWrapper(recording, NEVER, 100)) {
+            final CompletableFuture<UpdateResult> existing = update(writeBehind, "a", Updates.set("level", 1));
+            final CompletableFuture<UpdateResult> missing = update(writeBehind, "c", Updates.set("level", 1));
+            writeBehind.flush().get(5, TimeUnit.SECONDS);
+
+            assertEquals(1, existing.get(5, TimeUnit.SECONDS).getMatchedCount());
+            assertEquals(0, missing.get(5, TimeUnit.SECONDS).getMatchedCount());
+        }
+    }
+
+    @Test
+    void rejectedWritesFailTheirCallbackOnly() throws Exception {
+        try (WriteBehindCollectionWrapper writeBehind = new WriteBehindCollectionWrapper(recording, NEVER, 100)) {
+            final CompletableFuture<UpdateResult> rejected = new CompletableFuture<>();
+            writeBehind.replaceOneAsync(Filters.eq("uuid", "a"), new Document("_id", 99).append("uuid", "a"), (result, exception) -> {
+                if (exception != null) rejected.completeExceptionally(exception);
+                else rejected.complete(result);
+            }); // the _id of a document cannot change.
+            final CompletableFuture<UpdateResult> accepted = update(writeBehind, "b", Updates.set("level", 1));
+            writeBehind.flush().get(5, TimeUnit.SECONDS);
+
+            final Exception exception = assertThrows(Exception.class, () -> rejected.get(5, TimeUnit.SECONDS));
+            final MongoBulkWriteException cause = assertInstanceOf(MongoBulkWriteException.class, exception.getCause());
+            assertEquals(0, cause.getWriteErrors().get(0).getIndex());
+            assertEquals(1, accepted.get(5, TimeUnit.SECONDS).getMatchedCount());
+        }
+    }
+
+    @Test
+    void closingFlushesThePendingWrites() {
+        final WriteBehindCollectionWrapper writeBehind = new WriteBehindCollectionWrapper(recording, NEVER, 100);
+        update(writeBehind, "a", Updates.set("level", 1));
+
+        writeBehind.close();
+
+        assertEquals(1, collection.raw().countDocuments(Filters.eq("level", 1)));
+        assertThrows(RejectedExecutionException.class, () -> writeBehind.updateOneAsync(Filters.eq("uuid", "a"), Updates.set("level", 2)));
+    }
+
+    private static @NotNull CompletableFuture<UpdateResult> update(@NotNull final CollectionWrapper collection, @NotNull final String uuid, @NotNull final org.bson.conversions.Bson update) {
+        final CompletableFuture<UpdateResult> future = new CompletableFuture<>();
+        collection.updateOneAsync(Filters.eq("uuid", uuid), update, (result, exception) -> {
+            if (exception != null) future.completeExceptionally(exception);
+            else future.complete(result);
+        });
+
+        return future;
+    }
+
+    /**
+     * Records the size of the bulk writes sent by the write-behind queue.
+     */
+    private static final class Recording extends ForwardingCollectionWrapper {
+
+        private final List<Integer> sizes = new ArrayList<>();
+
+        private Recording(@NotNull final CollectionWrapper delegate) {
+            super(delegate);
+        }
+
+        @Override
+        public void bulkWriteAsync(@NotNull final List<? extends WriteModel<? extends Document>> requests, final boolean ordered, @Nullable final BulkWriteLambda lambda) {
+            synchronized (sizes) {
+                sizes.add(requests.size());
+            }
+
+            super.bulkWriteAsync(requests, ordered, lambda);
+        }
+
+    }
+
+}
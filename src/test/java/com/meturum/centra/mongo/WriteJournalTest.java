@@ -0,0 +1,126 @@
+package com.meturum.centra.mongo;
+
+import org.bson.BsonDocument;
+import org.bson.BsonInt32;
+import org.bson.BsonString;
+import org.bson.RawBsonDocument;
+import org.bson.codecs.BsonDocumentCodec;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class WriteJournalTest {
+
+    private static final int SEGMENT_SIZE = 4096;
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void pendingEntriesAreLoadedAfterACrash() throws IOException {
+        final WriteJournal journal = new WriteJournal(directory, SEGMENT_SIZE, false);
+        final long first = journal.append(entry(1));
+        final long second = journal.append(entry(2));
+        final long third = journal.append(entry(3));
+        journal.acknowledge(second);
+
+        final WriteJournal restarted = new WriteJournal(directory, SEGMENT_SIZE, false); // the first one is never closed.
+
+        assertEquals(List.of(first, third), List.copyOf(restarted.getPending().keySet()));
+        assertEquals(entry(3), restarted.getPending().get(third));
+        assertTrue(restarted.append(entry(4)) > third, "sequences continue after a restart");
+    }
+
+    @Test
+    void acknowledgedSegmentsAreDeleted() throws IOException {
+        final WriteJournal journal = new WriteJournal(directory, SEGMENT_SIZE, false);
+        for (int i = 0; i < 500; i++) journal.acknowledge(journal.append(entry(i)));
+
+        assertTrue(segments() <= 1, "only the current segment is kept");
+        assertEquals(0, new WriteJournal(directory, SEGMENT_SIZE, false).getPendingCount());
+    }
+
+    @Test
+    void acknowledgementsOfOlderEntriesSurviveRotations() throws IOException {
+        final WriteJournal journal = new WriteJournal(directory, SEGMENT_SIZE, false);
+        final long acknowledged = journal.append(entry(-1));
+        final long kept = journal.append(entry(-2));
+
+        for (int i = 0; i < 100; i++) journal.acknowledge(journal.append(entry(i))); // the acknowledgement is written in a later segment.
+        journal.acknowledge(acknowledged);
+        for (int i = 0; i < 300; i++) journal.acknowledge(journal.append(entry(i))); // that segment is rotated out.
+
+        final WriteJournal restarted = new WriteJournal(directory, SEGMENT_SIZE, false);
+
+        assertEquals(List.of(kept), List.copyOf(restarted.getPending().keySet()));
+        assertEquals(entry(-2), restarted.getPending().get(kept));
+    }
+
+    @Test
+    void pendingEntriesAreCopiedForward() throws IOException {
+        final WriteJournal journal = new WriteJournal(directory, SEGMENT_SIZE, false);
+        final long kept = journal.append(entry(-1));
+
+        for (int i = 0; i < 1000; i++) journal.acknowledge(journal.append(entry(i)));
+
+        assertTrue(segments() <= 2, "a long-pending entry does not keep every segment");
+
+        final WriteJournal restarted = new WriteJournal(directory, SEGMENT_SIZE, false);
+        assertEquals(List.of(kept), List.copyOf(restarted.getPending().keySet()));
+
+        restarted.acknowledge(kept);
+        assertEquals(0, new WriteJournal(directory, SEGMENT_SIZE, false).getPendingCount());
+    }
+
+    @Test
+    void tornRecordsAreIgnored() throws IOException {
+        final WriteJournal journal = new WriteJournal(directory, SEGMENT_SIZE, false);
+        final long first = journal.append(entry(1));
+        journal.append(entry(2));
+
+        final Path segment;
+        try (Stream<Path> files = Files.list(directory)) {
+            segment = files.findFirst().orElseThrow();
+        }
+
+        final int firstLength = Integer.BYTES + Long.BYTES + Byte.BYTES + size(entry(1)) + Integer.BYTES;
+        final byte[] bytes = Files.readAllBytes(segment);
+        bytes[firstLength + Integer.BYTES + Long.BYTES + Byte.BYTES + 8] ^= 0xFF; // inside the payload of the second record.
+        Files.write(segment, bytes);
+
+        final WriteJournal restarted = new WriteJournal(directory, SEGMENT_SIZE, false);
+        assertEquals(List.of(first), List.copyOf(restarted.getPending().keySet()));
+    }
+
+    @Test
+    void closedJournalRejectsWrites() throws IOException {
+        final WriteJournal journal = new WriteJournal(directory, SEGMENT_SIZE, true);
+        final long sequence = journal.append(entry(1));
+        journal.close();
+
+        assertThrows(IOException.class, () -> journal.append(entry(2)));
+        assertEquals(List.of(sequence), List.copyOf(new WriteJournal(directory, SEGMENT_SIZE, true).getPending().keySet()));
+    }
+
+    private long segments() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.count();
+        }
+    }
+
+    private static BsonDocument entry(final int value) {
+        return new BsonDocument("op", new BsonString("update")).append("value", new BsonInt32(value)).append("padding", new BsonString("x".repeat(40)));
+    }
+
+    private static int size(final BsonDocument document) {
+        return new RawBsonDocument(document, new BsonDocumentCodec()).getByteBuffer().remaining();
+    }
+
+}